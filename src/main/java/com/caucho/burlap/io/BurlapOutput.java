@@ -52,11 +52,11 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.IdentityHashMap;
 import java.util.TimeZone;
 
 import com.caucho.hessian.io.Serializer;
 import com.caucho.hessian.io.SerializerFactory;
+import com.caucho.hessian.util.StampedIdentityIntMap;
 
 /**
  * Output stream for Burlap requests, compatible with microedition
@@ -82,7 +82,7 @@ public class BurlapOutput extends AbstractBurlapOutput {
   // the output stream
   protected OutputStream os;
   // map of references
-  private IdentityHashMap _refs;
+  private StampedIdentityIntMap _refs;
 
   private Date date;
   private Calendar utcCalendar;
@@ -112,7 +112,8 @@ public class BurlapOutput extends AbstractBurlapOutput {
   {
     this.os = os;
 
-    _refs = null;
+    if (_refs != null)
+      _refs.clear();
 
     if (_serializerFactory == null)
       _serializerFactory = new SerializerFactory();
@@ -732,18 +733,16 @@ public class BurlapOutput extends AbstractBurlapOutput {
     throws IOException
   {
     if (_refs == null)
-      _refs = new IdentityHashMap();
+      _refs = new StampedIdentityIntMap();
 
-    Integer ref = (Integer) _refs.get(object);
+    int ref = _refs.get(object);
 
-    if (ref != null) {
-      int value = ref.intValue();
-      
-      writeRef(value);
+    if (ref >= 0) {
+      writeRef(ref);
       return true;
     }
     else {
-      _refs.put(object, new Integer(_refs.size()));
+      _refs.put(object, _refs.size());
       
       return false;
     }
@@ -770,9 +769,12 @@ public class BurlapOutput extends AbstractBurlapOutput {
   public boolean replaceRef(Object oldRef, Object newRef)
     throws IOException
   {
-    Integer value = (Integer) _refs.remove(oldRef);
+    if (_refs == null)
+      return false;
+    
+    int value = _refs.remove(oldRef);
 
-    if (value != null) {
+    if (value != StampedIdentityIntMap.NULL) {
       _refs.put(newRef, value);
       return true;
     }
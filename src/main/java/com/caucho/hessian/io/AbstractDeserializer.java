@@ -103,6 +103,16 @@ abstract public class AbstractDeserializer implements Deserializer {
     throw new UnsupportedOperationException(String.valueOf(this));
   }
 
+  /**
+   * Returns true if reading a list, map or object adds a reference
+   * with <code>addRef</code>.  An input skipping a value must add the
+   * same references to keep later back-references aligned.
+   */
+  public boolean isReadRef()
+  {
+    return true;
+  }
+
   protected HessianProtocolException error(String msg)
   {
     return new HessianProtocolException(msg);
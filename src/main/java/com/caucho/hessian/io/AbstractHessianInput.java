@@ -347,6 +347,17 @@ abstract public class AbstractHessianInput {
   abstract public Object readObject()
     throws IOException;
 
+  /**
+   * Skips the next value in the stream, including any nested lists,
+   * maps and objects.  The default implementation reads and discards
+   * the value.
+   */
+  public void skipObject()
+    throws IOException
+  {
+    readObject();
+  }
+
   /**
    * Reads a remote object reference to the stream.  The type is the
    * type of the remote interface.
@@ -71,4 +71,18 @@ abstract public class AbstractSerializerFactory {
    */
   abstract public Deserializer getDeserializer(Class cl)
     throws HessianProtocolException;
+
+  /**
+   * Returns the deserializer for a type name which isn't a class name.
+   *
+   * @param type the type name read from the stream.
+   *
+   * @return a deserializer object, or null if the type should be
+   * loaded as a class.
+   */
+  public Deserializer getDeserializer(String type)
+    throws HessianProtocolException
+  {
+    return null;
+  }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Input stream reading from a byte buffer, or from a channel through a
+ * byte buffer, so a Hessian2Input can decode a frame without first
+ * copying it into a byte array.
+ *
+ * <pre>
+ * Hessian2Input in = new Hessian2Input(new ByteBufferInputStream(frame));
+ * Object value = in.readObject();
+ * </pre>
+ *
+ * <p>A channel is read as needed.  A selectable channel in non-blocking
+ * mode is waited on with a private selector when it has no data, so the
+ * channel stays registered, and in non-blocking mode, until the stream
+ * is closed.
+ */
+public class ByteBufferInputStream extends InputStream {
+  private final ReadableByteChannel _channel;
+  private final ByteBuffer _buffer;
+
+  private Selector _selector;
+
+  /**
+   * Creates a stream reading the buffer's remaining bytes.  The
+   * buffer's position advances as the stream is read.
+   */
+  public ByteBufferInputStream(ByteBuffer buffer)
+  {
+    _channel = null;
+    _buffer = buffer;
+  }
+
+  /**
+   * Creates a stream reading the channel.
+   *
+   * @param channel the channel, blocking or selectable
+   * @param buffer the read buffer, which may be direct
+   */
+  public ByteBufferInputStream(ReadableByteChannel channel, ByteBuffer buffer)
+  {
+    _channel = channel;
+    _buffer = buffer;
+
+    _buffer.clear();
+    _buffer.flip();
+  }
+
+  public int read()
+    throws IOException
+  {
+    if (! _buffer.hasRemaining() && ! fill())
+      return -1;
+
+    return _buffer.get() & 0xff;
+  }
+
+  public int read(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    if (length == 0)
+      return 0;
+    
+    if (! _buffer.hasRemaining() && ! fill())
+      return -1;
+
+    int sublen = Math.min(length, _buffer.remaining());
+
+    _buffer.get(buffer, offset, sublen);
+
+    return sublen;
+  }
+
+  public long skip(long n)
+    throws IOException
+  {
+    if (n <= 0 || ! _buffer.hasRemaining() && ! fill())
+      return 0;
+
+    int sublen = (int) Math.min(n, _buffer.remaining());
+
+    _buffer.position(_buffer.position() + sublen);
+
+    return sublen;
+  }
+
+  public int available()
+  {
+    return _buffer.remaining();
+  }
+
+  /**
+   * Closes the channel, if any.
+   */
+  public void close()
+    throws IOException
+  {
+    Selector selector = _selector;
+    _selector = null;
+
+    try {
+      if (selector != null)
+        selector.close();
+    } finally {
+      if (_channel != null)
+        _channel.close();
+    }
+  }
+
+  /**
+   * Refills the buffer from the channel, returning false at the end
+   * of the data.
+   */
+  private boolean fill()
+    throws IOException
+  {
+    if (_channel == null)
+      return false;
+
+    _buffer.clear();
+
+    int len;
+    while ((len = _channel.read(_buffer)) == 0) {
+      if (_channel instanceof SelectableChannel
+          && ! ((SelectableChannel) _channel).isBlocking())
+        waitForRead((SelectableChannel) _channel);
+    }
+
+    _buffer.flip();
+
+    return len > 0;
+  }
+
+  /**
+   * Waits until a non-blocking channel is readable, instead of spinning
+   * on reads that return no data.
+   */
+  private void waitForRead(SelectableChannel channel)
+    throws IOException
+  {
+    if (_selector == null) {
+      _selector = channel.provider().openSelector();
+      channel.register(_selector, SelectionKey.OP_READ);
+    }
+
+    _selector.select();
+    _selector.selectedKeys().clear();
+  }
+}
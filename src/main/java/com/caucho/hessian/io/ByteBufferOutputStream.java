@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+
+/**
+ * Output stream writing into a list of heap or direct byte buffers,
+ * so a Hessian message can be handed to a channel with a gathering
+ * write.  The stream grows by adding buffers, so written data is never
+ * copied again.
+ *
+ * <pre>
+ * ByteBufferOutputStream bos = new ByteBufferOutputStream(4096, true);
+ * Hessian2Output out = new Hessian2Output(bos);
+ * out.writeObject(value);
+ * out.flush();
+ *
+ * bos.writeTo(socketChannel);
+ * </pre>
+ */
+public class ByteBufferOutputStream extends OutputStream {
+  private final int _bufferSize;
+  private final boolean _isDirect;
+
+  private final ArrayList<ByteBuffer> _buffers = new ArrayList<ByteBuffer>();
+  // index of the buffer being written
+  private int _index;
+  private ByteBuffer _buffer;
+
+  /**
+   * Creates a stream with 4k heap buffers.
+   */
+  public ByteBufferOutputStream()
+  {
+    this(Hessian2Output.SIZE, false);
+  }
+
+  /**
+   * Creates a stream.
+   *
+   * @param bufferSize the size of each buffer
+   * @param isDirect true for direct buffers
+   */
+  public ByteBufferOutputStream(int bufferSize, boolean isDirect)
+  {
+    if (bufferSize <= 0)
+      throw new IllegalArgumentException("buffer size must be positive: " + bufferSize);
+    
+    _bufferSize = bufferSize;
+    _isDirect = isDirect;
+
+    _buffer = allocate();
+    _buffers.add(_buffer);
+  }
+
+  public void write(int ch)
+  {
+    if (! _buffer.hasRemaining())
+      nextBuffer();
+
+    _buffer.put((byte) ch);
+  }
+
+  public void write(byte []buffer, int offset, int length)
+  {
+    while (length > 0) {
+      if (! _buffer.hasRemaining())
+	nextBuffer();
+
+      int sublen = Math.min(length, _buffer.remaining());
+
+      _buffer.put(buffer, offset, sublen);
+
+      offset += sublen;
+      length -= sublen;
+    }
+  }
+
+  /**
+   * Returns the number of bytes written.
+   */
+  public int size()
+  {
+    return _index * _bufferSize + _buffer.position();
+  }
+
+  /**
+   * Returns the written data as read-only buffers, ready for a
+   * gathering write.  The buffers share the stream's content.
+   */
+  public ByteBuffer []getBuffers()
+  {
+    ByteBuffer []buffers = new ByteBuffer[_index + 1];
+
+    for (int i = 0; i <= _index; i++) {
+      ByteBuffer buffer = _buffers.get(i).asReadOnlyBuffer();
+      buffer.flip();
+
+      buffers[i] = buffer;
+    }
+
+    return buffers;
+  }
+
+  /**
+   * Writes the data to the channel, returning the number of bytes
+   * written.  A non-blocking channel may write only part of the data.
+   */
+  public long writeTo(GatheringByteChannel channel)
+    throws IOException
+  {
+    return channel.write(getBuffers());
+  }
+
+  /**
+   * Empties the stream, keeping its buffers for reuse.
+   */
+  public void reset()
+  {
+    for (int i = 0; i <= _index; i++)
+      _buffers.get(i).clear();
+
+    _index = 0;
+    _buffer = _buffers.get(0);
+  }
+
+  private void nextBuffer()
+  {
+    _index++;
+
+    if (_index < _buffers.size())
+      _buffer = _buffers.get(_index);
+    else {
+      _buffer = allocate();
+      _buffers.add(_buffer);
+    }
+  }
+
+  private ByteBuffer allocate()
+  {
+    if (_isDirect)
+      return ByteBuffer.allocateDirect(_bufferSize);
+    else
+      return ByteBuffer.allocate(_bufferSize);
+  }
+}
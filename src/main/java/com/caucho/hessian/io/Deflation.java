@@ -51,18 +51,102 @@ package com.caucho.hessian.io;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
+import com.caucho.hessian.util.HessianFreeList;
+
+/**
+ * Envelope compressing the message with zlib.
+ *
+ * <p>The native Deflater and Inflater state is pooled across messages.
+ * A message smaller than the minimum compress size is written in
+ * stored (uncompressed) zlib blocks, which any Deflation reader
+ * understands, so small messages don't pay for compression.</p>
+ */
 public class Deflation extends HessianEnvelope {
+  private static final HessianFreeList<Deflater> _freeDeflaters
+    = new HessianFreeList<Deflater>(32);
+  
+  private static final HessianFreeList<Inflater> _freeInflaters
+    = new HessianFreeList<Inflater>(32);
+
+  private int _level = Deflater.DEFAULT_COMPRESSION;
+  private int _strategy = Deflater.DEFAULT_STRATEGY;
+  private int _minCompressSize;
+  
   public Deflation()
   {
   }
 
+  /**
+   * Sets the compression level, from Deflater.NO_COMPRESSION to
+   * Deflater.BEST_COMPRESSION, or Deflater.DEFAULT_COMPRESSION.
+   */
+  public void setLevel(int level)
+  {
+    if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+      throw new IllegalArgumentException("invalid compression level " + level);
+    
+    _level = level;
+  }
+
+  /**
+   * Returns the compression level.
+   */
+  public int getLevel()
+  {
+    return _level;
+  }
+
+  /**
+   * Sets the compression strategy: Deflater.DEFAULT_STRATEGY,
+   * Deflater.FILTERED or Deflater.HUFFMAN_ONLY.
+   */
+  public void setStrategy(int strategy)
+  {
+    if (strategy != Deflater.DEFAULT_STRATEGY
+	&& strategy != Deflater.FILTERED
+	&& strategy != Deflater.HUFFMAN_ONLY)
+      throw new IllegalArgumentException("invalid compression strategy " + strategy);
+    
+    _strategy = strategy;
+  }
+
+  /**
+   * Returns the compression strategy.
+   */
+  public int getStrategy()
+  {
+    return _strategy;
+  }
+
+  /**
+   * Sets the message size, in bytes, below which the message is stored
+   * without compression.  The default, 0, compresses every message.
+   */
+  public void setMinCompressSize(int size)
+  {
+    if (size < 0)
+      throw new IllegalArgumentException("invalid minimum compress size " + size);
+    
+    _minCompressSize = size;
+  }
+
+  /**
+   * Returns the message size below which the message isn't compressed.
+   */
+  public int getMinCompressSize()
+  {
+    return _minCompressSize;
+  }
+
   public Hessian2Output wrap(Hessian2Output out)
     throws IOException
   {
-    OutputStream os = new DeflateOutputStream(out);
+    OutputStream os = new DeflateOutputStream(out, this);
     
     Hessian2Output filterOut = new Hessian2Output(os);
 
@@ -96,15 +180,69 @@ public class Deflation extends HessianEnvelope {
     
     return filter;
   }
+
+  /**
+   * Returns a pooled Deflater set to the level and strategy of this
+   * envelope.  Release it with freeDeflater().
+   */
+  public Deflater allocateDeflater()
+  {
+    Deflater deflater = _freeDeflaters.allocate();
+
+    if (deflater == null)
+      deflater = new Deflater();
+
+    deflater.setLevel(_level);
+    deflater.setStrategy(_strategy);
+
+    return deflater;
+  }
+
+  /**
+   * Returns a Deflater to the pool.
+   */
+  public void freeDeflater(Deflater deflater)
+  {
+    deflater.reset();
+
+    if (! _freeDeflaters.free(deflater))
+      deflater.end();
+  }
+
+  private static Inflater allocateInflater()
+  {
+    Inflater inflater = _freeInflaters.allocate();
+
+    if (inflater == null)
+      inflater = new Inflater();
+
+    return inflater;
+  }
+
+  private static void freeInflater(Inflater inflater)
+  {
+    inflater.reset();
+
+    if (! _freeInflaters.free(inflater))
+      inflater.end();
+  }
   
   static class DeflateOutputStream extends OutputStream {
+    private Deflation _deflation;
     private Hessian2Output _out;
     private OutputStream _bodyOut;
+    private Deflater _deflater;
     private DeflaterOutputStream _deflateOut;
+
+    // start of the body, buffered until it reaches the minimum
+    // compress size
+    private byte []_head;
+    private int _headLength;
     
-    DeflateOutputStream(Hessian2Output out)
+    DeflateOutputStream(Hessian2Output out, Deflation deflation)
       throws IOException
     {
+      _deflation = deflation;
       _out = out;
 
       _out.startEnvelope(Deflation.class.getName());
@@ -112,20 +250,56 @@ public class Deflation extends HessianEnvelope {
       _out.writeInt(0);
 
       _bodyOut = _out.getBytesOutputStream();
-    
-      _deflateOut = new DeflaterOutputStream(_bodyOut);
+
+      int minSize = deflation.getMinCompressSize();
+      
+      if (minSize > 0)
+	_head = new byte[minSize];
+      else
+	startDeflate(deflation.getLevel());
     }
     
     public void write(int ch)
       throws IOException
     {
-      _deflateOut.write(ch);
+      if (_deflateOut != null)
+	_deflateOut.write(ch);
+      else if (_headLength < _head.length)
+	_head[_headLength++] = (byte) ch;
+      else {
+	startDeflate(_deflation.getLevel());
+	_deflateOut.write(ch);
+      }
     }
     
     public void write(byte []buffer, int offset, int length)
       throws IOException
     {
-      _deflateOut.write(buffer, offset, length);
+      if (_deflateOut != null)
+	_deflateOut.write(buffer, offset, length);
+      else if (_headLength + length <= _head.length) {
+	System.arraycopy(buffer, offset, _head, _headLength, length);
+	_headLength += length;
+      }
+      else {
+	startDeflate(_deflation.getLevel());
+	_deflateOut.write(buffer, offset, length);
+      }
+    }
+
+    private void startDeflate(int level)
+      throws IOException
+    {
+      // the level applies from the first deflate() of the message
+      _deflater = _deflation.allocateDeflater();
+      _deflater.setLevel(level);
+      
+      _deflateOut = new DeflaterOutputStream(_bodyOut, _deflater);
+
+      if (_headLength > 0)
+	_deflateOut.write(_head, 0, _headLength);
+
+      _head = null;
     }
 
     public void close()
@@ -135,9 +309,16 @@ public class Deflation extends HessianEnvelope {
       _out = null;
 
       if (out != null) {
+	if (_deflateOut == null)
+	  startDeflate(Deflater.NO_COMPRESSION);
+	
 	_deflateOut.close();
 	_bodyOut.close();
 
+	Deflater deflater = _deflater;
+	_deflater = null;
+	_deflation.freeDeflater(deflater);
+
 	out.writeInt(0);
 
         out.completeEnvelope();
@@ -151,6 +332,7 @@ public class Deflation extends HessianEnvelope {
     private Hessian2Input _in;
     
     private InputStream _bodyIn;
+    private Inflater _inflater;
     private InflaterInputStream _inflateIn;
     
     DeflateInputStream(Hessian2Input in)
@@ -165,7 +347,8 @@ public class Deflation extends HessianEnvelope {
       
       _bodyIn = _in.readInputStream();
 
-      _inflateIn = new InflaterInputStream(_bodyIn);
+      _inflater = allocateInflater();
+      _inflateIn = new InflaterInputStream(_bodyIn, _inflater);
     }
     
     public int read()
@@ -190,6 +373,10 @@ public class Deflation extends HessianEnvelope {
 	_inflateIn.close();
 	_bodyIn.close();
 
+	Inflater inflater = _inflater;
+	_inflater = null;
+	freeInflater(inflater);
+
 	int len = in.readInt();
 
 	if (len != 0)
@@ -56,6 +56,7 @@ import java.util.HashMap;
 public class ExtSerializerFactory extends AbstractSerializerFactory {
   private HashMap _serializerMap = new HashMap();
   private HashMap _deserializerMap = new HashMap();
+  private volatile boolean _isFrozen;
 
   /**
    * Adds a serializer.
@@ -65,6 +66,8 @@ public class ExtSerializerFactory extends AbstractSerializerFactory {
    */
   public void addSerializer(Class cl, Serializer serializer)
   {
+    checkFrozen();
+    
     _serializerMap.put(cl, serializer);
   }
 
@@ -76,8 +79,33 @@ public class ExtSerializerFactory extends AbstractSerializerFactory {
    */
   public void addDeserializer(Class cl, Deserializer deserializer)
   {
+    checkFrozen();
+    
     _deserializerMap.put(cl, deserializer);
   }
+
+  /**
+   * Freezes the factory.  A {@link SerializerFactory} freezes the
+   * factories added to it when it is frozen itself.
+   */
+  public void freeze()
+  {
+    _isFrozen = true;
+  }
+
+  /**
+   * Returns true if the factory is frozen.
+   */
+  public boolean isFrozen()
+  {
+    return _isFrozen;
+  }
+
+  private void checkFrozen()
+  {
+    if (_isFrozen)
+      throw new IllegalStateException(this + " is frozen and can't be reconfigured");
+  }
   
   /**
    * Returns the serializer for a class.
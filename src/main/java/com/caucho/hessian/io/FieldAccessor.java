@@ -0,0 +1,576 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads and writes a single field of an object for the field
+ * serializers and deserializers.
+ *
+ * <p>When <code>sun.misc.Unsafe</code> is available, fields are accessed
+ * through their cached offsets, avoiding the access checks and the
+ * boxing of <code>java.lang.reflect.Field.get/set</code>.  Otherwise, or if
+ * the <code>com.caucho.hessian.unsafe</code> system property is
+ * <code>false</code>, the reflective accessor is used.  Unsafe is only
+ * reached through method handles bound at startup, so the class compiles
+ * against the public API, but needs the Java 7 java.lang.invoke
+ * package.
+ *
+ * <p>The typed getters and setters must only be called for a field of
+ * the matching primitive type.
+ */
+abstract class FieldAccessor {
+  private static final Logger log
+    = Logger.getLogger(FieldAccessor.class.getName());
+
+  private static final Object _unsafe;
+  private static final MethodHandle _objectFieldOffset;
+
+  protected final Field _field;
+
+  protected FieldAccessor(Field field)
+  {
+    _field = field;
+  }
+
+  /**
+   * Returns the accessor for an accessible field.  Fields without an
+   * Unsafe offset, like those of records and hidden classes, use the
+   * reflective accessor.
+   */
+  static FieldAccessor create(Field field)
+  {
+    if (_unsafe != null) {
+      try {
+        return new UnsafeFieldAccessor(field);
+      } catch (UnsupportedOperationException e) {
+        log.log(Level.FINER, field + ": " + e, e);
+      }
+    }
+
+    return new ReflectionFieldAccessor(field);
+  }
+
+  /**
+   * Returns true if fields are accessed with <code>sun.misc.Unsafe</code>.
+   */
+  static boolean isUnsafe()
+  {
+    return _unsafe != null;
+  }
+
+  /**
+   * Returns the <code>sun.misc.Unsafe</code> instance, or null.
+   */
+  static Object getUnsafe()
+  {
+    return _unsafe;
+  }
+
+  /**
+   * Returns the <code>sun.misc.Unsafe</code> offset of an instance field.
+   */
+  static long objectFieldOffset(Field field)
+  {
+    try {
+      return (long) _objectFieldOffset.invokeExact(field);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * Returns an Unsafe method bound to the Unsafe instance.
+   */
+  private static MethodHandle findUnsafe(Object unsafe,
+                                         String name,
+                                         Class<?> returnType,
+                                         Class<?> []argTypes)
+    throws NoSuchMethodException, IllegalAccessException
+  {
+    MethodType type = MethodType.methodType(returnType, argTypes);
+    
+    return MethodHandles.publicLookup().findVirtual(unsafe.getClass(),
+                                                    name,
+                                                    type).bindTo(unsafe);
+  }
+
+  private static MethodHandle findGet(String name, Class<?> type)
+  {
+    return findHandle(name, type, new Class<?>[] { Object.class, long.class });
+  }
+
+  private static MethodHandle findPut(String name, Class<?> type)
+  {
+    return findHandle(name, void.class,
+                      new Class<?>[] { Object.class, long.class, type });
+  }
+
+  private static MethodHandle findHandle(String name,
+                                         Class<?> returnType,
+                                         Class<?> []argTypes)
+  {
+    try {
+      return findUnsafe(_unsafe, name, returnType, argTypes);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Unsafe throws no checked exceptions, so anything but an unchecked
+   * exception is an internal error.
+   */
+  private static RuntimeException rethrow(Throwable e)
+  {
+    if (e instanceof RuntimeException)
+      return (RuntimeException) e;
+    else if (e instanceof Error)
+      throw (Error) e;
+    else
+      return new IllegalStateException(e);
+  }
+
+  final Field getField()
+  {
+    return _field;
+  }
+
+  /**
+   * Returns the field value, boxing primitive values.
+   */
+  abstract Object get(Object obj)
+    throws IllegalAccessException;
+  
+  /**
+   * Sets the field value, unboxing primitive values.
+   */
+  abstract void set(Object obj, Object value)
+    throws IllegalAccessException;
+
+  abstract boolean getBoolean(Object obj)
+    throws IllegalAccessException;
+
+  abstract byte getByte(Object obj)
+    throws IllegalAccessException;
+
+  abstract short getShort(Object obj)
+    throws IllegalAccessException;
+
+  abstract int getInt(Object obj)
+    throws IllegalAccessException;
+
+  abstract long getLong(Object obj)
+    throws IllegalAccessException;
+
+  abstract float getFloat(Object obj)
+    throws IllegalAccessException;
+
+  abstract double getDouble(Object obj)
+    throws IllegalAccessException;
+
+  abstract void setBoolean(Object obj, boolean value)
+    throws IllegalAccessException;
+
+  abstract void setByte(Object obj, byte value)
+    throws IllegalAccessException;
+
+  abstract void setShort(Object obj, short value)
+    throws IllegalAccessException;
+
+  abstract void setInt(Object obj, int value)
+    throws IllegalAccessException;
+
+  abstract void setLong(Object obj, long value)
+    throws IllegalAccessException;
+
+  abstract void setFloat(Object obj, float value)
+    throws IllegalAccessException;
+
+  abstract void setDouble(Object obj, double value)
+    throws IllegalAccessException;
+
+  /**
+   * Accessor using java.lang.reflect.Field.
+   */
+  static class ReflectionFieldAccessor extends FieldAccessor {
+    ReflectionFieldAccessor(Field field)
+    {
+      super(field);
+    }
+
+    Object get(Object obj)
+      throws IllegalAccessException
+    {
+      return _field.get(obj);
+    }
+
+    void set(Object obj, Object value)
+      throws IllegalAccessException
+    {
+      _field.set(obj, value);
+    }
+
+    boolean getBoolean(Object obj)
+      throws IllegalAccessException
+    {
+      return _field.getBoolean(obj);
+    }
+
+    byte getByte(Object obj)
+      throws IllegalAccessException
+    {
+      return _field.getByte(obj);
+    }
+
+    short getShort(Object obj)
+      throws IllegalAccessException
+    {
+      return _field.getShort(obj);
+    }
+
+    int getInt(Object obj)
+      throws IllegalAccessException
+    {
+      return _field.getInt(obj);
+    }
+
+    long getLong(Object obj)
+      throws IllegalAccessException
+    {
+      return _field.getLong(obj);
+    }
+
+    float getFloat(Object obj)
+      throws IllegalAccessException
+    {
+      return _field.getFloat(obj);
+    }
+
+    double getDouble(Object obj)
+      throws IllegalAccessException
+    {
+      return _field.getDouble(obj);
+    }
+
+    void setBoolean(Object obj, boolean value)
+      throws IllegalAccessException
+    {
+      _field.setBoolean(obj, value);
+    }
+
+    void setByte(Object obj, byte value)
+      throws IllegalAccessException
+    {
+      _field.setByte(obj, value);
+    }
+
+    void setShort(Object obj, short value)
+      throws IllegalAccessException
+    {
+      _field.setShort(obj, value);
+    }
+
+    void setInt(Object obj, int value)
+      throws IllegalAccessException
+    {
+      _field.setInt(obj, value);
+    }
+
+    void setLong(Object obj, long value)
+      throws IllegalAccessException
+    {
+      _field.setLong(obj, value);
+    }
+
+    void setFloat(Object obj, float value)
+      throws IllegalAccessException
+    {
+      _field.setFloat(obj, value);
+    }
+
+    void setDouble(Object obj, double value)
+      throws IllegalAccessException
+    {
+      _field.setDouble(obj, value);
+    }
+  }
+
+  /**
+   * Accessor using the field offset and sun.misc.Unsafe.  Boxed access
+   * to primitive fields, which only happens for types without a
+   * dedicated field serializer, falls back to reflection.
+   */
+  static class UnsafeFieldAccessor extends FieldAccessor {
+    private static final MethodHandle GET_BOOLEAN
+      = findGet("getBoolean", boolean.class);
+    private static final MethodHandle GET_BYTE
+      = findGet("getByte", byte.class);
+    private static final MethodHandle GET_SHORT
+      = findGet("getShort", short.class);
+    private static final MethodHandle GET_INT
+      = findGet("getInt", int.class);
+    private static final MethodHandle GET_LONG
+      = findGet("getLong", long.class);
+    private static final MethodHandle GET_FLOAT
+      = findGet("getFloat", float.class);
+    private static final MethodHandle GET_DOUBLE
+      = findGet("getDouble", double.class);
+    private static final MethodHandle GET_OBJECT
+      = findGet("getObject", Object.class);
+    
+    private static final MethodHandle PUT_BOOLEAN
+      = findPut("putBoolean", boolean.class);
+    private static final MethodHandle PUT_BYTE
+      = findPut("putByte", byte.class);
+    private static final MethodHandle PUT_SHORT
+      = findPut("putShort", short.class);
+    private static final MethodHandle PUT_INT
+      = findPut("putInt", int.class);
+    private static final MethodHandle PUT_LONG
+      = findPut("putLong", long.class);
+    private static final MethodHandle PUT_FLOAT
+      = findPut("putFloat", float.class);
+    private static final MethodHandle PUT_DOUBLE
+      = findPut("putDouble", double.class);
+    private static final MethodHandle PUT_OBJECT
+      = findPut("putObject", Object.class);
+    
+    private final long _offset;
+    private final Class<?> _declaringClass;
+    private final Class<?> _type;
+    private final boolean _isPrimitive;
+
+    UnsafeFieldAccessor(Field field)
+    {
+      super(field);
+
+      _offset = objectFieldOffset(field);
+      _declaringClass = field.getDeclaringClass();
+      _type = field.getType();
+      _isPrimitive = _type.isPrimitive();
+    }
+
+    Object get(Object obj)
+      throws IllegalAccessException
+    {
+      if (_isPrimitive)
+        return _field.get(obj);
+
+      try {
+        return (Object) GET_OBJECT.invokeExact(checkObject(obj), _offset);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    void set(Object obj, Object value)
+      throws IllegalAccessException
+    {
+      if (_isPrimitive) {
+        _field.set(obj, value);
+        return;
+      }
+
+      // keep the type safety of Field.set
+      if (value != null && ! _type.isInstance(value))
+        throw new IllegalArgumentException(value.getClass().getName()
+                                           + " cannot be assigned to "
+                                           + _field);
+
+      try {
+        PUT_OBJECT.invokeExact(checkObject(obj), _offset, value);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    boolean getBoolean(Object obj)
+    {
+      try {
+        return (boolean) GET_BOOLEAN.invokeExact(checkObject(obj), _offset);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    byte getByte(Object obj)
+    {
+      try {
+        return (byte) GET_BYTE.invokeExact(checkObject(obj), _offset);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    short getShort(Object obj)
+    {
+      try {
+        return (short) GET_SHORT.invokeExact(checkObject(obj), _offset);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    int getInt(Object obj)
+    {
+      try {
+        return (int) GET_INT.invokeExact(checkObject(obj), _offset);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    long getLong(Object obj)
+    {
+      try {
+        return (long) GET_LONG.invokeExact(checkObject(obj), _offset);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    float getFloat(Object obj)
+    {
+      try {
+        return (float) GET_FLOAT.invokeExact(checkObject(obj), _offset);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    double getDouble(Object obj)
+    {
+      try {
+        return (double) GET_DOUBLE.invokeExact(checkObject(obj), _offset);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    void setBoolean(Object obj, boolean value)
+    {
+      try {
+        PUT_BOOLEAN.invokeExact(checkObject(obj), _offset, value);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    void setByte(Object obj, byte value)
+    {
+      try {
+        PUT_BYTE.invokeExact(checkObject(obj), _offset, value);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    void setShort(Object obj, short value)
+    {
+      try {
+        PUT_SHORT.invokeExact(checkObject(obj), _offset, value);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    void setInt(Object obj, int value)
+    {
+      try {
+        PUT_INT.invokeExact(checkObject(obj), _offset, value);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    void setLong(Object obj, long value)
+    {
+      try {
+        PUT_LONG.invokeExact(checkObject(obj), _offset, value);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    void setFloat(Object obj, float value)
+    {
+      try {
+        PUT_FLOAT.invokeExact(checkObject(obj), _offset, value);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    void setDouble(Object obj, double value)
+    {
+      try {
+        PUT_DOUBLE.invokeExact(checkObject(obj), _offset, value);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+
+    /**
+     * Unsafe does no receiver check, unlike Field.
+     */
+    private Object checkObject(Object obj)
+    {
+      if (! _declaringClass.isInstance(obj))
+        throw new IllegalArgumentException("'" + obj + "' is not an instance of "
+                                           + _declaringClass.getName());
+
+      return obj;
+    }
+  }
+
+  static {
+    Object unsafe = null;
+    MethodHandle objectFieldOffset = null;
+    
+    try {
+      String value = System.getProperty("com.caucho.hessian.unsafe");
+
+      if (value == null || ! "false".equals(value)) {
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+
+        Object instance = theUnsafe.get(null);
+
+        objectFieldOffset = findUnsafe(instance, "objectFieldOffset",
+                                       long.class,
+                                       new Class<?>[] { Field.class });
+        unsafe = instance;
+      }
+    } catch (Throwable e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      objectFieldOffset = null;
+    }
+
+    _unsafe = unsafe;
+    _objectFieldOffset = objectFieldOffset;
+  }
+}
@@ -0,0 +1,713 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates a {@link GeneratedFieldCodec} subclass for a serializable
+ * class.
+ *
+ * <p>The generated methods read and write the fields in the
+ * {@link JavaSerializer} order.  Primitive and string fields are accessed
+ * through <code>sun.misc.Unsafe</code> with the field offset as a
+ * constant, so the calls can be inlined by the JIT.  A failed read is
+ * reported with the field name, like the reflective deserializers.  The
+ * class file is written directly, in the version 49 format which doesn't
+ * need stack map frames, and defined in its own class loader.
+ */
+final class FieldCodecGenerator {
+  private static final Logger log
+    = Logger.getLogger(FieldCodecGenerator.class.getName());
+
+  private static final String CODEC_CLASS
+    = "com/caucho/hessian/io/GeneratedFieldCodec";
+  private static final String OUTPUT_CLASS
+    = "com/caucho/hessian/io/AbstractHessianOutput";
+  private static final String INPUT_CLASS
+    = "com/caucho/hessian/io/AbstractHessianInput";
+  private static final String UNSAFE_CLASS = "sun/misc/Unsafe";
+  private static final String EXCEPTION_CLASS = "java/lang/Exception";
+
+  private static final String OUTPUT = "L" + OUTPUT_CLASS + ";";
+  private static final String INPUT = "L" + INPUT_CLASS + ";";
+  private static final String OBJECT = "Ljava/lang/Object;";
+  private static final String STRING = "Ljava/lang/String;";
+  private static final String UNSAFE = "L" + UNSAFE_CLASS + ";";
+  private static final String EXCEPTION = "L" + EXCEPTION_CLASS + ";";
+
+  // the generated codec's private Unsafe field
+  private static final String UNSAFE_FIELD = "_unsafe";
+
+  // keeps the generated methods well below the 64k code limit
+  private static final int MAX_FIELDS = 1024;
+
+  private static final int ACC_PUBLIC = 0x0001;
+  private static final int ACC_PRIVATE = 0x0002;
+  private static final int ACC_FINAL = 0x0010;
+  private static final int ACC_SUPER = 0x0020;
+
+  private static final int ICONST_0 = 0x03;
+  private static final int BIPUSH = 0x10;
+  private static final int SIPUSH = 0x11;
+  private static final int LDC2_W = 0x14;
+  private static final int ALOAD_0 = 0x2a;
+  private static final int ALOAD_1 = 0x2b;
+  private static final int ALOAD_2 = 0x2c;
+  private static final int ILOAD_3 = 0x1d;
+  private static final int ALOAD = 0x19;
+  private static final int ISTORE_3 = 0x3e;
+  private static final int ASTORE = 0x3a;
+  private static final int F2D = 0x8d;
+  private static final int D2F = 0x90;
+  private static final int I2B = 0x91;
+  private static final int I2S = 0x93;
+  private static final int RETURN = 0xb1;
+  private static final int GETFIELD = 0xb4;
+  private static final int PUTFIELD = 0xb5;
+  private static final int INVOKEVIRTUAL = 0xb6;
+  private static final int INVOKESPECIAL = 0xb7;
+  private static final int ATHROW = 0xbf;
+  private static final int CHECKCAST = 0xc0;
+
+  private static final WeakHashMap<Class<?>,Class<?>> _codecClassMap
+    = new WeakHashMap<Class<?>,Class<?>>();
+
+  private final String _className;
+  private final Field []_fields;
+
+  private final ByteArrayOutputStream _poolBuffer
+    = new ByteArrayOutputStream();
+  private final DataOutputStream _pool = new DataOutputStream(_poolBuffer);
+  private final HashMap<String,Integer> _poolMap
+    = new HashMap<String,Integer>();
+  private int _poolCount = 1;
+
+  // the exception handler of readFields: start, end and handler pc
+  private int []_readHandler;
+
+  private FieldCodecGenerator(String className, Field []fields)
+  {
+    _className = className;
+    _fields = fields;
+  }
+
+  /**
+   * Returns true if codecs can be generated in this JVM.
+   */
+  static boolean isAvailable()
+  {
+    return FieldAccessor.getUnsafe() != null;
+  }
+
+  /**
+   * Returns a new codec for the class, or null if the class can't
+   * use a generated codec.
+   */
+  static GeneratedFieldCodec create(Class<?> cl)
+  {
+    if (! isAvailable())
+      return null;
+
+    Class<?> codecClass;
+
+    synchronized (_codecClassMap) {
+      if (_codecClassMap.containsKey(cl))
+	codecClass = _codecClassMap.get(cl);
+      else {
+	codecClass = generate(cl);
+
+	_codecClassMap.put(cl, codecClass);
+      }
+    }
+
+    if (codecClass == null)
+      return null;
+
+    try {
+      return (GeneratedFieldCodec) codecClass.getConstructor(Object.class)
+	.newInstance(FieldAccessor.getUnsafe());
+    } catch (Throwable e) {
+      log.log(Level.FINE, cl.getName() + ": " + e, e);
+
+      return null;
+    }
+  }
+
+  private static Class<?> generate(Class<?> cl)
+  {
+    try {
+      Field []fields = JavaSerializer.getSerializableFields(cl);
+
+      if (fields.length > MAX_FIELDS)
+	return null;
+
+      // a shadowed field would be read into the wrong slot
+      HashSet<String> names = new HashSet<String>();
+      for (int i = 0; i < fields.length; i++) {
+	if (! names.add(fields[i].getName()))
+	  return null;
+      }
+
+      String className = ("com.caucho.hessian.io.gen."
+			  + cl.getName().replace('.', '_') + "Codec");
+
+      FieldCodecGenerator generator
+	= new FieldCodecGenerator(className, fields);
+      
+      byte []classFile = generator.generateClass();
+
+      CodecClassLoader loader
+	= new CodecClassLoader(GeneratedFieldCodec.class.getClassLoader());
+
+      return loader.define(className, classFile);
+    } catch (Throwable e) {
+      log.log(Level.FINE, cl.getName() + ": " + e, e);
+
+      return null;
+    }
+  }
+
+  /**
+   * Writes the class file.
+   */
+  private byte []generateClass()
+    throws IOException
+  {
+    ByteArrayOutputStream methodBuffer = new ByteArrayOutputStream();
+    DataOutputStream methods = new DataOutputStream(methodBuffer);
+
+    writeMethod(methods, "<init>", "(" + OBJECT + ")V",
+		2, 2, generateInit(), null);
+    writeMethod(methods, "writeFields", "(" + OBJECT + OUTPUT + ")V",
+		8, 3, generateWrite(), null);
+    byte []readCode = generateRead();
+    writeMethod(methods, "readFields", "(" + INPUT + OBJECT + ")V",
+		8, 5, readCode, _readHandler);
+
+    int thisClass = classRef(_className.replace('.', '/'));
+    int superClass = classRef(CODEC_CLASS);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+
+    out.writeInt(0xcafebabe);
+    out.writeShort(0);
+    out.writeShort(49);
+    
+    out.writeShort(_poolCount);
+    _pool.flush();
+    _poolBuffer.writeTo(out);
+
+    out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+    out.writeShort(thisClass);
+    out.writeShort(superClass);
+    out.writeShort(0); // interfaces
+    out.writeShort(1); // fields
+    out.writeShort(ACC_PRIVATE | ACC_FINAL);
+    out.writeShort(utf8(UNSAFE_FIELD));
+    out.writeShort(utf8(UNSAFE));
+    out.writeShort(0);
+    out.writeShort(3); // methods
+    methods.flush();
+    methodBuffer.writeTo(out);
+    out.writeShort(0); // attributes
+    out.flush();
+
+    return bos.toByteArray();
+  }
+
+  /**
+   * Writes a method, with an optional handler catching Exception over
+   * the code range given by its start, end and handler pc.
+   */
+  private void writeMethod(DataOutputStream out, String name, String desc,
+			   int maxStack, int maxLocals, byte []code,
+			   int []handler)
+    throws IOException
+  {
+    int handlers = handler != null ? 1 : 0;
+    int exceptionClass = handler != null ? classRef(EXCEPTION_CLASS) : 0;
+    
+    out.writeShort(ACC_PUBLIC);
+    out.writeShort(utf8(name));
+    out.writeShort(utf8(desc));
+    out.writeShort(1);
+    
+    out.writeShort(utf8("Code"));
+    out.writeInt(12 + code.length + 8 * handlers);
+    out.writeShort(maxStack);
+    out.writeShort(maxLocals);
+    out.writeInt(code.length);
+    out.write(code);
+    out.writeShort(handlers); // exception table
+    if (handler != null) {
+      out.writeShort(handler[0]);
+      out.writeShort(handler[1]);
+      out.writeShort(handler[2]);
+      out.writeShort(exceptionClass);
+    }
+    out.writeShort(0); // attributes
+  }
+
+  private byte []generateInit()
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream code = new DataOutputStream(bos);
+
+    // super(unsafe); _unsafe = (Unsafe) unsafe;
+    code.writeByte(ALOAD_0);
+    code.writeByte(ALOAD_1);
+    code.writeByte(INVOKESPECIAL);
+    code.writeShort(methodRef(CODEC_CLASS, "<init>", "(" + OBJECT + ")V"));
+    code.writeByte(ALOAD_0);
+    code.writeByte(ALOAD_1);
+    code.writeByte(CHECKCAST);
+    code.writeShort(classRef(UNSAFE_CLASS));
+    code.writeByte(PUTFIELD);
+    code.writeShort(unsafeField());
+    code.writeByte(RETURN);
+
+    code.flush();
+    return bos.toByteArray();
+  }
+
+  /**
+   * writeFields(Object obj, AbstractHessianOutput out)
+   */
+  private byte []generateWrite()
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream code = new DataOutputStream(bos);
+
+    int unsafe = unsafeField();
+
+    for (int i = 0; i < _fields.length; i++) {
+      Field field = _fields[i];
+      char kind = getKind(field.getType());
+
+      if (kind == 0) {
+	// this.writeField(obj, out, i)
+	code.writeByte(ALOAD_0);
+	code.writeByte(ALOAD_1);
+	code.writeByte(ALOAD_2);
+	pushInt(code, i);
+	code.writeByte(INVOKEVIRTUAL);
+	code.writeShort(methodRef(CODEC_CLASS, "writeField",
+				  "(" + OBJECT + OUTPUT + "I)V"));
+	continue;
+      }
+
+      // out.writeXXX(_unsafe.getXXX(obj, offset))
+      code.writeByte(ALOAD_2);
+      code.writeByte(ALOAD_0);
+      code.writeByte(GETFIELD);
+      code.writeShort(unsafe);
+      code.writeByte(ALOAD_1);
+      code.writeByte(LDC2_W);
+      code.writeShort(longConst(objectFieldOffset(field)));
+      code.writeByte(INVOKEVIRTUAL);
+
+      switch (kind) {
+      case 'Z':
+	code.writeShort(methodRef(UNSAFE_CLASS, "getBoolean",
+				  "(" + OBJECT + "J)Z"));
+	invokeOutput(code, "writeBoolean", "(Z)V");
+	break;
+	
+      case 'B':
+	code.writeShort(methodRef(UNSAFE_CLASS, "getByte",
+				  "(" + OBJECT + "J)B"));
+	invokeOutput(code, "writeInt", "(I)V");
+	break;
+	
+      case 'S':
+	code.writeShort(methodRef(UNSAFE_CLASS, "getShort",
+				  "(" + OBJECT + "J)S"));
+	invokeOutput(code, "writeInt", "(I)V");
+	break;
+	
+      case 'I':
+	code.writeShort(methodRef(UNSAFE_CLASS, "getInt",
+				  "(" + OBJECT + "J)I"));
+	invokeOutput(code, "writeInt", "(I)V");
+	break;
+	
+      case 'J':
+	code.writeShort(methodRef(UNSAFE_CLASS, "getLong",
+				  "(" + OBJECT + "J)J"));
+	invokeOutput(code, "writeLong", "(J)V");
+	break;
+	
+      case 'F':
+	code.writeShort(methodRef(UNSAFE_CLASS, "getFloat",
+				  "(" + OBJECT + "J)F"));
+	code.writeByte(F2D);
+	invokeOutput(code, "writeDouble", "(D)V");
+	break;
+	
+      case 'D':
+	code.writeShort(methodRef(UNSAFE_CLASS, "getDouble",
+				  "(" + OBJECT + "J)D"));
+	invokeOutput(code, "writeDouble", "(D)V");
+	break;
+	
+      case 'L':
+	code.writeShort(methodRef(UNSAFE_CLASS, "getObject",
+				  "(" + OBJECT + "J)" + OBJECT));
+	code.writeByte(CHECKCAST);
+	code.writeShort(classRef("java/lang/String"));
+	invokeOutput(code, "writeString", "(" + STRING + ")V");
+	break;
+      }
+    }
+
+    code.writeByte(RETURN);
+
+    code.flush();
+    return bos.toByteArray();
+  }
+
+  /**
+   * readFields(AbstractHessianInput in, Object obj)
+   */
+  private byte []generateRead()
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream code = new DataOutputStream(bos);
+
+    int unsafe = unsafeField();
+
+    // int index = 0; try { ...
+    code.writeByte(ICONST_0);
+    code.writeByte(ISTORE_3);
+
+    code.flush();
+    int tryStart = bos.size();
+
+    for (int i = 0; i < _fields.length; i++) {
+      Field field = _fields[i];
+      char kind = getKind(field.getType());
+
+      // index = i
+      pushInt(code, i);
+      code.writeByte(ISTORE_3);
+
+      if (kind == 0) {
+	// this.readField(in, obj, i)
+	code.writeByte(ALOAD_0);
+	code.writeByte(ALOAD_1);
+	code.writeByte(ALOAD_2);
+	pushInt(code, i);
+	code.writeByte(INVOKEVIRTUAL);
+	code.writeShort(methodRef(CODEC_CLASS, "readField",
+				  "(" + INPUT + OBJECT + "I)V"));
+	continue;
+      }
+
+      // _unsafe.putXXX(obj, offset, in.readXXX())
+      code.writeByte(ALOAD_0);
+      code.writeByte(GETFIELD);
+      code.writeShort(unsafe);
+      code.writeByte(ALOAD_2);
+      code.writeByte(LDC2_W);
+      code.writeShort(longConst(objectFieldOffset(field)));
+      code.writeByte(ALOAD_1);
+
+      switch (kind) {
+      case 'Z':
+	invokeInput(code, "readBoolean", "()Z");
+	invokePut(code, "putBoolean", "Z");
+	break;
+	
+      case 'B':
+	invokeInput(code, "readInt", "()I");
+	code.writeByte(I2B);
+	invokePut(code, "putByte", "B");
+	break;
+	
+      case 'S':
+	invokeInput(code, "readInt", "()I");
+	code.writeByte(I2S);
+	invokePut(code, "putShort", "S");
+	break;
+	
+      case 'I':
+	invokeInput(code, "readInt", "()I");
+	invokePut(code, "putInt", "I");
+	break;
+	
+      case 'J':
+	invokeInput(code, "readLong", "()J");
+	invokePut(code, "putLong", "J");
+	break;
+	
+      case 'F':
+	invokeInput(code, "readDouble", "()D");
+	code.writeByte(D2F);
+	invokePut(code, "putFloat", "F");
+	break;
+	
+      case 'D':
+	invokeInput(code, "readDouble", "()D");
+	invokePut(code, "putDouble", "D");
+	break;
+	
+      case 'L':
+	invokeInput(code, "readString", "()" + STRING);
+	invokePut(code, "putObject", OBJECT);
+	break;
+      }
+    }
+
+    code.writeByte(RETURN);
+
+    // } catch (Exception e) { readError(index, e); throw e; }
+    code.flush();
+    int handlerStart = bos.size();
+    
+    code.writeByte(ASTORE);
+    code.writeByte(4);
+    code.writeByte(ALOAD_0);
+    code.writeByte(ILOAD_3);
+    code.writeByte(ALOAD);
+    code.writeByte(4);
+    code.writeByte(INVOKEVIRTUAL);
+    code.writeShort(methodRef(CODEC_CLASS, "readError",
+			      "(I" + EXCEPTION + ")V"));
+    code.writeByte(ALOAD);
+    code.writeByte(4);
+    code.writeByte(ATHROW);
+
+    _readHandler = new int[] { tryStart, handlerStart, handlerStart };
+
+    code.flush();
+    return bos.toByteArray();
+  }
+
+  /**
+   * Returns the type code of an inlined field, or 0 if the field uses
+   * the field serializer.
+   */
+  private static char getKind(Class<?> type)
+  {
+    if (boolean.class.equals(type))
+      return 'Z';
+    else if (byte.class.equals(type))
+      return 'B';
+    else if (short.class.equals(type))
+      return 'S';
+    else if (int.class.equals(type))
+      return 'I';
+    else if (long.class.equals(type))
+      return 'J';
+    else if (float.class.equals(type))
+      return 'F';
+    else if (double.class.equals(type))
+      return 'D';
+    else if (String.class.equals(type))
+      return 'L';
+    else
+      return 0;
+  }
+
+  private int unsafeField()
+    throws IOException
+  {
+    return fieldRef(_className.replace('.', '/'), UNSAFE_FIELD, UNSAFE);
+  }
+
+  private static long objectFieldOffset(Field field)
+  {
+    return FieldAccessor.objectFieldOffset(field);
+  }
+
+  private void invokeOutput(DataOutputStream code, String name, String desc)
+    throws IOException
+  {
+    code.writeByte(INVOKEVIRTUAL);
+    code.writeShort(methodRef(OUTPUT_CLASS, name, desc));
+  }
+
+  private void invokeInput(DataOutputStream code, String name, String desc)
+    throws IOException
+  {
+    code.writeByte(INVOKEVIRTUAL);
+    code.writeShort(methodRef(INPUT_CLASS, name, desc));
+  }
+
+  private void invokePut(DataOutputStream code, String name, String type)
+    throws IOException
+  {
+    code.writeByte(INVOKEVIRTUAL);
+    code.writeShort(methodRef(UNSAFE_CLASS, name,
+			      "(" + OBJECT + "J" + type + ")V"));
+  }
+
+  private static void pushInt(DataOutputStream code, int value)
+    throws IOException
+  {
+    if (value <= 5) {
+      code.writeByte(ICONST_0 + value);
+    }
+    else if (value <= Byte.MAX_VALUE) {
+      code.writeByte(BIPUSH);
+      code.writeByte(value);
+    }
+    else {
+      code.writeByte(SIPUSH);
+      code.writeShort(value);
+    }
+  }
+
+  //
+  // constant pool
+  //
+
+  private int utf8(String value)
+    throws IOException
+  {
+    String key = "U" + value;
+    Integer index = _poolMap.get(key);
+
+    if (index != null)
+      return index.intValue();
+
+    _pool.writeByte(1);
+    _pool.writeUTF(value);
+
+    return addEntry(key, 1);
+  }
+
+  private int classRef(String name)
+    throws IOException
+  {
+    String key = "C" + name;
+    Integer index = _poolMap.get(key);
+
+    if (index != null)
+      return index.intValue();
+
+    int nameIndex = utf8(name);
+    
+    _pool.writeByte(7);
+    _pool.writeShort(nameIndex);
+
+    return addEntry(key, 1);
+  }
+
+  private int nameAndType(String name, String desc)
+    throws IOException
+  {
+    String key = "N" + name + " " + desc;
+    Integer index = _poolMap.get(key);
+
+    if (index != null)
+      return index.intValue();
+
+    int nameIndex = utf8(name);
+    int descIndex = utf8(desc);
+    
+    _pool.writeByte(12);
+    _pool.writeShort(nameIndex);
+    _pool.writeShort(descIndex);
+
+    return addEntry(key, 1);
+  }
+
+  private int methodRef(String owner, String name, String desc)
+    throws IOException
+  {
+    return memberRef(10, "M", owner, name, desc);
+  }
+
+  private int fieldRef(String owner, String name, String desc)
+    throws IOException
+  {
+    return memberRef(9, "F", owner, name, desc);
+  }
+
+  private int memberRef(int tag, String prefix,
+			String owner, String name, String desc)
+    throws IOException
+  {
+    String key = prefix + owner + "." + name + " " + desc;
+    Integer index = _poolMap.get(key);
+
+    if (index != null)
+      return index.intValue();
+
+    int classIndex = classRef(owner);
+    int typeIndex = nameAndType(name, desc);
+    
+    _pool.writeByte(tag);
+    _pool.writeShort(classIndex);
+    _pool.writeShort(typeIndex);
+
+    return addEntry(key, 1);
+  }
+
+  private int longConst(long value)
+    throws IOException
+  {
+    String key = "J" + value;
+    Integer index = _poolMap.get(key);
+
+    if (index != null)
+      return index.intValue();
+
+    _pool.writeByte(5);
+    _pool.writeLong(value);
+
+    // long constants take two pool slots
+    return addEntry(key, 2);
+  }
+
+  private int addEntry(String key, int slots)
+  {
+    int index = _poolCount;
+    
+    _poolCount += slots;
+    _poolMap.put(key, Integer.valueOf(index));
+
+    return index;
+  }
+
+  static class CodecClassLoader extends ClassLoader {
+    CodecClassLoader(ClassLoader parent)
+    {
+      super(parent);
+    }
+
+    Class<?> define(String name, byte []classFile)
+    {
+      return defineClass(name, classFile, 0, classFile.length);
+    }
+  }
+}
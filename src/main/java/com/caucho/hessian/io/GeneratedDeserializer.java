@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+/**
+ * Deserializing an object using a generated field codec.  The codec
+ * is only used when the wire fields are in the local serializer's
+ * order, which is the case when both sides use the same class.
+ */
+class GeneratedDeserializer extends JavaDeserializer {
+  private final String []_fieldNames;
+  private final GeneratedFieldCodec _codec;
+  
+  GeneratedDeserializer(Class<?> cl, GeneratedFieldCodec codec)
+  {
+    super(cl);
+
+    Field []fields = JavaSerializer.getSerializableFields(cl);
+    
+    _fieldNames = new String[fields.length];
+    FieldDeserializer []fieldDeserializers
+      = new FieldDeserializer[fields.length];
+
+    for (int i = 0; i < fields.length; i++) {
+      _fieldNames[i] = fields[i].getName();
+      fieldDeserializers[i] = getFieldDeserializer(_fieldNames[i]);
+    }
+
+    codec.initRead(fields, fieldDeserializers);
+    
+    _codec = codec;
+  }
+    
+  public Object readObject(AbstractHessianInput in,
+			   Object obj,
+			   String []fieldNames)
+    throws IOException
+  {
+    if (! isLocalOrder(fieldNames))
+      return super.readObject(in, obj, fieldNames);
+    
+    try {
+      int ref = in.addRef(obj);
+
+      _codec.readFields(in, obj);
+
+      Object resolve = resolve(obj);
+
+      if (obj != resolve)
+	in.setRef(ref, resolve);
+
+      return resolve;
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOExceptionWrapper(obj.getClass().getName() + ":" + e, e);
+    }
+  }
+
+  Object readObject(AbstractHessianInput in,
+		    Object obj,
+		    String []fieldNames,
+		    FieldDeserializer []fields)
+    throws IOException
+  {
+    if (isLocalOrder(fieldNames))
+      return readObject(in, obj, fieldNames);
+    else
+      return super.readObject(in, obj, fieldNames, fields);
+  }
+
+  private boolean isLocalOrder(String []fieldNames)
+  {
+    String []localNames = _fieldNames;
+    
+    if (fieldNames.length != localNames.length)
+      return false;
+
+    for (int i = 0; i < localNames.length; i++) {
+      String name = fieldNames[i];
+      
+      if (name != localNames[i] && ! localNames[i].equals(name))
+	return false;
+    }
+
+    return true;
+  }
+}
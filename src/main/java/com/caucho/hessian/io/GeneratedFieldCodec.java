@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+/**
+ * Base class of the field codecs generated by {@link FieldCodecGenerator}.
+ *
+ * <p>A generated codec reads and writes the primitive and string fields
+ * of one class in straight-line code, using the field offsets as
+ * constants.  Other fields are passed back to the field serializers and
+ * deserializers through {@link #writeField} and {@link #readField}.
+ *
+ * <p>The generated class is defined in its own class loader, so this
+ * class must be public.  A codec can only be created with the
+ * <code>sun.misc.Unsafe</code> instance, which the generated constructor
+ * keeps in a private field, so a subclass can't use the codec to reach
+ * Unsafe.
+ */
+public abstract class GeneratedFieldCodec {
+  private FieldAccessor []_accessors;
+  private JavaSerializer.FieldSerializer []_fieldSerializers;
+  private Field []_fields;
+  private JavaDeserializer.FieldDeserializer []_fieldDeserializers;
+
+  protected GeneratedFieldCodec(Object unsafe)
+  {
+    if (unsafe == null || unsafe != FieldAccessor.getUnsafe())
+      throw new IllegalArgumentException("field codecs are only created by "
+					 + FieldCodecGenerator.class.getName());
+  }
+
+  /**
+   * Binds the codec to the field serializers, for writing.
+   */
+  final void initWrite(FieldAccessor []accessors,
+		       JavaSerializer.FieldSerializer []fieldSerializers)
+  {
+    _accessors = accessors;
+    _fieldSerializers = fieldSerializers;
+  }
+
+  /**
+   * Binds the codec to the field deserializers, for reading.
+   */
+  final void initRead(Field []fields,
+		      JavaDeserializer.FieldDeserializer []fieldDeserializers)
+  {
+    _fields = fields;
+    _fieldDeserializers = fieldDeserializers;
+  }
+
+  /**
+   * Writes the fields of the object in wire order.
+   */
+  public abstract void writeFields(Object obj, AbstractHessianOutput out)
+    throws IOException;
+
+  /**
+   * Reads the fields of the object in wire order.
+   */
+  public abstract void readFields(AbstractHessianInput in, Object obj)
+    throws IOException;
+
+  /**
+   * Writes a field which isn't inlined in the generated code.
+   */
+  protected final void writeField(Object obj,
+				  AbstractHessianOutput out,
+				  int index)
+    throws IOException
+  {
+    _fieldSerializers[index].serialize(out, obj, _accessors[index]);
+  }
+
+  /**
+   * Reads a field which isn't inlined in the generated code.
+   */
+  protected final void readField(AbstractHessianInput in,
+				 Object obj,
+				 int index)
+    throws IOException
+  {
+    _fieldDeserializers[index].deserialize(in, obj);
+  }
+
+  /**
+   * Throws the failure to read a field, adding the field name like the
+   * reflective field deserializers.
+   */
+  protected final void readError(int index, Exception e)
+    throws IOException
+  {
+    if (e instanceof HessianFieldException)
+      throw (HessianFieldException) e;
+    
+    Field field = _fields[index];
+
+    String fieldName = (field.getDeclaringClass().getName()
+			+ "." + field.getName());
+
+    if (e instanceof IOException)
+      throw new HessianFieldException(fieldName + ": " + e.getMessage(), e);
+    else
+      throw new HessianFieldException(fieldName + ": " + e, e);
+  }
+}
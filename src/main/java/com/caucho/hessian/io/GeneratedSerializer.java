@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+
+/**
+ * Serializing an object using a generated field codec.
+ */
+class GeneratedSerializer extends JavaSerializer {
+  private final GeneratedFieldCodec _codec;
+  
+  GeneratedSerializer(Class<?> cl, ClassLoader loader,
+		      GeneratedFieldCodec codec)
+  {
+    super(cl, loader);
+
+    codec.initWrite(getFieldAccessors(), getFieldSerializers());
+    
+    _codec = codec;
+  }
+  
+  public void writeInstance(Object obj, AbstractHessianOutput out)
+    throws IOException
+  {
+    _codec.writeFields(obj, out);
+  }
+}
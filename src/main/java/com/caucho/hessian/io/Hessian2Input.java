@@ -90,13 +90,19 @@ public class Hessian2Input
 
   private static final int SIZE = 256;
   private static final int GAP = 16;
+
+  // placeholder reference for a skipped list, map or object
+  private static final Object SKIPPED = new Object();
   
   // factory for deserializing objects in the input stream
   protected SerializerFactory _serializerFactory;
 
-  private static boolean _isCloseStreamOnClose;
+  private boolean _isCloseStreamOnClose;
   
   protected ArrayList _refs;
+  // true if objects are not kept for back-references
+  private boolean _isAcyclic;
+  private int _refCount;
   protected ArrayList _classDefs;
   protected ArrayList _types;
   
@@ -120,7 +126,12 @@ public class Hessian2Input
 
   private Throwable _replyFault;
 
-  private StringBuffer _sbuf = new StringBuffer();
+  // decoded characters of the current string
+  private char []_chars = new char[SIZE];
+  private HessianStringCache _stringCache;
+
+  // selects the object fields to deserialize
+  private HessianFieldFilter _fieldFilter;
   
   // true if this is the last chunk
   private boolean _isLastChunk;
@@ -138,6 +149,55 @@ public class Hessian2Input
     _is = is;
   }
 
+  /**
+   * Creates an uninitialized Hessian input stream.
+   */
+  public Hessian2Input()
+  {
+  }
+
+  /**
+   * Initializes the input with a new underlying stream, so the
+   * input can be reused for another message.
+   */
+  @Override
+  public void init(InputStream is)
+  {
+    reset();
+
+    _is = is;
+  }
+
+  /**
+   * Resets the input state: references, class definitions, types
+   * and any buffered data are discarded, and the acyclic mode and the
+   * field filter return to their defaults.
+   */
+  public void reset()
+  {
+    _isAcyclic = false;
+    _fieldFilter = null;
+    
+    if (_refs != null)
+      _refs.clear();
+    _refCount = 0;
+
+    if (_classDefs != null)
+      _classDefs.clear();
+
+    if (_types != null)
+      _types.clear();
+
+    _offset = 0;
+    _length = 0;
+    _isStreaming = false;
+    _method = null;
+    _argLength = 0;
+    _replyFault = null;
+    _isLastChunk = false;
+    _chunkLength = 0;
+  }
+
   /**
    * Sets the serializer factory.
    */
@@ -167,6 +227,62 @@ public class Hessian2Input
     return factory;
   }
 
+  /**
+   * Sets the cache returning shared instances of decoded strings,
+   * or null for no cache.
+   */
+  public void setStringCache(HessianStringCache cache)
+  {
+    _stringCache = cache;
+  }
+
+  /**
+   * Returns the string cache.
+   */
+  public HessianStringCache getStringCache()
+  {
+    return _stringCache;
+  }
+
+  /**
+   * Sets the filter selecting the object fields to deserialize, or
+   * null to read all fields.  Rejected fields are skipped.
+   */
+  public void setFieldFilter(HessianFieldFilter filter)
+  {
+    _fieldFilter = filter;
+  }
+
+  /**
+   * Returns the field filter.
+   */
+  public HessianFieldFilter getFieldFilter()
+  {
+    return _fieldFilter;
+  }
+
+  /**
+   * If true, decoded objects aren't kept for back-references.  This is
+   * narrower than the protocol: the message must be a tree, and any
+   * back-reference in the stream fails with a
+   * <code>HessianProtocolException</code>, even if the writer is a
+   * regular output which only shared an object.  Only use it for
+   * messages written by an acyclic {@link Hessian2Output} or from
+   * graphs known to have no shared objects.
+   */
+  public void setAcyclic(boolean isAcyclic)
+  {
+    _isAcyclic = isAcyclic;
+  }
+
+  /**
+   * Returns true if objects aren't kept for back-references.
+   */
+  public boolean isAcyclic()
+  {
+    return _isAcyclic;
+  }
+
   public void setCloseStreamOnClose(boolean isClose)
   {
     _isCloseStreamOnClose = isClose;
@@ -1284,13 +1400,7 @@ public class Hessian2Input
       _isLastChunk = tag == 'S';
       _chunkLength = (read() << 8) + read();
 
-      _sbuf.setLength(0);
-      int ch;
-
-      while ((ch = parseChar()) >= 0)
-        _sbuf.append((char) ch);
-
-      return _sbuf.toString();
+      return parseString();
 
       // 0-byte string
     case 0x00: case 0x01: case 0x02: case 0x03:
@@ -1305,23 +1415,13 @@ public class Hessian2Input
       _isLastChunk = true;
       _chunkLength = tag - 0x00;
 
-      _sbuf.setLength(0);
-
-      while ((ch = parseChar()) >= 0)
-        _sbuf.append((char) ch);
-
-      return _sbuf.toString();
+      return parseString();
 
     case 0x30: case 0x31: case 0x32: case 0x33:
       _isLastChunk = true;
       _chunkLength = (tag - 0x30) * 256 + read();
 
-      _sbuf.setLength(0);
-
-      while ((ch = parseChar()) >= 0)
-        _sbuf.append((char) ch);
-
-      return _sbuf.toString();
+      return parseString();
 
     default:
       throw expect("string", tag);
@@ -1689,7 +1789,7 @@ public class Hessian2Input
       {
 	int ref = readInt();
 
-	return _refs.get(ref);
+	return getRef(ref);
       }
     }
 
@@ -1821,13 +1921,7 @@ public class Hessian2Input
 	_isLastChunk = tag == 'S';
 	_chunkLength = (read() << 8) + read();
 
-	int data;
-	_sbuf.setLength(0);
-      
-	while ((data = parseChar()) >= 0)
-	  _sbuf.append((char) data);
-
-	return _sbuf.toString();
+	return parseString();
       }
 
     case 0x00: case 0x01: case 0x02: case 0x03:
@@ -1843,13 +1937,7 @@ public class Hessian2Input
 	_isLastChunk = true;
 	_chunkLength = tag - 0x00;
 
-	int data;
-	_sbuf.setLength(0);
-      
-	while ((data = parseChar()) >= 0)
-	  _sbuf.append((char) data);
-
-	return _sbuf.toString();
+	return parseString();
       }
 
     case 0x30: case 0x31: case 0x32: case 0x33:
@@ -1857,13 +1945,7 @@ public class Hessian2Input
 	_isLastChunk = true;
 	_chunkLength = (tag - 0x30) * 256 + read();
 
-	_sbuf.setLength(0);
-
-	int ch;
-	while ((ch = parseChar()) >= 0)
-	  _sbuf.append((char) ch);
-
-	return _sbuf.toString();
+	return parseString();
       }
 
     case BC_BINARY_CHUNK:
@@ -2023,7 +2105,7 @@ public class Hessian2Input
       {
 	int ref = readInt();
 
-	return _refs.get(ref);
+	return getRef(ref);
       }
 
     default:
@@ -2034,6 +2116,383 @@ public class Hessian2Input
     }
   }
 
+  /**
+   * Skips the next value without decoding it.  Strings, binary data
+   * and the contents of lists, maps and objects are stepped over in
+   * the buffer, so no values are allocated, and a typed value is
+   * skipped by its name without loading its class.  Skipped lists, maps
+   * and objects take a placeholder reference: a later back-reference to
+   * one of them is an error.
+   */
+  public void skipObject()
+    throws IOException
+  {
+    int tag = _offset < _length ? (_buffer[_offset++] & 0xff) : read();
+
+    switch (tag) {
+    case 'N':
+    case 'T':
+    case 'F':
+      return;
+
+      // direct integer
+    case 0x80: case 0x81: case 0x82: case 0x83:
+    case 0x84: case 0x85: case 0x86: case 0x87:
+    case 0x88: case 0x89: case 0x8a: case 0x8b:
+    case 0x8c: case 0x8d: case 0x8e: case 0x8f:
+      
+    case 0x90: case 0x91: case 0x92: case 0x93:
+    case 0x94: case 0x95: case 0x96: case 0x97:
+    case 0x98: case 0x99: case 0x9a: case 0x9b:
+    case 0x9c: case 0x9d: case 0x9e: case 0x9f:
+      
+    case 0xa0: case 0xa1: case 0xa2: case 0xa3:
+    case 0xa4: case 0xa5: case 0xa6: case 0xa7:
+    case 0xa8: case 0xa9: case 0xaa: case 0xab:
+    case 0xac: case 0xad: case 0xae: case 0xaf:
+      
+    case 0xb0: case 0xb1: case 0xb2: case 0xb3:
+    case 0xb4: case 0xb5: case 0xb6: case 0xb7:
+    case 0xb8: case 0xb9: case 0xba: case 0xbb:
+    case 0xbc: case 0xbd: case 0xbe: case 0xbf:
+
+      // direct long
+    case 0xd8: case 0xd9: case 0xda: case 0xdb:
+    case 0xdc: case 0xdd: case 0xde: case 0xdf:
+      
+    case 0xe0: case 0xe1: case 0xe2: case 0xe3:
+    case 0xe4: case 0xe5: case 0xe6: case 0xe7:
+    case 0xe8: case 0xe9: case 0xea: case 0xeb:
+    case 0xec: case 0xed: case 0xee: case 0xef:
+
+    case BC_DOUBLE_ZERO:
+    case BC_DOUBLE_ONE:
+      return;
+
+      /* byte int */
+    case 0xc0: case 0xc1: case 0xc2: case 0xc3:
+    case 0xc4: case 0xc5: case 0xc6: case 0xc7:
+    case 0xc8: case 0xc9: case 0xca: case 0xcb:
+    case 0xcc: case 0xcd: case 0xce: case 0xcf:
+
+      /* byte long */
+    case 0xf0: case 0xf1: case 0xf2: case 0xf3:
+    case 0xf4: case 0xf5: case 0xf6: case 0xf7:
+    case 0xf8: case 0xf9: case 0xfa: case 0xfb:
+    case 0xfc: case 0xfd: case 0xfe: case 0xff:
+
+    case BC_DOUBLE_BYTE:
+      skipBytes(1);
+      return;
+      
+      /* short int */
+    case 0xd0: case 0xd1: case 0xd2: case 0xd3:
+    case 0xd4: case 0xd5: case 0xd6: case 0xd7:
+
+      /* short long */
+    case 0x38: case 0x39: case 0x3a: case 0x3b:
+    case 0x3c: case 0x3d: case 0x3e: case 0x3f:
+
+    case BC_DOUBLE_SHORT:
+      skipBytes(2);
+      return;
+      
+    case 'I':
+    case BC_LONG_INT:
+    case BC_DOUBLE_MILL:
+    case BC_DATE_MINUTE:
+      skipBytes(4);
+      return;
+    
+    case 'L':
+    case 'D':
+    case BC_DATE:
+      skipBytes(8);
+      return;
+
+    case BC_STRING_CHUNK:
+    case 'S':
+      _isLastChunk = tag == 'S';
+      _chunkLength = (read() << 8) + read();
+
+      skipString();
+      return;
+
+    case 0x00: case 0x01: case 0x02: case 0x03:
+    case 0x04: case 0x05: case 0x06: case 0x07:
+    case 0x08: case 0x09: case 0x0a: case 0x0b:
+    case 0x0c: case 0x0d: case 0x0e: case 0x0f:
+
+    case 0x10: case 0x11: case 0x12: case 0x13:
+    case 0x14: case 0x15: case 0x16: case 0x17:
+    case 0x18: case 0x19: case 0x1a: case 0x1b:
+    case 0x1c: case 0x1d: case 0x1e: case 0x1f:
+      _isLastChunk = true;
+      _chunkLength = tag - 0x00;
+
+      skipString();
+      return;
+
+    case 0x30: case 0x31: case 0x32: case 0x33:
+      _isLastChunk = true;
+      _chunkLength = (tag - 0x30) * 256 + read();
+
+      skipString();
+      return;
+
+    case BC_BINARY_CHUNK:
+    case 'B':
+      _isLastChunk = tag == 'B';
+      _chunkLength = (read() << 8) + read();
+
+      skipBinary();
+      return;
+
+    case 0x20: case 0x21: case 0x22: case 0x23:
+    case 0x24: case 0x25: case 0x26: case 0x27:
+    case 0x28: case 0x29: case 0x2a: case 0x2b:
+    case 0x2c: case 0x2d: case 0x2e: case 0x2f:
+      skipBytes(tag - 0x20);
+      return;
+      
+    case 0x34: case 0x35: case 0x36: case 0x37:
+      skipBytes((tag - 0x34) * 256 + read());
+      return;
+
+    case BC_LIST_VARIABLE:
+      readType();
+
+      skipVariableList();
+      return;
+
+    case BC_LIST_VARIABLE_UNTYPED:
+      skipVariableList();
+      return;
+
+    case BC_LIST_FIXED:
+      readType();
+
+      skipList(readInt());
+      return;
+
+    case BC_LIST_FIXED_UNTYPED:
+      skipList(readInt());
+      return;
+
+      // compact fixed list
+    case 0x70: case 0x71: case 0x72: case 0x73:
+    case 0x74: case 0x75: case 0x76: case 0x77:
+      readType();
+
+      skipList(tag - 0x70);
+      return;
+
+      // compact fixed untyped list
+    case 0x78: case 0x79: case 0x7a: case 0x7b:
+    case 0x7c: case 0x7d: case 0x7e: case 0x7f:
+      skipList(tag - 0x78);
+      return;
+
+    case 'H':
+      skipMap(true);
+      return;
+
+    case 'M':
+      {
+	String type = readType();
+
+	skipMap(findSerializerFactory().isReadRef(type));
+	return;
+      }
+
+    case 'C':
+      readObjectDefinition(null);
+
+      skipObject();
+      return;
+
+    case 0x60: case 0x61: case 0x62: case 0x63:
+    case 0x64: case 0x65: case 0x66: case 0x67:
+    case 0x68: case 0x69: case 0x6a: case 0x6b:
+    case 0x6c: case 0x6d: case 0x6e: case 0x6f:
+      skipObjectInstance(tag - 0x60);
+      return;
+
+    case 'O':
+      skipObjectInstance(readInt());
+      return;
+
+    case BC_REF:
+      readInt();
+      return;
+
+    default:
+      if (tag < 0)
+	throw new EOFException("skipObject: unexpected end of file");
+      else
+	throw error("skipObject: unknown code " + codeName(tag));
+    }
+  }
+
+  private void skipList(int length)
+    throws IOException
+  {
+    addRef(SKIPPED);
+
+    for (int i = 0; i < length; i++)
+      skipObject();
+  }
+
+  private void skipVariableList()
+    throws IOException
+  {
+    addRef(SKIPPED);
+
+    while (! isEnd())
+      skipObject();
+
+    readEnd();
+  }
+
+  private void skipMap(boolean isRef)
+    throws IOException
+  {
+    if (isRef)
+      addRef(SKIPPED);
+
+    while (! isEnd()) {
+      skipObject();
+      skipObject();
+    }
+
+    readMapEnd();
+  }
+
+  private void skipObjectInstance(int ref)
+    throws IOException
+  {
+    if (_classDefs == null || ref < 0 || _classDefs.size() <= ref)
+      throw error("'" + ref + "' is an unknown class definition");
+
+    ObjectDefinition def = (ObjectDefinition) _classDefs.get(ref);
+
+    if (def.isSkipRef(findSerializerFactory()))
+      addRef(SKIPPED);
+
+    int length = def.getFieldNames().length;
+
+    for (int i = 0; i < length; i++)
+      skipObject();
+  }
+
+  /**
+   * Skips the string data following the first chunk header.  Only
+   * the UTF-8 lead bytes are examined for the character lengths.
+   */
+  private void skipString()
+    throws IOException
+  {
+    do {
+      while (_chunkLength > 0) {
+	if (_length <= _offset && ! readBuffer())
+	  throw new EOFException("skipObject: unexpected end of file");
+
+	byte []buffer = _buffer;
+	int offset = _offset;
+	int length = _length;
+	int chunkLength = _chunkLength;
+
+	for (; chunkLength > 0 && offset < length; chunkLength--) {
+	  int ch = buffer[offset] & 0xff;
+
+	  if (ch < 0x80)
+	    offset += 1;
+	  else if ((ch & 0xe0) == 0xc0)
+	    offset += 2;
+	  else if ((ch & 0xf0) == 0xe0)
+	    offset += 3;
+	  else
+	    throw error("bad utf-8 encoding at " + codeName(ch));
+	}
+
+	_chunkLength = chunkLength;
+
+	if (offset <= length)
+	  _offset = offset;
+	else {
+	  // the last character continues in the next buffer
+	  _offset = length;
+	  skipBytes(offset - length);
+	}
+      }
+    } while (nextStringChunk());
+  }
+
+  /**
+   * Skips the binary data following the first chunk header.
+   */
+  private void skipBinary()
+    throws IOException
+  {
+    while (true) {
+      skipBytes(_chunkLength);
+      _chunkLength = 0;
+
+      if (_isLastChunk)
+	return;
+
+      int code = read();
+
+      switch (code) {
+      case BC_BINARY_CHUNK:
+        _isLastChunk = false;
+
+        _chunkLength = (read() << 8) + read();
+        break;
+        
+      case 'B':
+        _isLastChunk = true;
+
+        _chunkLength = (read() << 8) + read();
+        break;
+
+      case 0x20: case 0x21: case 0x22: case 0x23:
+      case 0x24: case 0x25: case 0x26: case 0x27:
+      case 0x28: case 0x29: case 0x2a: case 0x2b:
+      case 0x2c: case 0x2d: case 0x2e: case 0x2f:
+        _isLastChunk = true;
+
+        _chunkLength = code - 0x20;
+        break;
+
+      case 0x34: case 0x35: case 0x36: case 0x37:
+	_isLastChunk = true;
+        _chunkLength = (code - 0x34) * 256 + read();
+        break;
+
+      default:
+        throw expect("byte[]", code);
+      }
+    }
+  }
+
+  /**
+   * Skips bytes of the underlying stream.
+   */
+  private void skipBytes(int length)
+    throws IOException
+  {
+    while (length > 0) {
+      if (_length <= _offset && ! readBuffer())
+	throw new EOFException("skipObject: unexpected end of file");
+
+      int sublen = Math.min(length, _length - _offset);
+
+      _offset += sublen;
+      length -= sublen;
+    }
+  }
+
   /**
    * Reads an object definition:
    *
@@ -2063,17 +2522,28 @@ public class Hessian2Input
     throws IOException
   {
     String type = def.getType();
-    String []fieldNames = def.getFieldNames();
+    String []fieldNames;
+
+    if (_fieldFilter != null)
+      fieldNames = def.getFieldNames(_fieldFilter);
+    else
+      fieldNames = def.getFieldNames();
     
-    if (cl != null) {
-      Deserializer reader;
-      reader = findSerializerFactory().getObjectDeserializer(type, cl);
+    SerializerFactory factory = findSerializerFactory();
+    Deserializer reader = def.getDeserializer(factory, cl);
 
-      return reader.readObject(this, fieldNames);
-    }
-    else {
-      return findSerializerFactory().readObject(this, type, fieldNames);
+    if (reader instanceof JavaDeserializer
+	&& ((JavaDeserializer) reader).isFieldBinding()) {
+      JavaDeserializer javaReader = (JavaDeserializer) reader;
+
+      return javaReader.readObject(this, fieldNames,
+				   def.getFieldDeserializers(javaReader,
+							     fieldNames));
     }
+    else if (reader != null)
+      return reader.readObject(this, fieldNames);
+    else
+      return factory.readObject(this, type, fieldNames);
   }
 
   private String readLenString()
@@ -2084,12 +2554,7 @@ public class Hessian2Input
     _isLastChunk = true;
     _chunkLength = len;
 
-    _sbuf.setLength(0);
-    int ch;
-    while ((ch = parseChar()) >= 0)
-      _sbuf.append((char) ch);
-
-    return _sbuf.toString();
+    return parseString();
   }
 
   private String readLenString(int len)
@@ -2098,12 +2563,7 @@ public class Hessian2Input
     _isLastChunk = true;
     _chunkLength = len;
 
-    _sbuf.setLength(0);
-    int ch;
-    while ((ch = parseChar()) >= 0)
-      _sbuf.append((char) ch);
-
-    return _sbuf.toString();
+    return parseString();
   }
   
   /**
@@ -2124,7 +2584,21 @@ public class Hessian2Input
   public Object readRef()
     throws IOException
   {
-    return _refs.get(parseInt());
+    return getRef(parseInt());
+  }
+
+  private Object getRef(int ref)
+    throws IOException
+  {
+    if (_isAcyclic)
+      throw error("back-reference #" + ref + " can't be resolved by an acyclic input");
+
+    Object value = _refs.get(ref);
+
+    if (value == SKIPPED)
+      throw error("back-reference #" + ref + " is to a skipped value");
+
+    return value;
   }
 
   /**
@@ -2210,6 +2684,9 @@ public class Hessian2Input
    */
   public int addRef(Object ref)
   {
+    if (_isAcyclic)
+      return _refCount++;
+    
     if (_refs == null)
       _refs = new ArrayList();
     
@@ -2223,7 +2700,8 @@ public class Hessian2Input
    */
   public void setRef(int i, Object ref)
   {
-    _refs.set(i, ref);
+    if (! _isAcyclic)
+      _refs.set(i, ref);
   }
   
   /**
@@ -2233,13 +2711,26 @@ public class Hessian2Input
   {
     if (_refs != null)
       _refs.clear();
+    _refCount = 0;
+  }
+
+  /**
+   * Resets the class definitions and types, matching
+   * Hessian2Output.resetClassDefinitions() on the writing side.
+   */
+  public void resetClassDefinitions()
+  {
+    if (_classDefs != null)
+      _classDefs.clear();
+
+    if (_types != null)
+      _types.clear();
   }
 
   public Object readStreamingObject()
     throws IOException
   {
-    if (_refs != null)
-      _refs.clear();
+    resetReferences();
 
     return readObject();
   }
@@ -2405,6 +2896,75 @@ public class Hessian2Input
     throw new UnsupportedOperationException();
   }
   
+  /**
+   * Reads the string data following the first chunk header.  Runs of
+   * ASCII are copied straight from the buffer; other characters go
+   * through parseUTF8Char.
+   */
+  private String parseString()
+    throws IOException
+  {
+    char []chars = _chars;
+    int length = 0;
+
+    do {
+      while (_chunkLength > 0) {
+	byte []buffer = _buffer;
+	int offset = _offset;
+	// an ASCII character is a single byte
+	int end = Math.min(_length, offset + _chunkLength);
+
+	if (chars.length < length + end - offset)
+	  chars = growChars(length + end - offset);
+
+	int start = offset;
+	for (; offset < end; offset++) {
+	  int ch = buffer[offset];
+
+	  if (ch < 0)
+	    break;
+
+	  chars[length++] = (char) ch;
+	}
+
+	_offset = offset;
+	_chunkLength -= offset - start;
+
+	if (_chunkLength <= 0)
+	  break;
+	else if (offset < _length) {
+	  int ch = parseUTF8Char();
+	  _chunkLength--;
+
+	  if (chars.length <= length)
+	    chars = growChars(length + 1);
+
+	  chars[length++] = (char) ch;
+	}
+	else if (! readBuffer())
+	  return new String(chars, 0, length);
+      }
+    } while (nextStringChunk());
+
+    HessianStringCache cache = _stringCache;
+    
+    if (cache != null)
+      return cache.get(chars, length);
+    else
+      return new String(chars, 0, length);
+  }
+
+  private char []growChars(int length)
+  {
+    char []chars = new char[Math.max(length, 2 * _chars.length)];
+
+    System.arraycopy(_chars, 0, chars, 0, _chars.length);
+
+    _chars = chars;
+
+    return chars;
+  }
+
   /**
    * Reads a character from the underlying stream.
    */
@@ -2412,9 +2972,25 @@ public class Hessian2Input
     throws IOException
   {
     while (_chunkLength <= 0) {
-      if (_isLastChunk)
+      if (! nextStringChunk())
         return -1;
+    }
+
+    _chunkLength--;
 
+    return parseUTF8Char();
+  }
+
+  /**
+   * Reads the next string chunk header, returning false after the
+   * last chunk.
+   */
+  private boolean nextStringChunk()
+    throws IOException
+  {
+    if (_isLastChunk)
+      return false;
+    else {
       int code = _offset < _length ? (_buffer[_offset++] & 0xff) : read();
 
       switch (code) {
@@ -2447,11 +3023,8 @@ public class Hessian2Input
         throw expect("string", code);
       }
 
+      return true;
     }
-
-    _chunkLength--;
-
-    return parseUTF8Char();
   }
 
   /**
@@ -2543,6 +3116,7 @@ public class Hessian2Input
     case 'N':
       return null;
 
+    case BC_BINARY_CHUNK:
     case 'B':
     case 'b':
       _isLastChunk = tag == 'B';
@@ -2580,6 +3154,7 @@ public class Hessian2Input
         int code = read();
 
         switch (code) {
+        case BC_BINARY_CHUNK:
         case 'b':
           _isLastChunk = false;
 
@@ -2770,6 +3345,22 @@ public class Hessian2Input
     private final String _type;
     private final String []_fields;
 
+    // field names for the last filter
+    private HessianFieldFilter _filter;
+    private String []_filteredFields;
+
+    private Boolean _isSkipRef;
+
+    // deserializer of the last factory and expected class
+    private SerializerFactory _factory;
+    private Class _class;
+    private Deserializer _deserializer;
+
+    // field deserializers in wire order, for the last reader and names
+    private JavaDeserializer _fieldReader;
+    private String []_fieldReaderNames;
+    private JavaDeserializer.FieldDeserializer []_fieldDeserializers;
+
     ObjectDefinition(String type, String []fields)
     {
       _type = type;
@@ -2785,6 +3376,80 @@ public class Hessian2Input
     {
       return _fields;
     }
+
+    /**
+     * Returns the deserializer for the instances, or null if the type
+     * is unknown and the instances are read as maps.  The deserializer
+     * is looked up once for all the instances of the definition.
+     */
+    Deserializer getDeserializer(SerializerFactory factory, Class cl)
+      throws HessianProtocolException
+    {
+      if (_factory != factory || _class != cl) {
+	if (cl != null)
+	  _deserializer = factory.getObjectDeserializer(_type, cl);
+	else
+	  _deserializer = factory.getDeserializer(_type);
+
+	_factory = factory;
+	_class = cl;
+      }
+
+      return _deserializer;
+    }
+
+    /**
+     * Returns the reader's field deserializers indexed by the wire
+     * position of the fields, bound once for all the instances.
+     */
+    JavaDeserializer.FieldDeserializer []
+      getFieldDeserializers(JavaDeserializer reader, String []fieldNames)
+    {
+      if (_fieldReader != reader || _fieldReaderNames != fieldNames) {
+	_fieldDeserializers = reader.getFieldDeserializers(fieldNames);
+	_fieldReader = reader;
+	_fieldReaderNames = fieldNames;
+      }
+
+      return _fieldDeserializers;
+    }
+
+    /**
+     * Returns the field names with the names rejected by the filter
+     * replaced by null.
+     */
+    String []getFieldNames(HessianFieldFilter filter)
+    {
+      String []fields = _filteredFields;
+
+      if (_filter == filter)
+        return fields;
+
+      fields = new String[_fields.length];
+
+      for (int i = 0; i < fields.length; i++) {
+        if (filter.isReadField(_type, _fields[i]))
+          fields[i] = _fields[i];
+      }
+
+      _filteredFields = fields;
+      _filter = filter;
+
+      return fields;
+    }
+
+    /**
+     * Returns true if reading an instance adds a reference, so
+     * skipping one must add a placeholder.
+     */
+    boolean isSkipRef(SerializerFactory factory)
+      throws IOException
+    {
+      if (_isSkipRef == null)
+        _isSkipRef = Boolean.valueOf(factory.isReadRef(_type));
+
+      return _isSkipRef.booleanValue();
+    }
   }
 
   static {
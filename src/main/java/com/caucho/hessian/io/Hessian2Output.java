@@ -52,7 +52,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.HashMap;
 
-import com.caucho.hessian.util.IdentityIntMap;
+import com.caucho.hessian.util.StampedIdentityIntMap;
 
 /**
  * Output stream for Hessian 2 requests.
@@ -81,9 +81,14 @@ public class Hessian2Output
   protected OutputStream _os;
   
   // map of references
-  private IdentityIntMap _refs = new IdentityIntMap();
+  private StampedIdentityIntMap _refs = new StampedIdentityIntMap();
 
   private boolean _isCloseStreamOnClose;
+
+  // true if objects are written without back-references
+  private boolean _isAcyclic;
+  // true if an acyclic output checks for shared objects
+  private boolean _isCycleCheck = IS_CYCLE_CHECK;
   
   // map of classes
   private HashMap _classRefs;
@@ -92,11 +97,26 @@ public class Hessian2Output
   private HashMap _typeRefs;
 
   public final static int SIZE = 4096;
+
+  // size of the inline serializer cache
+  private final static int SERIALIZER_CACHE_SIZE = 4;
+  // acyclic outputs check for shared objects when assertions are enabled
+  private final static boolean IS_CYCLE_CHECK
+    = Hessian2Output.class.desiredAssertionStatus();
   
   private final byte []_buffer = new byte[SIZE];
   private int _offset;
 
   private boolean _isStreaming;
+  // offset of the current streaming packet's header in the buffer
+  private int _packetStart;
+
+  // serializers of the recently written classes, for the cache factory
+  private final Class []_serializerClasses = new Class[SERIALIZER_CACHE_SIZE];
+  private final Serializer []_serializers
+    = new Serializer[SERIALIZER_CACHE_SIZE];
+  private int _serializerNext;
+  private SerializerFactory _serializerCacheFactory;
   
   /**
    * Creates a new Hessian output stream, initialized with an
@@ -108,7 +128,83 @@ public class Hessian2Output
   {
     _os = os;
   }
+
+  /**
+   * Creates an uninitialized Hessian output stream.
+   */
+  public Hessian2Output()
+  {
+  }
+
+  /**
+   * Initializes the output with a new underlying stream, so the
+   * output can be reused for another message.
+   */
+  @Override
+  public void init(OutputStream os)
+  {
+    reset();
+
+    _os = os;
+  }
+
+  /**
+   * Resets the output state: references, class and type definitions,
+   * and any unflushed data are discarded, and the acyclic mode returns
+   * to its default.
+   */
+  public void reset()
+  {
+    _isAcyclic = false;
+    _isCycleCheck = IS_CYCLE_CHECK;
+    
+    if (_refs != null)
+      _refs.clear();
+
+    if (_classRefs != null)
+      _classRefs.clear();
+
+    if (_typeRefs != null)
+      _typeRefs.clear();
+
+    _offset = 0;
+    _isStreaming = false;
+    _packetStart = 0;
+  }
   
+  /**
+   * If true, objects are written without tracking references, so the
+   * object graph must be a tree: a shared object is written again and
+   * a cycle doesn't terminate.
+   */
+  public void setAcyclic(boolean isAcyclic)
+  {
+    _isAcyclic = isAcyclic;
+  }
+
+  /**
+   * Returns true if objects are written without back-references.
+   */
+  public boolean isAcyclic()
+  {
+    return _isAcyclic;
+  }
+
+  /**
+   * If true, an acyclic output still tracks the written objects and
+   * fails on an object written twice.  Meant for tests; the default is
+   * true when assertions are enabled.
+   */
+  public void setCycleCheck(boolean isCycleCheck)
+  {
+    _isCycleCheck = isCycleCheck;
+  }
+
+  public boolean isCycleCheck()
+  {
+    return _isCycleCheck;
+  }
+
   public void setCloseStreamOnClose(boolean isClose)
   {
     _isCloseStreamOnClose = isClose;
@@ -401,13 +497,49 @@ public class Hessian2Output
       return;
     }
 
-    Serializer serializer;
-
-    serializer = findSerializerFactory().getSerializer(object.getClass());
+    Serializer serializer = getSerializer(object.getClass());
 
     serializer.writeObject(object, this);
   }
 
+  /**
+   * Returns the serializer for a class, checking the classes written
+   * recently before asking the factory.  Runs of objects of a few
+   * classes, like the attributes of a request, skip the factory's
+   * hash lookups.
+   */
+  private Serializer getSerializer(Class cl)
+    throws IOException
+  {
+    SerializerFactory factory = findSerializerFactory();
+    Class []classes = _serializerClasses;
+
+    if (factory == _serializerCacheFactory) {
+      for (int i = 0; i < classes.length; i++) {
+	if (classes[i] == cl)
+	  return _serializers[i];
+      }
+    }
+    else {
+      for (int i = 0; i < classes.length; i++) {
+	classes[i] = null;
+	_serializers[i] = null;
+      }
+      
+      _serializerCacheFactory = factory;
+    }
+
+    Serializer serializer = factory.getSerializer(cl);
+
+    int i = _serializerNext;
+    _serializerNext = (i + 1) % classes.length;
+
+    classes[i] = cl;
+    _serializers[i] = serializer;
+
+    return serializer;
+  }
+
   /**
    * Writes the list header to the stream.  List writers will call
    * <code>writeListBegin</code> followed by the list contents and then
@@ -1245,6 +1377,9 @@ public class Hessian2Output
   public boolean addRef(Object object)
     throws IOException
   {
+    if (_isAcyclic)
+      return addAcyclicRef(object);
+    
     int ref = _refs.get(object);
 
     if (ref >= 0) {
@@ -1259,6 +1394,18 @@ public class Hessian2Output
     }
   }
 
+  private boolean addAcyclicRef(Object object)
+  {
+    if (_isCycleCheck) {
+      if (_refs.get(object) >= 0)
+	throw new IllegalStateException(object.getClass().getName() + " is written twice by an acyclic output: the object graph has a shared or cyclic reference");
+
+      _refs.put(object, _refs.size());
+    }
+    
+    return false;
+  }
+
   /**
    * Removes a reference.
    */
@@ -1280,9 +1427,9 @@ public class Hessian2Output
   public boolean replaceRef(Object oldRef, Object newRef)
     throws IOException
   {
-    Integer value = (Integer) _refs.remove(oldRef);
+    int value = _refs.remove(oldRef);
 
-    if (value != null) {
+    if (value != StampedIdentityIntMap.NULL) {
       _refs.put(newRef, value);
       return true;
     }
@@ -1299,6 +1446,20 @@ public class Hessian2Output
       _refs.clear();
   }
 
+  /**
+   * Resets the class definitions and type references, so the next
+   * object redefines its class.  The peer must reset its tables at the
+   * same point in the stream.
+   */
+  public void resetClassDefinitions()
+  {
+    if (_classRefs != null)
+      _classRefs.clear();
+
+    if (_typeRefs != null)
+      _typeRefs.clear();
+  }
+
   /**
    * Starts the streaming message
    *
@@ -1336,21 +1497,72 @@ public class Hessian2Output
     flush();
 
     _isStreaming = true;
+    _packetStart = 0;
     _offset = 3;
   }
 
   public void endStreamingPacket()
     throws IOException
   {
-    int len = _offset - 3;
+    completeStreamingPacket();
+
+    flush();
+  }
+
+  /**
+   * Writes an object as a streaming message with a message id.  Unlike
+   * writeStreamingObject(), the underlying stream isn't flushed, so
+   * a series of messages can be written back to back.
+   *
+   * <pre>
+   * I x00 x08 b7 b6 b5 b4 b3 b2 b1 b0 P x02 x00 ...
+   * </pre>
+   */
+  public void writeStreamingMessage(long id, Object obj)
+    throws IOException
+  {
+    if (_refs != null)
+      _refs.clear();
+
+    flushBuffer();
+
+    byte []buffer = _buffer;
     
-    _buffer[0] = (byte) 'P';
-    _buffer[1] = (byte) (len >> 8);
-    _buffer[2] = (byte) len;
+    buffer[0] = (byte) 'I';
+    buffer[1] = (byte) 0;
+    buffer[2] = (byte) 8;
+    buffer[3] = (byte) (id >> 56);
+    buffer[4] = (byte) (id >> 48);
+    buffer[5] = (byte) (id >> 40);
+    buffer[6] = (byte) (id >> 32);
+    buffer[7] = (byte) (id >> 24);
+    buffer[8] = (byte) (id >> 16);
+    buffer[9] = (byte) (id >> 8);
+    buffer[10] = (byte) id;
+
+    // the object packet follows the id packet in the same buffer
+    _isStreaming = true;
+    _packetStart = 11;
+    _offset = 14;
 
-    _isStreaming = false;
+    writeObject(obj);
 
-    flush();
+    completeStreamingPacket();
+
+    flushBuffer();
+  }
+
+  private void completeStreamingPacket()
+  {
+    int start = _packetStart;
+    int len = _offset - start - 3;
+    
+    _buffer[start] = (byte) 'P';
+    _buffer[start + 1] = (byte) (len >> 8);
+    _buffer[start + 2] = (byte) len;
+
+    _isStreaming = false;
+    _packetStart = 0;
   }
 
   /**
@@ -1398,19 +1610,34 @@ public class Hessian2Output
   {
     int offset = _offset;
     byte []buffer = _buffer;
+    int i = 0;
     
-    for (int i = 0; i < length; i++) {
+    while (i < length) {
       if (SIZE <= offset + 16) {
 	_offset = offset;
 	flush();
 	offset = _offset;
       }
+
+      // copy the ASCII run which fits in the buffer
+      int end = i + Math.min(length - i, SIZE - 16 - offset);
+
+      for (; i < end; i++) {
+	char ch = v.charAt(i + strOffset);
+
+	if (ch >= 0x80)
+	  break;
+
+	buffer[offset++] = (byte) ch;
+      }
+
+      if (end <= i)
+	continue;
       
       char ch = v.charAt(i + strOffset);
+      i++;
 
-      if (ch < 0x80)
-        buffer[offset++] = (byte) (ch);
-      else if (ch < 0x800) {
+      if (ch < 0x800) {
         buffer[offset++] = (byte) (0xc0 + ((ch >> 6) & 0x1f));
         buffer[offset++] = (byte) (0x80 + (ch & 0x3f));
       }
@@ -1434,19 +1661,34 @@ public class Hessian2Output
   {
     int offset = _offset;
     byte []buffer = _buffer;
+    int i = 0;
     
-    for (int i = 0; i < length; i++) {
+    while (i < length) {
       if (SIZE <= offset + 16) {
 	_offset = offset;
 	flush();
 	offset = _offset;
       }
+
+      // copy the ASCII run which fits in the buffer
+      int end = i + Math.min(length - i, SIZE - 16 - offset);
+
+      for (; i < end; i++) {
+	char ch = v[i + strOffset];
+
+	if (ch >= 0x80)
+	  break;
+
+	buffer[offset++] = (byte) ch;
+      }
+
+      if (end <= i)
+	continue;
       
       char ch = v[i + strOffset];
+      i++;
 
-      if (ch < 0x80)
-        buffer[offset++] = (byte) (ch);
-      else if (ch < 0x800) {
+      if (ch < 0x800) {
         buffer[offset++] = (byte) (0xc0 + ((ch >> 6) & 0x1f));
         buffer[offset++] = (byte) (0x80 + (ch & 0x3f));
       }
@@ -1490,11 +1732,13 @@ public class Hessian2Output
       
       _os.write(_buffer, 0, offset);
     }
-    else if (_isStreaming && offset > 3) {
-      int len = offset - 3;
-      _buffer[0] = 'p';
-      _buffer[1] = (byte) (len >> 8);
-      _buffer[2] = (byte) len;
+    else if (_isStreaming && offset > _packetStart + 3) {
+      int start = _packetStart;
+      int len = offset - start - 3;
+      _buffer[start] = 'p';
+      _buffer[start + 1] = (byte) (len >> 8);
+      _buffer[start + 2] = (byte) len;
+      _packetStart = 0;
       _offset = 3;
 
       _os.write(_buffer, 0, offset);
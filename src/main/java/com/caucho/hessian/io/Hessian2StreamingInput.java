@@ -52,10 +52,16 @@ import java.io.IOException;
 import java.io.InputStream;
 
 /**
- * Output stream for Hessian 2 streaming requests.
+ * Input stream for Hessian 2 streaming requests.
+ *
+ * <p>Session packets written by Hessian2StreamingOutput are handled
+ * between objects: a session start checks the version, a reset
+ * clears the class definitions read so far and a message id tags the
+ * following object.</p>
  */
 public class Hessian2StreamingInput
 {
+  private StreamingInputStream _is;
   private Hessian2Input _in;
   
   /**
@@ -66,7 +72,42 @@ public class Hessian2StreamingInput
    */
   public Hessian2StreamingInput(InputStream is)
   {
-    _in = new Hessian2Input(new StreamingInputStream(is));
+    _is = new StreamingInputStream(is);
+    _in = new Hessian2Input(_is);
+  }
+
+  /**
+   * Sets the serializer factory.
+   */
+  public void setSerializerFactory(SerializerFactory factory)
+  {
+    _in.setSerializerFactory(factory);
+  }
+
+  /**
+   * Returns true if the writer has started a session.
+   */
+  public boolean isSession()
+  {
+    return _is._sessionVersion > 0;
+  }
+
+  /**
+   * Returns the session version announced by the writer, or 0 if
+   * there is no session.
+   */
+  public int getSessionVersion()
+  {
+    return _is._sessionVersion;
+  }
+
+  /**
+   * Returns the message id of the last object read, or -1 if it was
+   * written without one.
+   */
+  public long getMessageId()
+  {
+    return _is._messageId;
   }
 
   /**
@@ -75,6 +116,13 @@ public class Hessian2StreamingInput
   public Object readObject()
     throws IOException
   {
+    _is.startPacket();
+
+    if (_is._isReset) {
+      _is._isReset = false;
+      _in.resetClassDefinitions();
+    }
+    
     return _in.readStreamingObject();
   }
 
@@ -90,33 +138,38 @@ public class Hessian2StreamingInput
   static class StreamingInputStream extends InputStream {
     private InputStream _is;
     private int _length;
+    
+    private int _sessionVersion;
+    private boolean _isReset;
+    private long _messageId = -1;
 
     StreamingInputStream(InputStream is)
     {
       _is = is;
     }
 
+    /**
+     * Reads any session packets before the next object.
+     */
+    void startPacket()
+      throws IOException
+    {
+      _messageId = -1;
+      
+      while (_length == 0) {
+	if (! readPacketHeader(true))
+	  return;
+      }
+    }
+
     public int read()
       throws IOException
     {
       InputStream is = _is;
       
       while (_length == 0) {
-	int code = is.read();
-
-	if (code < 0)
+	if (! readPacketHeader(false))
 	  return -1;
-	else if (code != 'p' && code != 'P')
-	  throw new HessianProtocolException("expected streaming packet at 0x"
-					     + Integer.toHexString(code & 0xff));
-
-	int d1 = is.read();
-	int d2 = is.read();
-
-	if (d2 < 0)
-	  return -1;
-	
-	_length = (d1 << 8) + d2;
       }
 
       _length--;
@@ -129,23 +182,8 @@ public class Hessian2StreamingInput
       InputStream is = _is;
       
       while (_length == 0) {
-	int code = is.read();
-
-	if (code < 0)
+	if (! readPacketHeader(false))
 	  return -1;
-	else if (code != 'p' && code != 'P') {
-	  throw new HessianProtocolException("expected streaming packet at 0x"
-					     + Integer.toHexString(code & 0xff)
-					     + " (" + (char) code + ")");
-	}
-
-	int d1 = is.read();
-	int d2 = is.read();
-
-	if (d2 < 0)
-	  return -1;
-	
-	_length = (d1 << 8) + d2;
       }
 
       int sublen = _length;
@@ -161,5 +199,83 @@ public class Hessian2StreamingInput
 
       return sublen;
     }
+
+    private boolean readPacketHeader(boolean isControl)
+      throws IOException
+    {
+      InputStream is = _is;
+      
+      int code = is.read();
+
+      if (code < 0)
+	return false;
+      
+      boolean isSessionPacket
+	= (code == Hessian2StreamingOutput.PACKET_SESSION
+	   || code == Hessian2StreamingOutput.PACKET_RESET
+	   || code == Hessian2StreamingOutput.PACKET_MESSAGE_ID);
+      
+      if (code != 'p' && code != 'P' && ! (isControl && isSessionPacket)) {
+	throw new HessianProtocolException("expected streaming packet at 0x"
+					   + Integer.toHexString(code & 0xff)
+					   + " (" + (char) code + ")");
+      }
+
+      int d1 = is.read();
+      int d2 = is.read();
+
+      if (d2 < 0)
+	return false;
+
+      int length = (d1 << 8) + d2;
+
+      if (! isSessionPacket) {
+	_length = length;
+	return true;
+      }
+
+      if (code == Hessian2StreamingOutput.PACKET_MESSAGE_ID) {
+	if (_sessionVersion < Hessian2StreamingOutput.MESSAGE_ID_VERSION)
+	  throw new HessianProtocolException("streaming message id without a session");
+
+	long id = 0;
+	for (int i = 0; i < length; i++) {
+	  int ch = is.read();
+
+	  if (ch < 0)
+	    return false;
+
+	  id = (id << 8) + ch;
+	}
+
+	_messageId = id;
+
+	return true;
+      }
+
+      int version = 0;
+      for (int i = 0; i < length; i++) {
+	int ch = is.read();
+
+	if (ch < 0)
+	  return false;
+	else if (i == 0)
+	  version = ch;
+      }
+
+      if (code == Hessian2StreamingOutput.PACKET_SESSION) {
+	if (version < 1 || Hessian2StreamingOutput.SESSION_VERSION < version)
+	  throw new HessianProtocolException("unsupported streaming session version "
+					     + version);
+
+	_sessionVersion = version;
+      }
+      else if (_sessionVersion == 0)
+	throw new HessianProtocolException("streaming session reset without a session");
+
+      _isReset = true;
+
+      return true;
+    }
   }
 }
@@ -53,10 +53,42 @@ import java.io.OutputStream;
 
 /**
  * Output stream for Hessian 2 streaming requests.
+ *
+ * <p>Class definitions and type references are kept for the life of
+ * the stream, so a class is only defined by the first object that uses
+ * it.  A session makes that explicit: startSession() announces the
+ * session version to the reader and resetSession() clears the tables
+ * on both sides, e.g. after the set of classes in use has changed.</p>
+ *
+ * <p>Within a session, writeMessage() tags each object with a message
+ * id and leaves flushing to the caller, so a client can pipeline many
+ * requests on one stream and match replies, in any order, by the id
+ * Hessian2StreamingInput.getMessageId() returns.  The output isn't
+ * synchronized; threads sharing it must serialize their writes.</p>
+ *
+ * <pre>
+ * S x00 x01 version   # start session
+ * R x00 x00           # reset class definitions
+ * I x00 x08 id        # message id of the following object
+ * </pre>
  */
 public class Hessian2StreamingOutput
 {
+  /**
+   * The session version written by startSession().
+   */
+  public static final int SESSION_VERSION = 2;
+
+  // first session version with message ids
+  static final int MESSAGE_ID_VERSION = 2;
+
+  static final int PACKET_SESSION = 'S';
+  static final int PACKET_RESET = 'R';
+  static final int PACKET_MESSAGE_ID = 'I';
+  
+  private OutputStream _os;
   private Hessian2Output _out;
+  private boolean _isSession;
   
   /**
    * Creates a new Hessian output stream, initialized with an
@@ -66,6 +98,7 @@ public class Hessian2StreamingOutput
    */
   public Hessian2StreamingOutput(OutputStream os)
   {
+    _os = os;
     _out = new Hessian2Output(os);
   }
   
@@ -79,6 +112,47 @@ public class Hessian2StreamingOutput
     return _out.isCloseStreamOnClose();
   }
 
+  /**
+   * Sets the serializer factory.
+   */
+  public void setSerializerFactory(SerializerFactory factory)
+  {
+    _out.setSerializerFactory(factory);
+  }
+
+  /**
+   * Starts a session, clearing any class definitions written so far.
+   * A reader that doesn't understand sessions fails on the session
+   * packet instead of misreading the following objects.
+   */
+  public void startSession()
+    throws IOException
+  {
+    writeControlPacket(PACKET_SESSION, SESSION_VERSION);
+
+    _isSession = true;
+  }
+
+  /**
+   * Returns true if startSession() has been called.
+   */
+  public boolean isSession()
+  {
+    return _isSession;
+  }
+
+  /**
+   * Clears the class definitions on both sides of the session.
+   */
+  public void resetSession()
+    throws IOException
+  {
+    if (! _isSession)
+      throw new IllegalStateException("resetSession() requires startSession()");
+
+    writeControlPacket(PACKET_RESET, -1);
+  }
+
   /**
    * Writes any object to the output stream.
    */
@@ -88,6 +162,24 @@ public class Hessian2StreamingOutput
     _out.writeStreamingObject(object);
   }
 
+  /**
+   * Writes an object tagged with a message id, without flushing the
+   * underlying stream.
+   *
+   * @param id the caller's message id, which must not be negative
+   */
+  public void writeMessage(long id, Object object)
+    throws IOException
+  {
+    if (! _isSession)
+      throw new IllegalStateException("writeMessage() requires startSession()");
+
+    if (id < 0)
+      throw new IllegalArgumentException("message id " + id + " must not be negative");
+
+    _out.writeStreamingMessage(id, object);
+  }
+
   /**
    * Flushes the output.
    */
@@ -105,4 +197,23 @@ public class Hessian2StreamingOutput
   {
     _out.close();
   }
+
+  private void writeControlPacket(int code, int value)
+    throws IOException
+  {
+    // control packets only go between objects, after the output's
+    // buffer has been written
+    _out.flush();
+    _out.resetClassDefinitions();
+
+    _os.write(code);
+    _os.write(0);
+
+    if (value < 0)
+      _os.write(0);
+    else {
+      _os.write(1);
+      _os.write(value);
+    }
+  }
 }
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+/**
+ * Selects the fields an input deserializes.  Values of rejected fields
+ * are skipped in the stream without being decoded.
+ *
+ * <p>Only fields of objects written with a class definition are
+ * filtered.  A deserializer which doesn't recognize a skipped field
+ * reads and discards its value as for an unknown field.
+ */
+public interface HessianFieldFilter {
+  /**
+   * Returns true if the field should be deserialized.
+   *
+   * @param type the type of the object, as written in the stream
+   * @param field the field name
+   */
+  public boolean isReadField(String type, String field);
+}
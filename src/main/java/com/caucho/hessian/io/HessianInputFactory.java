@@ -52,12 +52,22 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.logging.Logger;
 
+import com.caucho.hessian.util.HessianFreeList;
+
+/**
+ * Opens Hessian input streams.  Hessian 2 inputs are recycled when
+ * they are returned with <code>freeHessian2Input</code>.
+ */
 public class HessianInputFactory
 {
   public static final Logger log
     = Logger.getLogger(HessianInputFactory.class.getName());
 
   private SerializerFactory _serializerFactory;
+  private HessianStringCache _stringCache;
+
+  private final HessianFreeList<Hessian2Input> _freeHessian2Input
+    = new HessianFreeList<Hessian2Input>(32);
 
   public void setSerializerFactory(SerializerFactory factory)
   {
@@ -69,6 +79,19 @@ public class HessianInputFactory
     return _serializerFactory;
   }
 
+  /**
+   * Sets the string cache shared by the Hessian 2 inputs, or null.
+   */
+  public void setStringCache(HessianStringCache cache)
+  {
+    _stringCache = cache;
+  }
+
+  public HessianStringCache getStringCache()
+  {
+    return _stringCache;
+  }
+
   public AbstractHessianInput open(InputStream is)
     throws IOException
   {
@@ -83,9 +106,7 @@ public class HessianInputFactory
     case 'r':
     case 'R':
       if (major >= 2) {
-	AbstractHessianInput in = new Hessian2Input(is);
-	in.setSerializerFactory(_serializerFactory);
-	return in;
+	return createHessian2Input(is);
       }
       else {
 	AbstractHessianInput in = new HessianInput(is);
@@ -97,4 +118,38 @@ public class HessianInputFactory
       throw new IOException((char) code + " is an unknown Hessian message code.");
     }
   }
+
+  /**
+   * Returns a Hessian 2 input for the stream, reusing a freed input
+   * if one is available.
+   */
+  public Hessian2Input createHessian2Input(InputStream is)
+  {
+    Hessian2Input in = _freeHessian2Input.allocate();
+
+    if (in != null)
+      in.init(is);
+    else
+      in = new Hessian2Input(is);
+    
+    in.setSerializerFactory(_serializerFactory);
+    in.setStringCache(_stringCache);
+
+    return in;
+  }
+
+  /**
+   * Returns a Hessian 2 input for reuse.  The input must not be used
+   * after it is freed.
+   */
+  public void freeHessian2Input(Hessian2Input in)
+  {
+    if (in == null)
+      return;
+
+    // drops the stream and the message state
+    in.init(null);
+    
+    _freeHessian2Input.free(in);
+  }
 }
@@ -50,7 +50,8 @@ package com.caucho.hessian.io;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.IdentityHashMap;
+
+import com.caucho.hessian.util.StampedIdentityIntMap;
 
 /**
  * Output stream for Hessian requests, compatible with microedition
@@ -76,7 +77,7 @@ public class HessianOutput extends AbstractHessianOutput {
   // the output stream/
   protected OutputStream os;
   // map of references
-  private IdentityHashMap _refs;
+  private StampedIdentityIntMap _refs;
   private int _version = 1;
   
   /**
@@ -104,7 +105,8 @@ public class HessianOutput extends AbstractHessianOutput {
   {
     this.os = os;
 
-    _refs = null;
+    if (_refs != null)
+      _refs.clear();
 
     if (_serializerFactory == null)
       _serializerFactory = new SerializerFactory();
@@ -794,18 +796,16 @@ public class HessianOutput extends AbstractHessianOutput {
     throws IOException
   {
     if (_refs == null)
-      _refs = new IdentityHashMap();
+      _refs = new StampedIdentityIntMap();
 
-    Integer ref = (Integer) _refs.get(object);
+    int ref = _refs.get(object);
 
-    if (ref != null) {
-      int value = ref.intValue();
-      
-      writeRef(value);
+    if (ref >= 0) {
+      writeRef(ref);
       return true;
     }
     else {
-      _refs.put(object, new Integer(_refs.size()));
+      _refs.put(object, _refs.size());
       
       return false;
     }
@@ -841,9 +841,12 @@ public class HessianOutput extends AbstractHessianOutput {
   public boolean replaceRef(Object oldRef, Object newRef)
     throws IOException
   {
-    Integer value = (Integer) _refs.remove(oldRef);
+    if (_refs == null)
+      return false;
+    
+    int value = _refs.remove(oldRef);
 
-    if (value != null) {
+    if (value != StampedIdentityIntMap.NULL) {
       _refs.put(newRef, value);
       return true;
     }
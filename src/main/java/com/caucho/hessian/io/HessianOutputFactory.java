@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.OutputStream;
+
+import com.caucho.hessian.util.HessianFreeList;
+
+/**
+ * Creates Hessian 2 output streams.  Outputs are recycled when they are
+ * returned with <code>freeHessian2Output</code>, so a server can reuse
+ * the buffer and reference tables across messages.
+ *
+ * <pre>
+ * Hessian2Output out = factory.createHessian2Output(os);
+ * try {
+ *   out.writeObject(value);
+ *   out.flush();
+ * } finally {
+ *   factory.freeHessian2Output(out);
+ * }
+ * </pre>
+ */
+public class HessianOutputFactory
+{
+  private SerializerFactory _serializerFactory;
+
+  private final HessianFreeList<Hessian2Output> _freeHessian2Output
+    = new HessianFreeList<Hessian2Output>(32);
+
+  public void setSerializerFactory(SerializerFactory factory)
+  {
+    _serializerFactory = factory;
+  }
+
+  public SerializerFactory getSerializerFactory()
+  {
+    return _serializerFactory;
+  }
+
+  /**
+   * Returns a Hessian 2 output for the stream, reusing a freed output
+   * if one is available.
+   */
+  public Hessian2Output createHessian2Output(OutputStream os)
+  {
+    Hessian2Output out = _freeHessian2Output.allocate();
+
+    if (out != null)
+      out.init(os);
+    else
+      out = new Hessian2Output(os);
+    
+    out.setSerializerFactory(_serializerFactory);
+
+    return out;
+  }
+
+  /**
+   * Returns a Hessian 2 output for reuse.  Unflushed data is discarded,
+   * and the output must not be used after it is freed.
+   */
+  public void freeHessian2Output(Hessian2Output out)
+  {
+    if (out == null)
+      return;
+
+    // drops the stream and the message state
+    out.init(null);
+    
+    _freeHessian2Output.free(out);
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+/**
+ * Bounded cache of decoded strings, so repeated strings share one
+ * instance instead of allocating a new string per message.
+ *
+ * <p>The table is hash-indexed with one entry per slot.  Seed strings
+ * added with <code>add</code> keep their slots; other short strings
+ * replace the slot's previous entry when they're decoded.  A cache can
+ * be shared by several inputs.
+ */
+public final class HessianStringCache {
+  // longer strings aren't worth hashing
+  public static final int MAX_LENGTH = 256;
+
+  private final String []_entries;
+  private final boolean []_isSeed;
+  private final int _mask;
+
+  /**
+   * Creates a cache.
+   *
+   * @param capacity the number of slots, rounded up to a power of two
+   */
+  public HessianStringCache(int capacity)
+  {
+    int size = 16;
+
+    while (size < capacity)
+      size *= 2;
+
+    _entries = new String[size];
+    _isSeed = new boolean[size];
+    _mask = size - 1;
+  }
+
+  /**
+   * Adds a seed string, which isn't replaced by decoded strings.
+   * A seed whose slot holds another seed is ignored.  Seeds should
+   * be added before the cache is shared.
+   *
+   * @return true if the string was added
+   */
+  public synchronized boolean add(String value)
+  {
+    if (value.length() > MAX_LENGTH)
+      return false;
+    
+    int slot = value.hashCode() & _mask;
+
+    if (_isSeed[slot])
+      return value.equals(_entries[slot]);
+
+    _entries[slot] = value;
+    _isSeed[slot] = true;
+
+    return true;
+  }
+
+  /**
+   * Returns the string for the characters, reusing the cached
+   * instance if it matches.
+   */
+  public String get(char []chars, int length)
+  {
+    if (length > MAX_LENGTH)
+      return new String(chars, 0, length);
+
+    int hash = 0;
+    for (int i = 0; i < length; i++)
+      hash = 31 * hash + chars[i];
+
+    int slot = hash & _mask;
+    String entry = _entries[slot];
+
+    if (entry != null && isMatch(entry, chars, length))
+      return entry;
+
+    String value = new String(chars, 0, length);
+
+    // strings are immutable, so a racing update is harmless
+    if (! _isSeed[slot])
+      _entries[slot] = value;
+
+    return value;
+  }
+
+  private static boolean isMatch(String entry, char []chars, int length)
+  {
+    if (entry.length() != length)
+      return false;
+
+    for (int i = 0; i < length; i++) {
+      if (entry.charAt(i) != chars[i])
+	return false;
+    }
+
+    return true;
+  }
+}
@@ -63,9 +63,17 @@ import java.util.logging.Logger;
 public class JavaDeserializer extends AbstractMapDeserializer {
   private static final Logger log
     = Logger.getLogger(JavaDeserializer.class.getName());
+
+  // reads and discards the value of an unknown field
+  private static final FieldDeserializer UNKNOWN_FIELD
+    = new UnknownFieldDeserializer();
+  // skips the value of a field rejected by a field filter
+  private static final FieldDeserializer SKIP_FIELD
+    = new SkipFieldDeserializer();
   
   private Class _type;
   private HashMap _fieldMap;
+  private final boolean _isFieldBinding;
   private Method _readResolve;
   private Constructor _constructor;
   private Object []_constructorArgs;
@@ -75,6 +83,12 @@ public class JavaDeserializer extends AbstractMapDeserializer {
     _type = cl;
     _fieldMap = getFieldMap(cl);
 
+    // subclasses outside the package may override readObject
+    Class selfClass = getClass();
+    _isFieldBinding = (selfClass == JavaDeserializer.class
+		       || selfClass == GeneratedDeserializer.class
+		       || selfClass == StackTraceElementDeserializer.class);
+
     _readResolve = getReadResolve(cl);
 
     if (_readResolve != null) {
@@ -163,6 +177,71 @@ public class JavaDeserializer extends AbstractMapDeserializer {
     }
   }
 
+  /**
+   * Reads an object with the field deserializers bound to a class
+   * definition by <code>getFieldDeserializers</code>.
+   */
+  Object readObject(AbstractHessianInput in,
+		    String []fieldNames,
+		    FieldDeserializer []fields)
+    throws IOException
+  {
+    try {
+      Object obj = instantiate();
+
+      return readObject(in, obj, fieldNames, fields);
+    } catch (IOException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOExceptionWrapper(_type.getName() + ":" + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Returns true if the deserializer can read objects with bound
+   * field deserializers.
+   */
+  boolean isFieldBinding()
+  {
+    return _isFieldBinding;
+  }
+
+  /**
+   * Returns the field deserializers in the order of a class
+   * definition's field names, so each instance is read without
+   * looking up its field names.  Unknown fields read and discard
+   * their value; fields rejected by a field filter, with null names,
+   * are skipped.
+   */
+  FieldDeserializer []getFieldDeserializers(String []fieldNames)
+  {
+    FieldDeserializer []fields = new FieldDeserializer[fieldNames.length];
+
+    for (int i = 0; i < fieldNames.length; i++) {
+      String name = fieldNames[i];
+
+      if (name == null)
+	fields[i] = SKIP_FIELD;
+      else {
+	FieldDeserializer deser = (FieldDeserializer) _fieldMap.get(name);
+
+	fields[i] = deser != null ? deser : UNKNOWN_FIELD;
+      }
+    }
+
+    return fields;
+  }
+
+  /**
+   * Returns the deserializer for the named field, or null.
+   */
+  FieldDeserializer getFieldDeserializer(String name)
+  {
+    return (FieldDeserializer) _fieldMap.get(name);
+  }
+
   /**
    * Returns the readResolve method
    */
@@ -230,6 +309,8 @@ public class JavaDeserializer extends AbstractMapDeserializer {
 
         if (deser != null)
 	  deser.deserialize(in, obj);
+        else if (name == null)
+          in.skipObject();
         else
           in.readObject();
       }
@@ -247,7 +328,32 @@ public class JavaDeserializer extends AbstractMapDeserializer {
     }
   }
 
-  private Object resolve(Object obj)
+  Object readObject(AbstractHessianInput in,
+		    Object obj,
+		    String []fieldNames,
+		    FieldDeserializer []fields)
+    throws IOException
+  {
+    try {
+      int ref = in.addRef(obj);
+
+      for (int i = 0; i < fields.length; i++)
+	fields[i].deserialize(in, obj);
+
+      Object resolve = resolve(obj);
+
+      if (obj != resolve)
+	in.setRef(ref, resolve);
+
+      return resolve;
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOExceptionWrapper(obj.getClass().getName() + ":" + e, e);
+    }
+  }
+
+  Object resolve(Object obj)
     throws Exception
   {
     // if there's a readResolve method, call it
@@ -301,42 +407,43 @@ public class JavaDeserializer extends AbstractMapDeserializer {
         }
 
 	Class type = field.getType();
+	FieldAccessor accessor = FieldAccessor.create(field);
 	FieldDeserializer deser;
 
 	if (String.class.equals(type))
-	  deser = new StringFieldDeserializer(field);
+	  deser = new StringFieldDeserializer(accessor);
 	else if (byte.class.equals(type)) {
-	  deser = new ByteFieldDeserializer(field);
+	  deser = new ByteFieldDeserializer(accessor);
 	}
 	else if (short.class.equals(type)) {
-	  deser = new ShortFieldDeserializer(field);
+	  deser = new ShortFieldDeserializer(accessor);
 	}
 	else if (int.class.equals(type)) {
-	  deser = new IntFieldDeserializer(field);
+	  deser = new IntFieldDeserializer(accessor);
 	}
 	else if (long.class.equals(type)) {
-	  deser = new LongFieldDeserializer(field);
+	  deser = new LongFieldDeserializer(accessor);
 	}
 	else if (float.class.equals(type)) {
-	  deser = new FloatFieldDeserializer(field);
+	  deser = new FloatFieldDeserializer(accessor);
 	}
 	else if (double.class.equals(type)) {
-	  deser = new DoubleFieldDeserializer(field);
+	  deser = new DoubleFieldDeserializer(accessor);
 	}
 	else if (boolean.class.equals(type)) {
-	  deser = new BooleanFieldDeserializer(field);
+	  deser = new BooleanFieldDeserializer(accessor);
 	}
 	else if (java.sql.Date.class.equals(type)) {
-	  deser = new SqlDateFieldDeserializer(field);
+	  deser = new SqlDateFieldDeserializer(accessor);
   }
 	else if (java.sql.Timestamp.class.equals(type)) {
-	  deser = new SqlTimestampFieldDeserializer(field);
+	  deser = new SqlTimestampFieldDeserializer(accessor);
   }
 	else if (java.sql.Time.class.equals(type)) {
-	  deser = new SqlTimeFieldDeserializer(field);
+	  deser = new SqlTimeFieldDeserializer(accessor);
   }
 	else {
-	  deser = new ObjectFieldDeserializer(field);
+	  deser = new ObjectFieldDeserializer(accessor);
 	}
 
         fieldMap.put(field.getName(), deser);
@@ -378,12 +485,30 @@ public class JavaDeserializer extends AbstractMapDeserializer {
       throws IOException;
   }
 
+  static class UnknownFieldDeserializer extends FieldDeserializer {
+    void deserialize(AbstractHessianInput in, Object obj)
+      throws IOException
+    {
+      in.readObject();
+    }
+  }
+
+  static class SkipFieldDeserializer extends FieldDeserializer {
+    void deserialize(AbstractHessianInput in, Object obj)
+      throws IOException
+    {
+      in.skipObject();
+    }
+  }
+
   static class ObjectFieldDeserializer extends FieldDeserializer {
-    private final Field _field;
+    private final FieldAccessor _field;
+    private final Class _type;
 
-    ObjectFieldDeserializer(Field field)
+    ObjectFieldDeserializer(FieldAccessor field)
     {
       _field = field;
+      _type = field.getField().getType();
     }
     
     void deserialize(AbstractHessianInput in, Object obj)
@@ -392,7 +517,7 @@ public class JavaDeserializer extends AbstractMapDeserializer {
       Object value = null;
       
       try {
-	value = in.readObject(_field.getType());
+	value = in.readObject(_type);
 	
 	_field.set(obj, value);
       } catch (Exception e) {
@@ -402,9 +527,9 @@ public class JavaDeserializer extends AbstractMapDeserializer {
   }
 
   static class BooleanFieldDeserializer extends FieldDeserializer {
-    private final Field _field;
+    private final FieldAccessor _field;
 
-    BooleanFieldDeserializer(Field field)
+    BooleanFieldDeserializer(FieldAccessor field)
     {
       _field = field;
     }
@@ -425,9 +550,9 @@ public class JavaDeserializer extends AbstractMapDeserializer {
   }
 
   static class ByteFieldDeserializer extends FieldDeserializer {
-    private final Field _field;
+    private final FieldAccessor _field;
 
-    ByteFieldDeserializer(Field field)
+    ByteFieldDeserializer(FieldAccessor field)
     {
       _field = field;
     }
@@ -448,9 +573,9 @@ public class JavaDeserializer extends AbstractMapDeserializer {
   }
 
   static class ShortFieldDeserializer extends FieldDeserializer {
-    private final Field _field;
+    private final FieldAccessor _field;
 
-    ShortFieldDeserializer(Field field)
+    ShortFieldDeserializer(FieldAccessor field)
     {
       _field = field;
     }
@@ -471,9 +596,9 @@ public class JavaDeserializer extends AbstractMapDeserializer {
   }
 
   static class IntFieldDeserializer extends FieldDeserializer {
-    private final Field _field;
+    private final FieldAccessor _field;
 
-    IntFieldDeserializer(Field field)
+    IntFieldDeserializer(FieldAccessor field)
     {
       _field = field;
     }
@@ -494,9 +619,9 @@ public class JavaDeserializer extends AbstractMapDeserializer {
   }
 
   static class LongFieldDeserializer extends FieldDeserializer {
-    private final Field _field;
+    private final FieldAccessor _field;
 
-    LongFieldDeserializer(Field field)
+    LongFieldDeserializer(FieldAccessor field)
     {
       _field = field;
     }
@@ -517,9 +642,9 @@ public class JavaDeserializer extends AbstractMapDeserializer {
   }
 
   static class FloatFieldDeserializer extends FieldDeserializer {
-    private final Field _field;
+    private final FieldAccessor _field;
 
-    FloatFieldDeserializer(Field field)
+    FloatFieldDeserializer(FieldAccessor field)
     {
       _field = field;
     }
@@ -540,9 +665,9 @@ public class JavaDeserializer extends AbstractMapDeserializer {
   }
 
   static class DoubleFieldDeserializer extends FieldDeserializer {
-    private final Field _field;
+    private final FieldAccessor _field;
 
-    DoubleFieldDeserializer(Field field)
+    DoubleFieldDeserializer(FieldAccessor field)
     {
       _field = field;
     }
@@ -563,9 +688,9 @@ public class JavaDeserializer extends AbstractMapDeserializer {
   }
 
   static class StringFieldDeserializer extends FieldDeserializer {
-    private final Field _field;
+    private final FieldAccessor _field;
 
-    StringFieldDeserializer(Field field)
+    StringFieldDeserializer(FieldAccessor field)
     {
       _field = field;
     }
@@ -586,9 +711,9 @@ public class JavaDeserializer extends AbstractMapDeserializer {
   }
 
   static class SqlDateFieldDeserializer extends FieldDeserializer {
-    private final Field _field;
+    private final FieldAccessor _field;
 
-    SqlDateFieldDeserializer(Field field)
+    SqlDateFieldDeserializer(FieldAccessor field)
     {
       _field = field;
     }
@@ -610,9 +735,9 @@ public class JavaDeserializer extends AbstractMapDeserializer {
   }
 
   static class SqlTimestampFieldDeserializer extends FieldDeserializer {
-    private final Field _field;
+    private final FieldAccessor _field;
 
-    SqlTimestampFieldDeserializer(Field field)
+    SqlTimestampFieldDeserializer(FieldAccessor field)
     {
       _field = field;
     }
@@ -634,9 +759,9 @@ public class JavaDeserializer extends AbstractMapDeserializer {
   }
 
   static class SqlTimeFieldDeserializer extends FieldDeserializer {
-    private final Field _field;
+    private final FieldAccessor _field;
 
-    SqlTimeFieldDeserializer(Field field)
+    SqlTimeFieldDeserializer(FieldAccessor field)
     {
       _field = field;
     }
@@ -657,10 +782,12 @@ public class JavaDeserializer extends AbstractMapDeserializer {
     }
   }
 
-  static void logDeserializeError(Field field, Object obj, Object value,
-                                  Throwable e)
+  static void logDeserializeError(FieldAccessor accessor, Object obj,
+                                  Object value, Throwable e)
     throws IOException
   {
+    Field field = accessor.getField();
+
     String fieldName = (field.getDeclaringClass().getName()
                         + "." + field.getName());
 
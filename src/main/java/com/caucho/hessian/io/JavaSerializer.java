@@ -67,6 +67,7 @@ public class JavaSerializer extends AbstractSerializer
   private static Object []NULL_ARGS = new Object[0];
   
   private Field []_fields;
+  private FieldAccessor []_accessors;
   private FieldSerializer []_fieldSerializers;
 
   private Object _writeReplaceFactory;
@@ -79,6 +80,23 @@ public class JavaSerializer extends AbstractSerializer
     if (_writeReplace != null)
       _writeReplace.setAccessible(true);
 
+    _fields = getSerializableFields(cl);
+
+    _accessors = new FieldAccessor[_fields.length];
+    _fieldSerializers = new FieldSerializer[_fields.length];
+
+    for (int i = 0; i < _fields.length; i++) {
+      _accessors[i] = FieldAccessor.create(_fields[i]);
+      _fieldSerializers[i] = getFieldSerializer(_fields[i].getType());
+    }
+  }
+
+  /**
+   * Returns the serialized fields in wire order: primitive and
+   * java.lang fields first, then compound fields.
+   */
+  static Field []getSerializableFields(Class cl)
+  {
     ArrayList primitiveFields = new ArrayList();
     ArrayList compoundFields = new ArrayList();
     
@@ -107,14 +125,25 @@ public class JavaSerializer extends AbstractSerializer
     fields.addAll(primitiveFields);
     fields.addAll(compoundFields);
 
-    _fields = new Field[fields.size()];
-    fields.toArray(_fields);
+    Field []fieldArray = new Field[fields.size()];
+    fields.toArray(fieldArray);
 
-    _fieldSerializers = new FieldSerializer[_fields.length];
+    return fieldArray;
+  }
 
-    for (int i = 0; i < _fields.length; i++) {
-      _fieldSerializers[i] = getFieldSerializer(_fields[i].getType());
-    }
+  Field []getFields()
+  {
+    return _fields;
+  }
+
+  FieldAccessor []getFieldAccessors()
+  {
+    return _accessors;
+  }
+
+  FieldSerializer []getFieldSerializers()
+  {
+    return _fieldSerializers;
   }
 
   private void introspectWriteReplace(Class cl, ClassLoader loader)
@@ -235,7 +264,7 @@ public class JavaSerializer extends AbstractSerializer
 
       out.writeString(field.getName());
 	
-      _fieldSerializers[i].serialize(out, obj, field);
+      _fieldSerializers[i].serialize(out, obj, _accessors[i]);
     }
       
     out.writeMapEnd();
@@ -256,28 +285,34 @@ public class JavaSerializer extends AbstractSerializer
   public void writeInstance(Object obj, AbstractHessianOutput out)
     throws IOException
   {
-    for (int i = 0; i < _fields.length; i++) {
-      Field field = _fields[i];
-
-      _fieldSerializers[i].serialize(out, obj, field);
+    FieldAccessor []accessors = _accessors;
+    FieldSerializer []fieldSerializers = _fieldSerializers;
+    
+    for (int i = 0; i < accessors.length; i++) {
+      fieldSerializers[i].serialize(out, obj, accessors[i]);
     }
   }
 
-  private static FieldSerializer getFieldSerializer(Class type)
+  static FieldSerializer getFieldSerializer(Class type)
   {
-    if (int.class.equals(type)
-        || byte.class.equals(type)
-        || short.class.equals(type)
-        || int.class.equals(type)) {
+    if (int.class.equals(type)) {
       return IntFieldSerializer.SER;
     }
+    else if (byte.class.equals(type)) {
+      return ByteFieldSerializer.SER;
+    }
+    else if (short.class.equals(type)) {
+      return ShortFieldSerializer.SER;
+    }
     else if (long.class.equals(type)) {
       return LongFieldSerializer.SER;
     }
-    else if (double.class.equals(type) ||
-        float.class.equals(type)) {
+    else if (double.class.equals(type)) {
       return DoubleFieldSerializer.SER;
     }
+    else if (float.class.equals(type)) {
+      return FloatFieldSerializer.SER;
+    }
     else if (boolean.class.equals(type)) {
       return BooleanFieldSerializer.SER;
     }
@@ -297,7 +332,8 @@ public class JavaSerializer extends AbstractSerializer
   static class FieldSerializer {
     static final FieldSerializer SER = new FieldSerializer();
     
-    void serialize(AbstractHessianOutput out, Object obj, Field field)
+    void serialize(AbstractHessianOutput out, Object obj,
+		   FieldAccessor field)
       throws IOException
     {
       Object value = null;
@@ -311,10 +347,10 @@ public class JavaSerializer extends AbstractSerializer
       try {
 	out.writeObject(value);
       } catch (RuntimeException e) {
-	throw new RuntimeException(e.getMessage() + "\n Java field: " + field,
+	throw new RuntimeException(e.getMessage() + "\n Java field: " + field.getField(),
 				   e);
       } catch (IOException e) {
-	throw new IOExceptionWrapper(e.getMessage() + "\n Java field: " + field,
+	throw new IOExceptionWrapper(e.getMessage() + "\n Java field: " + field.getField(),
 			      e);
       }
     }
@@ -323,7 +359,8 @@ public class JavaSerializer extends AbstractSerializer
   static class BooleanFieldSerializer extends FieldSerializer {
     static final FieldSerializer SER = new BooleanFieldSerializer();
     
-    void serialize(AbstractHessianOutput out, Object obj, Field field)
+    void serialize(AbstractHessianOutput out, Object obj,
+		   FieldAccessor field)
       throws IOException
     {
       boolean value = false;
@@ -338,10 +375,49 @@ public class JavaSerializer extends AbstractSerializer
     }
   }
 
+  static class ByteFieldSerializer extends FieldSerializer {
+    static final FieldSerializer SER = new ByteFieldSerializer();
+    
+    void serialize(AbstractHessianOutput out, Object obj,
+		   FieldAccessor field)
+      throws IOException
+    {
+      int value = 0;
+	
+      try {
+	value = field.getByte(obj);
+      } catch (IllegalAccessException e) {
+	log.log(Level.FINE, e.toString(), e);
+      }
+
+      out.writeInt(value);
+    }
+  }
+
+  static class ShortFieldSerializer extends FieldSerializer {
+    static final FieldSerializer SER = new ShortFieldSerializer();
+    
+    void serialize(AbstractHessianOutput out, Object obj,
+		   FieldAccessor field)
+      throws IOException
+    {
+      int value = 0;
+	
+      try {
+	value = field.getShort(obj);
+      } catch (IllegalAccessException e) {
+	log.log(Level.FINE, e.toString(), e);
+      }
+
+      out.writeInt(value);
+    }
+  }
+
   static class IntFieldSerializer extends FieldSerializer {
     static final FieldSerializer SER = new IntFieldSerializer();
     
-    void serialize(AbstractHessianOutput out, Object obj, Field field)
+    void serialize(AbstractHessianOutput out, Object obj,
+		   FieldAccessor field)
       throws IOException
     {
       int value = 0;
@@ -359,7 +435,8 @@ public class JavaSerializer extends AbstractSerializer
   static class LongFieldSerializer extends FieldSerializer {
     static final FieldSerializer SER = new LongFieldSerializer();
     
-    void serialize(AbstractHessianOutput out, Object obj, Field field)
+    void serialize(AbstractHessianOutput out, Object obj,
+		   FieldAccessor field)
       throws IOException
     {
       long value = 0;
@@ -377,7 +454,8 @@ public class JavaSerializer extends AbstractSerializer
   static class DoubleFieldSerializer extends FieldSerializer {
     static final FieldSerializer SER = new DoubleFieldSerializer();
     
-    void serialize(AbstractHessianOutput out, Object obj, Field field)
+    void serialize(AbstractHessianOutput out, Object obj,
+		   FieldAccessor field)
       throws IOException
     {
       double value = 0;
@@ -392,10 +470,30 @@ public class JavaSerializer extends AbstractSerializer
     }
   }
 
+  static class FloatFieldSerializer extends FieldSerializer {
+    static final FieldSerializer SER = new FloatFieldSerializer();
+    
+    void serialize(AbstractHessianOutput out, Object obj,
+		   FieldAccessor field)
+      throws IOException
+    {
+      double value = 0;
+	
+      try {
+	value = field.getFloat(obj);
+      } catch (IllegalAccessException e) {
+	log.log(Level.FINE, e.toString(), e);
+      }
+
+      out.writeDouble(value);
+    }
+  }
+
   static class StringFieldSerializer extends FieldSerializer {
     static final FieldSerializer SER = new StringFieldSerializer();
     
-    void serialize(AbstractHessianOutput out, Object obj, Field field)
+    void serialize(AbstractHessianOutput out, Object obj,
+		   FieldAccessor field)
       throws IOException
     {
       String value = null;
@@ -413,7 +511,8 @@ public class JavaSerializer extends AbstractSerializer
   static class DateFieldSerializer extends FieldSerializer {
     static final FieldSerializer SER = new DateFieldSerializer();
 
-    void serialize(AbstractHessianOutput out, Object obj, Field field)
+    void serialize(AbstractHessianOutput out, Object obj,
+		   FieldAccessor field)
       throws IOException
     {
       java.util.Date value = null;
@@ -134,7 +134,10 @@ public class MapDeserializer extends AbstractMapDeserializer {
     for (int i = 0; i < fieldNames.length; i++) {
       String name = fieldNames[i];
 
-      map.put(name, in.readObject());
+      if (name != null)
+        map.put(name, in.readObject());
+      else
+        in.skipObject();
     }
 
     return map;
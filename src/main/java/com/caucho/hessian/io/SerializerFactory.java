@@ -61,6 +61,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -95,11 +96,17 @@ public class SerializerFactory extends AbstractSerializerFactory
   
   private Deserializer _hashMapDeserializer;
   private Deserializer _arrayListDeserializer;
-  private HashMap _cachedSerializerMap;
-  private HashMap _cachedDeserializerMap;
-  private HashMap _cachedTypeDeserializerMap;
+  // lookups are lock-free; the caches only hold this factory's classes
+  private final ConcurrentHashMap<Class<?>,Serializer> _cachedSerializerMap
+    = new ConcurrentHashMap<Class<?>,Serializer>(8);
+  private final ConcurrentHashMap<Class<?>,Deserializer> _cachedDeserializerMap
+    = new ConcurrentHashMap<Class<?>,Deserializer>(8);
+  private final ConcurrentHashMap<String,Deserializer> _cachedTypeDeserializerMap
+    = new ConcurrentHashMap<String,Deserializer>(8);
 
   private boolean _isAllowNonSerializable;
+  private boolean _isGenerated = isGeneratedDefault();
+  private volatile boolean _isFrozen;
 
   public SerializerFactory()
   {
@@ -121,6 +128,8 @@ public class SerializerFactory extends AbstractSerializerFactory
    */
   public void setSendCollectionType(boolean isSendType)
   {
+    checkFrozen();
+
     if (_collectionSerializer == null)
       _collectionSerializer = new CollectionSerializer();
 
@@ -137,6 +146,8 @@ public class SerializerFactory extends AbstractSerializerFactory
    */
   public void addFactory(AbstractSerializerFactory factory)
   {
+    checkFrozen();
+
     _factories.add(factory);
   }
 
@@ -145,6 +156,8 @@ public class SerializerFactory extends AbstractSerializerFactory
    */
   public void setAllowNonSerializable(boolean allow)
   {
+    checkFrozen();
+
     _isAllowNonSerializable = allow;
   }
 
@@ -156,6 +169,86 @@ public class SerializerFactory extends AbstractSerializerFactory
     return _isAllowNonSerializable;
   }
 
+  /**
+   * If true, the default serializers use generated field codecs.
+   * The default is the <code>com.caucho.hessian.generated</code>
+   * system property.
+   */
+  public void setGenerated(boolean isGenerated)
+  {
+    checkFrozen();
+
+    _isGenerated = isGenerated;
+  }
+
+  /**
+   * If true, the default serializers use generated field codecs.
+   */
+  public boolean isGenerated()
+  {
+    return _isGenerated;
+  }
+
+  /**
+   * Resolves the serializers and deserializers of the classes, so the
+   * first messages don't pay for the introspection.
+   */
+  public void preload(Class<?> []classes)
+    throws HessianProtocolException
+  {
+    for (int i = 0; i < classes.length; i++) {
+      Class<?> cl = classes[i];
+
+      getSerializer(cl);
+      getDeserializer(cl);
+      getDeserializer(cl.getName());
+    }
+  }
+
+  /**
+   * Freezes the configuration, including the {@link ExtSerializerFactory}
+   * instances added to it.  A frozen factory can be shared by all
+   * streams and threads; its caches still fill on demand.
+   */
+  public void freeze()
+  {
+    // create the lazy defaults before the factory is published
+    if (_collectionSerializer == null)
+      _collectionSerializer = new CollectionSerializer();
+
+    if (_mapSerializer == null)
+      _mapSerializer = new MapSerializer();
+
+    if (_hashMapDeserializer == null)
+      _hashMapDeserializer = new MapDeserializer(HashMap.class);
+
+    if (_arrayListDeserializer == null)
+      _arrayListDeserializer = new CollectionDeserializer(ArrayList.class);
+
+    for (int i = 0; _factories != null && i < _factories.size(); i++) {
+      Object factory = _factories.get(i);
+
+      if (factory instanceof ExtSerializerFactory)
+	((ExtSerializerFactory) factory).freeze();
+    }
+    
+    _isFrozen = true;
+  }
+
+  /**
+   * Returns true if the configuration is frozen.
+   */
+  public boolean isFrozen()
+  {
+    return _isFrozen;
+  }
+
+  private void checkFrozen()
+  {
+    if (_isFrozen)
+      throw new IllegalStateException(this + " is frozen and can't be reconfigured");
+  }
+
   /**
    * Returns the serializer for a class.
    *
@@ -172,14 +265,9 @@ public class SerializerFactory extends AbstractSerializerFactory
     if (serializer != null)
       return serializer;
 
-    if (_cachedSerializerMap != null) {
-      synchronized (_cachedSerializerMap) {
-	serializer = (Serializer) _cachedSerializerMap.get(cl);
-      }
-      
-      if (serializer != null)
-	return serializer;
-    }
+    serializer = _cachedSerializerMap.get(cl);
+    if (serializer != null)
+      return serializer;
 
     for (int i = 0;
 	 serializer == null && _factories != null && i < _factories.size();
@@ -244,12 +332,15 @@ public class SerializerFactory extends AbstractSerializerFactory
     if (serializer == null)
       serializer = getDefaultSerializer(cl);
 
-    if (_cachedSerializerMap == null)
-      _cachedSerializerMap = new HashMap(8);
+    if (serializer == null)
+      return null;
 
-    synchronized (_cachedSerializerMap) {
-      _cachedSerializerMap.put(cl, serializer);
-    }
+    // a concurrent lookup may have created the serializer first
+    Serializer oldSerializer
+      = _cachedSerializerMap.putIfAbsent(cl, serializer);
+
+    if (oldSerializer != null)
+      return oldSerializer;
 
     return serializer;
   }
@@ -273,6 +364,13 @@ public class SerializerFactory extends AbstractSerializerFactory
       throw new IllegalStateException("Serialized class " + cl.getName() + " must implement java.io.Serializable");
     }
 
+    if (_isGenerated) {
+      GeneratedFieldCodec codec = FieldCodecGenerator.create(cl);
+
+      if (codec != null)
+	return new GeneratedSerializer(cl, _loader, codec);
+    }
+
     return new JavaSerializer(cl, _loader);
   }
   
@@ -292,14 +390,9 @@ public class SerializerFactory extends AbstractSerializerFactory
     if (deserializer != null)
       return deserializer;
 
-    if (_cachedDeserializerMap != null) {
-      synchronized (_cachedDeserializerMap) {
-	deserializer = (Deserializer) _cachedDeserializerMap.get(cl);
-      }
-      
-      if (deserializer != null)
-	return deserializer;
-    }
+    deserializer = _cachedDeserializerMap.get(cl);
+    if (deserializer != null)
+      return deserializer;
 
 
     for (int i = 0;
@@ -338,12 +431,14 @@ public class SerializerFactory extends AbstractSerializerFactory
     else
       deserializer = getDefaultDeserializer(cl);
 
-    if (_cachedDeserializerMap == null)
-      _cachedDeserializerMap = new HashMap(8);
+    if (deserializer == null)
+      return null;
 
-    synchronized (_cachedDeserializerMap) {
-      _cachedDeserializerMap.put(cl, deserializer);
-    }
+    Deserializer oldDeserializer
+      = _cachedDeserializerMap.putIfAbsent(cl, deserializer);
+
+    if (oldDeserializer != null)
+      return oldDeserializer;
 
     return deserializer;
   }
@@ -359,6 +454,13 @@ public class SerializerFactory extends AbstractSerializerFactory
    */
   protected Deserializer getDefaultDeserializer(Class cl)
   {
+    if (_isGenerated) {
+      GeneratedFieldCodec codec = FieldCodecGenerator.create(cl);
+
+      if (codec != null)
+	return new GeneratedDeserializer(cl, codec);
+    }
+    
     return new JavaDeserializer(cl);
   }
 
@@ -510,14 +612,9 @@ public class SerializerFactory extends AbstractSerializerFactory
 
     Deserializer deserializer;
     
-    if (_cachedTypeDeserializerMap != null) {
-      synchronized (_cachedTypeDeserializerMap) {
-	deserializer = (Deserializer) _cachedTypeDeserializerMap.get(type);
-      }
-
-      if (deserializer != null)
-	return deserializer;
-    }
+    deserializer = _cachedTypeDeserializerMap.get(type);
+    if (deserializer != null)
+      return deserializer;
 
 
     deserializer = (Deserializer) _staticTypeMap.get(type);
@@ -533,26 +630,79 @@ public class SerializerFactory extends AbstractSerializerFactory
         deserializer = new ArrayDeserializer(Object.class);
     }
     else {
-      try {
-	Class cl = Class.forName(type, false, _loader);
-	deserializer = getDeserializer(cl);
-      } catch (Exception e) {
-	log.warning("Hessian/Burlap: '" + type + "' is an unknown class in " + _loader + ":\n" + e);
+      for (int i = 0;
+	   deserializer == null && _factories != null && i < _factories.size();
+	   i++) {
+	AbstractSerializerFactory factory;
+	factory = (AbstractSerializerFactory) _factories.get(i);
+
+	deserializer = factory.getDeserializer(type);
+      }
+
+      if (deserializer == null) {
+	try {
+	  Class cl = Class.forName(type, false, _loader);
+	  deserializer = getDeserializer(cl);
+	} catch (Exception e) {
+	  log.warning("Hessian/Burlap: '" + type + "' is an unknown class in " + _loader + ":\n" + e);
 	
-	log.log(Level.FINER, e.toString(), e);
+	  log.log(Level.FINER, e.toString(), e);
+	}
       }
     }
 
-    if (deserializer != null) {
-      if (_cachedTypeDeserializerMap == null)
-	_cachedTypeDeserializerMap = new HashMap(8);
+    if (deserializer != null)
+      _cachedTypeDeserializerMap.put(type, deserializer);
 
-      synchronized (_cachedTypeDeserializerMap) {
-	_cachedTypeDeserializerMap.put(type, deserializer);
+    return deserializer;
+  }
+
+  /**
+   * Returns true if reading a list, map or object of the type adds a
+   * reference.  Unlike getDeserializer(String), the answer comes from
+   * the type name alone: a cached, built-in or registered factory's
+   * deserializer decides, and any other type adds a reference like the
+   * map and bean deserializers.  No class is loaded, so an input can
+   * skip a value without loading the class it names.
+   */
+  boolean isReadRef(String type)
+    throws HessianProtocolException
+  {
+    if (type == null || type.equals(""))
+      return true;
+
+    Deserializer deserializer = _cachedTypeDeserializerMap.get(type);
+
+    if (deserializer == null)
+      deserializer = (Deserializer) _staticTypeMap.get(type);
+
+    if (deserializer == null && ! type.startsWith("[")) {
+      for (int i = 0;
+	   deserializer == null && _factories != null && i < _factories.size();
+	   i++) {
+	AbstractSerializerFactory factory;
+	factory = (AbstractSerializerFactory) _factories.get(i);
+
+	deserializer = factory.getDeserializer(type);
       }
+
+      if (deserializer != null)
+	_cachedTypeDeserializerMap.put(type, deserializer);
     }
 
-    return deserializer;
+    if (deserializer instanceof AbstractDeserializer)
+      return ((AbstractDeserializer) deserializer).isReadRef();
+    else
+      return true;
+  }
+
+  private static boolean isGeneratedDefault()
+  {
+    try {
+      return "true".equals(System.getProperty("com.caucho.hessian.generated"));
+    } catch (SecurityException e) {
+      return false;
+    }
   }
 
   private static void addBasic(Class cl, String typeName, int type)
@@ -88,6 +88,11 @@ abstract public class ValueDeserializer extends AbstractDeserializer {
     return create(initValue);
   }
 
+  public boolean isReadRef()
+  {
+    return false;
+  }
+
   abstract Object create(String value)
     throws IOException;
 }
@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.mux;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queued input for one channel of a MuxServer.
+ *
+ * <p>The server's parser appends each channel's frames, still in the
+ * mux encoding, and the channel's MuxInputStream reads them here.  The
+ * parser is the reading thread itself while the server has a single
+ * channel, and the server's reader thread after that.  Only the threads waiting on this channel are signalled.  When
+ * the queue is full the reader thread waits, pushing back on the
+ * peer.  A selector, which can't wait, uses offer() instead and is
+ * called back through the drain listener once there's room.</p>
+ */
+class MuxChannel extends InputStream {
+  private static final int INITIAL_SIZE = 1024;
+  
+  private final ReentrantLock _lock = new ReentrantLock();
+  private final Condition _notEmpty = _lock.newCondition();
+  private final Condition _notFull = _lock.newCondition();
+
+  private final int _maxSize;
+  // parses the input inline while the queue is empty, or null
+  private final MuxServer _server;
+  
+  private byte []_buffer = new byte[INITIAL_SIZE];
+  private int _head;
+  private int _length;
+
+  private boolean _isClosed;
+
+  // true if an offer() was refused since the last read
+  private boolean _isFull;
+  private Runnable _drainListener;
+
+  MuxChannel(int maxSize, MuxServer server)
+  {
+    _maxSize = maxSize;
+    _server = server;
+  }
+
+  /**
+   * Waits until the channel has data, returning false if it's closed
+   * and empty.
+   */
+  boolean waitForData()
+    throws IOException
+  {
+    readInline();
+    
+    _lock.lock();
+    try {
+      awaitData();
+
+      return _length > 0;
+    } finally {
+      _lock.unlock();
+    }
+  }
+
+  /**
+   * Appends data from the reader thread, waiting while the queue is full.
+   */
+  void append(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    _lock.lock();
+    try {
+      while (length > 0) {
+        while (! _isClosed && _length == _buffer.length
+               && ! grow()) {
+          try {
+            _notFull.await();
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+          }
+        }
+
+        if (_isClosed)
+          return;
+
+        byte []queue = _buffer;
+        int tail = (_head + _length) % queue.length;
+        int sublen = queue.length - _length;
+
+        if (queue.length - tail < sublen)
+          sublen = queue.length - tail;
+
+        if (length < sublen)
+          sublen = length;
+
+        System.arraycopy(buffer, offset, queue, tail, sublen);
+
+        offset += sublen;
+        length -= sublen;
+        _length += sublen;
+
+        _notEmpty.signal();
+      }
+    } finally {
+      _lock.unlock();
+    }
+  }
+
+  /**
+   * Appends as much data as fits without waiting.
+   *
+   * @return the number of bytes appended
+   */
+  int offer(byte []buffer, int offset, int length)
+  {
+    _lock.lock();
+    try {
+      if (_isClosed)
+        return length;
+
+      int total = 0;
+      
+      while (total < length) {
+        if (_length == _buffer.length && ! grow()) {
+          _isFull = true;
+          break;
+        }
+
+        byte []queue = _buffer;
+        int tail = (_head + _length) % queue.length;
+        int sublen = queue.length - _length;
+
+        if (queue.length - tail < sublen)
+          sublen = queue.length - tail;
+
+        if (length - total < sublen)
+          sublen = length - total;
+
+        System.arraycopy(buffer, offset + total, queue, tail, sublen);
+
+        total += sublen;
+        _length += sublen;
+      }
+
+      if (total > 0)
+        _notEmpty.signal();
+
+      return total;
+    } finally {
+      _lock.unlock();
+    }
+  }
+
+  /**
+   * Sets the callback for a refused offer(), run by the reading thread
+   * once the queue has room.
+   */
+  void setDrainListener(Runnable listener)
+  {
+    _drainListener = listener;
+  }
+
+  /**
+   * Closes the channel's input, waking its readers.
+   */
+  void closeInput()
+  {
+    _lock.lock();
+    try {
+      _isClosed = true;
+
+      _notEmpty.signalAll();
+      _notFull.signalAll();
+    } finally {
+      _lock.unlock();
+    }
+  }
+
+  public int read()
+    throws IOException
+  {
+    readInline();
+    
+    boolean isDrained = false;
+    
+    _lock.lock();
+    try {
+      awaitData();
+
+      if (_length == 0)
+        return -1;
+
+      int ch = _buffer[_head] & 0xff;
+
+      _head = (_head + 1) % _buffer.length;
+      _length--;
+
+      _notFull.signal();
+      isDrained = _isFull;
+      _isFull = false;
+
+      return ch;
+    } finally {
+      _lock.unlock();
+
+      if (isDrained && _drainListener != null)
+        _drainListener.run();
+    }
+  }
+
+  public int read(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    if (length == 0)
+      return 0;
+
+    readInline();
+    
+    boolean isDrained = false;
+    
+    _lock.lock();
+    try {
+      awaitData();
+
+      if (_length == 0)
+        return -1;
+
+      byte []queue = _buffer;
+      int sublen = _length;
+
+      if (queue.length - _head < sublen)
+        sublen = queue.length - _head;
+
+      if (length < sublen)
+        sublen = length;
+
+      System.arraycopy(queue, _head, buffer, offset, sublen);
+
+      _head = (_head + sublen) % queue.length;
+      _length -= sublen;
+
+      _notFull.signal();
+      isDrained = _isFull;
+      _isFull = false;
+
+      return sublen;
+    } finally {
+      _lock.unlock();
+
+      if (isDrained && _drainListener != null)
+        _drainListener.run();
+    }
+  }
+
+  public int available()
+  {
+    _lock.lock();
+    try {
+      return _length;
+    } finally {
+      _lock.unlock();
+    }
+  }
+
+  /**
+   * The channel stays open for the next call; see closeInput().
+   */
+  public void close()
+  {
+  }
+
+  /**
+   * Lets the server parse the input in this thread, if the queue is
+   * empty and no reader thread has started.
+   */
+  private void readInline()
+    throws IOException
+  {
+    if (_server != null)
+      _server.readInline(this);
+  }
+
+  private void awaitData()
+    throws IOException
+  {
+    while (_length == 0 && ! _isClosed) {
+      try {
+        _notEmpty.await();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+    }
+  }
+
+  private boolean grow()
+  {
+    byte []oldBuffer = _buffer;
+
+    if (_maxSize <= oldBuffer.length)
+      return false;
+
+    int size = 2 * oldBuffer.length;
+
+    if (_maxSize < size)
+      size = _maxSize;
+
+    byte []buffer = new byte[size];
+    int sublen = oldBuffer.length - _head;
+
+    if (_length < sublen)
+      sublen = _length;
+
+    System.arraycopy(oldBuffer, _head, buffer, 0, sublen);
+    System.arraycopy(oldBuffer, 0, buffer, sublen, _length - sublen);
+
+    _buffer = buffer;
+    _head = 0;
+
+    return true;
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.mux;
+
+import java.io.IOException;
+
+/**
+ * Services the calls of a MuxSelectorServer.
+ */
+public interface MuxHandler {
+  /**
+   * Services one call.  The input holds the request up to the client's
+   * close, and the reply is written to the output on the same channel.
+   * Both streams are closed after the call if the handler doesn't.
+   *
+   * @param in the request
+   * @param out the reply
+   */
+  public void service(MuxInputStream in, MuxOutputStream out)
+    throws IOException;
+}
@@ -135,6 +135,30 @@ public class MuxInputStream extends InputStream {
     return is.read();
   }
 
+  /**
+   * Reads data from the channel.
+   */
+  public int read(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    if (chunkLength <= 0) {
+      readToData(false);
+
+      if (chunkLength <= 0)
+        return -1;
+    }
+
+    if (chunkLength < length)
+      length = chunkLength;
+
+    int sublen = is.read(buffer, offset, length);
+
+    if (sublen > 0)
+      chunkLength -= sublen;
+
+    return sublen;
+  }
+
   /**
    * Complete writing to the stream, closing the channel.
    */
@@ -161,22 +185,15 @@ public class MuxInputStream extends InputStream {
     for (int tag = is.read(); tag >= 0; tag = is.read()) {
       switch (tag) {
       case 'Y':
-        server.freeReadLock();
-        this.is = is = server.readChannel(channel);
-        if (is == null) {
-          this.server = null;
-          return;
-        }
+        // the channel's input continues after the next 'C'
         break;
         
       case 'Q':
-        server.freeReadLock();
         this.is = null;
         this.server = null;
         return;
 
       case -1:
-        server.freeReadLock();
         this.is = null;
         this.server = null;
         return;
@@ -203,14 +220,11 @@ public class MuxInputStream extends InputStream {
     for (int tag = is.read(); tag >= 0; tag = is.read()) {
       switch (tag) {
       case 'Y':
-        server.freeReadLock();
         if (returnOnYield)
           return;
-        server.readChannel(channel);
         break;
         
       case 'Q':
-        server.freeReadLock();
         this.is = null;
         this.server = null;
         return;
@@ -0,0 +1,853 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.mux;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Mux server driven by a java.nio Selector.
+ *
+ * <p>One event-loop thread accepts the connections, parses their
+ * frames into the channel queues and writes their output, so an idle
+ * connection holds no thread.  When a channel receives a call, the
+ * MuxHandler runs on the executor with the usual MuxInputStream and
+ * MuxOutputStream.  Only the worker blocks on them: its reads wait on
+ * the channel queue and its output is handed to the event loop.</p>
+ *
+ * <p>A channel whose queue is full stops the reading of its connection
+ * until the worker catches up, and a worker waits while its connection
+ * has more than OUTPUT_LIMIT bytes unwritten.</p>
+ */
+public class MuxSelectorServer implements Runnable {
+  private static final Logger log
+    = Logger.getLogger(MuxSelectorServer.class.getName());
+
+  // maximum queued input for one channel
+  private static final int CHANNEL_QUEUE_SIZE = 64 * 1024;
+  // unwritten output of a connection before its writers wait
+  private static final int OUTPUT_LIMIT = 256 * 1024;
+  private static final int BUFFER_SIZE = 8192;
+
+  // frame parser states
+  private static final int TOP = 0;
+  private static final int CHANNEL_1 = 1;
+  private static final int CHANNEL_2 = 2;
+  private static final int TAG = 3;
+  private static final int LENGTH_1 = 4;
+  private static final int LENGTH_2 = 5;
+  private static final int DATA = 6;
+  private static final int ERROR = 7;
+  private static final int ERROR_END = 8;
+
+  private static final byte []QUIT = new byte[] { (byte) 'Q' };
+
+  private final MuxHandler _handler;
+  private final Executor _executor;
+  private final Selector _selector;
+
+  private final ConcurrentLinkedQueue<Runnable> _tasks
+    = new ConcurrentLinkedQueue<Runnable>();
+  
+  private final AtomicInteger _connectionCount = new AtomicInteger();
+
+  private ServerSocketChannel _serverChannel;
+  private Thread _thread;
+  private volatile boolean _isClosed;
+
+  /**
+   * Creates the server.
+   *
+   * @param handler services each call
+   * @param executor runs the handlers
+   */
+  public MuxSelectorServer(MuxHandler handler, Executor executor)
+    throws IOException
+  {
+    if (handler == null || executor == null)
+      throw new NullPointerException();
+    
+    _handler = handler;
+    _executor = executor;
+    _selector = Selector.open();
+  }
+
+  /**
+   * Listens for connections on the address.
+   */
+  public void bind(SocketAddress address)
+    throws IOException
+  {
+    final ServerSocketChannel serverChannel = ServerSocketChannel.open();
+
+    serverChannel.configureBlocking(false);
+    serverChannel.socket().bind(address);
+
+    _serverChannel = serverChannel;
+
+    execute(new Runnable() {
+        public void run()
+        {
+          try {
+            serverChannel.register(_selector, SelectionKey.OP_ACCEPT);
+          } catch (ClosedChannelException e) {
+            log.log(Level.FINE, e.toString(), e);
+          }
+        }
+      });
+  }
+
+  /**
+   * Returns the port the server listens on.
+   */
+  public int getLocalPort()
+  {
+    ServerSocketChannel serverChannel = _serverChannel;
+
+    return serverChannel != null ? serverChannel.socket().getLocalPort() : -1;
+  }
+
+  /**
+   * Serves a connection accepted elsewhere.
+   */
+  public void register(final SocketChannel channel)
+    throws IOException
+  {
+    channel.configureBlocking(false);
+
+    execute(new Runnable() {
+        public void run()
+        {
+          addConnection(channel);
+        }
+      });
+  }
+
+  /**
+   * Returns the number of open connections.
+   */
+  public int getConnectionCount()
+  {
+    return _connectionCount.get();
+  }
+
+  /**
+   * Starts the event-loop thread.
+   */
+  public void start()
+  {
+    synchronized (this) {
+      if (_thread != null)
+        return;
+
+      _thread = new Thread(this, "hessian-mux-selector");
+      _thread.setDaemon(true);
+      _thread.start();
+    }
+  }
+
+  /**
+   * Closes the server and its connections.
+   */
+  public void close()
+    throws IOException
+  {
+    _isClosed = true;
+
+    _selector.wakeup();
+  }
+
+  /**
+   * The event loop.
+   */
+  public void run()
+  {
+    try {
+      while (! _isClosed) {
+        Runnable task;
+
+        while ((task = _tasks.poll()) != null)
+          task.run();
+
+        _selector.select();
+
+        Iterator<SelectionKey> iter = _selector.selectedKeys().iterator();
+
+        while (iter.hasNext()) {
+          SelectionKey key = iter.next();
+          iter.remove();
+
+          if (! key.isValid())
+            continue;
+
+          if (key.isAcceptable())
+            accept();
+          else {
+            Connection conn = (Connection) key.attachment();
+
+            if (key.isValid() && key.isWritable())
+              conn.writeOutput();
+
+            if (key.isValid() && key.isReadable())
+              conn.readInput();
+          }
+        }
+      }
+    } catch (IOException e) {
+      log.log(Level.WARNING, e.toString(), e);
+    } finally {
+      for (SelectionKey key : _selector.keys()) {
+        if (key.attachment() instanceof Connection)
+          ((Connection) key.attachment()).close();
+      }
+
+      try {
+        if (_serverChannel != null)
+          _serverChannel.close();
+
+        _selector.close();
+      } catch (IOException e) {
+        log.log(Level.FINE, e.toString(), e);
+      }
+    }
+  }
+
+  private void accept()
+    throws IOException
+  {
+    SocketChannel channel;
+
+    while ((channel = _serverChannel.accept()) != null) {
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+
+      addConnection(channel);
+    }
+  }
+
+  private void addConnection(SocketChannel channel)
+  {
+    try {
+      Connection conn = new Connection(channel);
+
+      conn._key = channel.register(_selector, SelectionKey.OP_READ, conn);
+
+      _connectionCount.incrementAndGet();
+    } catch (IOException e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      try {
+        channel.close();
+      } catch (IOException e1) {
+      }
+    }
+  }
+
+  /**
+   * Runs a task on the event-loop thread.
+   */
+  private void execute(Runnable task)
+  {
+    _tasks.add(task);
+
+    _selector.wakeup();
+  }
+
+  /**
+   * A client connection, with its frame parser and pending output.
+   */
+  class Connection {
+    private final SocketChannel _channel;
+    private final MuxServer _mux = new MuxServer();
+    private final ConnectionOutputStream _os;
+    
+    private SelectionKey _key;
+    
+    // parser state
+    private final ByteBuffer _input = ByteBuffer.allocate(BUFFER_SIZE);
+    private int _state = TOP;
+    private int _value;
+    private int _count;
+    private MuxChannel _current;
+    private CallTask _currentTask;
+
+    private final HashMap<Integer,CallTask> _calls
+      = new HashMap<Integer,CallTask>();
+
+    // true while a full channel queue has stopped the reading
+    private boolean _isReadSuspended;
+    
+    private boolean _isClosed;
+
+    private final Runnable _resumeTask = new Runnable() {
+        public void run()
+        {
+          resumeInput();
+        }
+      };
+
+    private final Runnable _drainListener = new Runnable() {
+        public void run()
+        {
+          execute(_resumeTask);
+        }
+      };
+
+    private final Runnable _writeTask = new Runnable() {
+        public void run()
+        {
+          if (_key.isValid())
+            _key.interestOps(_key.interestOps() | SelectionKey.OP_WRITE);
+        }
+      };
+
+    Connection(SocketChannel channel)
+    {
+      _channel = channel;
+      _os = new ConnectionOutputStream(this);
+      
+      _mux.initSelector(_os);
+    }
+
+    /**
+     * Reads and parses the available input.
+     */
+    void readInput()
+    {
+      try {
+        int len = _channel.read(_input);
+
+        if (len < 0) {
+          close();
+          return;
+        }
+
+        _input.flip();
+        parse();
+        _input.compact();
+
+        if (_isReadSuspended)
+          _key.interestOps(_key.interestOps() & ~SelectionKey.OP_READ);
+      } catch (IOException e) {
+        log.log(Level.FINER, e.toString(), e);
+        
+        close();
+      }
+    }
+
+    /**
+     * Continues parsing after a full channel has room again.
+     */
+    void resumeInput()
+    {
+      if (_isClosed || ! _isReadSuspended)
+        return;
+
+      _isReadSuspended = false;
+
+      try {
+        _input.flip();
+        parse();
+        _input.compact();
+      } catch (IOException e) {
+        close();
+        return;
+      }
+
+      if (! _isReadSuspended && _key.isValid())
+        _key.interestOps(_key.interestOps() | SelectionKey.OP_READ);
+    }
+
+    /**
+     * Parses frames from the input buffer into the channel queues,
+     * stopping when a queue is full.
+     */
+    private void parse()
+      throws IOException
+    {
+      ByteBuffer input = _input;
+      byte []buffer = input.array();
+      
+      while (input.hasRemaining()) {
+        int offset = input.position();
+        
+        switch (_state) {
+        case TOP: {
+          int code = buffer[offset] & 0xff;
+
+          if (code == 'C') {
+            _state = CHANNEL_1;
+          }
+          else if (code == 'E') {
+            _state = ERROR;
+            _count = 0;
+            _value = 0;
+          }
+          else if (code != ' ' && code != '\t'
+                   && code != '\n' && code != '\r') {
+            throw new IOException("unexpected mux code 0x"
+                                  + Integer.toHexString(code));
+          }
+          
+          input.position(offset + 1);
+          break;
+        }
+
+        case CHANNEL_1:
+          _value = (buffer[offset] & 0xff) << 8;
+          _state = CHANNEL_2;
+          input.position(offset + 1);
+          break;
+
+        case CHANNEL_2:
+          _value += buffer[offset] & 0xff;
+          startChannel(_value);
+          _state = TAG;
+          input.position(offset + 1);
+          break;
+
+        case TAG: {
+          int tag = buffer[offset] & 0xff;
+
+          if (! offer(buffer, offset, 1))
+            return;
+
+          if (tag == 'Y' || tag == 'Q')
+            _state = TOP;
+          else
+            _state = LENGTH_1;
+          break;
+        }
+
+        case LENGTH_1:
+          _value = (buffer[offset] & 0xff) << 8;
+
+          if (! offer(buffer, offset, 1))
+            return;
+
+          _state = LENGTH_2;
+          break;
+
+        case LENGTH_2:
+          _value += buffer[offset] & 0xff;
+
+          if (! offer(buffer, offset, 1))
+            return;
+
+          _state = _value > 0 ? DATA : TAG;
+          break;
+
+        case DATA: {
+          int sublen = input.remaining();
+
+          if (_value < sublen)
+            sublen = _value;
+
+          int len = _current.offer(buffer, offset, sublen);
+
+          input.position(offset + len);
+          _value -= len;
+
+          if (len > 0)
+            dispatch(_currentTask);
+
+          if (len < sublen) {
+            _isReadSuspended = true;
+            return;
+          }
+
+          if (_value == 0)
+            _state = TAG;
+          break;
+        }
+
+        case ERROR:
+          // channel and status; the error ends the channel's call
+          if (_count < 2)
+            _value = (_value << 8) + (buffer[offset] & 0xff);
+          
+          input.position(offset + 1);
+
+          if (++_count == 4) {
+            startChannel(_value);
+            _state = ERROR_END;
+
+            if (! endCall())
+              return;
+          }
+          break;
+
+        case ERROR_END:
+          if (! endCall())
+            return;
+          break;
+        }
+      }
+    }
+
+    private void startChannel(int channel)
+      throws IOException
+    {
+      Integer key = Integer.valueOf(channel);
+      CallTask task = _calls.get(key);
+
+      if (task == null) {
+        MuxChannel queue = _mux.getChannel(channel);
+
+        if (queue == null)
+          throw new IOException("too many mux channels");
+        
+        queue.setDrainListener(_drainListener);
+        
+        task = new CallTask(this, channel, queue);
+        _calls.put(key, task);
+      }
+
+      _current = task._queue;
+      _currentTask = task;
+    }
+
+    /**
+     * Offers bytes of the current frame to the channel, consuming them
+     * from the input if they fit.
+     */
+    private boolean offer(byte []buffer, int offset, int length)
+    {
+      if (_current.offer(buffer, offset, length) < length) {
+        _isReadSuspended = true;
+        return false;
+      }
+
+      _input.position(offset + length);
+
+      dispatch(_currentTask);
+
+      return true;
+    }
+
+    /**
+     * Queues a 'Q' ending the current channel's call.
+     */
+    private boolean endCall()
+    {
+      if (_current.offer(QUIT, 0, 1) == 0) {
+        _isReadSuspended = true;
+        return false;
+      }
+
+      dispatch(_currentTask);
+      _state = TOP;
+
+      return true;
+    }
+
+    private void dispatch(CallTask task)
+    {
+      if (task._isActive.compareAndSet(false, true))
+        _executor.execute(task);
+    }
+
+    /**
+     * Writes pending output, clearing OP_WRITE when it's all written.
+     */
+    void writeOutput()
+    {
+      try {
+        if (_os.writeTo(_channel))
+          _key.interestOps(_key.interestOps() & ~SelectionKey.OP_WRITE);
+      } catch (IOException e) {
+        log.log(Level.FINER, e.toString(), e);
+
+        close();
+      }
+    }
+
+    /**
+     * Asks the event loop to write the pending output.
+     */
+    void wakeWriter()
+    {
+      execute(_writeTask);
+    }
+
+    void close()
+    {
+      if (_isClosed)
+        return;
+
+      _isClosed = true;
+      _connectionCount.decrementAndGet();
+
+      if (_key != null)
+        _key.cancel();
+
+      try {
+        _channel.close();
+      } catch (IOException e) {
+      }
+
+      _os.closeOutput();
+
+      try {
+        _mux.close();
+      } catch (IOException e) {
+      }
+    }
+
+    /**
+     * Closes the connection from a worker thread.
+     */
+    void closeLater()
+    {
+      execute(new Runnable() {
+          public void run()
+          {
+            close();
+          }
+        });
+    }
+  }
+
+  /**
+   * Runs the calls on a channel, one at a time.
+   */
+  class CallTask implements Runnable {
+    private final Connection _conn;
+    private final int _channel;
+    private final MuxChannel _queue;
+
+    private final AtomicBoolean _isActive = new AtomicBoolean();
+
+    CallTask(Connection conn, int channel, MuxChannel queue)
+    {
+      _conn = conn;
+      _channel = channel;
+      _queue = queue;
+    }
+
+    public void run()
+    {
+      do {
+        try {
+          while (_queue.available() > 0)
+            serviceCall();
+        } catch (Throwable e) {
+          log.log(Level.FINE, e.toString(), e);
+
+          _conn.closeLater();
+          return;
+        } finally {
+          _isActive.set(false);
+        }
+        // input queued after the last check restarts the task
+      } while (_queue.available() > 0 && _isActive.compareAndSet(false, true));
+    }
+
+    private void serviceCall()
+      throws IOException
+    {
+      MuxInputStream in = new MuxInputStream();
+      MuxOutputStream out = new MuxOutputStream();
+      
+      in.init(_conn._mux, _channel);
+      out.init(_conn._mux, _channel);
+
+      in.setInputStream(_queue);
+      in.readToData(false);
+
+      try {
+        _handler.service(in, out);
+      } finally {
+        out.close();
+        in.close();
+      }
+    }
+  }
+
+  /**
+   * Buffers a connection's output for the event loop.
+   */
+  static class ConnectionOutputStream extends OutputStream {
+    private final Connection _conn;
+    
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _notFull = _lock.newCondition();
+    
+    private final LinkedList<ByteBuffer> _pending = new LinkedList<ByteBuffer>();
+    private int _pendingLength;
+
+    // written by the one worker holding the mux write lock
+    private final byte []_buffer = new byte[BUFFER_SIZE];
+    private int _offset;
+
+    private boolean _isClosed;
+
+    ConnectionOutputStream(Connection conn)
+    {
+      _conn = conn;
+    }
+
+    public void write(int ch)
+      throws IOException
+    {
+      if (_offset == _buffer.length)
+        flushBuffer();
+
+      _buffer[_offset++] = (byte) ch;
+    }
+
+    public void write(byte []buffer, int offset, int length)
+      throws IOException
+    {
+      while (length > 0) {
+        if (_offset == _buffer.length)
+          flushBuffer();
+
+        int sublen = _buffer.length - _offset;
+
+        if (length < sublen)
+          sublen = length;
+
+        System.arraycopy(buffer, offset, _buffer, _offset, sublen);
+
+        _offset += sublen;
+        offset += sublen;
+        length -= sublen;
+      }
+    }
+
+    public void flush()
+      throws IOException
+    {
+      flushBuffer();
+    }
+
+    public void close()
+      throws IOException
+    {
+      flushBuffer();
+
+      _conn.closeLater();
+    }
+
+    /**
+     * Hands the buffer to the event loop, waiting while too much output
+     * is pending.
+     */
+    private void flushBuffer()
+      throws IOException
+    {
+      if (_offset == 0)
+        return;
+
+      ByteBuffer data = ByteBuffer.wrap(Arrays.copyOf(_buffer, _offset));
+      
+      _offset = 0;
+
+      boolean isWake;
+      
+      _lock.lock();
+      try {
+        while (! _isClosed && OUTPUT_LIMIT < _pendingLength) {
+          try {
+            _notFull.await();
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+          }
+        }
+
+        if (_isClosed)
+          throw new IOException("mux connection is closed");
+
+        isWake = _pending.isEmpty();
+        
+        _pending.add(data);
+        _pendingLength += data.remaining();
+      } finally {
+        _lock.unlock();
+      }
+
+      if (isWake)
+        _conn.wakeWriter();
+    }
+
+    /**
+     * Writes pending output from the event loop.
+     *
+     * @return true if all the output is written
+     */
+    boolean writeTo(SocketChannel channel)
+      throws IOException
+    {
+      _lock.lock();
+      try {
+        while (! _pending.isEmpty()) {
+          ByteBuffer data = _pending.getFirst();
+
+          _pendingLength -= channel.write(data);
+          
+          if (data.hasRemaining()) {
+            _notFull.signalAll();
+            return false;
+          }
+
+          _pending.removeFirst();
+        }
+
+        _notFull.signalAll();
+
+        return true;
+      } finally {
+        _lock.unlock();
+      }
+    }
+
+    void closeOutput()
+    {
+      _lock.lock();
+      try {
+        _isClosed = true;
+        _pending.clear();
+        _notFull.signalAll();
+      } finally {
+        _lock.unlock();
+      }
+    }
+  }
+}
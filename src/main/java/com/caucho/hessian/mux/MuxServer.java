@@ -50,28 +50,58 @@ package com.caucho.hessian.mux;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Hessian Mux, a peer-to-peer protocol.
+ *
+ * <p>The input is split into per-channel queues, so a slow reader only
+ * holds up its own channel.  While a single channel is in use, the
+ * thread reading it parses the input itself when its queue is empty,
+ * saving the handoff to another thread.  Once a second channel appears,
+ * a reader thread takes over the parsing.  Writers take turns through a
+ * fair write lock, and each wakeup goes to one waiting thread.</p>
+ *
+ * <p>A connection has at most MAX_CHANNELS channel ids, since each can
+ * queue up to CHANNEL_QUEUE_SIZE bytes.  A peer using more is a
+ * protocol error and closes the connection.</p>
  */
 public class MuxServer {
-  private Object READ_LOCK = new Object();
-  private Object WRITE_LOCK = new Object();
+  // maximum queued input for one channel before the reader waits
+  private static final int CHANNEL_QUEUE_SIZE = 256 * 1024;
+  // maximum channel ids per connection
+  static final int MAX_CHANNELS = 64;
+  // wait for the read lock before checking for a reader thread again
+  private static final long INLINE_LOCK_TIMEOUT = 10L;
+  
+  private final Semaphore writeLock = new Semaphore(1, true);
+  
+  private final HashMap<Integer,MuxChannel> channels
+    = new HashMap<Integer,MuxChannel>();
   
   private InputStream is;
   private OutputStream os;
   private boolean isClient;
 
-  private transient boolean isClosed;
+  private transient volatile boolean isClosed;
   
-  // channels that have data ready.
-  private boolean inputReady[] = new boolean[4];
-
-  // true if there's a thread already reading
-  private boolean isReadLocked;
-  // true if there's a thread already writing
-  private boolean isWriteLocked;
+  private volatile Thread readerThread;
+
+  // parses the input, either inline or in the reader thread
+  private final ReentrantLock readLock = new ReentrantLock();
+  // channel of the current 'C' frame, up to its 'Y' or 'Q'
+  private MuxChannel readInput;
+  // thread parsing inline, woken by close() since a blocked read may
+  // not return when the stream is closed
+  private Thread inlineThread;
+  private final byte []readBuffer = new byte[8192];
+  // true if a MuxSelectorServer feeds the channel queues
+  private boolean isSelector;
 
   /**
    * Null argument constructor.
@@ -106,6 +136,18 @@ public class MuxServer {
     this.isClient = isClient;
   }
 
+  /**
+   * Initializes the multiplexor for a MuxSelectorServer connection,
+   * which parses the input itself instead of a reader thread.
+   */
+  void initSelector(OutputStream os)
+  {
+    this.is = null;
+    this.os = os;
+    this.isClient = false;
+    this.isSelector = true;
+  }
+
   /**
    * Gets the raw input stream.  Clients will normally not call
    * this.
@@ -161,8 +203,10 @@ public class MuxServer {
     in.init(this, channel);
     out.init(this, channel);
 
-    if (readChannel(channel) != null) {
-      in.setInputStream(is);
+    InputStream channelIs = readChannel(channel);
+
+    if (channelIs != null) {
+      in.setInputStream(channelIs);
       in.readToData(false);
       return true;
     }
@@ -180,55 +224,58 @@ public class MuxServer {
   OutputStream writeChannel(int channel)
     throws IOException
   {
-    while (os != null) {
-      boolean canWrite = false;
-      synchronized (WRITE_LOCK) {
-        if (! isWriteLocked) {
-          isWriteLocked = true;
-          canWrite = true;
-        }
-        else {
-          try {
-            WRITE_LOCK.wait(5000);
-          } catch (Exception e) {
-          }
-        }
-      }
+    if (os == null)
+      return null;
 
-      if (canWrite) {
-        os.write('C');
-        os.write(channel >> 8);
-        os.write(channel);
-        
-        return os;
-      }
-    }
+    writeLock.acquireUninterruptibly();
 
-    return null;
+    OutputStream os = this.os;
+
+    if (os == null) {
+      writeLock.release();
+      return null;
+    }
+    
+    os.write('C');
+    os.write(channel >> 8);
+    os.write(channel);
+        
+    return os;
   }
 
   void yield(int channel)
     throws IOException
   {
-    os.write('Y');
-    freeWriteLock();
+    try {
+      os.write('Y');
+    } finally {
+      freeWriteLock();
+    }
   }
 
   void flush(int channel)
     throws IOException
   {
-    os.write('Y');
-    os.flush();
-    freeWriteLock();
+    try {
+      os.write('Y');
+      os.flush();
+    } finally {
+      freeWriteLock();
+    }
   }
 
   void close(int channel)
     throws IOException
   {
+    OutputStream os = this.os;
+    
     if (os != null) {
-      os.write('Q');
-      os.flush();
-      freeWriteLock();
+      try {
+        os.write('Q');
+        os.flush();
+      } finally {
+        freeWriteLock();
+      }
     }
   }
   
@@ -237,90 +284,180 @@ public class MuxServer {
    */
   void freeWriteLock()
   {
-    synchronized (WRITE_LOCK) {
-      isWriteLocked = false;
-      WRITE_LOCK.notifyAll();
-    }
+    writeLock.release();
   }
 
   /**
-   * Reads data from a channel.
+   * Waits for data on a channel.
    *
    * @param channel the channel
    *
-   * @return true if the channel is valid.
+   * @return the channel's input, or null if the mux is closed.
    */
   InputStream readChannel(int channel)
     throws IOException
   {
-    while (! isClosed) {
-      if (inputReady[channel]) {
-        inputReady[channel] = false;
-        return is;
-      }
+    if (isClosed || is == null && ! isSelector)
+      return null;
 
-      boolean canRead = false;
-      synchronized (READ_LOCK) {
-        if (! isReadLocked) {
-          isReadLocked = true;
-          canRead = true;
-        }
-        else {
-          try {
-            READ_LOCK.wait(5000);
-          } catch (Exception e) {
-          }
-        }
-      }
-      
-      if (canRead) {
-        try {
-          readData();
-        } catch (IOException e) {
-          close();
-        }
+    MuxChannel input = getChannel(channel);
+
+    if (input == null)
+      throw new IOException("too many mux channels");
+
+    if (input.waitForData())
+      return input;
+    else
+      return null;
+  }
+
+  /**
+   * Returns the channel's queue, or null if the connection already has
+   * MAX_CHANNELS channels.
+   */
+  MuxChannel getChannel(int channel)
+  {
+    synchronized (channels) {
+      Integer key = Integer.valueOf(channel);
+      MuxChannel input = channels.get(key);
+
+      if (input == null) {
+        if (channels.size() >= MAX_CHANNELS)
+          return null;
+        
+        input = new MuxChannel(CHANNEL_QUEUE_SIZE, isSelector ? null : this);
+
+        if (isClosed)
+          input.closeInput();
+
+        channels.put(key, input);
+
+        // with a second channel, inline reads could hold up a channel
+        // whose reader isn't waiting
+        if (channels.size() > 1 && ! isSelector)
+          startReader();
       }
-    }
 
-    return null;
+      return input;
+    }
   }
 
-  boolean getReadLock()
+  /**
+   * Parses the input in the calling thread until the channel has data,
+   * while no reader thread is running.
+   */
+  void readInline(MuxChannel input)
+    throws IOException
   {
-    synchronized (READ_LOCK) {
-      if (! isReadLocked) {
-        isReadLocked = true;
-        return true;
+    while (readerThread == null && ! isClosed
+           && input.available() == 0) {
+      try {
+        // a timed wait, since a reader thread never releases the lock
+        if (! readLock.tryLock(INLINE_LOCK_TIMEOUT, TimeUnit.MILLISECONDS))
+          continue;
+      } catch (InterruptedException e) {
+        if (isClosed)
+          return;
+        
+        throw new InterruptedIOException();
       }
-      else {
-        try {
-          READ_LOCK.wait(5000);
-        } catch (Exception e) {
+      
+      try {
+        // another thread may have parsed while this one waited
+        if (readerThread != null || input.available() > 0)
+          return;
+
+        synchronized (channels) {
+          inlineThread = Thread.currentThread();
+        }
+
+        if (! readFrame())
+          closeQuietly();
+      } catch (IOException e) {
+        if (! isClosed) {
+          closeQuietly();
+
+          throw e;
         }
+      } finally {
+        synchronized (channels) {
+          inlineThread = null;
+        }
+
+        // clears close()'s interrupt
+        if (isClosed)
+          Thread.interrupted();
+        
+        readLock.unlock();
       }
     }
+  }
+
+  private void startReader()
+  {
+    synchronized (channels) {
+      if (readerThread != null || isClosed || is == null)
+        return;
+
+      readerThread = new Thread(new Runnable() {
+          public void run()
+          {
+            try {
+              readData();
+            } catch (IOException e) {
+            } finally {
+              try {
+                close();
+              } catch (IOException e) {
+              }
+            }
+          }
+        }, "hessian-mux-reader");
 
-    return false;
+      readerThread.setDaemon(true);
+      readerThread.start();
+    }
   }
 
   /**
-   * Frees the channel for reading.
+   * Reads the input in the reader thread.
    */
-  void freeReadLock()
+  private void readData()
+    throws IOException
   {
-    synchronized (READ_LOCK) {
-      isReadLocked = false;
-      READ_LOCK.notifyAll();
+    // the lock is held for good, and inline readers stop waiting for
+    // it once they see this thread
+    readLock.lock();
+    try {
+      while (! isClosed) {
+        if (! readFrame())
+          return;
+      }
+    } finally {
+      readLock.unlock();
     }
   }
 
   /**
-   * Reads data until a channel packet 'C' or error 'E' is received.
+   * Reads the next code or channel tag, queueing each channel's tags up
+   * to its 'Y' or 'Q' for the channel's reader.  A tag's data is at most
+   * 64k, so an empty queue always has room for it.  The caller holds
+   * the read lock.
+   *
+   * @return false at the end of the input or on a protocol error
    */
-  private void readData()
+  private boolean readFrame()
     throws IOException
   {
-    while (! isClosed) {
+    InputStream is = this.is;
+    byte []buffer = readBuffer;
+
+    if (is == null)
+      return false;
+
+    MuxChannel input = readInput;
+    
+    if (input == null) {
       int code = is.read();
 
       switch (code) {
@@ -328,36 +465,91 @@ public class MuxServer {
       case '\t':
       case '\n':
       case '\r':
-        break;
+        return true;
 
       case 'C': {
         int channel = (is.read() << 8) + is.read();
 
-        inputReady[channel] = true;
-        return;
+        readInput = getChannel(channel);
+
+        return readInput != null;
       }
 
       case 'E': {
         int channel = (is.read() << 8) + is.read();
         int status = (is.read() << 8) + is.read();
 
-        inputReady[channel] = true;
+        input = getChannel(channel);
 
-        return;
+        if (input == null)
+          return false;
+
+        // an error ends the channel's current call
+        buffer[0] = (byte) 'Q';
+        input.append(buffer, 0, 1);
+        return true;
       }
 
       case -1:
-        close();
-        return;
+        return false;
         
       default:
         // An error in the protocol.  Kill the connection.
-        close();
-        return;
+        return false;
       }
     }
 
-    return;
+    int tag = is.read();
+
+    if (tag < 0)
+      return false;
+
+    buffer[0] = (byte) tag;
+
+    if (tag == 'Y' || tag == 'Q') {
+      input.append(buffer, 0, 1);
+      readInput = null;
+      return true;
+    }
+
+    int d1 = is.read();
+    int d2 = is.read();
+
+    if (d2 < 0)
+      return false;
+
+    buffer[1] = (byte) d1;
+    buffer[2] = (byte) d2;
+
+    input.append(buffer, 0, 3);
+
+    int length = (d1 << 8) + d2;
+
+    while (length > 0) {
+      int sublen = buffer.length;
+
+      if (length < sublen)
+        sublen = length;
+
+      sublen = is.read(buffer, 0, sublen);
+
+      if (sublen < 0)
+        return false;
+
+      input.append(buffer, 0, sublen);
+
+      length -= sublen;
+    }
+
+    return true;
+  }
+
+  private void closeQuietly()
+  {
+    try {
+      close();
+    } catch (IOException e) {
+    }
   }
 
   /**
@@ -367,6 +559,14 @@ public class MuxServer {
     throws IOException
   {
     isClosed = true;
+
+    synchronized (channels) {
+      for (MuxChannel channel : channels.values())
+        channel.closeInput();
+
+      if (inlineThread != null && inlineThread != Thread.currentThread())
+        inlineThread.interrupt();
+    }
     
     OutputStream os = this.os;
     this.os = null;
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.security;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+import com.caucho.hessian.util.HessianFreeList;
+
+/**
+ * Pools of Cipher, Mac and KeyGenerator instances, keyed by algorithm.
+ *
+ * <p>The provider lookup in getInstance() costs more than signing or
+ * encrypting a small message, so the X509 envelopes take the body Cipher
+ * and Mac from here and return them when the message completes.  The
+ * caller initializes every instance with its own key before use, and a
+ * returned instance is initialized again with a pool-owned key before
+ * it's kept, so an idle instance never holds a caller's key.  Instances
+ * which can't be re-keyed that way, like RSA ciphers, aren't pooled.</p>
+ */
+final class CryptoPool {
+  // instances kept per algorithm
+  private static final int FREE_SIZE = 16;
+
+  // bounds the number of algorithm names, which may come from the wire
+  private static final int POOL_MAX = 32;
+
+  private static final ConcurrentHashMap<String,HessianFreeList<Cipher>>
+    _cipherPools = new ConcurrentHashMap<String,HessianFreeList<Cipher>>();
+
+  private static final ConcurrentHashMap<String,HessianFreeList<Mac>>
+    _macPools = new ConcurrentHashMap<String,HessianFreeList<Mac>>();
+
+  private static final ConcurrentHashMap<String,HessianFreeList<KeyGenerator>>
+    _keyGenPools
+    = new ConcurrentHashMap<String,HessianFreeList<KeyGenerator>>();
+
+  // throwaway keys for re-keying returned instances, by key algorithm
+  private static final ConcurrentHashMap<String,SecretKey> _idleKeys
+    = new ConcurrentHashMap<String,SecretKey>();
+
+  private static SecureRandom _defaultRandom;
+
+  private CryptoPool()
+  {
+  }
+
+  /**
+   * Returns a pooled Cipher for the algorithm.  The caller must init()
+   * it and release it with freeCipher().
+   */
+  static Cipher allocateCipher(String algorithm)
+    throws GeneralSecurityException
+  {
+    HessianFreeList<Cipher> freeList = _cipherPools.get(algorithm);
+    Cipher cipher = freeList != null ? freeList.allocate() : null;
+
+    if (cipher == null)
+      cipher = Cipher.getInstance(algorithm);
+
+    return cipher;
+  }
+
+  /**
+   * Returns a Cipher to the pool, replacing the caller's key.
+   */
+  static void freeCipher(Cipher cipher)
+  {
+    String algorithm = cipher.getAlgorithm();
+    int p = algorithm.indexOf('/');
+    String keyAlgorithm = p > 0 ? algorithm.substring(0, p) : algorithm;
+
+    try {
+      cipher.init(Cipher.ENCRYPT_MODE, getIdleKey(keyAlgorithm),
+                  getDefaultRandom());
+    } catch (GeneralSecurityException e) {
+      // not a secret-key cipher, so it isn't kept
+      return;
+    }
+
+    HessianFreeList<Cipher> freeList = getFreeList(_cipherPools, algorithm);
+
+    if (freeList != null)
+      freeList.free(cipher);
+  }
+
+  /**
+   * Returns a pooled Mac for the algorithm.  The caller must init()
+   * it and release it with freeMac().
+   */
+  static Mac allocateMac(String algorithm)
+    throws GeneralSecurityException
+  {
+    HessianFreeList<Mac> freeList = _macPools.get(algorithm);
+    Mac mac = freeList != null ? freeList.allocate() : null;
+
+    if (mac == null)
+      mac = Mac.getInstance(algorithm);
+
+    return mac;
+  }
+
+  /**
+   * Returns a Mac to the pool, replacing the caller's key.
+   */
+  static void freeMac(Mac mac)
+  {
+    try {
+      mac.init(getIdleKey(mac.getAlgorithm()));
+    } catch (GeneralSecurityException e) {
+      return;
+    }
+
+    HessianFreeList<Mac> freeList
+      = getFreeList(_macPools, mac.getAlgorithm());
+
+    if (freeList != null)
+      freeList.free(mac);
+  }
+
+  /**
+   * Returns a pooled KeyGenerator for the algorithm, initialized with
+   * the random source, or with a shared SecureRandom if it's null.
+   * Release it with freeKeyGenerator().
+   */
+  static KeyGenerator allocateKeyGenerator(String algorithm,
+                                           SecureRandom random)
+    throws GeneralSecurityException
+  {
+    HessianFreeList<KeyGenerator> freeList = _keyGenPools.get(algorithm);
+    KeyGenerator keyGen = freeList != null ? freeList.allocate() : null;
+
+    if (keyGen == null)
+      keyGen = KeyGenerator.getInstance(algorithm);
+
+    // a pooled generator may still hold another caller's random source
+    if (random != null)
+      keyGen.init(random);
+    else
+      keyGen.init(getDefaultRandom());
+
+    return keyGen;
+  }
+
+  /**
+   * Returns a KeyGenerator to the pool.
+   */
+  static void freeKeyGenerator(KeyGenerator keyGen)
+  {
+    HessianFreeList<KeyGenerator> freeList
+      = getFreeList(_keyGenPools, keyGen.getAlgorithm());
+
+    if (freeList != null)
+      freeList.free(keyGen);
+  }
+
+  /**
+   * Returns the pool's key for the algorithm, which replaces a caller's
+   * key when an instance is returned.
+   */
+  private static SecretKey getIdleKey(String algorithm)
+    throws GeneralSecurityException
+  {
+    SecretKey key = _idleKeys.get(algorithm);
+
+    if (key == null) {
+      KeyGenerator keyGen = KeyGenerator.getInstance(algorithm);
+      keyGen.init(getDefaultRandom());
+      key = keyGen.generateKey();
+
+      if (_idleKeys.size() < POOL_MAX) {
+        SecretKey oldKey = _idleKeys.putIfAbsent(algorithm, key);
+
+        if (oldKey != null)
+          key = oldKey;
+      }
+    }
+
+    return key;
+  }
+
+  private static SecureRandom getDefaultRandom()
+  {
+    synchronized (CryptoPool.class) {
+      if (_defaultRandom == null)
+        _defaultRandom = new SecureRandom();
+
+      return _defaultRandom;
+    }
+  }
+
+  private static <T> HessianFreeList<T>
+    getFreeList(ConcurrentHashMap<String,HessianFreeList<T>> pools,
+                String algorithm)
+  {
+    HessianFreeList<T> freeList = pools.get(algorithm);
+
+    if (freeList == null && pools.size() < POOL_MAX) {
+      freeList = new HessianFreeList<T>(FREE_SIZE);
+
+      HessianFreeList<T> oldList = pools.putIfAbsent(algorithm, freeList);
+
+      if (oldList != null)
+        freeList = oldList;
+    }
+
+    return freeList;
+  }
+}
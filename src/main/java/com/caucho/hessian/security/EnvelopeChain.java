@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.security;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.zip.Deflater;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+import com.caucho.hessian.io.Deflation;
+import com.caucho.hessian.io.Hessian2Constants;
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.HessianEnvelope;
+import com.caucho.hessian.io.IOExceptionWrapper;
+
+/**
+ * Compression, signature and encryption envelopes written in a single
+ * pass.
+ *
+ * <p>The message is the same as wrapping the output with X509Encryption,
+ * then X509Signature, then Deflation, and can be read by either.  Instead
+ * of a Hessian2Output buffer per envelope, the compressed body is built
+ * in one buffer with room for the inner envelope headers and chunk
+ * lengths, signed in place and encrypted into the outer output.</p>
+ *
+ * <p>Any of the three envelopes may be left out.</p>
+ */
+public class EnvelopeChain extends HessianEnvelope {
+  private static final int DEFLATE = 0;
+  private static final int SIGN = 1;
+  private static final int ENCRYPT = 2;
+
+  private static final int SEGMENT_SIZE = 4096;
+  
+  private Deflation _deflation;
+  private X509Signature _signature;
+  private X509Encryption _encryption;
+  
+  public EnvelopeChain()
+  {
+  }
+
+  /**
+   * Sets the compression envelope, the innermost one.
+   */
+  public void setDeflation(Deflation deflation)
+  {
+    _deflation = deflation;
+  }
+
+  /**
+   * Returns the compression envelope.
+   */
+  public Deflation getDeflation()
+  {
+    return _deflation;
+  }
+
+  /**
+   * Sets the signature envelope, around the compressed body.
+   */
+  public void setSignature(X509Signature signature)
+  {
+    _signature = signature;
+  }
+
+  /**
+   * Returns the signature envelope.
+   */
+  public X509Signature getSignature()
+  {
+    return _signature;
+  }
+
+  /**
+   * Sets the encryption envelope, the outermost one.
+   */
+  public void setEncryption(X509Encryption encryption)
+  {
+    _encryption = encryption;
+  }
+
+  /**
+   * Returns the encryption envelope.
+   */
+  public X509Encryption getEncryption()
+  {
+    return _encryption;
+  }
+
+  public Hessian2Output wrap(Hessian2Output out)
+    throws IOException
+  {
+    OutputStream os = new ChainOutputStream(out);
+    
+    Hessian2Output filterOut = new Hessian2Output(os);
+
+    filterOut.setCloseStreamOnClose(true);
+    
+    return filterOut;
+  }
+
+  public Hessian2Input unwrap(Hessian2Input in)
+    throws IOException
+  {
+    if (_encryption != null)
+      in = _encryption.unwrap(in);
+    
+    if (_signature != null)
+      in = _signature.unwrap(in);
+    
+    if (_deflation != null)
+      in = _deflation.unwrap(in);
+
+    return in;
+  }
+
+  public Hessian2Input unwrapHeaders(Hessian2Input in)
+    throws IOException
+  {
+    // the envelope code and method of the outermost envelope are read
+    if (_encryption != null) {
+      in = _encryption.unwrapHeaders(in);
+
+      if (_signature != null)
+	in = _signature.unwrap(in);
+    
+      if (_deflation != null)
+	in = _deflation.unwrap(in);
+    }
+    else if (_signature != null) {
+      in = _signature.unwrapHeaders(in);
+    
+      if (_deflation != null)
+	in = _deflation.unwrap(in);
+    }
+    else if (_deflation != null)
+      in = _deflation.unwrapHeaders(in);
+
+    return in;
+  }
+
+  class ChainOutputStream extends OutputStream {
+    private Hessian2Output _out;
+    // binary body of the outermost envelope
+    private OutputStream _bodyOut;
+
+    // envelopes, outermost first
+    private int []_layers;
+    // headers of the inner envelopes, written before their first chunk
+    private byte [][]_headers;
+    
+    private Deflater _deflater;
+    private Mac _mac;
+    private Cipher _cipher;
+    private byte []_cipherBuffer;
+
+    private ByteArrayOutputStream _scratch = new ByteArrayOutputStream();
+    private Hessian2Output _scratchOut = new Hessian2Output();
+
+    // body of the innermost envelope, after room for the inner headers
+    private byte []_buffer;
+    private int _start;
+    private int _offset;
+    private int _limit;
+    private boolean _isFirst = true;
+
+    private byte []_byte = new byte[1];
+    
+    ChainOutputStream(Hessian2Output out)
+      throws IOException
+    {
+      int []layers = new int[3];
+      int count = 0;
+
+      if (_encryption != null)
+	layers[count++] = ENCRYPT;
+      if (_signature != null)
+	layers[count++] = SIGN;
+      if (_deflation != null)
+	layers[count++] = DEFLATE;
+
+      if (count == 0)
+	throw new IOException("EnvelopeChain.wrap requires an envelope");
+
+      _out = out;
+      _layers = new int[count];
+      System.arraycopy(layers, 0, _layers, 0, count);
+      _headers = new byte[count][];
+
+      int headerLength = 0;
+      
+      for (int i = 0; i < count; i++) {
+	Hessian2Output headerOut = i == 0 ? out : startScratch();
+
+	switch (_layers[i]) {
+	case ENCRYPT:
+	  _cipher = _encryption.startEncryption(headerOut);
+	  break;
+	  
+	case SIGN:
+	  _mac = _signature.startSignature(headerOut);
+	  break;
+	  
+	case DEFLATE:
+	  headerOut.startEnvelope(Deflation.class.getName());
+	  headerOut.writeInt(0);
+	  break;
+	}
+
+	if (i > 0) {
+	  _headers[i] = completeScratch();
+	  // header and chunk length
+	  headerLength += _headers[i].length + 3;
+	}
+      }
+
+      if (_deflation != null)
+	_deflater = _deflation.allocateDeflater();
+
+      _bodyOut = out.getBytesOutputStream();
+
+      _start = headerLength;
+      _offset = _start;
+      _limit = _start + SEGMENT_SIZE;
+      _buffer = new byte[_limit + 128];
+    }
+
+    public void write(int ch)
+      throws IOException
+    {
+      _byte[0] = (byte) ch;
+      
+      write(_byte, 0, 1);
+    }
+
+    public void write(byte []buffer, int offset, int length)
+      throws IOException
+    {
+      if (_out == null)
+	throw new IOException("stream is closed");
+      
+      if (_deflater != null) {
+	_deflater.setInput(buffer, offset, length);
+
+	while (! _deflater.needsInput())
+	  deflate();
+	
+	return;
+      }
+
+      while (length > 0) {
+	int sublen = _limit - _offset;
+
+	if (length < sublen)
+	  sublen = length;
+
+	System.arraycopy(buffer, offset, _buffer, _offset, sublen);
+	
+	_offset += sublen;
+	offset += sublen;
+	length -= sublen;
+
+	if (_offset == _limit)
+	  writeSegment(false);
+      }
+    }
+
+    private void deflate()
+      throws IOException
+    {
+      _offset += _deflater.deflate(_buffer, _offset, _limit - _offset);
+
+      if (_offset == _limit)
+	writeSegment(false);
+    }
+
+    public void close()
+      throws IOException
+    {
+      Hessian2Output out = _out;
+
+      if (out == null)
+	return;
+
+      if (_deflater != null) {
+	_deflater.finish();
+
+	while (! _deflater.finished())
+	  deflate();
+
+	Deflater deflater = _deflater;
+	_deflater = null;
+	_deflation.freeDeflater(deflater);
+      }
+
+      writeSegment(true);
+
+      _out = null;
+      
+      out.close();
+    }
+
+    /**
+     * Passes the buffered body outward through the envelopes: each inner
+     * envelope adds its chunk length, header and trailer in the buffer,
+     * the signature is updated in place and the outermost envelope
+     * writes the result.
+     */
+    private void writeSegment(boolean isFinal)
+      throws IOException
+    {
+      int start = _start;
+      int end = _offset;
+      
+      for (int i = _layers.length - 1; i > 0; i--) {
+	if (_layers[i] == SIGN)
+	  _mac.update(_buffer, start, end - start);
+
+	int length = end - start;
+
+	start -= 3;
+	_buffer[start] = (byte) (isFinal ? 'B' : Hessian2Constants.BC_BINARY_CHUNK);
+	_buffer[start + 1] = (byte) (length >> 8);
+	_buffer[start + 2] = (byte) length;
+
+	if (_isFirst) {
+	  byte []header = _headers[i];
+	  
+	  start -= header.length;
+	  System.arraycopy(header, 0, _buffer, start, header.length);
+	}
+
+	if (isFinal) {
+	  completeEnvelope(_layers[i], startScratch());
+	  
+	  byte []trailer = completeScratch();
+
+	  if (_buffer.length < end + trailer.length) {
+	    byte []buffer = new byte[end + trailer.length];
+	    System.arraycopy(_buffer, 0, buffer, 0, end);
+	    _buffer = buffer;
+	  }
+
+	  System.arraycopy(trailer, 0, _buffer, end, trailer.length);
+	  end += trailer.length;
+	}
+      }
+
+      _isFirst = false;
+      _offset = _start;
+
+      switch (_layers[0]) {
+      case ENCRYPT:
+	encrypt(start, end - start, isFinal);
+	break;
+
+      case SIGN:
+	_mac.update(_buffer, start, end - start);
+	_bodyOut.write(_buffer, start, end - start);
+	break;
+
+      default:
+	_bodyOut.write(_buffer, start, end - start);
+	break;
+      }
+
+      if (isFinal) {
+	_bodyOut.close();
+	
+	completeEnvelope(_layers[0], _out);
+      }
+    }
+
+    private void encrypt(int offset, int length, boolean isFinal)
+      throws IOException
+    {
+      try {
+	int size = _cipher.getOutputSize(length);
+
+	if (_cipherBuffer == null || _cipherBuffer.length < size)
+	  _cipherBuffer = new byte[size];
+
+	int sublen;
+
+	if (isFinal)
+	  sublen = _cipher.doFinal(_buffer, offset, length, _cipherBuffer, 0);
+	else
+	  sublen = _cipher.update(_buffer, offset, length, _cipherBuffer, 0);
+
+	_bodyOut.write(_cipherBuffer, 0, sublen);
+      } catch (GeneralSecurityException e) {
+	throw new IOExceptionWrapper(e);
+      }
+    }
+
+    private void completeEnvelope(int layer, Hessian2Output out)
+      throws IOException
+    {
+      switch (layer) {
+      case ENCRYPT:
+	_encryption.completeEncryption(out, _cipher);
+	break;
+
+      case SIGN:
+	_signature.completeSignature(out, _mac);
+	break;
+
+      case DEFLATE:
+	out.writeInt(0);
+	out.completeEnvelope();
+	break;
+      }
+    }
+
+    private Hessian2Output startScratch()
+    {
+      _scratch.reset();
+      _scratchOut.init(_scratch);
+
+      return _scratchOut;
+    }
+
+    private byte []completeScratch()
+      throws IOException
+    {
+      _scratchOut.flush();
+
+      return _scratch.toByteArray();
+    }
+  }
+}
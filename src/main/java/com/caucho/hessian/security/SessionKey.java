@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.security;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.SecretKey;
+
+/**
+ * A shared key wrapped once and reused for a bounded number of messages
+ * or until it expires.
+ *
+ * <p>The key id is taken from the SHA1 of the wrapped key, so the
+ * reader can find its unwrapped copy without another asymmetric
+ * operation.</p>
+ */
+final class SessionKey {
+  private final long _id;
+  private final SecretKey _key;
+  private final byte []_encodedKey;
+  private final int _maxMessages;
+  private final long _expireTime;
+
+  private final AtomicInteger _count = new AtomicInteger();
+
+  SessionKey(SecretKey key, byte []encodedKey,
+             int maxMessages, long expireTime)
+    throws GeneralSecurityException
+  {
+    _key = key;
+    _encodedKey = encodedKey;
+    _maxMessages = maxMessages;
+    _expireTime = expireTime;
+
+    _id = createId(encodedKey);
+  }
+
+  /**
+   * Returns the key id.
+   */
+  long getId()
+  {
+    return _id;
+  }
+
+  /**
+   * Returns the shared key.
+   */
+  SecretKey getKey()
+  {
+    return _key;
+  }
+
+  /**
+   * Returns the shared key wrapped with the asymmetric key.
+   */
+  byte []getEncodedKey()
+  {
+    return _encodedKey;
+  }
+
+  /**
+   * Claims the key for one message, returning false if the key has been
+   * used for its maximum number of messages or has expired.
+   */
+  boolean allocate(long now)
+  {
+    return (now < _expireTime
+            && _count.incrementAndGet() <= _maxMessages);
+  }
+
+  static long createId(byte []encodedKey)
+    throws GeneralSecurityException
+  {
+    MessageDigest md = MessageDigest.getInstance("SHA1");
+    byte []digest = md.digest(encodedKey);
+
+    long id = 0;
+
+    for (int i = 0; i < 8; i++)
+      id = (id << 8) + (digest[i] & 0xff);
+
+    return id;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.security;
+
+import java.security.Key;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Unwrapped session keys on the reading side, indexed by key id.
+ *
+ * <p>A cached key is only returned if the message carries the same
+ * wrapped key, so a key id alone never selects a key.  The cache keeps
+ * the most recently used keys.</p>
+ */
+final class SessionKeyCache {
+  private static final int CACHE_SIZE = 64;
+
+  private final LinkedHashMap<Long,CachedKey> _entries
+    = new LinkedHashMap<Long,CachedKey>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<Long,CachedKey> eldest)
+      {
+        return size() > CACHE_SIZE;
+      }
+    };
+
+  /**
+   * Returns the unwrapped key for the id, or null if it's unknown, was
+   * wrapped differently or is older than the timeout.
+   */
+  synchronized Key get(long id, byte []encodedKey, String algorithm,
+                       long now, long timeout)
+  {
+    CachedKey entry = _entries.get(id);
+
+    if (entry == null)
+      return null;
+    else if (now - entry._createTime >= timeout
+             || ! algorithm.equals(entry._key.getAlgorithm())
+             || ! Arrays.equals(encodedKey, entry._encodedKey)) {
+      _entries.remove(id);
+
+      return null;
+    }
+    else
+      return entry._key;
+  }
+
+  /**
+   * Saves an unwrapped key.
+   */
+  synchronized void put(long id, byte []encodedKey, Key key, long now)
+  {
+    _entries.put(id, new CachedKey(encodedKey, key, now));
+  }
+
+  synchronized void clear()
+  {
+    _entries.clear();
+  }
+
+  static final class CachedKey {
+    private final byte []_encodedKey;
+    private final Key _key;
+    private final long _createTime;
+
+    CachedKey(byte []encodedKey, Key key, long createTime)
+    {
+      _encodedKey = encodedKey;
+      _key = key;
+      _createTime = createTime;
+    }
+  }
+}
@@ -51,6 +51,7 @@ package com.caucho.hessian.security;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.MessageDigest;
 import java.security.PrivateKey;
@@ -63,13 +64,21 @@ import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
 
 import com.caucho.hessian.io.Hessian2Input;
 import com.caucho.hessian.io.Hessian2Output;
 import com.caucho.hessian.io.HessianEnvelope;
 
 public class X509Encryption extends HessianEnvelope {
-  private String _algorithm = "AES";
+  private static final long DEFAULT_SESSION_TIMEOUT = 60 * 60 * 1000L;
+  
+  // content algorithms when none is set
+  private static final String DEFAULT_ALGORITHM = "AES";
+  private static final String DEFAULT_SESSION_ALGORITHM
+    = "AES/CBC/PKCS5Padding";
+  
+  private String _algorithm;
 
   // certificate for encryption/decryption
   private X509Certificate _cert;
@@ -78,6 +87,17 @@ public class X509Encryption extends HessianEnvelope {
   private PrivateKey _privateKey;
   
   private SecureRandom _secureRandom;
+
+  // SHA1 fingerprint of the certificate's public key
+  private volatile byte []_fingerprint;
+
+  // session mode, where a wrapped key is reused across messages
+  private int _sessionMaxMessages;
+  private long _sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+
+  private volatile SessionKey _sessionKey;
+
+  private final SessionKeyCache _sessionKeyCache = new SessionKeyCache();
   
   public X509Encryption()
   {
@@ -92,14 +112,21 @@ public class X509Encryption extends HessianEnvelope {
       throw new NullPointerException();
     
     _algorithm = algorithm;
+    _sessionKey = null;
   }
 
   /**
-   * Gets the encryption algorithm for the content.
+   * Gets the encryption algorithm for the content.  Without a set
+   * algorithm, it's "AES", or "AES/CBC/PKCS5Padding" in session mode.
    */
   public String getAlgorithm()
   {
-    return _algorithm;
+    if (_algorithm != null)
+      return _algorithm;
+    else if (_sessionMaxMessages > 0)
+      return DEFAULT_SESSION_ALGORITHM;
+    else
+      return DEFAULT_ALGORITHM;
   }
 
   /**
@@ -116,6 +143,8 @@ public class X509Encryption extends HessianEnvelope {
   public void setCertificate(X509Certificate cert)
   {
     _cert = cert;
+    _fingerprint = null;
+    _sessionKey = null;
   }
 
   /**
@@ -132,6 +161,7 @@ public class X509Encryption extends HessianEnvelope {
   public void setPrivateKey(PrivateKey privateKey)
   {
     _privateKey = privateKey;
+    _sessionKeyCache.clear();
   }
 
   /**
@@ -150,12 +180,53 @@ public class X509Encryption extends HessianEnvelope {
     _secureRandom = random;
   }
 
+  /**
+   * Sets the number of messages sharing one wrapped key.  The default, 0,
+   * wraps a new key for every message.  A reused key saves the
+   * public-key operation on both sides, but the readers must understand
+   * the "key-id" header.
+   *
+   * <p>Messages sharing a key need a content algorithm with a random IV,
+   * or equal messages would encrypt to equal bodies, so session mode
+   * defaults to "AES/CBC/PKCS5Padding", and writing with a set algorithm
+   * without an IV, like "AES" in ECB mode, fails with an
+   * IllegalStateException.
+   */
+  public void setSessionMaxMessages(int maxMessages)
+  {
+    _sessionMaxMessages = maxMessages;
+    _sessionKey = null;
+  }
+
+  /**
+   * Returns the number of messages sharing one wrapped key.
+   */
+  public int getSessionMaxMessages()
+  {
+    return _sessionMaxMessages;
+  }
+
+  /**
+   * Sets the maximum lifetime of a session key in milliseconds, when
+   * writing and for the unwrapped keys the reader keeps.
+   */
+  public void setSessionTimeout(long timeout)
+  {
+    _sessionTimeout = timeout;
+    _sessionKey = null;
+  }
+
+  /**
+   * Returns the maximum lifetime of a session key in milliseconds.
+   */
+  public long getSessionTimeout()
+  {
+    return _sessionTimeout;
+  }
+
   public Hessian2Output wrap(Hessian2Output out)
     throws IOException
   {
-    if (_cert == null)
-      throw new IOException("X509Encryption.wrap requires a certificate");
-    
     OutputStream os = new EncryptOutputStream(out);
     
     Hessian2Output filterOut = new Hessian2Output(os);
@@ -203,6 +274,196 @@ public class X509Encryption extends HessianEnvelope {
     return filter;
   }
   
+  /**
+   * Writes the start of the envelope and its headers, returning the
+   * Cipher for the body.
+   */
+  Cipher startEncryption(Hessian2Output out)
+    throws IOException
+  {
+    if (_cert == null)
+      throw new IOException("X509Encryption.wrap requires a certificate");
+
+    try {
+      PublicKey publicKey = _cert.getPublicKey();
+
+      byte []fingerprint = getFingerprint(publicKey);
+
+      String keyAlgorithm = publicKey.getAlgorithm();
+
+      String algorithm = getAlgorithm();
+
+      SessionKey session = allocateSessionKey();
+
+      SecretKey sharedKey;
+      byte []encKey;
+
+      if (session != null) {
+        sharedKey = session.getKey();
+        encKey = session.getEncodedKey();
+      }
+      else {
+        sharedKey = generateKey();
+        encKey = wrapKey(sharedKey);
+      }
+
+      Cipher cipher = CryptoPool.allocateCipher(algorithm);
+      if (_secureRandom != null)
+        cipher.init(Cipher.ENCRYPT_MODE, sharedKey, _secureRandom);
+      else
+        cipher.init(Cipher.ENCRYPT_MODE, sharedKey);
+
+      byte []iv = cipher.getIV();
+
+      if (session != null && iv == null) {
+        CryptoPool.freeCipher(cipher);
+        
+        throw new IllegalStateException(algorithm + " uses no IV, so it"
+                                        + " can't encrypt several messages"
+                                        + " with one session key; use a"
+                                        + " mode like "
+                                        + DEFAULT_SESSION_ALGORITHM);
+      }
+
+      int headers = 4;
+
+      if (session != null)
+        headers++;
+
+      if (iv != null)
+        headers++;
+
+      out.startEnvelope(X509Encryption.class.getName());
+
+      out.writeInt(headers);
+      out.writeString("algorithm");
+      out.writeString(algorithm);
+      out.writeString("fingerprint");
+      out.writeBytes(fingerprint);
+      out.writeString("key-algorithm");
+      out.writeString(keyAlgorithm);
+      out.writeString("key");
+      out.writeBytes(encKey);
+
+      if (session != null) {
+        out.writeString("key-id");
+        out.writeLong(session.getId());
+      }
+
+      if (iv != null) {
+        out.writeString("iv");
+        out.writeBytes(iv);
+      }
+
+      return cipher;
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Returns the session key for the next message, wrapping a new one
+   * when the current key is used up, or null in per-message mode.
+   */
+  private SessionKey allocateSessionKey()
+    throws GeneralSecurityException
+  {
+    if (_sessionMaxMessages <= 0)
+      return null;
+
+    long now = System.currentTimeMillis();
+
+    SessionKey session = _sessionKey;
+
+    if (session != null && session.allocate(now))
+      return session;
+
+    SecretKey sharedKey = generateKey();
+
+    session = new SessionKey(sharedKey, wrapKey(sharedKey),
+                             _sessionMaxMessages, now + _sessionTimeout);
+    session.allocate(now);
+
+    _sessionKey = session;
+
+    return session;
+  }
+
+  private SecretKey generateKey()
+    throws GeneralSecurityException
+  {
+    KeyGenerator keyGen
+      = CryptoPool.allocateKeyGenerator(getKeyAlgorithm(getAlgorithm()),
+                                        _secureRandom);
+
+    SecretKey sharedKey = keyGen.generateKey();
+
+    CryptoPool.freeKeyGenerator(keyGen);
+
+    return sharedKey;
+  }
+
+  private byte []wrapKey(SecretKey sharedKey)
+    throws GeneralSecurityException
+  {
+    String keyAlgorithm = _cert.getPublicKey().getAlgorithm();
+
+    Cipher keyCipher = Cipher.getInstance(keyAlgorithm);
+    if (_secureRandom != null)
+      keyCipher.init(Cipher.WRAP_MODE, _cert, _secureRandom);
+    else
+      keyCipher.init(Cipher.WRAP_MODE, _cert);
+
+    byte []encKey = keyCipher.wrap(sharedKey);
+
+    return encKey;
+  }
+
+  /**
+   * Returns the key algorithm of a transformation like
+   * "AES/CBC/PKCS5Padding".
+   */
+  private static String getKeyAlgorithm(String algorithm)
+  {
+    int p = algorithm.indexOf('/');
+
+    return p < 0 ? algorithm : algorithm.substring(0, p);
+  }
+
+  /**
+   * Completes the envelope after the body, releasing the finished body
+   * Cipher.
+   */
+  void completeEncryption(Hessian2Output out, Cipher cipher)
+    throws IOException
+  {
+    CryptoPool.freeCipher(cipher);
+
+    out.writeInt(0);
+
+    out.completeEnvelope();
+  }
+
+  private byte []getFingerprint(PublicKey publicKey)
+    throws GeneralSecurityException
+  {
+    byte []fingerprint = _fingerprint;
+
+    if (fingerprint == null) {
+      MessageDigest md = MessageDigest.getInstance("SHA1");
+      md.update(publicKey.getEncoded());
+      fingerprint = md.digest();
+
+      _fingerprint = fingerprint;
+    }
+
+    return fingerprint;
+  }
+
   class EncryptOutputStream extends OutputStream {
     private Hessian2Output _out;
     
@@ -213,65 +474,15 @@ public class X509Encryption extends HessianEnvelope {
     EncryptOutputStream(Hessian2Output out)
       throws IOException
     {
-      try {
-        _out = out;
-      
-        KeyGenerator keyGen = KeyGenerator.getInstance(_algorithm);
-
-        if (_secureRandom != null)
-          keyGen.init(_secureRandom);
-
-        SecretKey sharedKey = keyGen.generateKey();
-    
-        _out = out;
+      _out = out;
 
-        _out.startEnvelope(X509Encryption.class.getName());
+      _cipher = startEncryption(out);
 
-        PublicKey publicKey = _cert.getPublicKey();
+      _bodyOut = _out.getBytesOutputStream();
 
-        byte []encoded = publicKey.getEncoded();
-        MessageDigest md = MessageDigest.getInstance("SHA1");
-        md.update(encoded);
-        byte []fingerprint = md.digest();
-      
-        String keyAlgorithm = publicKey.getAlgorithm();
-        Cipher keyCipher = Cipher.getInstance(keyAlgorithm);
-        if (_secureRandom != null)
-          keyCipher.init(Cipher.WRAP_MODE, _cert, _secureRandom);
-        else
-          keyCipher.init(Cipher.WRAP_MODE, _cert);
-
-        byte []encKey = keyCipher.wrap(sharedKey);
-    
-        _out.writeInt(4);
-      
-        _out.writeString("algorithm");
-        _out.writeString(_algorithm);
-        _out.writeString("fingerprint");
-        _out.writeBytes(fingerprint);
-        _out.writeString("key-algorithm");
-        _out.writeString(keyAlgorithm);
-        _out.writeString("key");
-        _out.writeBytes(encKey);
-
-        _bodyOut = _out.getBytesOutputStream();
-
-        _cipher = Cipher.getInstance(_algorithm);
-        if (_secureRandom != null)
-          _cipher.init(Cipher.ENCRYPT_MODE, sharedKey, _secureRandom);
-        else
-          _cipher.init(Cipher.ENCRYPT_MODE, sharedKey);
-    
-        _cipherOut = new CipherOutputStream(_bodyOut, _cipher);
-      } catch (RuntimeException e) {
-        throw e;
-      } catch (IOException e) {
-        throw e;
-      } catch (Exception e) {
-        throw new RuntimeException(e);
-      }
+      _cipherOut = new CipherOutputStream(_bodyOut, _cipher);
     }
-    
+
     public void write(int ch)
       throws IOException
     {
@@ -294,8 +505,7 @@ public class X509Encryption extends HessianEnvelope {
 	_cipherOut.close();
 	_bodyOut.close();
 
-	out.writeInt(0);
-        out.completeEnvelope();
+	completeEncryption(out, _cipher);
 	out.close();
       }
     }
@@ -318,6 +528,9 @@ public class X509Encryption extends HessianEnvelope {
         String keyAlgorithm = null;
         String algorithm = null;
         byte []encKey = null;
+        boolean hasKeyId = false;
+        long keyId = 0;
+        byte []iv = null;
 
         int len = in.readInt();
 
@@ -332,18 +545,41 @@ public class X509Encryption extends HessianEnvelope {
             algorithm = in.readString();
           else if ("key".equals(header))
             encKey = in.readBytes();
+          else if ("key-id".equals(header)) {
+            hasKeyId = true;
+            keyId = in.readLong();
+          }
+          else if ("iv".equals(header))
+            iv = in.readBytes();
           else
             throw new IOException("'" + header + "' is an unexpected header");
         }
 
-        Cipher keyCipher = Cipher.getInstance(keyAlgorithm);
-        keyCipher.init(Cipher.UNWRAP_MODE, _privateKey);
+        String secretAlgorithm = getKeyAlgorithm(algorithm);
+        long now = System.currentTimeMillis();
+        Key key = null;
+
+        if (hasKeyId)
+          key = _sessionKeyCache.get(keyId, encKey, secretAlgorithm,
+                                     now, _sessionTimeout);
+
+        if (key == null) {
+          Cipher keyCipher = Cipher.getInstance(keyAlgorithm);
+          keyCipher.init(Cipher.UNWRAP_MODE, _privateKey);
 
-        Key key = keyCipher.unwrap(encKey, algorithm, Cipher.SECRET_KEY);
+          key = keyCipher.unwrap(encKey, secretAlgorithm, Cipher.SECRET_KEY);
+
+          if (hasKeyId)
+            _sessionKeyCache.put(keyId, encKey, key, now);
+        }
+        
         _bodyIn = _in.readInputStream();
 
-        _cipher = Cipher.getInstance(algorithm);
-        _cipher.init(Cipher.DECRYPT_MODE, key);
+        _cipher = CryptoPool.allocateCipher(algorithm);
+        if (iv != null)
+          _cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+        else
+          _cipher.init(Cipher.DECRYPT_MODE, key);
     
         _cipherIn = new CipherInputStream(_bodyIn, _cipher);
       } catch (RuntimeException e) {
@@ -377,6 +613,8 @@ public class X509Encryption extends HessianEnvelope {
 	_cipherIn.close();
 	_bodyIn.close();
 
+	CryptoPool.freeCipher(_cipher);
+
 	int len = in.readInt();
 
 	if (len != 0)
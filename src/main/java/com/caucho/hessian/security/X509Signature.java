@@ -51,6 +51,7 @@ package com.caucho.hessian.security;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.MessageDigest;
 import java.security.PrivateKey;
@@ -69,10 +70,23 @@ import com.caucho.hessian.io.Hessian2Output;
 import com.caucho.hessian.io.HessianEnvelope;
 
 public class X509Signature extends HessianEnvelope {
+  private static final long DEFAULT_SESSION_TIMEOUT = 60 * 60 * 1000L;
+  
   private String _algorithm = "HmacSHA256";
   private X509Certificate _cert;
   private PrivateKey _privateKey;
   private SecureRandom _secureRandom;
+
+  // SHA1 fingerprint of the certificate's public key
+  private volatile byte []_fingerprint;
+
+  // session mode, where a wrapped key is reused across messages
+  private int _sessionMaxMessages;
+  private long _sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+
+  private volatile SessionKey _sessionKey;
+
+  private final SessionKeyCache _sessionKeyCache = new SessionKeyCache();
   
   public X509Signature()
   {
@@ -87,6 +101,7 @@ public class X509Signature extends HessianEnvelope {
       throw new NullPointerException();
     
     _algorithm = algorithm;
+    _sessionKey = null;
   }
 
   /**
@@ -111,6 +126,9 @@ public class X509Signature extends HessianEnvelope {
   public void setCertificate(X509Certificate cert)
   {
     _cert = cert;
+    _fingerprint = null;
+    _sessionKey = null;
+    _sessionKeyCache.clear();
   }
 
   /**
@@ -127,6 +145,7 @@ public class X509Signature extends HessianEnvelope {
   public void setPrivateKey(PrivateKey key)
   {
     _privateKey = key;
+    _sessionKey = null;
   }
 
   /**
@@ -145,15 +164,47 @@ public class X509Signature extends HessianEnvelope {
     _secureRandom = random;
   }
 
+  /**
+   * Sets the number of messages sharing one wrapped key.  The default, 0,
+   * wraps a new key for every message.  A reused key saves the
+   * public-key operation on both sides, but the readers must understand
+   * the "key-id" header.
+   */
+  public void setSessionMaxMessages(int maxMessages)
+  {
+    _sessionMaxMessages = maxMessages;
+    _sessionKey = null;
+  }
+
+  /**
+   * Returns the number of messages sharing one wrapped key.
+   */
+  public int getSessionMaxMessages()
+  {
+    return _sessionMaxMessages;
+  }
+
+  /**
+   * Sets the maximum lifetime of a session key in milliseconds, when
+   * writing and for the unwrapped keys the reader keeps.
+   */
+  public void setSessionTimeout(long timeout)
+  {
+    _sessionTimeout = timeout;
+    _sessionKey = null;
+  }
+
+  /**
+   * Returns the maximum lifetime of a session key in milliseconds.
+   */
+  public long getSessionTimeout()
+  {
+    return _sessionTimeout;
+  }
+
   public Hessian2Output wrap(Hessian2Output out)
     throws IOException
   {
-    if (_privateKey == null)
-      throw new IOException("X509Signature.wrap requires a private key");
-    
-    if (_cert == null)
-      throw new IOException("X509Signature.wrap requires a certificate");
-    
     OutputStream os = new SignatureOutputStream(out);
     
     Hessian2Output filterOut = new Hessian2Output(os);
@@ -195,6 +246,156 @@ public class X509Signature extends HessianEnvelope {
     return filter;
   }
 
+  /**
+   * Writes the start of the envelope and its headers, returning the
+   * Mac for the body.
+   */
+  Mac startSignature(Hessian2Output out)
+    throws IOException
+  {
+    if (_privateKey == null)
+      throw new IOException("X509Signature.wrap requires a private key");
+    
+    if (_cert == null)
+      throw new IOException("X509Signature.wrap requires a certificate");
+    
+    try {
+      PublicKey publicKey = _cert.getPublicKey();
+
+      byte []fingerprint = getFingerprint(publicKey);
+
+      String keyAlgorithm = _privateKey.getAlgorithm();
+
+      SessionKey session = allocateSessionKey();
+
+      SecretKey sharedKey;
+      byte []encKey;
+
+      if (session != null) {
+        sharedKey = session.getKey();
+        encKey = session.getEncodedKey();
+      }
+      else {
+        sharedKey = generateKey();
+        encKey = wrapKey(sharedKey);
+      }
+    
+      out.startEnvelope(X509Signature.class.getName());
+    
+      out.writeInt(session != null ? 5 : 4);
+      out.writeString("algorithm");
+      out.writeString(_algorithm);
+      out.writeString("fingerprint");
+      out.writeBytes(fingerprint);
+      out.writeString("key-algorithm");
+      out.writeString(keyAlgorithm);
+      out.writeString("key");
+      out.writeBytes(encKey);
+
+      if (session != null) {
+        out.writeString("key-id");
+        out.writeLong(session.getId());
+      }
+
+      Mac mac = CryptoPool.allocateMac(_algorithm);
+      mac.init(sharedKey);
+
+      return mac;
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Returns the session key for the next message, wrapping a new one
+   * when the current key is used up, or null in per-message mode.
+   */
+  private SessionKey allocateSessionKey()
+    throws GeneralSecurityException
+  {
+    if (_sessionMaxMessages <= 0)
+      return null;
+
+    long now = System.currentTimeMillis();
+
+    SessionKey session = _sessionKey;
+
+    if (session != null && session.allocate(now))
+      return session;
+
+    SecretKey sharedKey = generateKey();
+
+    session = new SessionKey(sharedKey, wrapKey(sharedKey),
+                             _sessionMaxMessages, now + _sessionTimeout);
+    session.allocate(now);
+
+    _sessionKey = session;
+
+    return session;
+  }
+
+  private SecretKey generateKey()
+    throws GeneralSecurityException
+  {
+    KeyGenerator keyGen = CryptoPool.allocateKeyGenerator(_algorithm,
+                                                          _secureRandom);
+
+    SecretKey sharedKey = keyGen.generateKey();
+
+    CryptoPool.freeKeyGenerator(keyGen);
+
+    return sharedKey;
+  }
+
+  private byte []wrapKey(SecretKey sharedKey)
+    throws GeneralSecurityException
+  {
+    Cipher keyCipher = Cipher.getInstance(_privateKey.getAlgorithm());
+    keyCipher.init(Cipher.WRAP_MODE, _privateKey);
+
+    byte []encKey = keyCipher.wrap(sharedKey);
+
+    return encKey;
+  }
+
+  /**
+   * Writes the signature of the body and completes the envelope,
+   * releasing the Mac.
+   */
+  void completeSignature(Hessian2Output out, Mac mac)
+    throws IOException
+  {
+    byte []sig = mac.doFinal();
+
+    CryptoPool.freeMac(mac);
+
+    out.writeInt(1);
+    out.writeString("signature");
+    out.writeBytes(sig);
+
+    out.completeEnvelope();
+  }
+
+  private byte []getFingerprint(PublicKey publicKey)
+    throws GeneralSecurityException
+  {
+    byte []fingerprint = _fingerprint;
+
+    if (fingerprint == null) {
+      MessageDigest md = MessageDigest.getInstance("SHA1");
+      md.update(publicKey.getEncoded());
+      fingerprint = md.digest();
+
+      _fingerprint = fingerprint;
+    }
+
+    return fingerprint;
+  }
+
   class SignatureOutputStream extends OutputStream {
     private Hessian2Output _out;
     private OutputStream _bodyOut;
@@ -203,52 +404,11 @@ public class X509Signature extends HessianEnvelope {
     SignatureOutputStream(Hessian2Output out)
       throws IOException
     {
-      try {
-        KeyGenerator keyGen = KeyGenerator.getInstance(_algorithm);
+      _out = out;
 
-        if (_secureRandom != null)
-          keyGen.init(_secureRandom);
+      _mac = startSignature(out);
 
-        SecretKey sharedKey = keyGen.generateKey();
-    
-        _out = out;
-
-        _out.startEnvelope(X509Signature.class.getName());
-      
-        PublicKey publicKey = _cert.getPublicKey();
-
-        byte []encoded = publicKey.getEncoded();
-        MessageDigest md = MessageDigest.getInstance("SHA1");
-        md.update(encoded);
-        byte []fingerprint = md.digest();
-
-        String keyAlgorithm = _privateKey.getAlgorithm();
-        Cipher keyCipher = Cipher.getInstance(keyAlgorithm);
-        keyCipher.init(Cipher.WRAP_MODE, _privateKey);
-
-        byte []encKey = keyCipher.wrap(sharedKey);
-    
-        _out.writeInt(4);
-        _out.writeString("algorithm");
-        _out.writeString(_algorithm);
-        _out.writeString("fingerprint");
-        _out.writeBytes(fingerprint);
-        _out.writeString("key-algorithm");
-        _out.writeString(keyAlgorithm);
-        _out.writeString("key");
-        _out.writeBytes(encKey);
-
-        _mac = Mac.getInstance(_algorithm);
-        _mac.init(sharedKey);
-
-        _bodyOut = _out.getBytesOutputStream();
-      } catch (RuntimeException e) {
-        throw e;
-      } catch (IOException e) {
-        throw e;
-      } catch (Exception e) {
-        throw new RuntimeException(e);
-      }
+      _bodyOut = _out.getBytesOutputStream();
     }
 
     public void write(int ch)
@@ -276,13 +436,8 @@ public class X509Signature extends HessianEnvelope {
       
       _bodyOut.close();
 
-      byte []sig = _mac.doFinal();
-
-      out.writeInt(1);
-      out.writeString("signature");
-      out.writeBytes(sig);
-
-      out.completeEnvelope();
+      completeSignature(out, _mac);
+      
       out.close();
     }
   }
@@ -304,6 +459,8 @@ public class X509Signature extends HessianEnvelope {
         String keyAlgorithm = null;
         String algorithm = null;
         byte []encKey = null;
+        boolean hasKeyId = false;
+        long keyId = 0;
 
         int len = in.readInt();
 
@@ -318,17 +475,36 @@ public class X509Signature extends HessianEnvelope {
             algorithm = in.readString();
           else if ("key".equals(header))
             encKey = in.readBytes();
+          else if ("key-id".equals(header)) {
+            hasKeyId = true;
+            keyId = in.readLong();
+          }
           else
             throw new IOException("'" + header + "' is an unexpected header");
         }
 
-        Cipher keyCipher = Cipher.getInstance(keyAlgorithm);
-        keyCipher.init(Cipher.UNWRAP_MODE, _cert);
+        long now = System.currentTimeMillis();
+        Key key = null;
+
+        // a cached key was unwrapped with the certificate, so it still
+        // proves the signer
+        if (hasKeyId)
+          key = _sessionKeyCache.get(keyId, encKey, algorithm,
+                                     now, _sessionTimeout);
+
+        if (key == null) {
+          Cipher keyCipher = Cipher.getInstance(keyAlgorithm);
+          keyCipher.init(Cipher.UNWRAP_MODE, _cert);
 
-        Key key = keyCipher.unwrap(encKey, algorithm, Cipher.SECRET_KEY);
+          key = keyCipher.unwrap(encKey, algorithm, Cipher.SECRET_KEY);
+
+          if (hasKeyId)
+            _sessionKeyCache.put(keyId, encKey, key, now);
+        }
+        
         _bodyIn = _in.readInputStream();
 
-        _mac = Mac.getInstance(algorithm);
+        _mac = CryptoPool.allocateMac(algorithm);
         _mac.init(key);
       } catch (RuntimeException e) {
         throw e;
@@ -393,6 +569,8 @@ public class X509Signature extends HessianEnvelope {
 
 	byte []sig = _mac.doFinal();
 
+	CryptoPool.freeMac(_mac);
+
 	if (sig.length != signature.length)
 	  throw new IOException("mismatched signature");
 
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded free list of reusable objects.  When the list is full, freed
+ * objects are dropped for the garbage collector.
+ */
+public final class HessianFreeList<T> {
+  private final AtomicReferenceArray<T> _freeStack;
+  private final AtomicInteger _top = new AtomicInteger();
+
+  /**
+   * Create a new free list.
+   *
+   * @param size the maximum number of free objects
+   */
+  public HessianFreeList(int size)
+  {
+    _freeStack = new AtomicReferenceArray<T>(size);
+  }
+
+  /**
+   * Returns a free object, or null if the list is empty.
+   */
+  public T allocate()
+  {
+    int top = _top.get();
+
+    if (top > 0 && _top.compareAndSet(top, top - 1))
+      return _freeStack.getAndSet(top - 1, null);
+    else
+      return null;
+  }
+
+  /**
+   * Adds an object to the free list.
+   *
+   * @return true if the object was added
+   */
+  public boolean free(T obj)
+  {
+    int top = _top.get();
+
+    if (top < _freeStack.length()) {
+      boolean isFree = _freeStack.compareAndSet(top, null, obj);
+
+      _top.compareAndSet(top, top + 1);
+
+      return isFree;
+    }
+    else
+      return false;
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.util;
+
+/**
+ * Identity map from objects to integers, used for the serialization
+ * references.
+ *
+ * <p>Each slot is stamped with the generation which wrote it, and only
+ * slots of the current generation are live, so <code>clear()</code>
+ * starts a new generation instead of zeroing the value and stamp
+ * arrays.  The slots stamped in a generation are also listed, so
+ * <code>clear()</code> drops just those keys, in time proportional to
+ * the entries written rather than the table size, and a pooled stream
+ * doesn't keep its last object graph reachable.
+ */
+public final class StampedIdentityIntMap {
+  /**
+   * Encoding of a missing entry.
+   */
+  public final static int NULL = IdentityIntMap.NULL;
+
+  private static final Object DELETED = new Object();
+
+  private Object []_keys;
+  private int []_values;
+  private int []_stamps;
+  // indices of the slots stamped in this generation
+  private int []_slots;
+
+  private int _generation = 1;
+  
+  // live entries
+  private int _size;
+  // live entries and deleted markers
+  private int _used;
+  private int _mask;
+  private int _shift;
+
+  /**
+   * Create a new map with 256 slots.
+   */
+  public StampedIdentityIntMap()
+  {
+    allocate(256);
+  }
+
+  /**
+   * Clears the map by starting a new generation and dropping the keys.
+   */
+  public void clear()
+  {
+    Object []keys = _keys;
+    int []slots = _slots;
+    
+    for (int i = _used - 1; i >= 0; i--)
+      keys[slots[i]] = null;
+    
+    _size = 0;
+    _used = 0;
+    
+    if (++_generation == 0) {
+      // after the stamps wrap, old stamps could match again
+      int []stamps = _stamps;
+      
+      for (int i = stamps.length - 1; i >= 0; i--)
+	stamps[i] = 0;
+
+      _generation = 1;
+    }
+  }
+  
+  /**
+   * Returns the current number of entries in the map.
+   */
+  public int size()
+  {
+    return _size;
+  }
+
+  /**
+   * Returns the value for the key, or NULL.
+   */
+  public int get(Object key)
+  {
+    int mask = _mask;
+    int generation = _generation;
+    Object []keys = _keys;
+    int []stamps = _stamps;
+    
+    for (int i = hash(key); ; i = (i + 1) & mask) {
+      if (stamps[i] != generation)
+	return NULL;
+      else if (keys[i] == key)
+	return _values[i];
+    }
+  }
+
+  /**
+   * Puts a new value, returning the old value or NULL.
+   */
+  public int put(Object key, int value)
+  {
+    int mask = _mask;
+    int generation = _generation;
+    Object []keys = _keys;
+    int []stamps = _stamps;
+    int deleted = -1;
+    
+    int i = hash(key);
+    for (; stamps[i] == generation; i = (i + 1) & mask) {
+      Object testKey = keys[i];
+
+      if (testKey == key) {
+	int old = _values[i];
+	_values[i] = value;
+
+	return old;
+      }
+      else if (testKey == DELETED && deleted < 0)
+	deleted = i;
+    }
+
+    if (deleted >= 0)
+      i = deleted;
+    else {
+      stamps[i] = generation;
+      _slots[_used++] = i;
+    }
+
+    keys[i] = key;
+    _values[i] = value;
+    _size++;
+
+    if (keys.length <= 2 * _used)
+      resize();
+
+    return NULL;
+  }
+
+  /**
+   * Deletes the entry, returning its value or NULL.
+   */
+  public int remove(Object key)
+  {
+    int mask = _mask;
+    int generation = _generation;
+    Object []keys = _keys;
+    int []stamps = _stamps;
+    
+    for (int i = hash(key); stamps[i] == generation; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+	keys[i] = DELETED;
+	_size--;
+
+	return _values[i];
+      }
+    }
+
+    return NULL;
+  }
+
+  private int hash(Object key)
+  {
+    // Fibonacci hashing spreads the identity hash over the high bits
+    return (System.identityHashCode(key) * 0x9e3779b9) >>> _shift;
+  }
+
+  private void allocate(int capacity)
+  {
+    _keys = new Object[capacity];
+    _values = new int[capacity];
+    _stamps = new int[capacity];
+    // put() resizes once half the slots are used
+    _slots = new int[capacity / 2];
+    _mask = capacity - 1;
+    _shift = 32 - Integer.numberOfTrailingZeros(capacity);
+  }
+
+  /**
+   * Doubles the table, dropping the deleted entries.
+   */
+  private void resize()
+  {
+    Object []oldKeys = _keys;
+    int []oldValues = _values;
+    int []oldStamps = _stamps;
+    int oldGeneration = _generation;
+
+    int capacity = oldKeys.length;
+    if (capacity <= 4 * _size)
+      capacity *= 2;
+
+    allocate(capacity);
+    
+    _generation = 1;
+    _size = 0;
+    _used = 0;
+
+    for (int i = oldKeys.length - 1; i >= 0; i--) {
+      Object key = oldKeys[i];
+
+      if (oldStamps[i] != oldGeneration || key == DELETED)
+	continue;
+
+      put(key, oldValues[i]);
+    }
+  }
+
+  public String toString()
+  {
+    StringBuilder sb = new StringBuilder();
+
+    sb.append("StampedIdentityIntMap[");
+    boolean isFirst = true;
+
+    for (int i = 0; i <= _mask; i++) {
+      if (_stamps[i] == _generation && _keys[i] != DELETED) {
+        if (! isFirst)
+          sb.append(", ");
+
+        isFirst = false;
+        sb.append(_keys[i]);
+        sb.append(":");
+        sb.append(_values[i]);
+      }
+    }
+    sb.append("]");
+
+    return sb.toString();
+  }
+}
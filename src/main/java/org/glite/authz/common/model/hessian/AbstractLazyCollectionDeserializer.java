@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.common.model.hessian;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import com.caucho.hessian.io.AbstractHessianInput;
+import com.caucho.hessian.io.AbstractListDeserializer;
+
+/**
+ * Base class of the deserializers of the model's lazy collections. The collection is created from the list length
+ * written on the wire, so its backing store is built once, at its final size, instead of being promoted as the
+ * elements are added.
+ */
+public abstract class AbstractLazyCollectionDeserializer extends AbstractListDeserializer {
+
+    /**
+     * Largest size the collection is built for up front. The length comes from the wire, so a larger collection
+     * grows as its elements are actually read.
+     */
+    private static final int MAX_EXPECTED_SIZE = 256;
+
+    /** {@inheritDoc} */
+    public Object readList(AbstractHessianInput in, int length) throws IOException {
+        Collection<Object> collection = newCollection(Math.min(length, MAX_EXPECTED_SIZE));
+        in.addRef(collection);
+
+        while (!in.isEnd()) {
+            collection.add(in.readObject());
+        }
+
+        in.readEnd();
+
+        return collection;
+    }
+
+    /** {@inheritDoc} */
+    public Object readLengthList(AbstractHessianInput in, int length) throws IOException {
+        Collection<Object> collection = newCollection(Math.min(length, MAX_EXPECTED_SIZE));
+        in.addRef(collection);
+
+        for (int i = 0; i < length; i++) {
+            collection.add(in.readObject());
+        }
+
+        return collection;
+    }
+
+    /**
+     * Creates a new, empty, collection.
+     * 
+     * @param expectedSize the number of elements read into the collection, or -1 if unknown
+     * 
+     * @return the new collection
+     */
+    protected abstract Collection<Object> newCollection(int expectedSize);
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.common.model.hessian;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import com.caucho.hessian.io.AbstractHessianInput;
+import com.caucho.hessian.io.AbstractMapDeserializer;
+import com.caucho.hessian.io.HessianFieldException;
+
+/**
+ * Base class of the model object deserializers.
+ * 
+ * Reads both the Hessian 2.0 object encoding and the Hessian 1.0 map encoding. Unknown fields are read and discarded.
+ */
+public abstract class AbstractModelDeserializer extends AbstractMapDeserializer {
+
+    /** The deserialized model class. */
+    private final Class<?> type;
+
+    /**
+     * Constructor.
+     * 
+     * @param modelClass the deserialized model class
+     */
+    protected AbstractModelDeserializer(Class<?> modelClass) {
+        type = modelClass;
+    }
+
+    /** {@inheritDoc} */
+    public Class<?> getType() {
+        return type;
+    }
+
+    /** {@inheritDoc} */
+    public Object readMap(AbstractHessianInput in) throws IOException {
+        Object object = instantiate();
+        in.addRef(object);
+
+        while (!in.isEnd()) {
+            Object name = in.readObject();
+            readNamedField(in, object, (String) name);
+        }
+
+        in.readMapEnd();
+
+        return object;
+    }
+
+    /** {@inheritDoc} */
+    public Object readObject(AbstractHessianInput in, String[] fieldNames) throws IOException {
+        Object object = instantiate();
+        in.addRef(object);
+
+        for (int i = 0; i < fieldNames.length; i++) {
+            readNamedField(in, object, fieldNames[i]);
+        }
+
+        return object;
+    }
+
+    /**
+     * Reads a field value, skipping the value of unknown fields and of fields rejected by the input's field
+     * filter, whose names are null.
+     * 
+     * @param in the input to read from
+     * @param object the object being deserialized
+     * @param name the field name
+     * 
+     * @throws IOException thrown if the value can not be read or assigned
+     */
+    private void readNamedField(AbstractHessianInput in, Object object, String name) throws IOException {
+        if (name == null) {
+            in.skipObject();
+            return;
+        }
+
+        try {
+            if (!readField(in, object, name)) {
+                in.readObject();
+            }
+        } catch (IllegalArgumentException e) {
+            throw new HessianFieldException(type.getName() + "." + name + ": " + e.getMessage(), e);
+        } catch (ClassCastException e) {
+            throw new HessianFieldException(type.getName() + "." + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a string value, written either as is or as a {@link ModelDictionary} code.
+     * 
+     * @param in the input to read from
+     * 
+     * @return the string
+     * 
+     * @throws IOException thrown if the value can not be read
+     */
+    protected static String readString(AbstractHessianInput in) throws IOException {
+        return (String) in.readObject();
+    }
+
+    /**
+     * Reads a collection value and adds its elements to the given model collection.
+     * 
+     * @param <T> the element type of the model collection
+     * @param in the input to read from
+     * @param target the collection of the model object
+     * 
+     * @throws IOException thrown if the value can not be read
+     */
+    @SuppressWarnings("unchecked")
+    protected static <T> void readCollection(AbstractHessianInput in, Collection<T> target) throws IOException {
+        Collection<T> values = (Collection<T>) in.readObject();
+        if (values != null && !values.isEmpty()) {
+            target.addAll(values);
+        }
+    }
+
+    /**
+     * Creates a new, empty, model object.
+     * 
+     * @return the new model object
+     */
+    protected abstract Object instantiate();
+
+    /**
+     * Reads the value of a field into the model object.
+     * 
+     * @param in the input to read from
+     * @param object the object being deserialized
+     * @param name the field name
+     * 
+     * @return true if the field is known and was read, false otherwise
+     * 
+     * @throws IOException thrown if the value can not be read
+     */
+    protected abstract boolean readField(AbstractHessianInput in, Object object, String name) throws IOException;
+}
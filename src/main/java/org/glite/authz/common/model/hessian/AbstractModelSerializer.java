@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.common.model.hessian;
+
+import java.io.IOException;
+
+import com.caucho.hessian.io.AbstractHessianOutput;
+import com.caucho.hessian.io.AbstractSerializer;
+
+/**
+ * Base class of the model object serializers.
+ * 
+ * The object is written exactly as {@link com.caucho.hessian.io.JavaSerializer} would write it: same type name, same
+ * field names and same field order, primitive and <code>java.lang</code> typed fields first, then compound fields.
+ */
+public abstract class AbstractModelSerializer extends AbstractSerializer {
+
+    /** Type name written on the wire. */
+    private final String type;
+
+    /** Field names, in wire order. */
+    private final String[] fieldNames;
+
+    /** Dictionary used to encode known strings, or null to write all strings as is. */
+    private ModelDictionary dictionary;
+
+    /**
+     * Constructor.
+     * 
+     * @param modelClass the serialized model class
+     * @param names the serialized field names, in wire order
+     */
+    protected AbstractModelSerializer(Class<?> modelClass, String[] names) {
+        type = modelClass.getName();
+        fieldNames = names;
+    }
+
+    /** {@inheritDoc} */
+    public void writeObject(Object object, AbstractHessianOutput out) throws IOException {
+        if (out.addRef(object)) {
+            return;
+        }
+
+        int ref = out.writeObjectBegin(type);
+
+        if (ref < -1) {
+            // Hessian 1.0 map encoding
+            for (int i = 0; i < fieldNames.length; i++) {
+                out.writeString(fieldNames[i]);
+                writeField(i, object, out);
+            }
+            out.writeMapEnd();
+            return;
+        }
+
+        if (ref == -1) {
+            out.writeClassFieldLength(fieldNames.length);
+            for (int i = 0; i < fieldNames.length; i++) {
+                out.writeString(fieldNames[i]);
+            }
+            out.writeObjectBegin(type);
+        }
+
+        for (int i = 0; i < fieldNames.length; i++) {
+            writeField(i, object, out);
+        }
+    }
+
+    /**
+     * Gets the serialized field names, in wire order.
+     * 
+     * @return the field names
+     */
+    public String[] getFieldNames() {
+        return fieldNames;
+    }
+
+    /**
+     * Gets the dictionary used to encode known strings.
+     * 
+     * @return the dictionary, or null if strings are written as is
+     */
+    public ModelDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Sets the dictionary used to encode known strings. The dictionary must be set before the serializer is used.
+     * 
+     * @param modelDictionary the dictionary, or null to write strings as is
+     */
+    public void setDictionary(ModelDictionary modelDictionary) {
+        dictionary = modelDictionary;
+    }
+
+    /**
+     * Writes a string, as a dictionary code if the string is in the dictionary.
+     * 
+     * @param value the string
+     * @param out the output to write to
+     * 
+     * @throws IOException thrown if the value can not be written
+     */
+    protected void writeString(String value, AbstractHessianOutput out) throws IOException {
+        int code = -1;
+        if (dictionary != null && value != null) {
+            code = dictionary.getCode(value);
+        }
+        if (code < 0) {
+            out.writeString(value);
+            return;
+        }
+
+        String codeType = dictionary.getType();
+        int ref = out.writeObjectBegin(codeType);
+
+        if (ref < -1) {
+            // Hessian 1.0 map encoding
+            out.writeString(ModelDictionary.CODE_FIELD);
+            out.writeInt(code);
+            out.writeMapEnd();
+            return;
+        }
+
+        if (ref == -1) {
+            out.writeClassFieldLength(1);
+            out.writeString(ModelDictionary.CODE_FIELD);
+            out.writeObjectBegin(codeType);
+        }
+
+        out.writeInt(code);
+    }
+
+    /**
+     * Writes the value of a field.
+     * 
+     * @param field index of the field in {@link #getFieldNames()}
+     * @param object the object being serialized
+     * @param out the output to write to
+     * 
+     * @throws IOException thrown if the value can not be written
+     */
+    protected abstract void writeField(int field, Object object, AbstractHessianOutput out) throws IOException;
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.common.model.hessian;
+
+import java.io.IOException;
+
+import org.glite.authz.common.model.AttributeAssignment;
+
+import com.caucho.hessian.io.AbstractHessianInput;
+
+/** Hessian deserializer for an {@link AttributeAssignment}. */
+public class AttributeAssignmentDeserializer extends AbstractModelDeserializer {
+
+    /** Constructor. */
+    public AttributeAssignmentDeserializer() {
+        super(AttributeAssignment.class);
+    }
+
+    /** {@inheritDoc} */
+    protected Object instantiate() {
+        return new AttributeAssignment();
+    }
+
+    /** {@inheritDoc} */
+    protected boolean readField(AbstractHessianInput in, Object object, String name) throws IOException {
+        AttributeAssignment assignment = (AttributeAssignment) object;
+        if ("attributeId".equals(name)) {
+            assignment.setAttributeId(readString(in));
+        } else if ("dataType".equals(name)) {
+            assignment.setDataType(readString(in));
+        } else if ("value".equals(name)) {
+            assignment.setValue(readString(in));
+        } else {
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.common.model.hessian;
+
+import java.io.IOException;
+
+import org.glite.authz.common.model.Attribute;
+
+import com.caucho.hessian.io.AbstractHessianInput;
+
+/** Hessian deserializer for an {@link Attribute}. */
+public class AttributeDeserializer extends AbstractModelDeserializer {
+
+    /** Constructor. */
+    public AttributeDeserializer() {
+        super(Attribute.class);
+    }
+
+    /** {@inheritDoc} */
+    protected Object instantiate() {
+        return new Attribute();
+    }
+
+    /** {@inheritDoc} */
+    protected boolean readField(AbstractHessianInput in, Object object, String name) throws IOException {
+        Attribute attribute = (Attribute) object;
+        if ("id".equals(name)) {
+            attribute.setId(readString(in));
+        } else if ("dataType".equals(name)) {
+            attribute.setDataType(readString(in));
+        } else if ("issuer".equals(name)) {
+            attribute.setIssuer(readString(in));
+        } else if ("values".equals(name)) {
+            readCollection(in, attribute.getValues());
+        } else {
+            return false;
+        }
+        return true;
+    }
+}
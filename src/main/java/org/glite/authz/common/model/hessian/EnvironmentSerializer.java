@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.common.model.hessian;
+
+import java.io.IOException;
+
+import org.glite.authz.common.model.Environment;
+
+import com.caucho.hessian.io.AbstractHessianOutput;
+
+/** Hessian serializer for an {@link Environment}. */
+public class EnvironmentSerializer extends AbstractModelSerializer {
+
+    /** Constructor. */
+    public EnvironmentSerializer() {
+        super(Environment.class, new String[] { "attributes" });
+    }
+
+    /** {@inheritDoc} */
+    protected void writeField(int field, Object object, AbstractHessianOutput out) throws IOException {
+        Environment environment = (Environment) object;
+        switch (field) {
+            case 0:
+                out.writeObject(environment.getAttributes());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown field index " + field);
+        }
+    }
+}
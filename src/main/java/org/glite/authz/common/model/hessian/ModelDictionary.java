@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.glite.authz.common.model.hessian;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.glite.authz.common.model.Attribute;
+
+/**
+ * A versioned, static dictionary of the XACML identifiers and data types repeated in every model message. With a
+ * dictionary, the model serializers write a known string as a small integer code instead of its 40 to 90 characters.
+ * 
+ * <p>
+ * Dictionaries are append-only: version <em>n</em> + 1 keeps the codes of version <em>n</em> and adds entries after
+ * them, so a reader decodes any version up to its own {@link #VERSION}. A writer uses the version negotiated with its
+ * peer, see {@link #negotiate(int)}, and each encoded string carries that version in its Hessian type name, so a reader
+ * without the dictionary fails instead of misreading the message.
+ * </p>
+ */
+public final class ModelDictionary {
+
+    /** Newest dictionary version. */
+    public static final int VERSION = 1;
+
+    /** Prefix of the Hessian type name of a dictionary code, followed by the dictionary version. */
+    public static final String TYPE_PREFIX = "glite.dict.";
+
+    /** Name of the field holding the code. */
+    static final String CODE_FIELD = "code";
+
+    /** Dictionary entries, in code order. Only ever append to this list and bump {@link #VERSION}. */
+    private static final String[] ENTRIES = {
+            // version 1
+            Attribute.DT_STRING, Attribute.DT_BOOLEAN, Attribute.DT_INTEGER, Attribute.DT_DOUBLE, Attribute.DT_TIME,
+            Attribute.DT_DATE, Attribute.DT_DATE_TIME, Attribute.DT_DAY_TIME, Attribute.DT_YEAR_MONTH,
+            Attribute.DT_ANY_URI, Attribute.DT_HEX_BINARY, Attribute.DT_BASE64_BINARY, Attribute.DT_RFC822_NAME,
+            Attribute.DT_X500_NAME, Attribute.ID_ACT_ID, Attribute.ID_ACT_IMPLIED_ACTION,
+            Attribute.ID_ENV_CURRENT_TIME, Attribute.ID_ENV_CURRENT_DATE, Attribute.ID_ENV_CURRENT_DATE_TIME,
+            Attribute.ID_RES_LOCATION, Attribute.ID_RES_ID, Attribute.ID_RES_SIMPLE_FILE_NAME,
+            Attribute.ID_SUB_AUTHN_DNS_NAME, Attribute.ID_SUB_AUTHN_IP_ADDRESS, Attribute.ID_SUB_AUTHN_METHOD,
+            Attribute.ID_SUB_AUTHN_TIME, Attribute.ID_SUB_KEY_INFO, Attribute.ID_SUB_REQUEST_TIME,
+            Attribute.ID_SUB_SESSION_START_TIME, Attribute.ID_SUB_ID, Attribute.ID_SUB_ID_QUALIFIER,
+            Attribute.ID_SUB_CAT_ACCESS_SUBJECT, Attribute.ID_SUB_CAT_CODEBASE,
+            Attribute.ID_SUB_CAT_INTERMEDIARY_SUBJECT, Attribute.ID_SUB_CAT_RECIPIENT_SUBJECT,
+            Attribute.ID_SUB_CAT_REQUEST_MACHINE, "urn:oasis:names:tc:xacml:1.0:status:ok",
+            "urn:oasis:names:tc:xacml:1.0:status:missing-attribute",
+            "urn:oasis:names:tc:xacml:1.0:status:syntax-error",
+            "urn:oasis:names:tc:xacml:1.0:status:processing-error", };
+
+    /** Number of entries in each version, indexed by version. */
+    private static final int[] VERSION_SIZES = { 0, 40 };
+
+    /** The dictionaries, indexed by version. */
+    private static final ModelDictionary[] DICTIONARIES = new ModelDictionary[VERSION + 1];
+
+    static {
+        for (int version = 1; version <= VERSION; version++) {
+            DICTIONARIES[version] = new ModelDictionary(version, VERSION_SIZES[version]);
+        }
+    }
+
+    /** Dictionary version. */
+    private final int version;
+
+    /** Hessian type name of the codes of this version. */
+    private final String type;
+
+    /** Number of entries in this version. */
+    private final int size;
+
+    /** Codes of the entries in this version. */
+    private final Map<String, Integer> codes;
+
+    /**
+     * Constructor.
+     * 
+     * @param dictionaryVersion the dictionary version
+     * @param dictionarySize the number of entries in the version
+     */
+    private ModelDictionary(int dictionaryVersion, int dictionarySize) {
+        version = dictionaryVersion;
+        type = TYPE_PREFIX + dictionaryVersion;
+        size = dictionarySize;
+        codes = new HashMap<String, Integer>(2 * dictionarySize);
+        for (int i = 0; i < dictionarySize; i++) {
+            codes.put(ENTRIES[i], Integer.valueOf(i));
+        }
+    }
+
+    /**
+     * Gets a dictionary.
+     * 
+     * @param version the dictionary version, between 1 and {@link #VERSION}
+     * 
+     * @return the dictionary
+     * 
+     * @throws IllegalArgumentException thrown if the version is not supported
+     */
+    public static ModelDictionary getDictionary(int version) {
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported model dictionary version " + version + ", versions 1 to "
+                    + VERSION + " are supported");
+        }
+        return DICTIONARIES[version];
+    }
+
+    /**
+     * Gets the dictionary to write with, given the newest version supported by the peer.
+     * 
+     * @param peerVersion the newest dictionary version supported by the peer, 0 if the peer has no dictionary
+     * 
+     * @return the newest dictionary both ends support, or null if the peer has no dictionary
+     */
+    public static ModelDictionary negotiate(int peerVersion) {
+        if (peerVersion < 1) {
+            return null;
+        }
+        return DICTIONARIES[Math.min(peerVersion, VERSION)];
+    }
+
+    /**
+     * Gets the dictionary version.
+     * 
+     * @return the dictionary version
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the Hessian type name of the codes of this dictionary.
+     * 
+     * @return the type name
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Gets the number of entries.
+     * 
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the code of a string.
+     * 
+     * @param value the string
+     * 
+     * @return the code, or -1 if the string is not in the dictionary
+     */
+    public int getCode(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            return -1;
+        }
+        return code.intValue();
+    }
+
+    /**
+     * Gets the string of a code.
+     * 
+     * @param code the code
+     * 
+     * @return the string, or null if the code is not in the dictionary
+     */
+    public String getString(int code) {
+        if (code < 0 || code >= size) {
+            return null;
+        }
+        return ENTRIES[code];
+    }
+
+    /**
+     * Gets the dictionary of a Hessian type name.
+     * 
+     * @param typeName the type name, starting with {@link #TYPE_PREFIX}
+     * 
+     * @return the dictionary
+     * 
+     * @throws IllegalArgumentException thrown if the type names an unsupported version
+     */
+    static ModelDictionary getDictionary(String typeName) {
+        int version;
+        try {
+            version = Integer.parseInt(typeName.substring(TYPE_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid model dictionary type " + typeName);
+        }
+        return getDictionary(version);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.glite.authz.common.model.hessian;
+
+import java.io.IOException;
+
+import com.caucho.hessian.io.AbstractDeserializer;
+import com.caucho.hessian.io.AbstractHessianInput;
+import com.caucho.hessian.io.HessianProtocolException;
+
+/** Hessian deserializer expanding the {@link ModelDictionary} codes back to their strings. */
+public class ModelDictionaryDeserializer extends AbstractDeserializer {
+
+    /** Dictionary of the codes. */
+    private final ModelDictionary dictionary;
+
+    /**
+     * Constructor.
+     * 
+     * @param modelDictionary dictionary of the codes
+     */
+    public ModelDictionaryDeserializer(ModelDictionary modelDictionary) {
+        dictionary = modelDictionary;
+    }
+
+    /** {@inheritDoc} */
+    public Class<?> getType() {
+        return String.class;
+    }
+
+    /**
+     * Dictionary codes are written as values, without a reference.
+     * 
+     * @return false
+     */
+    public boolean isReadRef() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public Object readMap(AbstractHessianInput in) throws IOException {
+        int code = -1;
+        while (!in.isEnd()) {
+            if (ModelDictionary.CODE_FIELD.equals(in.readObject())) {
+                code = in.readInt();
+            } else {
+                in.readObject();
+            }
+        }
+        in.readMapEnd();
+
+        return getString(code);
+    }
+
+    /** {@inheritDoc} */
+    public Object readObject(AbstractHessianInput in, String[] fieldNames) throws IOException {
+        int code = -1;
+        for (int i = 0; i < fieldNames.length; i++) {
+            if (ModelDictionary.CODE_FIELD.equals(fieldNames[i])) {
+                code = in.readInt();
+            } else {
+                in.readObject();
+            }
+        }
+
+        return getString(code);
+    }
+
+    /**
+     * Gets the string of a code.
+     * 
+     * @param code the code read
+     * 
+     * @return the string
+     * 
+     * @throws HessianProtocolException thrown if the code is not in the dictionary
+     */
+    private String getString(int code) throws HessianProtocolException {
+        String value = dictionary.getString(code);
+        if (value == null) {
+            throw new HessianProtocolException("Unknown code " + code + " in model dictionary version "
+                    + dictionary.getVersion());
+        }
+        return value;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.common.model.hessian;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.AttributeAssignment;
+import org.glite.authz.common.model.Environment;
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Resource;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.common.model.Status;
+import org.glite.authz.common.model.StatusCode;
+import org.glite.authz.common.model.Subject;
+import org.glite.authz.common.model.util.LazyList;
+import org.glite.authz.common.model.util.LazySet;
+
+import com.caucho.hessian.io.Deserializer;
+import com.caucho.hessian.io.ExtSerializerFactory;
+import com.caucho.hessian.io.HessianProtocolException;
+import com.caucho.hessian.io.SerializerFactory;
+
+/**
+ * Serializer factory providing the hand-written serializers and deserializers of the model classes, so that model
+ * objects are not introspected and accessed by reflection.
+ * 
+ * <pre>
+ * SerializerFactory serializerFactory = new SerializerFactory();
+ * serializerFactory.addFactory(new ModelSerializerFactory());
+ * </pre>
+ * 
+ * Alternatively {@link #getSharedSerializerFactory()} returns a frozen factory, already resolved for the model
+ * classes, which can be shared by all connections.
+ */
+public class ModelSerializerFactory extends ExtSerializerFactory {
+
+    /** The model classes handled by this factory. */
+    public static final Class<?>[] MODEL_CLASSES = { Action.class, Attribute.class, AttributeAssignment.class,
+            Environment.class, Obligation.class, Request.class, Resource.class, Response.class, Result.class,
+            Status.class, StatusCode.class, Subject.class };
+
+    /** The classes resolved by the shared serializer factory: the model classes and their collections. */
+    public static final Class<?>[] PRELOADED_CLASSES = { Action.class, Attribute.class, AttributeAssignment.class,
+            Environment.class, Obligation.class, Request.class, Resource.class, Response.class, Result.class,
+            Status.class, StatusCode.class, Subject.class, LazyList.class, LazySet.class };
+
+    /** Shared serializer factory, created on first use. */
+    private static SerializerFactory sharedSerializerFactory;
+
+    /** Dictionary used by the serializers, or null. */
+    private final ModelDictionary dictionary;
+
+    /** Constructor. Strings are written as is. */
+    public ModelSerializerFactory() {
+        this(null);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param modelDictionary dictionary used to encode known strings, or null to write strings as is. The
+     *            deserializers decode any dictionary version up to {@link ModelDictionary#VERSION} whatever the
+     *            dictionary.
+     */
+    public ModelSerializerFactory(ModelDictionary modelDictionary) {
+        dictionary = modelDictionary;
+        addModelSerializer(Action.class, new ActionSerializer(), new ActionDeserializer());
+        addModelSerializer(Attribute.class, new AttributeSerializer(), new AttributeDeserializer());
+        addModelSerializer(AttributeAssignment.class, new AttributeAssignmentSerializer(), new AttributeAssignmentDeserializer());
+        addModelSerializer(Environment.class, new EnvironmentSerializer(), new EnvironmentDeserializer());
+        addModelSerializer(Obligation.class, new ObligationSerializer(), new ObligationDeserializer());
+        addModelSerializer(Request.class, new RequestSerializer(), new RequestDeserializer());
+        addModelSerializer(Resource.class, new ResourceSerializer(), new ResourceDeserializer());
+        addModelSerializer(Response.class, new ResponseSerializer(), new ResponseDeserializer());
+        addModelSerializer(Result.class, new ResultSerializer(), new ResultDeserializer());
+        addModelSerializer(Status.class, new StatusSerializer(), new StatusDeserializer());
+        addModelSerializer(StatusCode.class, new StatusCodeSerializer(), new StatusCodeDeserializer());
+        addModelSerializer(Subject.class, new SubjectSerializer(), new SubjectDeserializer());
+        addDeserializer(LazyList.class, new LazyListDeserializer());
+        addDeserializer(LazySet.class, new LazySetDeserializer());
+    }
+
+    /**
+     * Gets the dictionary used to encode known strings.
+     * 
+     * @return the dictionary, or null if strings are written as is
+     */
+    public ModelDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /** {@inheritDoc} */
+    public Deserializer getDeserializer(String type) throws HessianProtocolException {
+        if (!type.startsWith(ModelDictionary.TYPE_PREFIX)) {
+            return null;
+        }
+        try {
+            return new ModelDictionaryDeserializer(ModelDictionary.getDictionary(type));
+        } catch (IllegalArgumentException e) {
+            throw new HessianProtocolException(e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the shared, frozen serializer factory resolved for {@link #PRELOADED_CLASSES}.
+     * 
+     * @return the shared serializer factory
+     */
+    public static synchronized SerializerFactory getSharedSerializerFactory() {
+        if (sharedSerializerFactory == null) {
+            sharedSerializerFactory = newFrozenSerializerFactory(PRELOADED_CLASSES);
+        }
+        return sharedSerializerFactory;
+    }
+
+    /**
+     * Creates a frozen serializer factory, using the model serializers, whose serializers and deserializers for the
+     * given classes are resolved up front. The factory is thread-safe and may be shared by all connections.
+     * 
+     * @param classes classes whose serializers are resolved
+     * 
+     * @return the frozen serializer factory
+     */
+    public static SerializerFactory newFrozenSerializerFactory(Class<?>... classes) {
+        return newFrozenSerializerFactory(null, classes);
+    }
+
+    /**
+     * Creates a frozen serializer factory, like {@link #newFrozenSerializerFactory(Class...)}, whose model serializers
+     * encode known strings with the given dictionary.
+     * 
+     * @param dictionary dictionary negotiated with the peer, or null to write strings as is
+     * @param classes classes whose serializers are resolved
+     * 
+     * @return the frozen serializer factory
+     */
+    public static SerializerFactory newFrozenSerializerFactory(ModelDictionary dictionary, Class<?>... classes) {
+        SerializerFactory serializerFactory = new SerializerFactory(ModelSerializerFactory.class.getClassLoader());
+        serializerFactory.addFactory(new ModelSerializerFactory(dictionary));
+        try {
+            serializerFactory.preload(classes);
+        } catch (HessianProtocolException e) {
+            throw new IllegalArgumentException("Unable to resolve serializers: " + e.getMessage(), e);
+        }
+        serializerFactory.freeze();
+        return serializerFactory;
+    }
+
+    /**
+     * Adds the serializer and deserializer of a model class.
+     * 
+     * @param modelClass the model class
+     * @param serializer the serializer, using the dictionary of this factory
+     * @param deserializer the deserializer
+     */
+    private void addModelSerializer(Class<?> modelClass, AbstractModelSerializer serializer,
+            AbstractModelDeserializer deserializer) {
+        serializer.setDictionary(dictionary);
+        addSerializer(modelClass, serializer);
+        addDeserializer(modelClass, deserializer);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.common.model.hessian;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import org.glite.authz.common.model.Attribute;
+
+import com.caucho.hessian.io.HessianProtocolException;
+import com.caucho.hessian.io.HessianStringCache;
+import com.caucho.hessian.io.Serializer;
+
+/**
+ * Creates Hessian string caches seeded with the strings repeated in every model message: the {@link Attribute}
+ * identifier and data type constants, and the model class and field names.
+ * 
+ * <pre>
+ * HessianInputFactory inputFactory = new HessianInputFactory();
+ * inputFactory.setStringCache(ModelStringCache.newStringCache());
+ * </pre>
+ */
+public final class ModelStringCache {
+
+    /** Default number of cache slots. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /** Constructor. */
+    private ModelStringCache() {
+    }
+
+    /**
+     * Creates a seeded string cache with the default capacity.
+     * 
+     * @return the string cache
+     */
+    public static HessianStringCache newStringCache() {
+        return newStringCache(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a seeded string cache.
+     * 
+     * @param capacity number of cache slots
+     * 
+     * @return the string cache
+     */
+    public static HessianStringCache newStringCache(int capacity) {
+        HessianStringCache cache = new HessianStringCache(capacity);
+
+        for (Field field : Attribute.class.getFields()) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) && Modifier.isFinal(modifiers) && field.getType() == String.class) {
+                try {
+                    cache.add((String) field.get(null));
+                } catch (IllegalAccessException e) {
+                    // public constant, can not happen
+                }
+            }
+        }
+
+        ModelSerializerFactory serializerFactory = new ModelSerializerFactory();
+        for (Class<?> modelClass : ModelSerializerFactory.MODEL_CLASSES) {
+            cache.add(modelClass.getName());
+            try {
+                Serializer serializer = serializerFactory.getSerializer(modelClass);
+                for (String fieldName : ((AbstractModelSerializer) serializer).getFieldNames()) {
+                    cache.add(fieldName);
+                }
+            } catch (HessianProtocolException e) {
+                // the model serializers are always registered
+            }
+        }
+
+        return cache;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.common.model.hessian;
+
+import java.io.IOException;
+
+import org.glite.authz.common.model.Obligation;
+
+import com.caucho.hessian.io.AbstractHessianOutput;
+
+/** Hessian serializer for an {@link Obligation}. */
+public class ObligationSerializer extends AbstractModelSerializer {
+
+    /** Constructor. */
+    public ObligationSerializer() {
+        super(Obligation.class, new String[] { "id", "fulfillOn", "attributeAssignments" });
+    }
+
+    /** {@inheritDoc} */
+    protected void writeField(int field, Object object, AbstractHessianOutput out) throws IOException {
+        Obligation obligation = (Obligation) object;
+        switch (field) {
+            case 0:
+                writeString(obligation.getId(), out);
+                break;
+            case 1:
+                out.writeInt(obligation.getFulfillOn());
+                break;
+            case 2:
+                out.writeObject(obligation.getAttributeAssignments());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown field index " + field);
+        }
+    }
+}
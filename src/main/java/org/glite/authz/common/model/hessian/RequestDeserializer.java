@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.common.model.hessian;
+
+import java.io.IOException;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Environment;
+import org.glite.authz.common.model.Request;
+
+import com.caucho.hessian.io.AbstractHessianInput;
+
+/** Hessian deserializer for a {@link Request}. */
+public class RequestDeserializer extends AbstractModelDeserializer {
+
+    /** Constructor. */
+    public RequestDeserializer() {
+        super(Request.class);
+    }
+
+    /** {@inheritDoc} */
+    protected Object instantiate() {
+        return new Request();
+    }
+
+    /** {@inheritDoc} */
+    protected boolean readField(AbstractHessianInput in, Object object, String name) throws IOException {
+        Request request = (Request) object;
+        if ("subjects".equals(name)) {
+            readCollection(in, request.getSubjects());
+        } else if ("resources".equals(name)) {
+            readCollection(in, request.getResources());
+        } else if ("action".equals(name)) {
+            request.setAction((Action) in.readObject(Action.class));
+        } else if ("environment".equals(name)) {
+            request.setEnvironment((Environment) in.readObject(Environment.class));
+        } else {
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.common.model.hessian;
+
+import java.io.IOException;
+
+import org.glite.authz.common.model.Subject;
+
+import com.caucho.hessian.io.AbstractHessianInput;
+
+/** Hessian deserializer for a {@link Subject}. */
+public class SubjectDeserializer extends AbstractModelDeserializer {
+
+    /** Constructor. */
+    public SubjectDeserializer() {
+        super(Subject.class);
+    }
+
+    /** {@inheritDoc} */
+    protected Object instantiate() {
+        return new Subject();
+    }
+
+    /** {@inheritDoc} */
+    protected boolean readField(AbstractHessianInput in, Object object, String name) throws IOException {
+        Subject subject = (Subject) object;
+        if ("category".equals(name)) {
+            subject.setCategory(readString(in));
+        } else if ("attributes".equals(name)) {
+            readCollection(in, subject.getAttributes());
+        } else {
+            return false;
+        }
+        return true;
+    }
+}
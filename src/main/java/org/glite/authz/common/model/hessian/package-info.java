@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Hand-written Hessian serializers and deserializers for the {@link org.glite.authz.common.model} classes. They
+ * produce the same wire format as the reflective {@link com.caucho.hessian.io.JavaSerializer} and
+ * {@link com.caucho.hessian.io.JavaDeserializer}, but access the model objects through their accessors. Register them
+ * with {@link com.caucho.hessian.io.SerializerFactory#addFactory} using a {@link ModelSerializerFactory}.
+ */
+
+package org.glite.authz.common.model.hessian;
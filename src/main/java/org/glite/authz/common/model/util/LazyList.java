@@ -38,9 +38,25 @@ public class LazyList<ElementType> implements List<ElementType>, Serializable {
     /** Delegate list. */
     private List<ElementType> delegate = Collections.emptyList();
 
+    /** Constructor. */
+    public LazyList() {
+    }
+
+    /**
+     * Constructor. A list expected to hold more than one element gets its array list up front, sized for the
+     * elements.
+     * 
+     * @param expectedSize the number of elements the list is expected to hold
+     */
+    public LazyList(int expectedSize) {
+        if (expectedSize > 1) {
+            delegate = new ArrayList<ElementType>(expectedSize);
+        }
+    }
+
     /** {@inheritDoc} */
     public boolean add(ElementType item) {
-        if (delegate.isEmpty()) {
+        if (delegate.isEmpty() && !(delegate instanceof ArrayList<?>)) {
             delegate = Collections.singletonList(item);
             return true;
         } else {
@@ -57,7 +73,17 @@ public class LazyList<ElementType> implements List<ElementType>, Serializable {
 
     /** {@inheritDoc} */
     public boolean addAll(Collection<? extends ElementType> collection) {
-        delegate = buildList();
+        if (collection.isEmpty()) {
+            return false;
+        }
+        if (collection.size() == 1) {
+            return add(collection.iterator().next());
+        }
+        if (!(delegate instanceof ArrayList<?>)) {
+            List<ElementType> list = new ArrayList<ElementType>(delegate.size() + collection.size());
+            list.addAll(delegate);
+            delegate = list;
+        }
         return delegate.addAll(collection);
     }
 
@@ -37,9 +37,24 @@ public class LazySet<ElementType> implements Set<ElementType>, Serializable {
     /** The delegate set. */
     private Set<ElementType> delegate = Collections.emptySet();
 
+    /** Constructor. */
+    public LazySet() {
+    }
+
+    /**
+     * Constructor. A set expected to hold more than one element gets its hash set up front, sized for the elements.
+     * 
+     * @param expectedSize the number of elements the set is expected to hold
+     */
+    public LazySet(int expectedSize) {
+        if (expectedSize > 1) {
+            delegate = new HashSet<ElementType>(capacity(expectedSize));
+        }
+    }
+
     /** {@inheritDoc} */
     public boolean add(ElementType element) {
-        if (delegate.isEmpty()) {
+        if (delegate.isEmpty() && !(delegate instanceof HashSet<?>)) {
             delegate = Collections.singleton(element);
             return true;
         } else {
@@ -50,7 +65,13 @@ public class LazySet<ElementType> implements Set<ElementType>, Serializable {
 
     /** {@inheritDoc} */
     public boolean addAll(Collection<? extends ElementType> collection) {
-        delegate = createImplementation();
+        if (collection.isEmpty()) {
+            return false;
+        }
+        if (collection.size() == 1) {
+            return add(collection.iterator().next());
+        }
+        delegate = createImplementation(delegate.size() + collection.size());
         return delegate.addAll(collection);
     }
 
@@ -118,11 +139,35 @@ public class LazySet<ElementType> implements Set<ElementType>, Serializable {
      * @return the delegate set
      */
     private Set<ElementType> createImplementation() {
+        return createImplementation(delegate.size());
+    }
+
+    /**
+     * Builds an appropriate delegate set, sized for the given number of elements.
+     * 
+     * @param expectedSize the number of elements the set is expected to hold
+     * 
+     * @return the delegate set
+     */
+    private Set<ElementType> createImplementation(int expectedSize) {
         if (delegate instanceof HashSet<?>) {
             return delegate;
         }
 
-        return new HashSet<ElementType>(delegate);
+        Set<ElementType> set = new HashSet<ElementType>(capacity(expectedSize));
+        set.addAll(delegate);
+        return set;
+    }
+
+    /**
+     * Gets the hash set capacity holding the given number of elements without rehashing.
+     * 
+     * @param expectedSize the number of elements
+     * 
+     * @return the capacity
+     */
+    private static int capacity(int expectedSize) {
+        return Math.max((int) (expectedSize / .75f) + 1, 16);
     }
     
     /** {@inheritDoc} */
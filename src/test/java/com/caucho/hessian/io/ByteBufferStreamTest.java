@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests ByteBufferInputStream and ByteBufferOutputStream with heap and
+ * direct buffers.
+ */
+public class ByteBufferStreamTest extends TestCase {
+  public void testInputBuffer()
+    throws Exception
+  {
+    checkInputBuffer(ByteBuffer.wrap(newData(300)));
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(300);
+    direct.put(newData(300));
+    direct.flip();
+    checkInputBuffer(direct);
+  }
+
+  private void checkInputBuffer(ByteBuffer buffer)
+    throws IOException
+  {
+    byte []data = newData(300);
+    ByteBufferInputStream is = new ByteBufferInputStream(buffer);
+
+    assertEquals(300, is.available());
+    assertEquals(data[0] & 0xff, is.read());
+    assertEquals(10, is.skip(10));
+
+    byte []result = new byte[400];
+    assertEquals(289, is.read(result, 0, result.length));
+    assertTrue(Arrays.equals(Arrays.copyOfRange(data, 11, 300),
+			     Arrays.copyOfRange(result, 0, 289)));
+
+    assertEquals(0, is.available());
+    assertEquals(-1, is.read());
+    assertEquals(-1, is.read(result, 0, result.length));
+    assertEquals(0, is.read(result, 0, 0));
+    assertEquals(0, is.skip(5));
+  }
+
+  public void testInputChannel()
+    throws Exception
+  {
+    checkInputChannel(ByteBuffer.allocate(16));
+    checkInputChannel(ByteBuffer.allocateDirect(16));
+  }
+
+  private void checkInputChannel(ByteBuffer buffer)
+    throws IOException
+  {
+    byte []data = newData(1000);
+    ShortReadChannel channel = new ShortReadChannel(data, 7);
+    ByteBufferInputStream is = new ByteBufferInputStream(channel, buffer);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    bos.write(is.read());
+
+    // reads across refills only return the buffered bytes
+    byte []chunk = new byte[100];
+    int len;
+    while ((len = is.read(chunk, 0, chunk.length)) > 0) {
+      assertTrue(len <= 7);
+      bos.write(chunk, 0, len);
+    }
+
+    assertEquals(-1, len);
+    assertEquals(-1, is.read());
+    assertTrue(Arrays.equals(data, bos.toByteArray()));
+
+    is.close();
+    assertFalse(channel.isOpen());
+  }
+
+  public void testNonBlockingChannel()
+    throws Exception
+  {
+    final byte []data = newData(1000);
+    final Pipe pipe = Pipe.open();
+    pipe.source().configureBlocking(false);
+
+    // the writer sends in pieces with pauses, so the reader finds the
+    // pipe empty and has to wait for it
+    Thread writer = new Thread() {
+      public void run()
+      {
+        try {
+          for (int i = 0; i < data.length; i += 250) {
+            Thread.sleep(20);
+            pipe.sink().write(ByteBuffer.wrap(data, i, 250));
+          }
+          pipe.sink().close();
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+      }
+    };
+    writer.start();
+
+    ByteBufferInputStream is
+      = new ByteBufferInputStream(pipe.source(), ByteBuffer.allocate(64));
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    byte []chunk = new byte[100];
+    int len;
+    while ((len = is.read(chunk, 0, chunk.length)) > 0)
+      bos.write(chunk, 0, len);
+
+    writer.join();
+
+    assertEquals(-1, len);
+    assertTrue(Arrays.equals(data, bos.toByteArray()));
+
+    is.close();
+    assertFalse(pipe.source().isOpen());
+  }
+
+  public void testOutput()
+    throws Exception
+  {
+    checkOutput(false);
+    checkOutput(true);
+  }
+
+  private void checkOutput(boolean isDirect)
+    throws IOException
+  {
+    byte []data = newData(100);
+    ByteBufferOutputStream os = new ByteBufferOutputStream(16, isDirect);
+
+    os.write(data[0]);
+    os.write(data, 1, 40);
+    for (int i = 41; i < 50; i++)
+      os.write(data[i]);
+    os.write(data, 50, 50);
+
+    assertEquals(100, os.size());
+    
+    ByteBuffer []buffers = os.getBuffers();
+    assertEquals(7, buffers.length);
+    assertEquals(isDirect, buffers[0].isDirect());
+    assertTrue(buffers[0].isReadOnly());
+    assertTrue(Arrays.equals(data, toBytes(buffers)));
+
+    CollectChannel channel = new CollectChannel();
+    assertEquals(100, os.writeTo(channel));
+    assertTrue(Arrays.equals(data, channel.toByteArray()));
+
+    // reset keeps the buffers
+    os.reset();
+    assertEquals(0, os.size());
+    os.write(data, 0, 20);
+    assertEquals(20, os.size());
+    assertTrue(Arrays.equals(Arrays.copyOf(data, 20),
+			     toBytes(os.getBuffers())));
+  }
+
+  public void testHessianRoundTrip()
+    throws Exception
+  {
+    checkHessianRoundTrip(false);
+    checkHessianRoundTrip(true);
+  }
+
+  private void checkHessianRoundTrip(boolean isDirect)
+    throws IOException
+  {
+    Map value = new HashMap();
+    List list = new ArrayList();
+    for (int i = 0; i < 200; i++)
+      list.add("value-" + i);
+    value.put("list", list);
+    value.put("bytes", newData(5000));
+    value.put("long", Long.valueOf(Long.MIN_VALUE));
+
+    ByteBufferOutputStream os = new ByteBufferOutputStream(64, isDirect);
+    Hessian2Output out = new Hessian2Output(os);
+    out.writeObject(value);
+    out.close();
+
+    byte []data = toBytes(os.getBuffers());
+
+    ByteBuffer frame = isDirect ? ByteBuffer.allocateDirect(data.length)
+                                : ByteBuffer.allocate(data.length);
+    frame.put(data);
+    frame.flip();
+    
+    Hessian2Input in = new Hessian2Input(new ByteBufferInputStream(frame));
+    assertMap(value, (Map) in.readObject());
+
+    ByteBuffer buffer = isDirect ? ByteBuffer.allocateDirect(32)
+                                 : ByteBuffer.allocate(32);
+    ReadableByteChannel channel = new ShortReadChannel(data, 13);
+    in = new Hessian2Input(new ByteBufferInputStream(channel, buffer));
+    assertMap(value, (Map) in.readObject());
+  }
+
+  private static void assertMap(Map expect, Map value)
+  {
+    assertEquals(expect.get("list"), value.get("list"));
+    assertEquals(expect.get("long"), value.get("long"));
+    assertTrue(Arrays.equals((byte []) expect.get("bytes"),
+			     (byte []) value.get("bytes")));
+  }
+
+  private static byte []newData(int length)
+  {
+    byte []data = new byte[length];
+
+    for (int i = 0; i < length; i++)
+      data[i] = (byte) (i * 31 + 7);
+
+    return data;
+  }
+
+  private static byte []toBytes(ByteBuffer []buffers)
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+    for (int i = 0; i < buffers.length; i++) {
+      ByteBuffer buffer = buffers[i].duplicate();
+      
+      while (buffer.hasRemaining())
+	bos.write(buffer.get());
+    }
+
+    return bos.toByteArray();
+  }
+
+  /**
+   * Channel returning at most a few bytes per read, and sometimes none.
+   */
+  static class ShortReadChannel implements ReadableByteChannel {
+    private final byte []_data;
+    private final int _maxRead;
+    private int _offset;
+    private int _readCount;
+    private boolean _isOpen = true;
+
+    ShortReadChannel(byte []data, int maxRead)
+    {
+      _data = data;
+      _maxRead = maxRead;
+    }
+
+    public int read(ByteBuffer buffer)
+    {
+      if (_offset == _data.length)
+	return -1;
+
+      if (_readCount++ % 3 == 1)
+	return 0;
+
+      int len = Math.min(_maxRead, buffer.remaining());
+      len = Math.min(len, _data.length - _offset);
+
+      buffer.put(_data, _offset, len);
+      _offset += len;
+
+      return len;
+    }
+
+    public boolean isOpen()
+    {
+      return _isOpen;
+    }
+
+    public void close()
+    {
+      _isOpen = false;
+    }
+  }
+
+  /**
+   * Channel collecting the written bytes.
+   */
+  static class CollectChannel implements GatheringByteChannel {
+    private final ByteArrayOutputStream _bos = new ByteArrayOutputStream();
+
+    public long write(ByteBuffer []buffers)
+    {
+      return write(buffers, 0, buffers.length);
+    }
+
+    public long write(ByteBuffer []buffers, int offset, int length)
+    {
+      long total = 0;
+      
+      for (int i = offset; i < offset + length; i++)
+	total += write(buffers[i]);
+
+      return total;
+    }
+
+    public int write(ByteBuffer buffer)
+    {
+      int len = buffer.remaining();
+      
+      while (buffer.hasRemaining())
+	_bos.write(buffer.get());
+
+      return len;
+    }
+
+    public boolean isOpen()
+    {
+      return true;
+    }
+
+    public void close()
+    {
+    }
+
+    byte []toByteArray()
+    {
+      return _bos.toByteArray();
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the Deflation envelope.
+ */
+public class DeflationTest extends TestCase {
+  public void testDeflation()
+    throws Exception
+  {
+    List value = new ArrayList();
+    for (int i = 0; i < 100; i++)
+      value.add("value-" + i);
+    
+    Deflation compressed = new Deflation();
+    Deflation stored = new Deflation();
+    stored.setMinCompressSize(64 * 1024);
+
+    Deflation []deflations = new Deflation[] {
+      compressed, stored, compressed
+    };
+
+    for (int i = 0; i < deflations.length; i++) {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      Hessian2Output out = deflations[i].wrap(new Hessian2Output(bos));
+      out.writeObject(value);
+      out.close();
+
+      // any Deflation reads both the compressed and the stored encoding
+      ByteArrayInputStream is = new ByteArrayInputStream(bos.toByteArray());
+      Hessian2Input in = new Deflation().unwrap(new Hessian2Input(is));
+      assertEquals(value, in.readObject());
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the Unsafe and reflective field accessors against each other.
+ */
+public class FieldAccessorTest extends TestCase {
+  public void testUnsafe()
+    throws Exception
+  {
+    if (! FieldAccessor.isUnsafe())
+      return;
+    
+    checkAccessors(new AccessorFactory() {
+	public FieldAccessor create(Field field)
+	{
+	  return new FieldAccessor.UnsafeFieldAccessor(field);
+	}
+      });
+  }
+
+  public void testReflection()
+    throws Exception
+  {
+    checkAccessors(new AccessorFactory() {
+	public FieldAccessor create(Field field)
+	{
+	  return new FieldAccessor.ReflectionFieldAccessor(field);
+	}
+      });
+  }
+
+  private void checkAccessors(AccessorFactory factory)
+    throws Exception
+  {
+    Fields obj = new Fields();
+    
+    FieldAccessor a = factory.create(field("_boolean"));
+    a.setBoolean(obj, true);
+    assertTrue(obj._boolean);
+    assertTrue(a.getBoolean(obj));
+    assertEquals(Boolean.TRUE, a.get(obj));
+    
+    a = factory.create(field("_byte"));
+    a.setByte(obj, (byte) -7);
+    assertEquals(-7, obj._byte);
+    assertEquals(-7, a.getByte(obj));
+    a.set(obj, Byte.valueOf((byte) 9));
+    assertEquals(9, a.getByte(obj));
+    
+    a = factory.create(field("_short"));
+    a.setShort(obj, (short) -30000);
+    assertEquals(-30000, obj._short);
+    assertEquals(-30000, a.getShort(obj));
+    
+    a = factory.create(field("_char"));
+    a.set(obj, Character.valueOf('\u20ac'));
+    assertEquals('\u20ac', obj._char);
+    assertEquals(Character.valueOf('\u20ac'), a.get(obj));
+    
+    a = factory.create(field("_int"));
+    a.setInt(obj, Integer.MIN_VALUE);
+    assertEquals(Integer.MIN_VALUE, obj._int);
+    assertEquals(Integer.MIN_VALUE, a.getInt(obj));
+    
+    a = factory.create(field("_long"));
+    a.setLong(obj, Long.MAX_VALUE - 1);
+    assertEquals(Long.MAX_VALUE - 1, obj._long);
+    assertEquals(Long.MAX_VALUE - 1, a.getLong(obj));
+    
+    a = factory.create(field("_float"));
+    a.setFloat(obj, 1.5f);
+    assertEquals(1.5f, obj._float, 0);
+    assertEquals(1.5f, a.getFloat(obj), 0);
+    
+    a = factory.create(field("_double"));
+    a.setDouble(obj, -0.25);
+    assertEquals(-0.25, obj._double, 0);
+    assertEquals(-0.25, a.getDouble(obj), 0);
+    
+    a = factory.create(field("_string"));
+    a.set(obj, "value");
+    assertEquals("value", obj._string);
+    assertEquals("value", a.get(obj));
+    
+    a.set(obj, null);
+    assertNull(obj._string);
+    assertNull(a.get(obj));
+
+    try {
+      a.set(obj, Integer.valueOf(1));
+      fail("wrong type assigned to a String field");
+    } catch (IllegalArgumentException e) {
+    }
+    assertNull(obj._string);
+
+    try {
+      a.get(new Object());
+      fail("read through the wrong receiver");
+    } catch (IllegalArgumentException e) {
+    }
+    
+    a = factory.create(field("_int"));
+    try {
+      a.setInt(null, 1);
+      fail("null receiver");
+    } catch (RuntimeException e) {
+    }
+  }
+
+  /**
+   * Record fields have no Unsafe offset.  The record class is compiled
+   * for Java 16 and stored as a resource, so the test only runs on
+   * JVMs with records.
+   */
+  public void testRecord()
+    throws Exception
+  {
+    Class<?> cl = loadRecord();
+
+    if (cl == null)
+      return;
+
+    Object point = cl.getConstructor(int.class, String.class)
+      .newInstance(Integer.valueOf(17), "a");
+
+    Field x = cl.getDeclaredField("x");
+    x.setAccessible(true);
+
+    FieldAccessor accessor = FieldAccessor.create(x);
+    assertTrue(accessor instanceof FieldAccessor.ReflectionFieldAccessor);
+    assertEquals(17, accessor.getInt(point));
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+    out.writeObject(point);
+    out.close();
+
+    // the record class isn't visible to the reader, so it's read as a map
+    Hessian2Input in
+      = new Hessian2Input(new ByteArrayInputStream(bos.toByteArray()));
+    Map<?,?> map = (Map<?,?>) in.readObject();
+
+    assertEquals(Integer.valueOf(17), map.get("x"));
+    assertEquals("a", map.get("name"));
+  }
+
+  private static Class<?> loadRecord()
+    throws Exception
+  {
+    InputStream is
+      = FieldAccessorTest.class.getResourceAsStream("RecordPoint.bin");
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+    try {
+      byte []buffer = new byte[1024];
+      int len;
+
+      while ((len = is.read(buffer, 0, buffer.length)) > 0)
+	bos.write(buffer, 0, len);
+    } finally {
+      is.close();
+    }
+
+    try {
+      return new RecordLoader().define(bos.toByteArray());
+    } catch (UnsupportedClassVersionError e) {
+      return null;
+    }
+  }
+
+  static class RecordLoader extends ClassLoader {
+    RecordLoader()
+    {
+      super(FieldAccessorTest.class.getClassLoader());
+    }
+
+    Class<?> define(byte []classFile)
+    {
+      return defineClass("com.caucho.hessian.io.RecordPoint",
+			 classFile, 0, classFile.length);
+    }
+  }
+
+  private static Field field(String name)
+    throws Exception
+  {
+    Field field = Fields.class.getDeclaredField(name);
+    field.setAccessible(true);
+
+    return field;
+  }
+
+  interface AccessorFactory {
+    FieldAccessor create(Field field);
+  }
+
+  static class Fields {
+    private boolean _boolean;
+    private byte _byte;
+    private short _short;
+    private char _char;
+    private int _int;
+    private long _long;
+    private float _float;
+    private double _double;
+    private String _string = "initial";
+  }
+}
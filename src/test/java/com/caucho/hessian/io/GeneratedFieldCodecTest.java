@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the generated field codecs against the reflective serializers.
+ */
+public class GeneratedFieldCodecTest extends TestCase {
+  public void testGeneratedSerializer()
+    throws Exception
+  {
+    if (! FieldCodecGenerator.isAvailable())
+      return;
+
+    SerializerFactory factory = newFactory(true);
+
+    assertTrue(factory.getSerializer(AllFields.class)
+	       instanceof GeneratedSerializer);
+    assertTrue(factory.getDeserializer(AllFields.class)
+	       instanceof GeneratedDeserializer);
+  }
+
+  public void testByteIdentical()
+    throws Exception
+  {
+    Object []values = new Object[] {
+      newAllFields(), new AllFields(), newAllFields(), newAllFields(),
+    };
+    
+    byte []reflective = write(newFactory(false), values);
+    byte []generated = write(newFactory(true), values);
+
+    assertTrue(Arrays.equals(reflective, generated));
+  }
+
+  public void testRoundTrip()
+    throws Exception
+  {
+    AllFields value = newAllFields();
+    
+    SerializerFactory javaFactory = newFactory(false);
+    SerializerFactory genFactory = newFactory(true);
+
+    assertAllFields(value, roundTrip(genFactory, genFactory, value));
+    assertAllFields(value, roundTrip(genFactory, javaFactory, value));
+    assertAllFields(value, roundTrip(javaFactory, genFactory, value));
+
+    AllFields empty = new AllFields();
+    assertAllFields(empty, roundTrip(genFactory, genFactory, empty));
+  }
+
+  public void testShadowedField()
+    throws Exception
+  {
+    assertNull(FieldCodecGenerator.create(Shadowing.class));
+
+    SerializerFactory factory = newFactory(true);
+    
+    assertEquals(JavaSerializer.class,
+		 factory.getSerializer(Shadowing.class).getClass());
+    assertEquals(JavaDeserializer.class,
+		 factory.getDeserializer(Shadowing.class).getClass());
+
+    Shadowing value = new Shadowing();
+    value.setValues(3, 5);
+
+    // same result as the reflective serializers, which match the wire
+    // fields by name
+    Shadowing copy = (Shadowing) roundTrip(factory, factory, value);
+    Shadowing javaCopy
+      = (Shadowing) roundTrip(newFactory(false), newFactory(false), value);
+
+    assertEquals(javaCopy._value, copy._value);
+    assertEquals(javaCopy.getParentValue(), copy.getParentValue());
+  }
+
+  public void testNonLocalOrder()
+    throws Exception
+  {
+    // the definition lists the fields in reverse, leaving out _object
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+
+    String type = AllFields.class.getName();
+    String []names = new String[] {
+      "_string", "_double", "_float", "_long", "_int",
+      "_char", "_short", "_byte", "_boolean",
+    };
+
+    assertEquals(-1, out.writeObjectBegin(type));
+    out.writeClassFieldLength(names.length);
+    for (int i = 0; i < names.length; i++)
+      out.writeString(names[i]);
+    out.writeObjectBegin(type);
+
+    out.writeString("reversed");
+    out.writeDouble(2.5);
+    out.writeDouble(-1.25);
+    out.writeLong(-9L);
+    out.writeInt(17);
+    out.writeString("z");
+    out.writeInt(-2);
+    out.writeInt(3);
+    out.writeBoolean(true);
+    out.close();
+
+    Hessian2Input in
+      = new Hessian2Input(new ByteArrayInputStream(bos.toByteArray()));
+    in.setSerializerFactory(newFactory(true));
+
+    AllFields value = (AllFields) in.readObject();
+
+    assertEquals("reversed", value._string);
+    assertEquals(2.5, value._double, 0);
+    assertEquals(-1.25f, value._float, 0);
+    assertEquals(-9L, value._long);
+    assertEquals(17, value._int);
+    assertEquals('z', value._char);
+    assertEquals(-2, value._short);
+    assertEquals(3, value._byte);
+    assertTrue(value._boolean);
+    assertNull(value._object);
+  }
+
+  public void testFieldError()
+    throws Exception
+  {
+    // a string where the int field is expected
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+
+    String type = AllFields.class.getName();
+    String []names = new String[] {
+      "_boolean", "_byte", "_short", "_char", "_int",
+      "_long", "_float", "_double", "_string", "_object",
+    };
+
+    assertEquals(-1, out.writeObjectBegin(type));
+    out.writeClassFieldLength(names.length);
+    for (int i = 0; i < names.length; i++)
+      out.writeString(names[i]);
+    out.writeObjectBegin(type);
+
+    out.writeBoolean(true);
+    out.writeInt(1);
+    out.writeInt(2);
+    out.writeString("c");
+    out.writeString("bad");
+    out.close();
+
+    boolean []generated = new boolean[] { false, true };
+
+    for (int i = 0; i < generated.length; i++) {
+      Hessian2Input in
+	= new Hessian2Input(new ByteArrayInputStream(bos.toByteArray()));
+      in.setSerializerFactory(newFactory(generated[i]));
+
+      try {
+	in.readObject();
+	fail();
+      } catch (HessianFieldException e) {
+	assertTrue(e.getMessage(),
+		   e.getMessage().startsWith(type + "._int: "));
+      }
+    }
+  }
+
+  public void testCodecConstructor()
+  {
+    try {
+      new GeneratedFieldCodec(new Object()) {
+	public void writeFields(Object obj, AbstractHessianOutput out)
+	{
+	}
+
+	public void readFields(AbstractHessianInput in, Object obj)
+	{
+	}
+      };
+      
+      fail("created a codec without Unsafe");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  private static SerializerFactory newFactory(boolean isGenerated)
+  {
+    SerializerFactory factory = new SerializerFactory();
+    factory.setGenerated(isGenerated);
+
+    return factory;
+  }
+
+  private static byte []write(SerializerFactory factory, Object []values)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+    out.setSerializerFactory(factory);
+
+    for (int i = 0; i < values.length; i++)
+      out.writeObject(values[i]);
+
+    out.close();
+
+    return bos.toByteArray();
+  }
+
+  private static Object roundTrip(SerializerFactory writeFactory,
+				  SerializerFactory readFactory,
+				  Object value)
+    throws IOException
+  {
+    byte []data = write(writeFactory, new Object[] { value, value });
+    
+    Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(data));
+    in.setSerializerFactory(readFactory);
+
+    Object first = in.readObject();
+    assertSame(first, in.readObject());
+
+    return first;
+  }
+
+  private static AllFields newAllFields()
+  {
+    AllFields value = new AllFields();
+
+    value._boolean = true;
+    value._byte = Byte.MIN_VALUE;
+    value._short = Short.MAX_VALUE;
+    value._char = '\u20ac';
+    value._int = Integer.MIN_VALUE;
+    value._long = Long.MAX_VALUE;
+    value._float = 0.1f;
+    value._double = -1e300;
+    value._string = "value \u00e9\u4e2d";
+
+    List list = new ArrayList();
+    list.add("a");
+    list.add(Integer.valueOf(1));
+    value._object = list;
+    value._transient = 7;
+
+    return value;
+  }
+
+  private static void assertAllFields(AllFields expect, AllFields value)
+  {
+    assertEquals(expect._boolean, value._boolean);
+    assertEquals(expect._byte, value._byte);
+    assertEquals(expect._short, value._short);
+    assertEquals(expect._char, value._char);
+    assertEquals(expect._int, value._int);
+    assertEquals(expect._long, value._long);
+    assertEquals(expect._float, value._float, 0);
+    assertEquals(expect._double, value._double, 0);
+    assertEquals(expect._string, value._string);
+    assertEquals(expect._object, value._object);
+    assertEquals(0, value._transient);
+  }
+
+  private static AllFields roundTrip(SerializerFactory writeFactory,
+				     SerializerFactory readFactory,
+				     AllFields value)
+    throws IOException
+  {
+    return (AllFields) roundTrip(writeFactory, readFactory, (Object) value);
+  }
+
+  static class AllFields implements Serializable {
+    boolean _boolean;
+    byte _byte;
+    short _short;
+    char _char;
+    int _int;
+    long _long;
+    float _float;
+    double _double;
+    String _string;
+    Object _object;
+    transient int _transient;
+  }
+
+  static class ShadowedParent implements Serializable {
+    private int _value;
+
+    int getParentValue()
+    {
+      return _value;
+    }
+
+    void setParentValue(int value)
+    {
+      _value = value;
+    }
+  }
+
+  static class Shadowing extends ShadowedParent {
+    int _value;
+
+    void setValues(int parentValue, int value)
+    {
+      setParentValue(parentValue);
+      _value = value;
+    }
+  }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests Hessian2Input.
+ */
+public class Hessian2InputTest extends TestCase {
+  // lengths around the input and output buffer sizes and the chunk size
+  static final int []STRING_LENGTHS = new int[] {
+    0, 1, 31, 32, 255, 256, 257, 1023, 1024, 4095, 4096, 4097,
+    0x7fff, 0x8000, 0x8001, 0x10000, 0x10001,
+  };
+
+  /**
+   * Returns ASCII, mixed and surrogate-pair strings of each length.
+   */
+  static List<String> newStrings()
+  {
+    List<String> strings = new ArrayList<String>();
+    
+    for (int i = 0; i < STRING_LENGTHS.length; i++) {
+      int length = STRING_LENGTHS[i];
+      
+      strings.add(newString(length, 0));
+      strings.add(newString(length, 7));
+      strings.add(newString(length, 1));
+
+      // a surrogate pair across each boundary
+      if (length > 1) {
+	char []chars = newString(length, 0).toCharArray();
+	for (int j = 0; j < STRING_LENGTHS.length; j++) {
+	  int boundary = STRING_LENGTHS[j];
+
+	  if (0 < boundary && boundary < length) {
+	    chars[boundary - 1] = '\ud83d';
+	    chars[boundary] = '\ude00';
+	  }
+	}
+	strings.add(new String(chars));
+      }
+    }
+
+    return strings;
+  }
+
+  /**
+   * Returns a string with a non-ASCII character every <code>period</code>
+   * characters, or an ASCII string for 0.
+   */
+  private static String newString(int length, int period)
+  {
+    char []chars = new char[length];
+
+    for (int i = 0; i < length; i++) {
+      if (period > 0 && i % period == period - 1) {
+	switch (i / period % 3) {
+	case 0: chars[i] = '\u00e9'; break;
+	case 1: chars[i] = '\u4e2d'; break;
+	default: chars[i] = '\u07ff'; break;
+	}
+      }
+      else
+	chars[i] = (char) ('a' + i % 26);
+    }
+
+    return new String(chars);
+  }
+
+  public void testStringBoundaries()
+    throws Exception
+  {
+    List<String> strings = newStrings();
+    
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+    
+    for (int i = 0; i < strings.size(); i++) {
+      String value = strings.get(i);
+      
+      // shifts the next string against the input buffer
+      out.writeString(value.substring(0, Math.min(i, value.length())));
+      out.writeString(value);
+      out.writeObject(value);
+    }
+    out.close();
+
+    byte []data = bos.toByteArray();
+
+    checkStrings(strings, new ByteArrayInputStream(data));
+    checkStrings(strings, new ShortReadInputStream(data, 1));
+    checkStrings(strings, new ShortReadInputStream(data, 3));
+  }
+
+  private void checkStrings(List<String> strings, InputStream is)
+    throws IOException
+  {
+    Hessian2Input in = new Hessian2Input(is);
+    
+    for (int i = 0; i < strings.size(); i++) {
+      String value = strings.get(i);
+      
+      assertEquals(value.substring(0, Math.min(i, value.length())),
+		   in.readString());
+      assertEquals(value, in.readString());
+      assertEquals(value, in.readObject());
+    }
+  }
+
+  public void testAcyclicBackReference()
+    throws Exception
+  {
+    List<Object> shared = new ArrayList<Object>();
+    List<Object> value = new ArrayList<Object>();
+    value.add(shared);
+    value.add(shared);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+    out.writeObject(value);
+    out.close();
+
+    Hessian2Input in
+      = new Hessian2Input(new ByteArrayInputStream(bos.toByteArray()));
+    in.setAcyclic(true);
+
+    try {
+      in.readObject();
+      fail("resolved a back-reference without references");
+    } catch (HessianProtocolException e) {
+    }
+
+    // init() returns to the default, which resolves the reference
+    in.init(new ByteArrayInputStream(bos.toByteArray()));
+    assertFalse(in.isAcyclic());
+    
+    List result = (List) in.readObject();
+    assertSame(result.get(0), result.get(1));
+  }
+
+  public void testSkipObject()
+    throws Exception
+  {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 20000; i++)
+      text.append("r\u00e9\u20ac");
+
+    Map<String,Object> map = new HashMap<String,Object>();
+    map.put("name", "value");
+    map.put("point", new Point(1, 2));
+
+    List<Object> values = new ArrayList<Object>();
+    values.add(new Point(3, 4));
+    values.add(new Point(5, 6));
+    values.add(map);
+    values.add(text.toString());
+    values.add(new byte[70000]);
+    values.add(new int[] { 1, 2, 3 });
+    values.add(new Date(1234567890123L));
+    values.add(new Date(60000L * 1234567));
+    values.add(Long.valueOf(1L << 40));
+    values.add(Long.valueOf(-300));
+    values.add(Integer.valueOf(-100000));
+    values.add(Double.valueOf(0.5));
+    values.add(Double.valueOf(Math.PI));
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+    for (int i = 0; i < values.size(); i++) {
+      out.writeObject(values.get(i));
+      out.writeInt(i);
+    }
+    out.writeObject(values);
+    out.writeString("end");
+    out.close();
+
+    Hessian2Input in
+      = new Hessian2Input(new ByteArrayInputStream(bos.toByteArray()));
+    for (int i = 0; i < values.size(); i++) {
+      in.skipObject();
+      assertEquals(i, in.readInt());
+    }
+    in.skipObject();
+    assertEquals("end", in.readString());
+  }
+
+  /**
+   * Skipping typed maps, lists and objects goes by the type names, and
+   * keeps the references aligned without loading the classes.
+   */
+  public void testSkipLoadsNoClass()
+    throws Exception
+  {
+    String type = Point.class.getName();
+    Point point = new Point(1, 2);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+    out.writeMapBegin(type);
+    out.writeString("_x");
+    out.writeInt(1);
+    out.writeMapEnd();
+    out.writeListBegin(-1, type);
+    out.writeInt(1);
+    out.writeListEnd();
+    out.writeListBegin(2, type);
+    out.writeInt(1);
+    out.writeInt(2);
+    out.writeObject(point);
+    out.writeObject(point);
+    out.writeString("end");
+    out.close();
+
+    RecordingLoader loader
+      = new RecordingLoader(getClass().getClassLoader());
+    
+    Hessian2Input in
+      = new Hessian2Input(new ByteArrayInputStream(bos.toByteArray()));
+    in.setSerializerFactory(new SerializerFactory(loader));
+
+    for (int i = 0; i < 5; i++)
+      in.skipObject();
+
+    assertEquals("end", in.readString());
+    assertFalse(loader._names.toString(), loader._names.contains(type));
+  }
+
+  /**
+   * Class loader recording the names it's asked for.
+   */
+  static class RecordingLoader extends ClassLoader {
+    final List<String> _names = new ArrayList<String>();
+
+    RecordingLoader(ClassLoader parent)
+    {
+      super(parent);
+    }
+
+    protected Class<?> loadClass(String name, boolean resolve)
+      throws ClassNotFoundException
+    {
+      _names.add(name);
+
+      return super.loadClass(name, resolve);
+    }
+  }
+
+  /**
+   * Stream returning at most a few bytes per read.
+   */
+  static class ShortReadInputStream extends FilterInputStream {
+    private final int _maxRead;
+
+    ShortReadInputStream(byte []data, int maxRead)
+    {
+      super(new ByteArrayInputStream(data));
+
+      _maxRead = maxRead;
+    }
+
+    public int read(byte []buffer, int offset, int length)
+      throws IOException
+    {
+      return super.read(buffer, offset, Math.min(length, _maxRead));
+    }
+  }
+
+  static class Point implements Serializable {
+    int _x;
+    int _y;
+
+    Point(int x, int y)
+    {
+      _x = x;
+      _y = y;
+    }
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests Hessian2Output.
+ */
+public class Hessian2OutputTest extends TestCase {
+  public void testStringBoundaries()
+    throws Exception
+  {
+    List<String> strings = Hessian2InputTest.newStrings();
+
+    // prefixes shift the string against the 4096-byte output buffer
+    int []prefixes = new int[] { 0, 1, 250, 4000, 4090 };
+
+    for (int i = 0; i < strings.size(); i++) {
+      String value = strings.get(i);
+      
+      for (int j = 0; j < prefixes.length; j++) {
+	String prefix = newPrefix(prefixes[j]);
+	
+	ByteArrayOutputStream expect = new ByteArrayOutputStream();
+	writeReference(expect, prefix);
+	writeReference(expect, value);
+
+	ByteArrayOutputStream bos = new ByteArrayOutputStream();
+	Hessian2Output out = new Hessian2Output(bos);
+	out.writeString(prefix);
+	out.writeString(value);
+	out.close();
+
+	assertTrue("string " + i + " prefix " + prefixes[j],
+		   Arrays.equals(expect.toByteArray(), bos.toByteArray()));
+
+	char []chars = ("xx" + value + "yy").toCharArray();
+	
+	bos = new ByteArrayOutputStream();
+	out = new Hessian2Output(bos);
+	out.writeString(prefix.toCharArray(), 0, prefix.length());
+	out.writeString(chars, 2, value.length());
+	out.close();
+
+	assertTrue("char[] " + i + " prefix " + prefixes[j],
+		   Arrays.equals(expect.toByteArray(), bos.toByteArray()));
+      }
+    }
+  }
+
+  public void testReplaceRef()
+    throws Exception
+  {
+    List shared = new ArrayList();
+    shared.add("shared");
+    
+    List value = new ArrayList();
+    value.add(shared);
+    value.add(shared);
+
+    ByteArrayOutputStream expect = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(expect);
+    out.writeObject(value);
+    out.close();
+
+    // a missing reference must not shift the reference numbers
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    out = new Hessian2Output(bos);
+    assertFalse(out.replaceRef(new Object(), new Object()));
+    out.writeObject(value);
+    out.close();
+
+    assertTrue(Arrays.equals(expect.toByteArray(), bos.toByteArray()));
+
+    // a replaced reference is written as a back-reference
+    List copy = new ArrayList(value);
+    
+    bos = new ByteArrayOutputStream();
+    out = new Hessian2Output(bos);
+    out.writeObject(value);
+    assertTrue(out.replaceRef(value, copy));
+    out.writeObject(copy);
+    assertFalse(out.replaceRef(value, copy));
+    out.close();
+
+    Hessian2Input in
+      = new Hessian2Input(new ByteArrayInputStream(bos.toByteArray()));
+    List first = (List) in.readObject();
+    assertSame(first.get(0), first.get(1));
+    assertSame(first, in.readObject());
+  }
+
+  public void testAcyclic()
+    throws Exception
+  {
+    // a tree has no back-references, so the bytes don't change
+    Map value = new HashMap();
+    List list = new ArrayList();
+    list.add("a");
+    list.add(new ArrayList());
+    value.put("list", list);
+    value.put("map", new HashMap());
+
+    ByteArrayOutputStream expect = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(expect);
+    out.writeObject(value);
+    out.close();
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    out = new Hessian2Output(bos);
+    out.setAcyclic(true);
+    out.setCycleCheck(true);
+    out.writeObject(value);
+    out.close();
+
+    assertTrue(Arrays.equals(expect.toByteArray(), bos.toByteArray()));
+
+    Hessian2Input in
+      = new Hessian2Input(new ByteArrayInputStream(bos.toByteArray()));
+    in.setAcyclic(true);
+    assertEquals(value, in.readObject());
+  }
+
+  public void testAcyclicCycleCheck()
+    throws Exception
+  {
+    List list = new ArrayList();
+    list.add(list);
+    
+    Hessian2Output out = new Hessian2Output(new ByteArrayOutputStream());
+    out.setAcyclic(true);
+    out.setCycleCheck(true);
+    
+    try {
+      out.writeObject(list);
+      fail("cycle was not detected");
+    } catch (IllegalStateException e) {
+    }
+  }
+
+  public void testResetAcyclic()
+    throws Exception
+  {
+    Hessian2Output out = new Hessian2Output();
+    boolean isCycleCheck = out.isCycleCheck();
+    
+    out.setAcyclic(true);
+    out.setCycleCheck(! isCycleCheck);
+    out.init(new ByteArrayOutputStream());
+
+    assertFalse(out.isAcyclic());
+    assertEquals(isCycleCheck, out.isCycleCheck());
+
+    out.setAcyclic(true);
+    out.reset();
+    assertFalse(out.isAcyclic());
+  }
+
+  private static String newPrefix(int length)
+  {
+    char []chars = new char[length];
+    Arrays.fill(chars, 'p');
+
+    return new String(chars);
+  }
+
+  /**
+   * The Hessian 2 string encoding, as written by the original
+   * character-at-a-time encoder.
+   */
+  private static void writeReference(ByteArrayOutputStream os, String value)
+  {
+    int length = value.length();
+    int offset = 0;
+
+    while (length > 0x8000) {
+      int sublen = 0x8000;
+
+      // chunk can't end in high surrogate
+      char tail = value.charAt(offset + sublen - 1);
+
+      if (0xd800 <= tail && tail <= 0xdbff)
+	sublen--;
+
+      os.write('R');
+      os.write(sublen >> 8);
+      os.write(sublen);
+
+      writeUTF8(os, value, offset, sublen);
+
+      length -= sublen;
+      offset += sublen;
+    }
+
+    if (length <= 0x1f)
+      os.write(length);
+    else if (length <= 0x3ff) {
+      os.write(0x30 + (length >> 8));
+      os.write(length);
+    }
+    else {
+      os.write('S');
+      os.write(length >> 8);
+      os.write(length);
+    }
+
+    writeUTF8(os, value, offset, length);
+  }
+
+  private static void writeUTF8(ByteArrayOutputStream os, String value,
+				int offset, int length)
+  {
+    for (int i = 0; i < length; i++) {
+      char ch = value.charAt(offset + i);
+
+      if (ch < 0x80)
+	os.write(ch);
+      else if (ch < 0x800) {
+	os.write(0xc0 + ((ch >> 6) & 0x1f));
+	os.write(0x80 + (ch & 0x3f));
+      }
+      else {
+	os.write(0xe0 + ((ch >> 12) & 0xf));
+	os.write(0x80 + ((ch >> 6) & 0x3f));
+	os.write(0x80 + (ch & 0x3f));
+      }
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests Hessian2StreamingOutput and Hessian2StreamingInput.
+ */
+public class Hessian2StreamingTest extends TestCase {
+  public void testStreamingSession()
+    throws Exception
+  {
+    Bean value = new Bean("name", 17);
+    
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2StreamingOutput out = new Hessian2StreamingOutput(bos);
+    out.startSession();
+    out.writeObject(value);
+    int first = bos.size();
+    out.writeObject(value);
+    int second = bos.size() - first;
+    out.resetSession();
+    out.writeObject(value);
+    int third = bos.size() - first - second;
+    out.flush();
+
+    // class definitions are only written again after the reset
+    assertTrue(second < first - 4);
+    assertEquals(first - 4 + 3, third);
+
+    ByteArrayInputStream is = new ByteArrayInputStream(bos.toByteArray());
+    Hessian2StreamingInput in = new Hessian2StreamingInput(is);
+    
+    for (int i = 0; i < 3; i++)
+      assertEquals(value, in.readObject());
+    
+    assertEquals(Hessian2StreamingOutput.SESSION_VERSION,
+		 in.getSessionVersion());
+  }
+
+  public void testStreamingMessages()
+    throws Exception
+  {
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 2000; i++)
+      large.append("resource-").append(i);
+
+    Bean bean = new Bean("name", 17);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2StreamingOutput out = new Hessian2StreamingOutput(bos);
+    out.startSession();
+    out.writeMessage(7, bean);
+    out.writeMessage(3, large.toString());
+    out.writeMessage(Long.MAX_VALUE, bean);
+    out.writeObject(bean);
+    out.flush();
+
+    ByteArrayInputStream is = new ByteArrayInputStream(bos.toByteArray());
+    Hessian2StreamingInput in = new Hessian2StreamingInput(is);
+    
+    assertEquals(bean, in.readObject());
+    assertEquals(7, in.getMessageId());
+    assertEquals(large.toString(), in.readObject());
+    assertEquals(3, in.getMessageId());
+    assertEquals(bean, in.readObject());
+    assertEquals(Long.MAX_VALUE, in.getMessageId());
+    // a plain packet has no message id
+    assertEquals(bean, in.readObject());
+    assertEquals(-1, in.getMessageId());
+  }
+
+  static class Bean implements Serializable {
+    private String _name;
+    private int _value;
+
+    Bean(String name, int value)
+    {
+      _name = name;
+      _value = value;
+    }
+
+    public boolean equals(Object o)
+    {
+      if (! (o instanceof Bean))
+	return false;
+
+      Bean bean = (Bean) o;
+
+      return _name.equals(bean._name) && _value == bean._value;
+    }
+
+    public int hashCode()
+    {
+      return _name.hashCode() * 31 + _value;
+    }
+  }
+}
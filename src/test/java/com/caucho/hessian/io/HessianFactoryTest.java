@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests reusing Hessian 2 streams through init(), reset() and the
+ * pooling factories.  A recycled stream must behave like a new one.
+ */
+public class HessianFactoryTest extends TestCase {
+  public void testNoArgConstructors()
+    throws Exception
+  {
+    Object value = newGraph("a");
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output();
+    out.init(bos);
+    out.writeObject(value);
+    out.close();
+
+    assertTrue(Arrays.equals(writeFresh(value), bos.toByteArray()));
+
+    Hessian2Input in = new Hessian2Input();
+    in.init(new ByteArrayInputStream(bos.toByteArray()));
+    
+    assertGraph("a", in.readObject());
+  }
+
+  public void testOutputReset()
+    throws Exception
+  {
+    Object value = newGraph("b");
+    
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+
+    // unflushed data, references and class definitions are dropped
+    out.writeObject(newGraph("a"));
+    out.reset();
+    
+    out.writeObject(value);
+    out.close();
+
+    assertTrue(Arrays.equals(writeFresh(value), bos.toByteArray()));
+  }
+
+  public void testOutputFactory()
+    throws Exception
+  {
+    HessianOutputFactory factory = new HessianOutputFactory();
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = factory.createHessian2Output(bos);
+    out.writeObject(newGraph("a"));
+    out.flush();
+    factory.freeHessian2Output(out);
+
+    // a freed output with unflushed data
+    out = factory.createHessian2Output(new ByteArrayOutputStream());
+    out.writeObject(newGraph("a"));
+    factory.freeHessian2Output(out);
+
+    Object value = newGraph("b");
+    
+    bos = new ByteArrayOutputStream();
+    Hessian2Output reused = factory.createHessian2Output(bos);
+    assertSame(out, reused);
+    
+    reused.writeObject(value);
+    reused.flush();
+    factory.freeHessian2Output(reused);
+
+    assertTrue(Arrays.equals(writeFresh(value), bos.toByteArray()));
+  }
+
+  public void testInputFactory()
+    throws Exception
+  {
+    HessianInputFactory factory = new HessianInputFactory();
+
+    Hessian2Input in = factory.createHessian2Input(input(writeFresh(newGraph("a"))));
+    assertGraph("a", in.readObject());
+    factory.freeHessian2Input(in);
+
+    // a freed input with unread data
+    byte []twoValues = writeFresh(new Object[] { newGraph("a"), "x" });
+    in = factory.createHessian2Input(input(twoValues));
+    in.readListStart();
+    factory.freeHessian2Input(in);
+
+    Hessian2Input reused = factory.createHessian2Input(input(writeFresh(newGraph("b"))));
+    assertSame(in, reused);
+    assertGraph("b", reused.readObject());
+    factory.freeHessian2Input(reused);
+  }
+
+  public void testInputFieldFilter()
+    throws Exception
+  {
+    HessianInputFactory factory = new HessianInputFactory();
+
+    Hessian2Input in = factory.createHessian2Input(input(writeFresh(newGraph("a"))));
+    in.setFieldFilter(new HessianFieldFilter() {
+	public boolean isReadField(String type, String field)
+	{
+	  return ! "_name".equals(field);
+	}
+      });
+    
+    List list = (List) in.readObject();
+    assertNull(((Bean) list.get(0))._name);
+    assertNull(((Bean) list.get(1))._name);
+    factory.freeHessian2Input(in);
+
+    // the next user of the pooled input reads every field
+    Hessian2Input reused = factory.createHessian2Input(input(writeFresh(newGraph("b"))));
+    assertSame(in, reused);
+    assertNull(reused.getFieldFilter());
+    assertGraph("b", reused.readObject());
+    factory.freeHessian2Input(reused);
+  }
+
+  public void testNoDefinitionBleed()
+    throws Exception
+  {
+    // a stream using the class definition and the reference of a
+    // previous message
+    byte []first = writeFresh(newGraph("a"));
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+    out.writeObject(newGraph("a"));
+    out.flush();
+    int offset = bos.size();
+    out.writeObject(new Bean("a", null));
+    out.flush();
+    
+    byte []all = bos.toByteArray();
+    byte []second = new byte[all.length - offset];
+    System.arraycopy(all, offset, second, 0, second.length);
+
+    HessianInputFactory factory = new HessianInputFactory();
+    Hessian2Input in = factory.createHessian2Input(input(first));
+    assertGraph("a", in.readObject());
+    factory.freeHessian2Input(in);
+
+    in = factory.createHessian2Input(input(second));
+
+    try {
+      Object value = in.readObject();
+      fail("class definition of the previous message: " + value);
+    } catch (Exception e) {
+    }
+
+    try {
+      new Hessian2Input(input(second)).readObject();
+      fail("class definition of the previous message");
+    } catch (Exception e) {
+    }
+  }
+
+  private static byte []writeFresh(Object value)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+    out.writeObject(value);
+    out.close();
+
+    return bos.toByteArray();
+  }
+
+  private static ByteArrayInputStream input(byte []data)
+  {
+    return new ByteArrayInputStream(data);
+  }
+
+  /**
+   * A list with a shared bean and a cycle, which uses class definitions
+   * and back-references.
+   */
+  private static Object newGraph(String name)
+  {
+    Bean bean = new Bean(name, null);
+    bean._next = bean;
+    
+    List list = new ArrayList();
+    list.add(bean);
+    list.add(new Bean(name + "2", bean));
+    list.add(bean);
+
+    return list;
+  }
+
+  private static void assertGraph(String name, Object value)
+  {
+    List list = (List) value;
+    assertEquals(3, list.size());
+
+    Bean bean = (Bean) list.get(0);
+    assertEquals(name, bean._name);
+    assertSame(bean, bean._next);
+    assertSame(bean, list.get(2));
+    
+    Bean second = (Bean) list.get(1);
+    assertEquals(name + "2", second._name);
+    assertSame(bean, second._next);
+  }
+
+  static class Bean implements Serializable {
+    String _name;
+    Bean _next;
+
+    Bean(String name, Bean next)
+    {
+      _name = name;
+      _next = next;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests HessianStringCache, directly and through Hessian2Input.
+ */
+public class HessianStringCacheTest extends TestCase {
+  public void testGet()
+  {
+    HessianStringCache cache = new HessianStringCache(1024);
+
+    String seed = new String("seed");
+    assertTrue(cache.add(seed));
+    assertTrue(cache.add(new String("seed")));
+
+    assertSame(seed, cache.get("seed".toCharArray(), 4));
+    // the length selects the prefix of the buffer
+    assertSame(seed, cache.get("seeds".toCharArray(), 4));
+
+    String value = cache.get("value".toCharArray(), 5);
+    assertEquals("value", value);
+    assertSame(value, cache.get("value".toCharArray(), 5));
+
+    char []longChars = new char[HessianStringCache.MAX_LENGTH + 1];
+    String longValue = cache.get(longChars, longChars.length);
+    assertFalse(cache.add(longValue));
+    assertNotSame(longValue, cache.get(longChars, longChars.length));
+  }
+
+  public void testSeedSlot()
+  {
+    // a 16-slot cache, so "Aa" and "BB" share a slot
+    HessianStringCache cache = new HessianStringCache(1);
+
+    assertTrue(cache.add("Aa"));
+    assertFalse(cache.add("BB"));
+
+    // a decoded string doesn't replace the seed
+    String decoded = cache.get("BB".toCharArray(), 2);
+    assertEquals("BB", decoded);
+    assertNotSame(decoded, cache.get("BB".toCharArray(), 2));
+    assertSame(cache.get("Aa".toCharArray(), 2),
+	       cache.get("Aa".toCharArray(), 2));
+  }
+
+  public void testInput()
+    throws Exception
+  {
+    HessianStringCache cache = new HessianStringCache(64);
+    String seed = new String("seed-value");
+    cache.add(seed);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+    out.writeString("seed-value");
+    out.writeString("other");
+    out.writeObject("seed-value");
+    out.writeObject("other");
+    out.close();
+
+    Hessian2Input in
+      = new Hessian2Input(new ByteArrayInputStream(bos.toByteArray()));
+    in.setStringCache(cache);
+
+    assertSame(seed, in.readString());
+    String other = in.readString();
+    assertEquals("other", other);
+    assertSame(seed, in.readObject());
+    assertSame(other, in.readObject());
+  }
+}
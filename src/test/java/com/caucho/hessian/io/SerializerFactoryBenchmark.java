@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-threaded benchmark of the cached serializer lookup, comparing
+ * SerializerFactory.getSerializer with a synchronized map, the lookup
+ * before the concurrent caches, and with a ClassValue.
+ *
+ * <pre>
+ * java com.caucho.hessian.io.SerializerFactoryBenchmark [maxThreads] [ms]
+ * </pre>
+ */
+public class SerializerFactoryBenchmark {
+  private static final Class<?> []CLASSES = new Class<?>[] {
+    Bean1.class, Bean2.class, Bean3.class, Bean4.class,
+    ArrayList.class, HashMap.class, Object[].class, int[].class,
+  };
+
+  public static void main(String []args)
+    throws Exception
+  {
+    int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    long time = args.length > 1 ? Long.parseLong(args[1]) : 2000L;
+
+    final SerializerFactory factory = new SerializerFactory();
+
+    final Map<Class<?>,Serializer> syncMap
+      = new HashMap<Class<?>,Serializer>();
+    
+    final ClassValue<Serializer> classValue = new ClassValue<Serializer>() {
+      protected Serializer computeValue(Class<?> cl)
+      {
+	try {
+	  return factory.getSerializer(cl);
+	} catch (HessianProtocolException e) {
+	  throw new IllegalStateException(e);
+	}
+      }
+    };
+
+    Lookup []lookups = new Lookup[] {
+      new Lookup("synchronized") {
+	Serializer get(Class<?> cl)
+	  throws Exception
+	{
+	  synchronized (syncMap) {
+	    Serializer serializer = syncMap.get(cl);
+
+	    if (serializer == null) {
+	      serializer = factory.getSerializer(cl);
+	      syncMap.put(cl, serializer);
+	    }
+
+	    return serializer;
+	  }
+	}
+      },
+      new Lookup("concurrent") {
+	Serializer get(Class<?> cl)
+	  throws Exception
+	{
+	  return factory.getSerializer(cl);
+	}
+      },
+      new Lookup("ClassValue") {
+	Serializer get(Class<?> cl)
+	{
+	  return classValue.get(cl);
+	}
+      },
+    };
+
+    // warm up
+    for (int i = 0; i < lookups.length; i++)
+      run(lookups[i], 4, time);
+
+    System.out.println("lookups per microsecond");
+    
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      StringBuilder sb = new StringBuilder();
+      sb.append(threads).append(" threads:");
+      
+      for (int i = 0; i < lookups.length; i++) {
+	double rate = run(lookups[i], threads, time);
+	
+	sb.append(String.format(" %s %.1f", lookups[i]._name, rate));
+      }
+
+      System.out.println(sb);
+    }
+  }
+
+  private static double run(final Lookup lookup, int threads, long time)
+    throws Exception
+  {
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicLong count = new AtomicLong();
+    final long []endTime = new long[1];
+    final Object []sink = new Object[threads];
+
+    Thread []workers = new Thread[threads];
+
+    for (int i = 0; i < threads; i++) {
+      final int id = i;
+      
+      workers[i] = new Thread() {
+	  public void run()
+	  {
+	    try {
+	      start.await();
+
+	      long n = 0;
+	      Object last = null;
+	      
+	      while (System.nanoTime() < endTime[0]) {
+		for (int j = 0; j < CLASSES.length; j++)
+		  last = lookup.get(CLASSES[j]);
+
+		n += CLASSES.length;
+	      }
+
+	      sink[id] = last;
+	      count.addAndGet(n);
+	    } catch (Exception e) {
+	      e.printStackTrace();
+	    }
+	  }
+	};
+      
+      workers[i].start();
+    }
+
+    endTime[0] = System.nanoTime() + time * 1000000L;
+    start.countDown();
+
+    for (int i = 0; i < threads; i++)
+      workers[i].join();
+
+    return count.get() / (time * 1000.0);
+  }
+
+  abstract static class Lookup {
+    final String _name;
+
+    Lookup(String name)
+    {
+      _name = name;
+    }
+
+    abstract Serializer get(Class<?> cl)
+      throws Exception;
+  }
+
+  static class Bean1 implements Serializable {
+    int _value;
+  }
+
+  static class Bean2 implements Serializable {
+    String _value;
+  }
+
+  static class Bean3 implements Serializable {
+    long _value;
+  }
+
+  static class Bean4 implements Serializable {
+    Object _value;
+  }
+}
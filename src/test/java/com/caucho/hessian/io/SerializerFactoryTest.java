@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.Serializable;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests freezing a SerializerFactory.
+ */
+public class SerializerFactoryTest extends TestCase {
+  public void testFreeze()
+    throws Exception
+  {
+    Serializer serializer = new StringValueSerializer();
+    
+    ExtSerializerFactory ext = new ExtSerializerFactory();
+    ext.addSerializer(Value.class, serializer);
+
+    SerializerFactory factory = new SerializerFactory();
+    factory.addFactory(ext);
+
+    assertFalse(factory.isFrozen());
+    factory.freeze();
+    assertTrue(factory.isFrozen());
+    assertTrue(ext.isFrozen());
+
+    try {
+      factory.addFactory(new ExtSerializerFactory());
+      fail("addFactory after freeze");
+    } catch (IllegalStateException e) {
+    }
+
+    try {
+      factory.setSendCollectionType(false);
+      fail("setSendCollectionType after freeze");
+    } catch (IllegalStateException e) {
+    }
+
+    try {
+      factory.setAllowNonSerializable(true);
+      fail("setAllowNonSerializable after freeze");
+    } catch (IllegalStateException e) {
+    }
+
+    try {
+      factory.setGenerated(true);
+      fail("setGenerated after freeze");
+    } catch (IllegalStateException e) {
+    }
+
+    try {
+      ext.addSerializer(String.class, serializer);
+      fail("addSerializer after freeze");
+    } catch (IllegalStateException e) {
+    }
+
+    try {
+      ext.addDeserializer(Value.class, new JavaDeserializer(Value.class));
+      fail("addDeserializer after freeze");
+    } catch (IllegalStateException e) {
+    }
+
+    // lookups still work and fill the caches
+    assertSame(serializer, factory.getSerializer(Value.class));
+    assertSame(factory.getDeserializer(Value.class),
+	       factory.getDeserializer(Value.class));
+  }
+
+  static class Value implements Serializable {
+  }
+}
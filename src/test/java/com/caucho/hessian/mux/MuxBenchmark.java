@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.mux;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput and latency benchmark of MuxServer over in-memory pipes.
+ * Each channel has a client thread making calls and an echo thread on
+ * the server side.  With a slow time, channel 0's client sleeps before
+ * reading each reply, and only the other channels are counted.
+ *
+ * <pre>
+ * java com.caucho.hessian.mux.MuxBenchmark [channels] [size] [slowMs] [ms]
+ * </pre>
+ */
+public class MuxBenchmark {
+  public static void main(String []args)
+    throws Exception
+  {
+    int channels = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+    int size = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+    long slowMs = args.length > 2 ? Long.parseLong(args[2]) : 0;
+    long time = args.length > 3 ? Long.parseLong(args[3]) : 4000L;
+
+    PipedInputStream clientIn = new PipedInputStream(65536);
+    PipedInputStream serverIn = new PipedInputStream(65536);
+    PipedOutputStream clientOut = new PipedOutputStream(serverIn);
+    PipedOutputStream serverOut = new PipedOutputStream(clientIn);
+
+    MuxServer client = new MuxServer(clientIn, clientOut, true);
+    MuxServer server = new MuxServer(serverIn, serverOut, false);
+
+    long endTime = System.nanoTime() + time * 1000000L;
+    AtomicLong count = new AtomicLong();
+
+    Caller []callers = new Caller[channels];
+
+    for (int i = 0; i < channels; i++) {
+      Thread echo = new Echo(server, i, size);
+      echo.setDaemon(true);
+      echo.start();
+
+      long sleep = i == 0 ? slowMs : 0;
+      callers[i] = new Caller(client, i, size, sleep, endTime, count);
+      callers[i].setDaemon(true);
+    }
+
+    long startTime = System.nanoTime();
+    
+    for (int i = 0; i < channels; i++)
+      callers[i].start();
+
+    for (int i = 0; i < channels; i++)
+      callers[i].join(time + 30000L);
+
+    double elapsed = (System.nanoTime() - startTime) / 1e9;
+
+    long []latency = new long[0];
+    for (int i = 0; i < channels; i++) {
+      long []sub = callers[i].getLatency();
+
+      if (sub == null)
+        continue;
+      
+      int offset = latency.length;
+      latency = Arrays.copyOf(latency, offset + sub.length);
+      System.arraycopy(sub, 0, latency, offset, sub.length);
+    }
+
+    if (latency.length == 0) {
+      System.out.println("no completed calls");
+      System.exit(1);
+    }
+
+    Arrays.sort(latency);
+
+    System.out.println(String.format("channels=%d size=%d slow=%dms: %.0f calls/s p50=%.0fus p99=%.0fus",
+                                     channels, size, slowMs,
+                                     count.get() / elapsed,
+                                     latency[latency.length / 2] / 1e3,
+                                     latency[latency.length * 99 / 100] / 1e3));
+
+    // the echo threads are still waiting for calls
+    System.exit(0);
+  }
+
+  private static void readFully(InputStream is, byte []buffer)
+    throws IOException
+  {
+    int offset = 0;
+    
+    while (offset < buffer.length) {
+      int sublen = is.read(buffer, offset, buffer.length - offset);
+
+      if (sublen < 0)
+        throw new EOFException();
+
+      offset += sublen;
+    }
+  }
+
+  static class Echo extends Thread {
+    private final MuxServer _server;
+    private final int _channel;
+    private final int _size;
+
+    Echo(MuxServer server, int channel, int size)
+    {
+      _server = server;
+      _channel = channel;
+      _size = size;
+    }
+
+    public void run()
+    {
+      try {
+        MuxInputStream in = new MuxInputStream();
+        MuxOutputStream out = new MuxOutputStream();
+        _server.startCall(_channel, in, out);
+
+        byte []buffer = new byte[_size];
+
+        while (true) {
+          readFully(in, buffer);
+          out.write(buffer, 0, buffer.length);
+          out.flush();
+        }
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  static class Caller extends Thread {
+    private final MuxServer _client;
+    private final int _channel;
+    private final int _size;
+    private final long _sleep;
+    private final long _endTime;
+    private final AtomicLong _count;
+
+    private volatile long []_latency;
+
+    Caller(MuxServer client, int channel, int size, long sleep,
+           long endTime, AtomicLong count)
+    {
+      _client = client;
+      _channel = channel;
+      _size = size;
+      _sleep = sleep;
+      _endTime = endTime;
+      _count = count;
+    }
+
+    long []getLatency()
+    {
+      return _latency;
+    }
+
+    public void run()
+    {
+      try {
+        MuxInputStream in = new MuxInputStream();
+        MuxOutputStream out = new MuxOutputStream();
+        _client.startCall(_channel, in, out);
+
+        byte []buffer = new byte[_size];
+        long []latency = new long[1024];
+        int n = 0;
+
+        while (System.nanoTime() < _endTime) {
+          long start = System.nanoTime();
+
+          out.write(buffer, 0, buffer.length);
+          out.flush();
+
+          if (_sleep > 0)
+            Thread.sleep(_sleep);
+
+          readFully(in, buffer);
+
+          if (_sleep > 0)
+            continue;
+
+          if (n == latency.length)
+            latency = Arrays.copyOf(latency, 2 * n);
+          
+          latency[n++] = System.nanoTime() - start;
+          _count.incrementAndGet();
+        }
+
+        _latency = Arrays.copyOf(latency, n);
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    }
+  }
+}
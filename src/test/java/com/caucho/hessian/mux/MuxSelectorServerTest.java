@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.mux;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Loopback soak test of the selector mux server.
+ */
+public class MuxSelectorServerTest extends TestCase {
+  private static final int CONNECTIONS = 200;
+  private static final int CLIENT_THREADS = 8;
+  private static final int CALLS = 20;
+  
+  private ExecutorService _workers;
+  private MuxSelectorServer _server;
+
+  protected void setUp()
+    throws Exception
+  {
+    _workers = Executors.newFixedThreadPool(8);
+    
+    _server = new MuxSelectorServer(new EchoHandler(), _workers);
+    _server.bind(new InetSocketAddress("127.0.0.1", 0));
+    _server.start();
+  }
+
+  protected void tearDown()
+    throws Exception
+  {
+    _server.close();
+    _workers.shutdownNow();
+  }
+  
+  public void testSoak()
+    throws Exception
+  {
+    while (_server.getLocalPort() <= 0)
+      Thread.sleep(10);
+
+    final List<MuxServer> clients = new ArrayList<MuxServer>();
+
+    for (int i = 0; i < CONNECTIONS; i++) {
+      Socket socket = new Socket("127.0.0.1", _server.getLocalPort());
+      socket.setTcpNoDelay(true);
+
+      clients.add(new MuxServer(socket.getInputStream(),
+                                socket.getOutputStream(),
+                                true));
+    }
+
+    final AtomicReference<Throwable> failure
+      = new AtomicReference<Throwable>();
+    
+    Thread []threads = new Thread[CLIENT_THREADS];
+
+    for (int i = 0; i < threads.length; i++) {
+      final int id = i;
+      
+      threads[i] = new Thread() {
+          public void run()
+          {
+            Random random = new Random(id);
+
+            try {
+              for (int j = 0; j < CALLS; j++) {
+                for (int k = id; k < clients.size(); k += CLIENT_THREADS) {
+                  // a quarter of the calls overflow the channel queue
+                  int size = (random.nextInt(4) == 0
+                              ? 70000 + random.nextInt(30000)
+                              : random.nextInt(2000));
+                  
+                  byte []data = new byte[size];
+                  random.nextBytes(data);
+
+                  assertTrue(Arrays.equals(data, call(clients.get(k), data)));
+                }
+              }
+            } catch (Throwable e) {
+              failure.compareAndSet(null, e);
+            }
+          }
+        };
+      
+      threads[i].start();
+    }
+
+    for (int i = 0; i < threads.length; i++)
+      threads[i].join();
+
+    if (failure.get() != null)
+      throw new AssertionError(failure.get());
+
+    assertEquals(CONNECTIONS, _server.getConnectionCount());
+
+    for (MuxServer client : clients)
+      client.close();
+
+    for (int i = 0; i < 500 && _server.getConnectionCount() > 0; i++)
+      Thread.sleep(10);
+
+    assertEquals(0, _server.getConnectionCount());
+  }
+
+  private static byte []call(MuxServer client, byte []data)
+    throws IOException
+  {
+    MuxInputStream in = new MuxInputStream();
+    MuxOutputStream out = new MuxOutputStream();
+
+    client.startCall(in, out);
+
+    out.write(data, 0, data.length);
+    out.close();
+
+    return readAll(in);
+  }
+
+  private static byte []readAll(MuxInputStream in)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    byte []buffer = new byte[4096];
+    int len;
+
+    while ((len = in.read(buffer, 0, buffer.length)) >= 0)
+      bos.write(buffer, 0, len);
+
+    in.close();
+
+    return bos.toByteArray();
+  }
+
+  static class EchoHandler implements MuxHandler {
+    public void service(MuxInputStream in, MuxOutputStream out)
+      throws IOException
+    {
+      byte []data = readAll(in);
+
+      out.write(data, 0, data.length);
+    }
+  }
+}
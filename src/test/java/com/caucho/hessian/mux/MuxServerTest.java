@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.mux;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the MuxServer reader thread over a pipe, with the peer's frames
+ * written directly.
+ */
+public class MuxServerTest extends TestCase {
+  // the per-channel queue limit in MuxServer
+  private static final int CHANNEL_QUEUE_SIZE = 256 * 1024;
+  
+  private static final long TIMEOUT = 10000L;
+  
+  private PipedOutputStream _peerOut;
+  private MuxServer _server;
+
+  protected void setUp()
+    throws Exception
+  {
+    // the pipe holds every frame a test writes, so the test thread
+    // never waits on the reader
+    _peerOut = new PipedOutputStream();
+    PipedInputStream is = new PipedInputStream(_peerOut, 1024 * 1024);
+
+    _server = new MuxServer(is, new ByteArrayOutputStream(), true);
+  }
+
+  protected void tearDown()
+    throws Exception
+  {
+    _server.close();
+  }
+
+  /**
+   * A channel nobody reads doesn't hold up the other channels.
+   */
+  public void testParallelChannels()
+    throws Exception
+  {
+    byte []data2 = newData(10000, 2);
+    byte []data4 = newData(10000, 4);
+
+    ByteArrayOutputStream frames = new ByteArrayOutputStream();
+    writeData(frames, 4, data4, 0, 5000);
+    writeData(frames, 2, data2, 0, 5000);
+    writeData(frames, 4, data4, 5000, 5000);
+    writeData(frames, 2, data2, 5000, 5000);
+    writeEnd(frames, 2);
+    writeEnd(frames, 4);
+    send(frames);
+
+    assertTrue(Arrays.equals(data2, readCall(2)));
+
+    // the stalled channel kept its data
+    assertTrue(Arrays.equals(data4, readCall(4)));
+  }
+
+  /**
+   * A single channel's reader parses the input itself, and a second
+   * channel hands the parsing to a reader thread.
+   */
+  public void testInlineRead()
+    throws Exception
+  {
+    byte []data2 = newData(100000, 2);
+    byte []data4 = newData(100, 4);
+
+    ByteArrayOutputStream frames = new ByteArrayOutputStream();
+    writeData(frames, 2, data2, 0, data2.length);
+    writeEnd(frames, 2);
+    send(frames);
+
+    assertTrue(Arrays.equals(data2, readCall(2)));
+    assertNull(getField("readerThread"));
+
+    frames = new ByteArrayOutputStream();
+    writeData(frames, 2, data2, 0, 50000);
+    writeData(frames, 4, data4, 0, data4.length);
+    writeEnd(frames, 4);
+    writeData(frames, 2, data2, 50000, 50000);
+    writeEnd(frames, 2);
+    send(frames);
+
+    assertTrue(Arrays.equals(data2, readCall(2)));
+    assertNotNull(getField("readerThread"));
+    assertTrue(Arrays.equals(data4, readCall(4)));
+  }
+
+  /**
+   * A connection has at most MAX_CHANNELS channel ids.
+   */
+  public void testChannelLimit()
+    throws Exception
+  {
+    for (int i = 0; i < MuxServer.MAX_CHANNELS; i++)
+      assertNotNull(_server.getChannel(i));
+
+    assertNull(_server.getChannel(MuxServer.MAX_CHANNELS));
+
+    try {
+      readCall(MuxServer.MAX_CHANNELS);
+      fail();
+    } catch (IOException e) {
+    }
+
+    // a peer using a new id closes the connection
+    ByteArrayOutputStream frames = new ByteArrayOutputStream();
+    writeEnd(frames, 0);
+    writeEnd(frames, 1000);
+    send(frames);
+
+    assertEquals(0, readCall(0).length);
+
+    long expire = System.currentTimeMillis() + TIMEOUT;
+    while (! Boolean.TRUE.equals(getField("isClosed"))
+           && System.currentTimeMillis() < expire) {
+      Thread.sleep(10);
+    }
+
+    assertEquals(Boolean.TRUE, getField("isClosed"));
+    assertEquals(0, readCall(1).length);
+  }
+
+  /**
+   * A stalled channel holds at most the queue limit, and the reader
+   * waits until it's drained.
+   */
+  public void testBackPressure()
+    throws Exception
+  {
+    byte []data2 = newData(100, 2);
+    byte []data4 = newData(CHANNEL_QUEUE_SIZE + 50000, 4);
+
+    ByteArrayOutputStream frames = new ByteArrayOutputStream();
+    writeData(frames, 4, data4, 0, data4.length);
+    writeEnd(frames, 4);
+    writeData(frames, 2, data2, 0, data2.length);
+    writeEnd(frames, 2);
+    send(frames);
+
+    CallReader reader2 = new CallReader(2);
+    reader2.start();
+
+    MuxChannel channel4 = _server.getChannel(4);
+    long expire = System.currentTimeMillis() + TIMEOUT;
+
+    while (channel4.available() < CHANNEL_QUEUE_SIZE
+           && System.currentTimeMillis() < expire) {
+      Thread.sleep(10);
+    }
+
+    Thread.sleep(100);
+
+    assertEquals(CHANNEL_QUEUE_SIZE, channel4.available());
+    assertEquals(0, _server.getChannel(2).available());
+    assertTrue(reader2.isAlive());
+
+    assertTrue(Arrays.equals(data4, readCall(4)));
+
+    reader2.join(TIMEOUT);
+    assertTrue(Arrays.equals(data2, reader2.getData()));
+  }
+
+  /**
+   * An 'E' frame ends the channel's current call.
+   */
+  public void testErrorEndsCall()
+    throws Exception
+  {
+    byte []data = newData(100, 2);
+
+    ByteArrayOutputStream frames = new ByteArrayOutputStream();
+    writeData(frames, 2, data, 0, data.length);
+    frames.write('E');
+    frames.write(0);
+    frames.write(2);
+    frames.write(0);
+    frames.write(1);
+    send(frames);
+
+    assertTrue(Arrays.equals(data, readCall(2)));
+  }
+
+  /**
+   * close() wakes the threads waiting for a channel's data.
+   */
+  public void testCloseWakesReaders()
+    throws Exception
+  {
+    CallReader reader2 = new CallReader(2);
+    CallReader reader4 = new CallReader(4);
+    
+    reader2.start();
+    reader4.start();
+
+    Thread.sleep(100);
+
+    assertTrue(reader2.isAlive());
+    assertTrue(reader4.isAlive());
+
+    _server.close();
+
+    reader2.join(TIMEOUT);
+    reader4.join(TIMEOUT);
+
+    assertFalse(reader2.isAlive());
+    assertFalse(reader4.isAlive());
+    assertEquals(0, reader2.getData().length);
+    assertEquals(0, reader4.getData().length);
+    
+    assertFalse(_server.readRequest(new MuxInputStream(),
+                                    new MuxOutputStream()));
+  }
+
+  private Object getField(String name)
+    throws Exception
+  {
+    Field field = MuxServer.class.getDeclaredField(name);
+    field.setAccessible(true);
+
+    return field.get(_server);
+  }
+
+  private void send(ByteArrayOutputStream frames)
+    throws IOException
+  {
+    _peerOut.write(frames.toByteArray());
+    _peerOut.flush();
+  }
+
+  private byte []readCall(int channel)
+    throws IOException
+  {
+    MuxInputStream in = new MuxInputStream();
+    _server.startCall(channel, in, new MuxOutputStream());
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    byte []buffer = new byte[4096];
+    int len;
+
+    while ((len = in.read(buffer, 0, buffer.length)) > 0)
+      bos.write(buffer, 0, len);
+
+    return bos.toByteArray();
+  }
+
+  private static byte []newData(int length, int seed)
+  {
+    byte []data = new byte[length];
+
+    for (int i = 0; i < length; i++)
+      data[i] = (byte) (i * seed + i / 251);
+
+    return data;
+  }
+
+  /**
+   * Writes data frames for the channel, ending with a yield.
+   */
+  private static void writeData(ByteArrayOutputStream os, int channel,
+                                byte []data, int offset, int length)
+  {
+    os.write('C');
+    os.write(channel >> 8);
+    os.write(channel);
+
+    while (length > 0) {
+      int sublen = Math.min(length, 0x8000);
+      
+      os.write('D');
+      os.write(sublen >> 8);
+      os.write(sublen);
+      os.write(data, offset, sublen);
+
+      offset += sublen;
+      length -= sublen;
+    }
+
+    os.write('Y');
+  }
+
+  /**
+   * Writes the end of the channel's call.
+   */
+  private static void writeEnd(ByteArrayOutputStream os, int channel)
+  {
+    os.write('C');
+    os.write(channel >> 8);
+    os.write(channel);
+    os.write('Q');
+  }
+
+  class CallReader extends Thread {
+    private final int _channel;
+    private volatile byte []_data;
+
+    CallReader(int channel)
+    {
+      _channel = channel;
+      setDaemon(true);
+    }
+
+    byte []getData()
+    {
+      return _data;
+    }
+
+    public void run()
+    {
+      try {
+        _data = readCall(_channel);
+      } catch (IOException e) {
+        _data = null;
+      }
+    }
+  }
+}
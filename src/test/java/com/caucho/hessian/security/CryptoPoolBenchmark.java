@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.security;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Benchmark of the per-message symmetric work of a session-key envelope,
+ * where the wrapped key is cached and no RSA operation is needed,
+ * comparing getInstance() per message with the CryptoPool instances.
+ *
+ * <pre>
+ * java com.caucho.hessian.security.CryptoPoolBenchmark [size] [ms]
+ * </pre>
+ */
+public class CryptoPoolBenchmark {
+  private static final String CIPHER = "AES/CBC/PKCS5Padding";
+  private static final String MAC = "HmacSHA256";
+
+  public static void main(String []args)
+    throws Exception
+  {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+    long time = args.length > 1 ? Long.parseLong(args[1]) : 2000L;
+
+    byte []data = new byte[size];
+    SecretKeySpec aesKey = new SecretKeySpec(new byte[16], "AES");
+    SecretKeySpec macKey = new SecretKeySpec(new byte[32], MAC);
+
+    // warm up
+    run(false, data, aesKey, macKey, time);
+    run(true, data, aesKey, macKey, time);
+
+    System.out.println(size + " byte messages, nanoseconds per message");
+    System.out.println(String.format("getInstance %.0f",
+                                     run(false, data, aesKey, macKey, time)));
+    System.out.println(String.format("pooled %.0f",
+                                     run(true, data, aesKey, macKey, time)));
+  }
+
+  private static double run(boolean isPooled, byte []data,
+                            SecretKeySpec aesKey, SecretKeySpec macKey,
+                            long time)
+    throws Exception
+  {
+    long start = System.nanoTime();
+    long end = start + time * 1000000L;
+    long count = 0;
+    int sink = 0;
+
+    while (System.nanoTime() < end) {
+      Cipher cipher;
+      Mac mac;
+
+      if (isPooled) {
+        cipher = CryptoPool.allocateCipher(CIPHER);
+        mac = CryptoPool.allocateMac(MAC);
+      }
+      else {
+        cipher = Cipher.getInstance(CIPHER);
+        mac = Mac.getInstance(MAC);
+      }
+
+      cipher.init(Cipher.ENCRYPT_MODE, aesKey);
+      mac.init(macKey);
+
+      byte []enc = cipher.doFinal(data);
+      byte []sig = mac.doFinal(enc);
+      sink += sig[0];
+
+      if (isPooled) {
+        CryptoPool.freeCipher(cipher);
+        CryptoPool.freeMac(mac);
+      }
+
+      count++;
+    }
+
+    if (sink == 1)
+      System.out.print("");
+
+    return (System.nanoTime() - start) / (double) count;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.security;
+
+import java.security.KeyPairGenerator;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.TestCase;
+
+public class CryptoPoolTest extends TestCase {
+  public void testMacReuse()
+    throws Exception
+  {
+    SecretKeySpec key1 = newKey(1, "HmacSHA256");
+    SecretKeySpec key2 = newKey(2, "HmacSHA256");
+    byte []data = "message".getBytes("UTF-8");
+
+    Mac mac = CryptoPool.allocateMac("HmacSHA256");
+    mac.init(key1);
+    byte []sig1 = mac.doFinal(data);
+    CryptoPool.freeMac(mac);
+
+    // the idle instance no longer signs with the caller's key
+    Mac idle = CryptoPool.allocateMac("HmacSHA256");
+    assertSame(mac, idle);
+    assertFalse(Arrays.equals(sig1, idle.doFinal(data)));
+
+    idle.init(key2);
+    assertTrue(Arrays.equals(newMac(key2).doFinal(data), idle.doFinal(data)));
+    CryptoPool.freeMac(idle);
+  }
+
+  public void testCipherReuse()
+    throws Exception
+  {
+    String algorithm = "AES/CBC/PKCS5Padding";
+    SecretKeySpec key1 = newKey(1, "AES");
+    SecretKeySpec key2 = newKey(2, "AES");
+    byte []data = "message".getBytes("UTF-8");
+
+    Cipher cipher = CryptoPool.allocateCipher(algorithm);
+    cipher.init(Cipher.ENCRYPT_MODE, key1);
+    byte []iv = cipher.getIV();
+    byte []enc = cipher.doFinal(data);
+    CryptoPool.freeCipher(cipher);
+
+    Cipher idle = CryptoPool.allocateCipher(algorithm);
+    assertSame(cipher, idle);
+
+    idle.init(Cipher.DECRYPT_MODE, key1, new IvParameterSpec(iv));
+    assertTrue(Arrays.equals(data, idle.doFinal(enc)));
+    CryptoPool.freeCipher(idle);
+
+    idle = CryptoPool.allocateCipher(algorithm);
+    idle.init(Cipher.ENCRYPT_MODE, key2);
+    iv = idle.getIV();
+    enc = idle.doFinal(data);
+    CryptoPool.freeCipher(idle);
+
+    Cipher check = Cipher.getInstance(algorithm);
+    check.init(Cipher.DECRYPT_MODE, key2, new IvParameterSpec(iv));
+    assertTrue(Arrays.equals(data, check.doFinal(enc)));
+  }
+
+  /**
+   * A public key cipher can't be re-keyed with the pool's secret key,
+   * so it isn't kept.
+   */
+  public void testPublicKeyCipher()
+    throws Exception
+  {
+    KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+    keyGen.initialize(1024);
+    
+    Cipher cipher = CryptoPool.allocateCipher("RSA");
+    cipher.init(Cipher.ENCRYPT_MODE, keyGen.generateKeyPair().getPublic());
+    CryptoPool.freeCipher(cipher);
+
+    assertNotSame(cipher, CryptoPool.allocateCipher("RSA"));
+  }
+
+  private static SecretKeySpec newKey(int seed, String algorithm)
+  {
+    byte []data = new byte[16];
+    Arrays.fill(data, (byte) seed);
+
+    return new SecretKeySpec(data, algorithm);
+  }
+
+  private static Mac newMac(SecretKeySpec key)
+    throws Exception
+  {
+    Mac mac = Mac.getInstance(key.getAlgorithm());
+    mac.init(key);
+
+    return mac;
+  }
+}
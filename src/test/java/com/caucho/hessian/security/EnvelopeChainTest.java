@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.security;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.caucho.hessian.io.Deflation;
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.HessianEnvelope;
+
+/**
+ * Tests EnvelopeChain against the envelopes it replaces.
+ */
+public class EnvelopeChainTest extends TestCase {
+  public void testDeflation()
+    throws Exception
+  {
+    List value = newValue(1000);
+
+    EnvelopeChain chain = new EnvelopeChain();
+    chain.setDeflation(new Deflation());
+
+    // the same bytes as the Deflation envelope
+    byte []expect = write(new Deflation(), value);
+    byte []data = write(chain, value);
+    assertTrue(Arrays.equals(expect, data));
+
+    assertEquals(value, read(chain, data));
+    assertEquals(value, read(new Deflation(), data));
+  }
+
+  public void testFullChain()
+    throws Exception
+  {
+    checkChain(true, true, true);
+  }
+
+  public void testSignature()
+    throws Exception
+  {
+    checkChain(false, true, false);
+    checkChain(true, true, false);
+  }
+
+  public void testEncryption()
+    throws Exception
+  {
+    checkChain(false, false, true);
+    checkChain(true, false, true);
+    checkChain(false, true, true);
+  }
+
+  private void checkChain(boolean isDeflate,
+			  boolean isSign,
+			  boolean isEncrypt)
+    throws Exception
+  {
+    EnvelopeChain chain = new EnvelopeChain();
+    
+    if (isDeflate)
+      chain.setDeflation(new Deflation());
+    if (isSign)
+      chain.setSignature(TestCredential.newSignature());
+    if (isEncrypt)
+      chain.setEncryption(TestCredential.newEncryption());
+
+    // a small message and one spanning several segments
+    int []sizes = new int[] { 1, 10000 };
+
+    for (int i = 0; i < sizes.length; i++) {
+      List value = newValue(sizes[i]);
+      byte []data = write(chain, value);
+
+      assertEquals(value, read(chain, data));
+
+      // the chain is readable through the separate envelopes
+      Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(data));
+      
+      if (isEncrypt)
+	in = TestCredential.newEncryption().unwrap(in);
+      if (isSign)
+	in = TestCredential.newSignature().unwrap(in);
+      if (isDeflate)
+	in = new Deflation().unwrap(in);
+
+      assertEquals(value, in.readObject());
+      in.close();
+    }
+  }
+
+  private static List newValue(int size)
+  {
+    List value = new ArrayList();
+    
+    for (int i = 0; i < size; i++)
+      value.add("value-" + i);
+
+    return value;
+  }
+
+  private static byte []write(HessianEnvelope envelope, Object value)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = envelope.wrap(new Hessian2Output(bos));
+    out.writeObject(value);
+    out.close();
+
+    return bos.toByteArray();
+  }
+
+  private static Object read(HessianEnvelope envelope, byte []data)
+    throws IOException
+  {
+    Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(data));
+    in = envelope.unwrap(in);
+
+    Object value = in.readObject();
+    in.close();
+
+    return value;
+  }
+}
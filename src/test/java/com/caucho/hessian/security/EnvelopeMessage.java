@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.security;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+
+/**
+ * An envelope message taken apart into its headers, body and trailers,
+ * so tests can inspect and rewrite what's on the wire.
+ */
+final class EnvelopeMessage {
+  private String _method;
+  private final LinkedHashMap<String,Object> _headers
+    = new LinkedHashMap<String,Object>();
+  private byte []_body;
+  private final LinkedHashMap<String,Object> _trailers
+    = new LinkedHashMap<String,Object>();
+
+  private EnvelopeMessage()
+  {
+  }
+
+  static EnvelopeMessage parse(byte []data)
+    throws IOException
+  {
+    EnvelopeMessage msg = new EnvelopeMessage();
+    
+    Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(data));
+
+    in.readEnvelope();
+    msg._method = in.readMethod();
+
+    readFields(in, msg._headers);
+
+    msg._body = in.readBytes();
+
+    readFields(in, msg._trailers);
+
+    in.completeEnvelope();
+    in.close();
+
+    return msg;
+  }
+
+  Map<String,Object> getHeaders()
+  {
+    return _headers;
+  }
+
+  Object getHeader(String name)
+  {
+    return _headers.get(name);
+  }
+
+  void setHeader(String name, Object value)
+  {
+    _headers.put(name, value);
+  }
+
+  byte []getBody()
+  {
+    return _body;
+  }
+
+  byte []toBytes()
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+
+    out.startEnvelope(_method);
+
+    writeFields(out, _headers);
+
+    // the envelopes read the body with readInputStream()
+    OutputStream bodyOut = out.getBytesOutputStream();
+    bodyOut.write(_body);
+    bodyOut.close();
+
+    writeFields(out, _trailers);
+
+    out.completeEnvelope();
+    out.close();
+
+    return bos.toByteArray();
+  }
+
+  private static void readFields(Hessian2Input in, Map<String,Object> fields)
+    throws IOException
+  {
+    int len = in.readInt();
+
+    for (int i = 0; i < len; i++) {
+      String name = in.readString();
+
+      fields.put(name, in.readObject());
+    }
+  }
+
+  private static void writeFields(Hessian2Output out,
+                                  Map<String,Object> fields)
+    throws IOException
+  {
+    out.writeInt(fields.size());
+
+    Iterator<Map.Entry<String,Object>> iter = fields.entrySet().iterator();
+
+    while (iter.hasNext()) {
+      Map.Entry<String,Object> entry = iter.next();
+      
+      out.writeString(entry.getKey());
+      out.writeObject(entry.getValue());
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.security;
+
+import java.security.Key;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.TestCase;
+
+public class SessionKeyCacheTest extends TestCase {
+  private static final long TIMEOUT = 1000L;
+  
+  public void testHit()
+  {
+    SessionKeyCache cache = new SessionKeyCache();
+    Key key = newKey(1);
+
+    cache.put(17, new byte[] { 1, 2, 3 }, key, 0);
+
+    assertSame(key, cache.get(17, new byte[] { 1, 2, 3 }, "AES", 10, TIMEOUT));
+    assertSame(key, cache.get(17, new byte[] { 1, 2, 3 }, "AES", 20, TIMEOUT));
+    
+    assertNull(cache.get(18, new byte[] { 1, 2, 3 }, "AES", 20, TIMEOUT));
+  }
+
+  public void testWrappedKeyMismatch()
+  {
+    SessionKeyCache cache = new SessionKeyCache();
+    Key key = newKey(1);
+
+    cache.put(17, new byte[] { 1, 2, 3 }, key, 0);
+
+    assertNull(cache.get(17, new byte[] { 1, 2, 4 }, "AES", 10, TIMEOUT));
+
+    // the mismatch drops the entry
+    assertNull(cache.get(17, new byte[] { 1, 2, 3 }, "AES", 10, TIMEOUT));
+  }
+
+  public void testAlgorithmMismatch()
+  {
+    SessionKeyCache cache = new SessionKeyCache();
+
+    cache.put(17, new byte[] { 1, 2, 3 }, newKey(1), 0);
+
+    assertNull(cache.get(17, new byte[] { 1, 2, 3 }, "DES", 10, TIMEOUT));
+  }
+
+  public void testTimeout()
+  {
+    SessionKeyCache cache = new SessionKeyCache();
+    Key key = newKey(1);
+
+    cache.put(17, new byte[] { 1, 2, 3 }, key, 0);
+
+    assertSame(key, cache.get(17, new byte[] { 1, 2, 3 }, "AES",
+			      TIMEOUT - 1, TIMEOUT));
+    assertNull(cache.get(17, new byte[] { 1, 2, 3 }, "AES",
+			 TIMEOUT, TIMEOUT));
+  }
+
+  public void testEviction()
+  {
+    SessionKeyCache cache = new SessionKeyCache();
+
+    for (int i = 0; i < 1000; i++)
+      cache.put(i, new byte[] { (byte) i }, newKey(i), 0);
+
+    assertNull(cache.get(0, new byte[] { 0 }, "AES", 0, TIMEOUT));
+    assertNotNull(cache.get(999, new byte[] { (byte) 999 }, "AES",
+			    0, TIMEOUT));
+  }
+
+  public void testClear()
+  {
+    SessionKeyCache cache = new SessionKeyCache();
+
+    cache.put(17, new byte[] { 1, 2, 3 }, newKey(1), 0);
+    cache.clear();
+
+    assertNull(cache.get(17, new byte[] { 1, 2, 3 }, "AES", 0, TIMEOUT));
+  }
+
+  private static Key newKey(int seed)
+  {
+    byte []bytes = new byte[16];
+    bytes[0] = (byte) seed;
+    bytes[1] = (byte) (seed >> 8);
+
+    return new SecretKeySpec(bytes, "AES");
+  }
+}
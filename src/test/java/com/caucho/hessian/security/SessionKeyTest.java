@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.security;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.HessianEnvelope;
+
+/**
+ * Tests the session key mode of X509Signature and X509Encryption.
+ */
+public class SessionKeyTest extends TestCase {
+  private static final String []PER_MESSAGE_HEADERS = new String[] {
+    "algorithm", "fingerprint", "key-algorithm", "key",
+  };
+  
+  /**
+   * Readers from before session mode reject unknown headers, so the
+   * default mode must not send "key-id".
+   */
+  public void testPerMessageHeaders()
+    throws Exception
+  {
+    HessianEnvelope []envelopes = new HessianEnvelope[] {
+      TestCredential.newSignature(),
+      TestCredential.newEncryption(),
+    };
+
+    for (int i = 0; i < envelopes.length; i++) {
+      EnvelopeMessage msg1 = EnvelopeMessage.parse(write(envelopes[i], "a"));
+      EnvelopeMessage msg2 = EnvelopeMessage.parse(write(envelopes[i], "a"));
+
+      Set<String> expect
+	= new HashSet<String>(Arrays.asList(PER_MESSAGE_HEADERS));
+      
+      assertEquals(expect, msg1.getHeaders().keySet());
+      assertFalse(Arrays.equals((byte []) msg1.getHeader("key"),
+				(byte []) msg2.getHeader("key")));
+    }
+  }
+
+  public void testUnexpectedHeader()
+    throws Exception
+  {
+    HessianEnvelope []envelopes = new HessianEnvelope[] {
+      TestCredential.newSignature(),
+      TestCredential.newEncryption(),
+    };
+
+    for (int i = 0; i < envelopes.length; i++) {
+      EnvelopeMessage msg = EnvelopeMessage.parse(write(envelopes[i], "a"));
+      msg.setHeader("key-version", Long.valueOf(1));
+
+      try {
+	read(envelopes[i], msg.toBytes());
+	fail();
+      } catch (IOException e) {
+	assertTrue(e.getMessage(), e.getMessage().contains("key-version"));
+      }
+    }
+  }
+
+  public void testRotationByCount()
+    throws Exception
+  {
+    X509Signature signature = TestCredential.newSignature();
+    signature.setSessionMaxMessages(3);
+    checkRotationByCount(signature);
+    
+    X509Encryption encryption = TestCredential.newEncryption();
+    encryption.setSessionMaxMessages(3);
+    checkRotationByCount(encryption);
+  }
+
+  private void checkRotationByCount(HessianEnvelope envelope)
+    throws Exception
+  {
+    Object []ids = new Object[7];
+
+    for (int i = 0; i < ids.length; i++) {
+      byte []data = write(envelope, "value-" + i);
+      EnvelopeMessage msg = EnvelopeMessage.parse(data);
+
+      ids[i] = msg.getHeader("key-id");
+      assertNotNull(ids[i]);
+
+      assertEquals("value-" + i, read(envelope, data));
+    }
+
+    assertEquals(ids[0], ids[1]);
+    assertEquals(ids[0], ids[2]);
+    assertFalse(ids[2].equals(ids[3]));
+    assertEquals(ids[3], ids[4]);
+    assertEquals(ids[3], ids[5]);
+    assertFalse(ids[5].equals(ids[6]));
+    assertFalse(ids[0].equals(ids[6]));
+  }
+
+  public void testRotationByTimeout()
+    throws Exception
+  {
+    X509Signature signature = TestCredential.newSignature();
+    signature.setSessionMaxMessages(1000);
+    checkRotationByTimeout(signature);
+    
+    X509Encryption encryption = TestCredential.newEncryption();
+    encryption.setSessionMaxMessages(1000);
+    checkRotationByTimeout(encryption);
+  }
+
+  private void checkRotationByTimeout(HessianEnvelope envelope)
+    throws Exception
+  {
+    setSessionTimeout(envelope, 60000L);
+    
+    Object id1 = getKeyId(write(envelope, "a"));
+    Object id2 = getKeyId(write(envelope, "b"));
+
+    assertEquals(id1, id2);
+
+    // changing the timeout starts a new session
+    setSessionTimeout(envelope, 100L);
+    
+    Object id3 = getKeyId(write(envelope, "c"));
+    assertFalse(id2.equals(id3));
+
+    Thread.sleep(200);
+
+    Object id4 = getKeyId(write(envelope, "d"));
+    assertFalse(id3.equals(id4));
+  }
+
+  /**
+   * A key id only selects a cached key if the message carries the same
+   * wrapped key.
+   */
+  public void testReaderKeyId()
+    throws Exception
+  {
+    X509Signature signature = TestCredential.newSignature();
+    signature.setSessionMaxMessages(100);
+    checkReaderKeyId(signature, TestCredential.newSignature());
+    
+    X509Encryption encryption = TestCredential.newEncryption();
+    encryption.setSessionMaxMessages(100);
+    checkReaderKeyId(encryption, TestCredential.newEncryption());
+  }
+
+  private void checkReaderKeyId(HessianEnvelope writer,
+				HessianEnvelope reader)
+    throws Exception
+  {
+    byte []data1 = write(writer, "a");
+    Object id = getKeyId(data1);
+    
+    assertEquals("a", read(reader, data1));
+
+    // same session, served from the reader's cache
+    byte []data2 = write(writer, "b");
+    assertEquals(id, getKeyId(data2));
+    assertEquals("b", read(reader, data2));
+
+    // a new session whose id claims the cached key
+    setSessionTimeout(writer, 60000L);
+    
+    EnvelopeMessage msg = EnvelopeMessage.parse(write(writer, "c"));
+    assertFalse(id.equals(msg.getHeader("key-id")));
+    msg.setHeader("key-id", id);
+
+    assertEquals("c", read(reader, msg.toBytes()));
+
+    // the mismatched message evicted the entry
+    assertEquals("b", read(reader, data2));
+  }
+
+  public void testCbc()
+    throws Exception
+  {
+    X509Encryption encryption = TestCredential.newEncryption();
+    encryption.setAlgorithm("AES/CBC/PKCS5Padding");
+    checkCbc(encryption, null);
+    
+    encryption.setSessionMaxMessages(100);
+    checkCbc(encryption, getKeyId(write(encryption, "x")));
+  }
+
+  public void testSessionDefaultAlgorithm()
+    throws Exception
+  {
+    X509Encryption encryption = TestCredential.newEncryption();
+    assertEquals("AES", encryption.getAlgorithm());
+    
+    encryption.setSessionMaxMessages(100);
+    assertEquals("AES/CBC/PKCS5Padding", encryption.getAlgorithm());
+    checkCbc(encryption, getKeyId(write(encryption, "x")));
+  }
+
+  /**
+   * Session mode rejects a set algorithm without an IV.
+   */
+  public void testSessionEcb()
+    throws Exception
+  {
+    String []algorithms = new String[] { "AES", "AES/ECB/PKCS5Padding" };
+
+    for (int i = 0; i < algorithms.length; i++) {
+      X509Encryption encryption = TestCredential.newEncryption();
+      encryption.setAlgorithm(algorithms[i]);
+      assertEquals("a", read(encryption, write(encryption, "a")));
+
+      encryption.setSessionMaxMessages(100);
+
+      try {
+	write(encryption, "a");
+	fail();
+      } catch (IllegalStateException e) {
+	assertTrue(e.getMessage(), e.getMessage().startsWith(algorithms[i]));
+      }
+    }
+  }
+
+  private void checkCbc(X509Encryption encryption, Object keyId)
+    throws Exception
+  {
+    byte []data1 = write(encryption, "value");
+    byte []data2 = write(encryption, "value");
+
+    EnvelopeMessage msg1 = EnvelopeMessage.parse(data1);
+    EnvelopeMessage msg2 = EnvelopeMessage.parse(data2);
+
+    assertEquals("AES/CBC/PKCS5Padding", msg1.getHeader("algorithm"));
+    assertEquals(keyId, msg1.getHeader("key-id"));
+    assertEquals(keyId, msg2.getHeader("key-id"));
+
+    byte []iv1 = (byte []) msg1.getHeader("iv");
+    byte []iv2 = (byte []) msg2.getHeader("iv");
+    
+    assertNotNull(iv1);
+    assertEquals(16, iv1.length);
+    assertFalse(Arrays.equals(iv1, iv2));
+
+    // the same value under the same key encrypts differently
+    assertFalse(Arrays.equals(msg1.getBody(), msg2.getBody()));
+
+    X509Encryption reader = TestCredential.newEncryption();
+    assertEquals("value", read(reader, data1));
+    assertEquals("value", read(reader, data2));
+
+    // the reader decrypts with the sent iv
+    msg1.setHeader("iv", iv2);
+    assertFalse("value".equals(readQuietly(reader, msg1.toBytes())));
+  }
+
+  private static void setSessionTimeout(HessianEnvelope envelope,
+					long timeout)
+  {
+    if (envelope instanceof X509Signature)
+      ((X509Signature) envelope).setSessionTimeout(timeout);
+    else
+      ((X509Encryption) envelope).setSessionTimeout(timeout);
+  }
+
+  private static Object getKeyId(byte []data)
+    throws IOException
+  {
+    return EnvelopeMessage.parse(data).getHeader("key-id");
+  }
+
+  private static byte []write(HessianEnvelope envelope, Object value)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = envelope.wrap(new Hessian2Output(bos));
+    out.writeObject(value);
+    out.close();
+
+    return bos.toByteArray();
+  }
+
+  private static Object read(HessianEnvelope envelope, byte []data)
+    throws IOException
+  {
+    Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(data));
+    in = envelope.unwrap(in);
+
+    Object value = in.readObject();
+    in.close();
+
+    return value;
+  }
+
+  private static Object readQuietly(HessianEnvelope envelope, byte []data)
+  {
+    try {
+      return read(envelope, data);
+    } catch (Exception e) {
+      return e;
+    }
+  }
+}
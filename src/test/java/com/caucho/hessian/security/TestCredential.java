@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.security;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+/**
+ * The self-signed RSA test credential in <code>test.jks</code>.
+ */
+final class TestCredential {
+  private static final String ALIAS = "test";
+  private static final char []PASSWORD = "changeit".toCharArray();
+  
+  private static PrivateKey _privateKey;
+  private static X509Certificate _cert;
+
+  private TestCredential()
+  {
+  }
+
+  static synchronized PrivateKey getPrivateKey()
+    throws Exception
+  {
+    load();
+
+    return _privateKey;
+  }
+
+  static synchronized X509Certificate getCertificate()
+    throws Exception
+  {
+    load();
+
+    return _cert;
+  }
+
+  private static void load()
+    throws Exception
+  {
+    if (_cert != null)
+      return;
+    
+    InputStream is = TestCredential.class.getResourceAsStream("test.jks");
+
+    try {
+      KeyStore keyStore = KeyStore.getInstance("JKS");
+      keyStore.load(is, PASSWORD);
+
+      _privateKey = (PrivateKey) keyStore.getKey(ALIAS, PASSWORD);
+      _cert = (X509Certificate) keyStore.getCertificate(ALIAS);
+    } finally {
+      is.close();
+    }
+  }
+
+  static X509Signature newSignature()
+    throws Exception
+  {
+    X509Signature signature = new X509Signature();
+    signature.setPrivateKey(getPrivateKey());
+    signature.setCertificate(getCertificate());
+
+    return signature;
+  }
+
+  static X509Encryption newEncryption()
+    throws Exception
+  {
+    X509Encryption encryption = new X509Encryption();
+    encryption.setPrivateKey(getPrivateKey());
+    encryption.setCertificate(getCertificate());
+
+    return encryption;
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the bounded free list.
+ */
+public class HessianFreeListTest extends TestCase {
+  public void testAllocateFree()
+  {
+    HessianFreeList<String> list = new HessianFreeList<String>(2);
+
+    assertNull(list.allocate());
+
+    assertTrue(list.free("a"));
+    assertTrue(list.free("b"));
+    // full, so the object is dropped
+    assertFalse(list.free("c"));
+
+    assertEquals("b", list.allocate());
+    assertEquals("a", list.allocate());
+    assertNull(list.allocate());
+
+    assertTrue(list.free("d"));
+    assertEquals("d", list.allocate());
+    assertNull(list.allocate());
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.caucho.hessian.util;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests StampedIdentityIntMap against IdentityHashMap.
+ */
+public class StampedIdentityIntMapTest extends TestCase {
+  public void testIdentity()
+  {
+    StampedIdentityIntMap map = new StampedIdentityIntMap();
+
+    String a = new String("key");
+    String b = new String("key");
+
+    assertEquals(StampedIdentityIntMap.NULL, map.put(a, 1));
+    assertEquals(StampedIdentityIntMap.NULL, map.put(b, 2));
+    assertEquals(1, map.put(a, 3));
+    
+    assertEquals(3, map.get(a));
+    assertEquals(2, map.get(b));
+    assertEquals(2, map.size());
+    
+    assertEquals(3, map.remove(a));
+    assertEquals(StampedIdentityIntMap.NULL, map.get(a));
+    assertEquals(StampedIdentityIntMap.NULL, map.remove(a));
+    assertEquals(2, map.get(b));
+    assertEquals(1, map.size());
+
+    map.clear();
+    assertEquals(0, map.size());
+    assertEquals(StampedIdentityIntMap.NULL, map.get(b));
+  }
+
+  /**
+   * Random operations on many keys, so probe chains collide, wrap around
+   * the table and cross deleted slots and resizes.
+   */
+  public void testRandom()
+  {
+    Random random = new Random(42);
+    List<Object> keys = new ArrayList<Object>();
+    for (int i = 0; i < 2000; i++)
+      keys.add(new Object());
+
+    StampedIdentityIntMap map = new StampedIdentityIntMap();
+    IdentityHashMap<Object,Integer> expect
+      = new IdentityHashMap<Object,Integer>();
+
+    for (int i = 0; i < 200000; i++) {
+      // a small key range some of the time keeps the table dense
+      int range = i % 20000 < 10000 ? 200 : keys.size();
+      Object key = keys.get(random.nextInt(range));
+      int op = random.nextInt(100);
+
+      if (op < 50) {
+	Integer old = expect.put(key, Integer.valueOf(i));
+	assertEquals(toInt(old), map.put(key, i));
+      }
+      else if (op < 80)
+	assertEquals(toInt(expect.get(key)), map.get(key));
+      else if (op < 99)
+	assertEquals(toInt(expect.remove(key)), map.remove(key));
+      else {
+	expect.clear();
+	map.clear();
+      }
+
+      assertEquals(expect.size(), map.size());
+    }
+  }
+
+  public void testGenerationWrap()
+    throws Exception
+  {
+    StampedIdentityIntMap map = new StampedIdentityIntMap();
+    Object key = new Object();
+    Object other = new Object();
+
+    // stamped with generation 1, which comes back after the wrap
+    map.put(key, 5);
+    
+    setGeneration(map, -1);
+    assertEquals(StampedIdentityIntMap.NULL, map.get(key));
+    map.put(other, 6);
+    assertEquals(6, map.get(other));
+    
+    map.clear();
+    assertEquals(0, map.size());
+    assertEquals(StampedIdentityIntMap.NULL, map.get(key));
+    assertEquals(StampedIdentityIntMap.NULL, map.get(other));
+
+    map.put(key, 7);
+    assertEquals(7, map.get(key));
+    assertEquals(1, map.size());
+    map.clear();
+    assertEquals(StampedIdentityIntMap.NULL, map.get(key));
+  }
+
+  public void testClearDropsKeys()
+    throws Exception
+  {
+    StampedIdentityIntMap map = new StampedIdentityIntMap();
+
+    Object key = new Object();
+    WeakReference<Object> ref = new WeakReference<Object>(key);
+
+    for (int i = 0; i < 1000; i++)
+      map.put(i == 500 ? key : new Object(), i);
+    
+    map.remove(key);
+    map.clear();
+    key = null;
+
+    // the listed slots cover every key written, deleted ones included
+    Field field = StampedIdentityIntMap.class.getDeclaredField("_keys");
+    field.setAccessible(true);
+    Object []keys = (Object []) field.get(map);
+    for (int i = 0; i < keys.length; i++)
+      assertNull(keys[i]);
+
+    for (int i = 0; i < 20 && ref.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+
+    assertNull(ref.get());
+  }
+
+  private static int toInt(Integer value)
+  {
+    return value != null ? value.intValue() : StampedIdentityIntMap.NULL;
+  }
+
+  private static void setGeneration(StampedIdentityIntMap map, int generation)
+    throws Exception
+  {
+    Field field = StampedIdentityIntMap.class.getDeclaredField("_generation");
+    field.setAccessible(true);
+    field.setInt(map, generation);
+  }
+}
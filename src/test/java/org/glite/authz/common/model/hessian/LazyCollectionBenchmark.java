@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.common.model.hessian;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.util.LazySet;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.SerializerFactory;
+
+/**
+ * Single-threaded benchmark of decoding a {@link LazySet} and an {@link Attribute} of 1, 2, 10 and 100 values with
+ * {@link Hessian2Input}, comparing the reflective Hessian deserializers with the {@link ModelSerializerFactory} ones.
+ * Prints the time and, when the JVM supports it, the bytes allocated per read.
+ * 
+ * <pre>
+ * java org.glite.authz.common.model.hessian.LazyCollectionBenchmark [reads] [passes]
+ * </pre>
+ */
+public class LazyCollectionBenchmark {
+
+    /** Number of values in the decoded collections. */
+    private static final int[] SIZES = new int[] { 1, 2, 10, 100 };
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args optional number of reads per measurement and number of measured passes
+     * 
+     * @throws Exception thrown if a value can not be written or read
+     */
+    public static void main(String[] args) throws Exception {
+        int reads = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        SerializerFactory reflectiveFactory = new SerializerFactory();
+        SerializerFactory modelFactory = new SerializerFactory();
+        modelFactory.addFactory(new ModelSerializerFactory());
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocation = null;
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            allocation = (com.sun.management.ThreadMXBean) threads;
+            if (!allocation.isThreadAllocatedMemorySupported()) {
+                allocation = null;
+            } else {
+                allocation.setThreadAllocatedMemoryEnabled(true);
+            }
+        }
+
+        System.out.println(String.format("%-9s %4s  %12s  %10s  %12s  %10s", "value", "size", "reflect ns", "reflect B",
+                "model ns", "model B"));
+
+        for (int i = 0; i < SIZES.length; i++) {
+            int size = SIZES[i];
+            run("LazySet", newSet(size), size, reflectiveFactory, modelFactory, allocation, reads, passes);
+            run("Attribute", newAttribute(size), size, reflectiveFactory, modelFactory, allocation, reads, passes);
+        }
+    }
+
+    /**
+     * Measures one value with both factories and prints a line of results. Each factory gets one warm-up pass and
+     * reports the best of the measured passes.
+     */
+    private static void run(String name, Object value, int size, SerializerFactory reflectiveFactory,
+            SerializerFactory modelFactory, com.sun.management.ThreadMXBean allocation, int reads, int passes)
+            throws IOException {
+        byte[] reflectiveBytes = write(reflectiveFactory, value);
+        byte[] modelBytes = write(modelFactory, value);
+
+        long[] reflective = measure(reflectiveFactory, reflectiveBytes, allocation, reads, passes);
+        long[] model = measure(modelFactory, modelBytes, allocation, reads, passes);
+
+        System.out.println(String.format("%-9s %4d  %12d  %10s  %12d  %10s", name, size, reflective[0],
+                format(reflective[1]), model[0], format(model[1])));
+    }
+
+    /**
+     * Reads the given bytes repeatedly.
+     * 
+     * @return the best nanoseconds per read and the matching bytes allocated per read, or -1 if unknown
+     */
+    private static long[] measure(SerializerFactory factory, byte[] bytes,
+            com.sun.management.ThreadMXBean allocation, int reads, int passes) throws IOException {
+        long threadId = Thread.currentThread().getId();
+        long[] best = new long[] { Long.MAX_VALUE, -1 };
+
+        for (int pass = 0; pass <= passes; pass++) {
+            long allocated = allocation != null ? allocation.getThreadAllocatedBytes(threadId) : 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < reads; i++) {
+                read(factory, bytes);
+            }
+            long time = (System.nanoTime() - start) / reads;
+            allocated = allocation != null ? (allocation.getThreadAllocatedBytes(threadId) - allocated) / reads : -1;
+
+            // the first pass only warms up
+            if (pass > 0 && time < best[0]) {
+                best[0] = time;
+                best[1] = allocated;
+            }
+        }
+
+        return best;
+    }
+
+    private static String format(long bytes) {
+        return bytes < 0 ? "n/a" : Long.toString(bytes);
+    }
+
+    private static byte[] write(SerializerFactory factory, Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Hessian2Output out = new Hessian2Output(bytes);
+        out.setSerializerFactory(factory);
+        out.writeObject(value);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Object read(SerializerFactory factory, byte[] bytes) throws IOException {
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(bytes));
+        in.setSerializerFactory(factory);
+        Object value = in.readObject();
+        in.close();
+        return value;
+    }
+
+    private static LazySet<Object> newSet(int size) {
+        LazySet<Object> set = new LazySet<Object>();
+        for (int i = 0; i < size; i++) {
+            set.add("value-" + i);
+        }
+        return set;
+    }
+
+    private static Attribute newAttribute(int size) {
+        Attribute attribute = new Attribute("urn:example:attribute", Attribute.DT_STRING, "urn:example:issuer");
+        for (int i = 0; i < size; i++) {
+            attribute.getValues().add("value-" + i);
+        }
+        return attribute;
+    }
+}
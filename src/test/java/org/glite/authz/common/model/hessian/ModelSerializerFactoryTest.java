@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.common.model.hessian;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.AttributeAssignment;
+import org.glite.authz.common.model.Environment;
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Resource;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.common.model.Status;
+import org.glite.authz.common.model.StatusCode;
+import org.glite.authz.common.model.Subject;
+import org.glite.authz.common.model.util.LazyList;
+import org.glite.authz.common.model.util.LazySet;
+
+import com.caucho.hessian.io.AbstractHessianOutput;
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.HessianFieldFilter;
+import com.caucho.hessian.io.HessianInput;
+import com.caucho.hessian.io.HessianOutput;
+import com.caucho.hessian.io.HessianProtocolException;
+import com.caucho.hessian.io.SerializerFactory;
+
+/**
+ * The class <code>ModelSerializerFactoryTest</code> checks that the hand-written model serializers produce the same
+ * wire format as the reflective Hessian serializers.
+ */
+public class ModelSerializerFactoryTest extends TestCase {
+
+    private SerializerFactory reflectiveFactory_;
+
+    private SerializerFactory modelFactory_;
+
+    private Response response_;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+        reflectiveFactory_= new SerializerFactory();
+        modelFactory_= new SerializerFactory();
+        modelFactory_.addFactory(new ModelSerializerFactory());
+        response_= newResponse();
+    }
+
+    public void testHessian2WireFormatUnchanged() throws Exception {
+        byte[] expected= writeHessian2(reflectiveFactory_, response_);
+        byte[] actual= writeHessian2(modelFactory_, response_);
+        assertTrue(Arrays.equals(expected, actual));
+    }
+
+    public void testHessian1WireFormatUnchanged() throws Exception {
+        byte[] expected= writeHessian1(reflectiveFactory_, response_);
+        byte[] actual= writeHessian1(modelFactory_, response_);
+        assertTrue(Arrays.equals(expected, actual));
+    }
+
+    public void testHessian2RoundTrip() throws Exception {
+        byte[] bytes= writeHessian2(reflectiveFactory_, response_);
+        Hessian2Input in= new Hessian2Input(new ByteArrayInputStream(bytes));
+        in.setSerializerFactory(modelFactory_);
+        Response copy= (Response) in.readObject();
+        assertEquals(response_.getRequest(), copy.getRequest());
+        assertEquals(response_.toString(), copy.toString());
+        assertTrue(Arrays.equals(bytes, writeHessian2(reflectiveFactory_, copy)));
+    }
+
+    public void testHessian1RoundTrip() throws Exception {
+        byte[] bytes= writeHessian1(reflectiveFactory_, response_);
+        HessianInput in= new HessianInput(new ByteArrayInputStream(bytes));
+        in.setSerializerFactory(modelFactory_);
+        Response copy= (Response) in.readObject();
+        assertEquals(response_.getRequest(), copy.getRequest());
+        assertEquals(response_.toString(), copy.toString());
+    }
+
+    public void testReflectiveDecodeOfModelEncoding() throws Exception {
+        byte[] bytes= writeHessian2(modelFactory_, response_);
+        Hessian2Input in= new Hessian2Input(new ByteArrayInputStream(bytes));
+        in.setSerializerFactory(reflectiveFactory_);
+        Response copy= (Response) in.readObject();
+        assertEquals(response_.toString(), copy.toString());
+    }
+
+    public void testSharedSerializerFactory() throws Exception {
+        SerializerFactory sharedFactory= ModelSerializerFactory.getSharedSerializerFactory();
+        assertSame(sharedFactory, ModelSerializerFactory.getSharedSerializerFactory());
+        assertTrue(sharedFactory.isFrozen());
+        try {
+            sharedFactory.addFactory(new ModelSerializerFactory());
+            fail("frozen factory accepted a new factory");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        byte[] bytes= writeHessian2(sharedFactory, response_);
+        assertTrue(Arrays.equals(writeHessian2(modelFactory_, response_), bytes));
+        Hessian2Input in= new Hessian2Input(new ByteArrayInputStream(bytes));
+        in.setSerializerFactory(sharedFactory);
+        Response copy= (Response) in.readObject();
+        assertEquals(response_.toString(), copy.toString());
+    }
+
+    public void testDictionary() throws Exception {
+        ModelDictionary dictionary= ModelDictionary.negotiate(ModelDictionary.VERSION + 1);
+        assertEquals(ModelDictionary.VERSION, dictionary.getVersion());
+        assertNull(ModelDictionary.negotiate(0));
+        for (int i= 0; i < dictionary.size(); i++) {
+            assertEquals(i, dictionary.getCode(dictionary.getString(i)));
+        }
+
+        SerializerFactory dictionaryFactory= new SerializerFactory();
+        dictionaryFactory.addFactory(new ModelSerializerFactory(dictionary));
+
+        byte[] plain= writeHessian2(modelFactory_, response_);
+        byte[] encoded= writeHessian2(dictionaryFactory, response_);
+        assertTrue(encoded.length < plain.length);
+        assertEquals(response_.toString(), readHessian2(encoded).toString());
+
+        HessianInput in= new HessianInput(new ByteArrayInputStream(writeHessian1(dictionaryFactory, response_)));
+        in.setSerializerFactory(modelFactory_);
+        assertEquals(response_.toString(), in.readObject().toString());
+
+        // a reader without the dictionary must not mistake a code for a string
+        Hessian2Input reflectiveIn= new Hessian2Input(new ByteArrayInputStream(encoded));
+        reflectiveIn.setSerializerFactory(reflectiveFactory_);
+        try {
+            reflectiveIn.readObject();
+            fail("decoded dictionary codes without the dictionary");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testFieldFilter() throws Exception {
+        SerializerFactory dictionaryFactory= new SerializerFactory();
+        dictionaryFactory.addFactory(new ModelSerializerFactory(ModelDictionary.negotiate(ModelDictionary.VERSION)));
+        Result result= response_.getResults().get(0);
+        List<Object> values= new ArrayList<Object>();
+        values.add(response_);
+        values.add(result);
+
+        Hessian2Input in= newFilteredInput(writeHessian2(dictionaryFactory, values));
+        List<?> list= (List<?>) in.readObject();
+        Response response= (Response) list.get(0);
+        assertNull(response.getRequest());
+        assertEquals(result.toString(), response.getResults().get(0).toString());
+        // references after the skipped request still resolve
+        assertSame(response.getResults().get(0), list.get(1));
+
+        values.set(1, response_.getRequest());
+        in= newFilteredInput(writeHessian2(modelFactory_, values));
+        try {
+            in.readObject();
+            fail("resolved a reference to a skipped value");
+        } catch (HessianProtocolException e) {
+            // expected
+        }
+    }
+
+    public void testReflectiveFieldFilter() throws Exception {
+        List<Object> values= new ArrayList<Object>();
+        values.add(response_);
+        values.add(newResponse());
+
+        Hessian2Input in= newFilteredInput(writeHessian2(reflectiveFactory_, values));
+        in.setSerializerFactory(reflectiveFactory_);
+        List<?> list= (List<?>) in.readObject();
+        for (Object value : list) {
+            Response response= (Response) value;
+            assertNull(response.getRequest());
+            assertEquals(response_.getResults().toString(), response.getResults().toString());
+        }
+    }
+
+    public void testLazyCollections() throws Exception {
+        for (int size : new int[] { 0, 1, 2, 10, 100 }) {
+            Attribute attribute= new Attribute("x-urn:test:attribute");
+            LazyList<Object> list= new LazyList<Object>();
+            LazySet<Object> set= new LazySet<Object>();
+            for (int i= 0; i < size; i++) {
+                attribute.getValues().add("value-" + i);
+                list.add(Integer.valueOf(i));
+                set.add(Integer.valueOf(i));
+            }
+
+            assertEquals(attribute, readHessian2(writeHessian2(modelFactory_, attribute)));
+            assertEquals(list, readHessian2(writeHessian2(modelFactory_, list)));
+            assertEquals(set, readHessian2(writeHessian2(modelFactory_, set)));
+        }
+    }
+
+    public void testHostileListLength() throws Exception {
+        for (Class<?> type : new Class<?>[] { LazyList.class, LazySet.class }) {
+            // a list claiming nearly 2^31 elements, followed by none
+            ByteArrayOutputStream bos= new ByteArrayOutputStream();
+            Hessian2Output out= new Hessian2Output(bos);
+            out.writeListBegin(0x7ffffff7, type.getName());
+            out.flush();
+
+            try {
+                readHessian2(bos.toByteArray());
+                fail("read a list without elements");
+            } catch (IOException e) {
+                // end of the stream, not an OutOfMemoryError
+            }
+
+            // a large list still reads past the size built up front
+            Collection<Object> collection= LazyList.class.equals(type) ? new LazyList<Object>()
+                    : new LazySet<Object>();
+            for (int i= 0; i < 1000; i++) {
+                collection.add(Integer.valueOf(i));
+            }
+            assertEquals(collection, readHessian2(writeHessian2(modelFactory_, collection)));
+        }
+    }
+
+    private Object readHessian2(byte[] bytes) throws IOException {
+        Hessian2Input in= new Hessian2Input(new ByteArrayInputStream(bytes));
+        in.setSerializerFactory(modelFactory_);
+        return in.readObject();
+    }
+
+    private Hessian2Input newFilteredInput(byte[] bytes) {
+        Hessian2Input in= new Hessian2Input(new ByteArrayInputStream(bytes));
+        in.setSerializerFactory(modelFactory_);
+        in.setFieldFilter(new HessianFieldFilter() {
+            public boolean isReadField(String type, String field) {
+                return !"request".equals(field);
+            }
+        });
+        return in;
+    }
+
+    private byte[] writeHessian2(SerializerFactory factory, Object object) throws IOException {
+        ByteArrayOutputStream bos= new ByteArrayOutputStream();
+        Hessian2Output out= new Hessian2Output(bos);
+        write(out, factory, object);
+        return bos.toByteArray();
+    }
+
+    private byte[] writeHessian1(SerializerFactory factory, Object object) throws IOException {
+        ByteArrayOutputStream bos= new ByteArrayOutputStream();
+        HessianOutput out= new HessianOutput(bos);
+        write(out, factory, object);
+        return bos.toByteArray();
+    }
+
+    private void write(AbstractHessianOutput out, SerializerFactory factory, Object object) throws IOException {
+        out.setSerializerFactory(factory);
+        out.writeObject(object);
+        out.flush();
+    }
+
+    static Attribute newAttribute(String id, String... values) {
+        Attribute attribute= new Attribute(id, Attribute.DT_STRING, "issuer");
+        attribute.getValues().addAll(Arrays.asList(values));
+        return attribute;
+    }
+
+    static Request newRequest() {
+        Request request= new Request();
+
+        Subject subject= new Subject();
+        subject.setCategory(Attribute.ID_SUB_CAT_ACCESS_SUBJECT);
+        subject.getAttributes().add(newAttribute(Attribute.ID_SUB_ID, "CN=John Doe,O=Example"));
+        subject.getAttributes().add(newAttribute("http://glite.org/xacml/attribute/fqan", "/vo/group", "/vo"));
+        request.getSubjects().add(subject);
+
+        Resource resource= new Resource();
+        resource.setResourceContent("content");
+        resource.getAttributes().add(newAttribute(Attribute.ID_RES_ID, "x-urn:test:resource"));
+        request.getResources().add(resource);
+
+        Action action= new Action();
+        action.getAttributes().add(newAttribute(Attribute.ID_ACT_ID, "x-urn:test:action"));
+        request.setAction(action);
+
+        Environment environment= new Environment();
+        environment.getAttributes().add(newAttribute("x-urn:test:environment", "1", "2", "3", "4", "5", "6", "7",
+                "8", "9"));
+        request.setEnvironment(environment);
+
+        return request;
+    }
+
+    static Response newResponse() {
+        Response response= new Response();
+        response.setRequest(newRequest());
+
+        StatusCode subCode= new StatusCode();
+        subCode.setCode("x-urn:test:status:sub");
+        StatusCode code= new StatusCode();
+        code.setCode("urn:oasis:names:tc:xacml:1.0:status:ok");
+        code.setSubCode(subCode);
+        Status status= new Status();
+        status.setMessage("ok");
+        status.setCode(code);
+
+        AttributeAssignment assignment= new AttributeAssignment();
+        assignment.setAttributeId("http://glite.org/xacml/attribute/user-id");
+        assignment.setDataType(Attribute.DT_STRING);
+        assignment.setValue("user001");
+        Obligation obligation= new Obligation();
+        obligation.setId("http://glite.org/xacml/obligation/local-environment-map");
+        obligation.setFulfillOn(Result.DECISION_PERMIT);
+        obligation.getAttributeAssignments().add(assignment);
+
+        Result result= new Result();
+        result.setDecision(Result.DECISION_PERMIT);
+        result.setResourceId("x-urn:test:resource");
+        result.setStatus(status);
+        result.getObligations().add(obligation);
+        response.getResults().add(result);
+
+        return response;
+    }
+}
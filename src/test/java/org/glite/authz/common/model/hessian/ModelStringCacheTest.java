@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.common.model.hessian;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.Response;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.HessianStringCache;
+import com.caucho.hessian.io.SerializerFactory;
+
+/**
+ * The class <code>ModelStringCacheTest</code> checks that model messages decoded with a seeded string cache share
+ * the string instances.
+ */
+public class ModelStringCacheTest extends TestCase {
+
+    public void testStringCache() throws Exception {
+        SerializerFactory modelFactory= new SerializerFactory();
+        modelFactory.addFactory(new ModelSerializerFactory());
+        Response response= ModelSerializerFactoryTest.newResponse();
+
+        ByteArrayOutputStream bos= new ByteArrayOutputStream();
+        Hessian2Output out= new Hessian2Output(bos);
+        out.setSerializerFactory(modelFactory);
+        out.writeObject(response);
+        out.flush();
+
+        HessianStringCache cache= ModelStringCache.newStringCache();
+        Response first= read(bos.toByteArray(), modelFactory, cache);
+        Response second= read(bos.toByteArray(), modelFactory, cache);
+        assertEquals(response.toString(), first.toString());
+
+        Attribute attribute= first.getRequest().getSubjects().iterator().next().getAttributes().iterator().next();
+        Attribute other= second.getRequest().getSubjects().iterator().next().getAttributes().iterator().next();
+        assertSame(Attribute.DT_STRING, attribute.getDataType());
+        assertSame(Attribute.DT_STRING, other.getDataType());
+        assertSame(attribute.getIssuer(), other.getIssuer());
+    }
+
+    private Response read(byte[] bytes, SerializerFactory factory, HessianStringCache cache) throws Exception {
+        Hessian2Input in= new Hessian2Input(new ByteArrayInputStream(bytes));
+        in.setSerializerFactory(factory);
+        in.setStringCache(cache);
+        return (Response) in.readObject();
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.glite.authz.common.model.util;
 
+import java.util.Arrays;
 import java.util.List;
 
 import junit.framework.TestCase;
@@ -60,5 +61,19 @@ public class LazyListTest extends TestCase {
         List<String> list= new LazyList<String>();
         assertTrue(list.isEmpty());
     }
+
+    public void testExpectedSize() {
+        List<String> list= new LazyList<String>(4);
+        assertTrue(list.isEmpty());
+        list.add("a");
+        list.add("b");
+        list.addAll(Arrays.asList("c", "d"));
+        assertEquals(Arrays.asList("a", "b", "c", "d"), list);
+
+        List<String> single= new LazyList<String>();
+        assertFalse(single.addAll(Arrays.<String> asList()));
+        single.addAll(Arrays.asList("a"));
+        assertEquals(Arrays.asList("a"), single);
+    }
 }
 